@@ -94,6 +94,8 @@ import io.onedev.server.util.concurrent.BatchWorkManager;
 import io.onedev.server.util.concurrent.DefaultBatchWorkManager;
 import io.onedev.server.util.concurrent.DefaultWorkExecutor;
 import io.onedev.server.util.concurrent.WorkExecutor;
+import io.onedev.server.util.lucene.DefaultLuceneIndexManager;
+import io.onedev.server.util.lucene.LuceneIndexManager;
 import io.onedev.server.util.jackson.ObjectMapperConfigurator;
 import io.onedev.server.util.jackson.ObjectMapperProvider;
 import io.onedev.server.util.jackson.git.GitObjectMapperConfigurator;
@@ -215,6 +217,10 @@ public class CoreModule extends AbstractPluginModule {
 		bind(UserInvitationManager.class).to(DefaultUserInvitationManager.class);
 		bind(PullRequestReviewManager.class).to(DefaultPullRequestReviewManager.class);
 		bind(BuildManager.class).to(DefaultBuildManager.class);
+		bind(ArtifactStoreManager.class).to(DefaultArtifactStoreManager.class);
+		bind(UploadPackCacheManager.class).to(DefaultUploadPackCacheManager.class);
+		bind(GitRoutingManager.class).to(DefaultGitRoutingManager.class);
+		bind(GitMaintenanceManager.class).to(DefaultGitMaintenanceManager.class);
 		bind(BuildDependenceManager.class).to(DefaultBuildDependenceManager.class);
 		bind(JobManager.class).to(DefaultJobManager.class);
 		bind(LogManager.class).to(DefaultLogManager.class);
@@ -231,6 +237,7 @@ public class CoreModule extends AbstractPluginModule {
 		bind(VisitInfoManager.class).to(DefaultVisitInfoManager.class);
 		bind(BatchWorkManager.class).to(DefaultBatchWorkManager.class);
 		bind(WorkExecutor.class).to(DefaultWorkExecutor.class);
+		bind(LuceneIndexManager.class).to(DefaultLuceneIndexManager.class);
 		bind(GroupManager.class).to(DefaultGroupManager.class);
 		bind(IssueMentionManager.class).to(DefaultIssueMentionManager.class);
 		bind(PullRequestMentionManager.class).to(DefaultPullRequestMentionManager.class);
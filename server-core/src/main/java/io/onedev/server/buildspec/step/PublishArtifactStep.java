@@ -10,6 +10,7 @@ import io.onedev.server.annotation.Interpolative;
 import io.onedev.server.annotation.Patterns;
 import io.onedev.server.annotation.SafePath;
 import io.onedev.server.buildspec.BuildSpec;
+import io.onedev.server.manager.ArtifactStoreManager;
 import io.onedev.server.manager.ProjectManager;
 import io.onedev.server.model.Build;
 import io.onedev.server.StorageManager;
@@ -17,6 +18,7 @@ import io.onedev.server.util.patternset.PatternSet;
 
 import javax.validation.constraints.NotEmpty;
 import java.io.File;
+import java.nio.file.Files;
 import java.util.List;
 import java.util.Map;
 
@@ -71,7 +73,13 @@ public class PublishArtifactStep extends ServerSideStep {
 		LockUtils.write(build.getArtifactsLockName(), () -> {
 			var projectId = build.getProject().getId();
 			var artifactsDir = OneDev.getInstance(StorageManager.class).initArtifactsDir(projectId, build.getNumber());
+			var artifactStoreManager = OneDev.getInstance(ArtifactStoreManager.class);
+			try (var stream = Files.walk(inputDir.toPath())) {
+				stream.filter(Files::isRegularFile).forEach(it -> artifactStoreManager.detach(
+						new File(artifactsDir, inputDir.toPath().relativize(it).toString())));
+			}
 			FileUtils.copyDirectory(inputDir, artifactsDir);
+			artifactStoreManager.deduplicate(projectId, build.getNumber());
 			OneDev.getInstance(ProjectManager.class).directoryModified(projectId, artifactsDir);
 			return null;
 		});
@@ -342,6 +342,9 @@ public class PullRepository extends SyncRepository {
 					}
 					getProjectManager().writeLfsSinceCommits(projectId, newCommitIds.values());
 				}
+				
+				if (!oldCommitIds.equals(newCommitIds))
+					getProjectManager().directoryModified(projectId, getProjectManager().getGitDir(projectId));
 
 				OneDev.getInstance(SessionManager.class).runAsync(() -> {
 					try {
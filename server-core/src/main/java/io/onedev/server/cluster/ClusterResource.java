@@ -1,10 +1,13 @@
 package io.onedev.server.cluster;
 
+import com.google.common.base.Splitter;
 import com.google.common.collect.Sets;
 import io.onedev.commons.utils.FileUtils;
 import io.onedev.server.OneDev;
 import io.onedev.server.attachment.AttachmentManager;
+import io.onedev.server.manager.ArtifactStoreManager;
 import io.onedev.server.manager.ProjectManager;
+import io.onedev.server.manager.UploadPackCacheManager;
 import io.onedev.server.git.CommandUtils;
 import io.onedev.server.git.GitFilter;
 import io.onedev.server.git.GitUtils;
@@ -19,6 +22,11 @@ import io.onedev.server.model.Project;
 import io.onedev.server.rest.annotation.Api;
 import io.onedev.server.security.SecurityUtils;
 import io.onedev.server.StorageManager;
+import io.onedev.server.util.LongRange;
+import io.onedev.server.util.Pair;
+import io.onedev.server.util.artifact.FileInfo;
+import io.onedev.server.util.artifact.ResumableUpload;
+import io.onedev.server.util.artifact.UploadStatus;
 import io.onedev.server.util.concurrent.PrioritizedRunnable;
 import io.onedev.server.util.concurrent.WorkExecutor;
 import io.onedev.server.util.patternset.PatternSet;
@@ -34,6 +42,7 @@ import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.StreamingOutput;
 import java.io.*;
+import java.nio.file.Files;
 import java.util.Map;
 import java.util.concurrent.ExecutionException;
 
@@ -43,7 +52,20 @@ import static io.onedev.commons.utils.LockUtils.read;
 import static io.onedev.commons.utils.LockUtils.write;
 import static io.onedev.server.model.Build.getArtifactsLockName;
 import static io.onedev.server.model.Project.SHARE_TEST_DIR;
+import static io.onedev.server.util.ContentRangeUtils.*;
+import static io.onedev.server.util.IOUtils.copyRange;
+import static com.google.common.net.HttpHeaders.ACCEPT_RANGES;
+import static com.google.common.net.HttpHeaders.CONTENT_LENGTH;
+import static com.google.common.net.HttpHeaders.CONTENT_RANGE;
+import static com.google.common.net.HttpHeaders.ETAG;
+import static com.google.common.net.HttpHeaders.IF_RANGE;
+import static com.google.common.net.HttpHeaders.RANGE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static javax.ws.rs.core.Response.Status.BAD_REQUEST;
+import static javax.ws.rs.core.Response.Status.NOT_FOUND;
 import static javax.ws.rs.core.Response.Status.NO_CONTENT;
+import static javax.ws.rs.core.Response.Status.PARTIAL_CONTENT;
+import static javax.ws.rs.core.Response.Status.REQUESTED_RANGE_NOT_SATISFIABLE;
 import static javax.ws.rs.core.Response.ok;
 import static javax.ws.rs.core.Response.status;
 
@@ -65,38 +87,50 @@ public class ClusterResource {
 	
 	private final WorkExecutor workExecutor;
 	
+	private final ArtifactStoreManager artifactStoreManager;
+	
+	private final UploadPackCacheManager uploadPackCacheManager;
+	
 	@Inject
 	public ClusterResource(ProjectManager projectManager, CommitInfoManager commitInfoManager, 
 						   AttachmentManager attachmentManager, VisitInfoManager visitInfoManager, 
-						   WorkExecutor workExecutor, StorageManager storageManager) {
+						   WorkExecutor workExecutor, StorageManager storageManager, 
+						   ArtifactStoreManager artifactStoreManager, 
+						   UploadPackCacheManager uploadPackCacheManager) {
 		this.commitInfoManager = commitInfoManager;
 		this.projectManager = projectManager;
 		this.workExecutor = workExecutor;
 		this.attachmentManager = attachmentManager;
 		this.visitInfoManager = visitInfoManager;
 		this.storageManager = storageManager;
+		this.artifactStoreManager = artifactStoreManager;
+		this.uploadPackCacheManager = uploadPackCacheManager;
 	}
 
 	@Path("/project-files")
+	@Consumes(MediaType.TEXT_PLAIN)
 	@Produces(MediaType.APPLICATION_OCTET_STREAM)
-	@GET
+	@POST
 	public Response downloadFiles(@QueryParam("projectId") Long projectId,
 								  @QueryParam("path") String path,
-								  @QueryParam("patterns") String patterns,
-								  @QueryParam("readLock") String readLock) {
+								  @QueryParam("readLock") String readLock, 
+								  String filePaths) {
 		if (!SecurityUtils.getUser().isSystem())
 			throw new UnauthorizedException("This api can only be accessed via cluster credential");
 
+		File directory = new File(projectManager.getStorageDir(projectId), path);
+		var paths = Splitter.on('\n').omitEmptyStrings().splitToList(filePaths);
+		for (var each: paths) {
+			if (!DirectoryManifest.isInside(directory, each))
+				throw new BadRequestException("Invalid file path: " + each);
+		}
 		StreamingOutput os = output -> read(readLock, () -> {
-			File directory = new File(projectManager.getStorageDir(projectId), path);
-			PatternSet patternSet = PatternSet.parse(patterns);
-			patternSet.getExcludes().add(SHARE_TEST_DIR + "/**");
-			tar(directory, patternSet.getIncludes(), patternSet.getExcludes(), output, false);
+			DirectoryManifest.tar(directory, paths, output);
 			return null;
 		});
 		return ok(os).build();
 	}
-
+	
 	@Path("/assets")
 	@Produces(MediaType.APPLICATION_OCTET_STREAM)
 	@GET
@@ -155,19 +189,55 @@ public class ClusterResource {
 	@GET
 	public Response downloadArtifact(@QueryParam("projectId") Long projectId,
 									  @QueryParam("buildNumber") Long buildNumber,
-									  @QueryParam("artifactPath") String artifactPath) {
+									  @QueryParam("artifactPath") String artifactPath, 
+									  @HeaderParam(RANGE) String range, 
+									  @HeaderParam(IF_RANGE) String ifRange) {
 		if (!SecurityUtils.getUser().isSystem())
 			throw new UnauthorizedException("This api can only be accessed via cluster credential");
 
-		StreamingOutput os = output -> read(getArtifactsLockName(projectId, buildNumber), () -> {
-			File artifactsDir = Build.getArtifactsDir(projectId, buildNumber);
-			File artifactFile = new File(artifactsDir, artifactPath);
+		File artifactFile = new File(Build.getArtifactsDir(projectId, buildNumber), artifactPath);
+		var lockName = getArtifactsLockName(projectId, buildNumber);
+		var fileInfoAndETag = read(lockName, () -> {
+			if (artifactFile.isFile()) {
+				var fileInfo = new FileInfo(artifactPath, artifactFile.lastModified(), artifactFile.length(), null);
+				var etag = artifactStoreManager.getETag(projectId, buildNumber, artifactPath, 
+						fileInfo.getLength(), fileInfo.getLastModified());
+				return new Pair<>(fileInfo, etag);
+			} else { 
+				return null;
+			}
+		});
+		if (fileInfoAndETag == null)
+			return status(NOT_FOUND).build();
+		
+		long length = fileInfoAndETag.getLeft().getLength();
+		String etag = fileInfoAndETag.getRight();
+		LongRange contentRange = parseRange(range, ifRange, etag, length);
+		if (contentRange != null && contentRange.getStart() > contentRange.getEnd()) {
+			return status(REQUESTED_RANGE_NOT_SATISFIABLE)
+					.header(CONTENT_RANGE, formatUnsatisfiedRange(length))
+					.build();
+		}
+		
+		StreamingOutput os = output -> read(lockName, () -> {
 			try (output; InputStream is = new FileInputStream(artifactFile)) {
-				IOUtils.copy(is, output, BUFFER_SIZE);
+				if (contentRange != null)
+					copyRange(is, output, contentRange);
+				else 
+					IOUtils.copy(is, output, BUFFER_SIZE);
 			}
 			return null;
 		});
-		return ok(os).build();
+		
+		Response.ResponseBuilder builder;
+		if (contentRange != null) {
+			builder = status(PARTIAL_CONTENT).entity(os)
+					.header(CONTENT_RANGE, formatContentRange(contentRange, length))
+					.header(CONTENT_LENGTH, contentRange.getEnd() - contentRange.getStart() + 1);
+		} else {
+			builder = ok(os).header(CONTENT_LENGTH, length);
+		}
+		return builder.header(ACCEPT_RANGES, "bytes").header(ETAG, etag).build();
 	}
 	
 	@Path("/blob")
@@ -237,14 +307,7 @@ public class ClusterResource {
 			try {
 				File gitDir = projectManager.getGitDir(projectId);
 				if (upload) {
-					workExecutor.submit(new PrioritizedRunnable(GitFilter.PRIORITY) {
-						
-						@Override
-						public void run() {
-							CommandUtils.uploadPack(gitDir, hookEnvs, protocol, is, output);
-						}
-						
-					}).get();
+					uploadPackCacheManager.uploadPack(projectId, hookEnvs, protocol, is, output, false);
 				} else {
 					workExecutor.submit(new PrioritizedRunnable(GitFilter.PRIORITY) {
 						
@@ -373,16 +436,65 @@ public class ClusterResource {
 			var artifactsDir = storageManager.initArtifactsDir(projectId, buildNumber);
 			File artifactFile = new File(artifactsDir, artifactPath);
 			FileUtils.createDir(artifactFile.getParentFile());
+			artifactStoreManager.detach(artifactFile);
 			try (input; OutputStream os = new FileOutputStream(artifactFile)) {
 				IOUtils.copy(input, os, BUFFER_SIZE);
 			} catch (IOException e) {
 				throw new RuntimeException(e);
 			}
+			artifactStoreManager.deduplicate(projectId, buildNumber);
 			projectManager.directoryModified(projectId, artifactsDir);
 			return null;
 		});
 		
 		return ok().build();
 	}
+
+	@Path("/artifact")
+	@Consumes(MediaType.APPLICATION_OCTET_STREAM)
+	@Produces(MediaType.APPLICATION_JSON)
+	@PUT
+	public Response uploadArtifactChunk(InputStream input, @QueryParam("projectId") Long projectId,
+			@QueryParam("buildNumber") Long buildNumber, @QueryParam("artifactPath") String artifactPath, 
+			@HeaderParam(CONTENT_RANGE) String contentRange) {
+		if (!SecurityUtils.getUser().isSystem())
+			throw new UnauthorizedException("This api can only be accessed via cluster credential");
+
+		if (contentRange == null)
+			return status(BAD_REQUEST).entity("Missing header: " + CONTENT_RANGE).build();
+		Pair<LongRange, Long> rangeAndTotal;
+		try {
+			rangeAndTotal = parseContentRange(contentRange);
+		} catch (IllegalArgumentException e) {
+			return status(BAD_REQUEST).entity(e.getMessage()).build();
+		}
+		var upload = new ResumableUpload(Build.getArtifactUploadDir(projectId, buildNumber, artifactPath));
+		UploadStatus status;
+		try (input) {
+			status = upload.receive(rangeAndTotal.getLeft(), rangeAndTotal.getRight(), input);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		if (status.isCompleted()) {
+			write(getArtifactsLockName(projectId, buildNumber), () -> {
+				// Completed concurrently by another chunk
+				if (!upload.getDataFile().exists())
+					return null;
+				var artifactsDir = storageManager.initArtifactsDir(projectId, buildNumber);
+				File artifactFile = new File(artifactsDir, artifactPath);
+				FileUtils.createDir(artifactFile.getParentFile());
+				try {
+					Files.move(upload.getDataFile().toPath(), artifactFile.toPath(), REPLACE_EXISTING);
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				}
+				upload.delete();
+				artifactStoreManager.deduplicate(projectId, buildNumber);
+				projectManager.directoryModified(projectId, artifactsDir);
+				return null;
+			});
+		}
+		return ok(status).build();
+	}
 	
 }
@@ -0,0 +1,244 @@
+package io.onedev.server.cluster;
+
+import io.onedev.commons.utils.FileUtils;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.utils.IOUtils;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Stream;
+
+import static io.onedev.commons.bootstrap.Bootstrap.BUFFER_SIZE;
+import static io.onedev.server.model.Project.SHARE_TEST_DIR;
+import static io.onedev.server.util.DirectoryVersionUtils.FILE_VERSION;
+
+/**
+ * Files of a directory with their lengths and modification times, exchanged between
+ * servers to synchronize only changed files of the directory
+ */
+public class DirectoryManifest implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	// Some file systems only keep modification time in seconds
+	private static final long MODIFICATION_TIME_GRANULARITY = 1000L;
+
+	private final Map<String, Entry> entries;
+
+	private final long timestamp;
+
+	private DirectoryManifest(Map<String, Entry> entries, long timestamp) {
+		this.entries = entries;
+		this.timestamp = timestamp;
+	}
+
+	/**
+	 * @return map of file path relative to the directory to file entry
+	 */
+	public Map<String, Entry> getEntries() {
+		return entries;
+	}
+
+	/**
+	 * @return time when this manifest is built, on clock of the server owning the directory
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	/**
+	 * Check whether specified entry of this manifest is modified too close to building of
+	 * the manifest. Such file may be modified again later without changing its length and
+	 * modification time, and can only be verified by content hash
+	 */
+	public boolean isRacy(Entry entry) {
+		return entry.getLastModified() >= timestamp - MODIFICATION_TIME_GRANULARITY;
+	}
+
+	/**
+	 * Build manifest of specified directory. Directory version file and share test files
+	 * are excluded. The directory itself may be a symbolic link, for instance artifacts
+	 * directory relocated by storage manager
+	 */
+	public static DirectoryManifest of(File directory) {
+		Map<String, Entry> entries = new TreeMap<>();
+		long timestamp = System.currentTimeMillis();
+		if (directory.exists()) {
+			try {
+				// Files.walk does not follow symbolic link of the root
+				var basePath = directory.toPath().toRealPath();
+				try (Stream<Path> stream = Files.walk(basePath)) {
+					stream.filter(it -> Files.isRegularFile(it, LinkOption.NOFOLLOW_LINKS)).forEach(it -> {
+						var path = basePath.relativize(it).toString().replace('\\', '/');
+						if (!path.equals(FILE_VERSION) && !path.startsWith(SHARE_TEST_DIR + "/")) {
+							var file = it.toFile();
+							entries.put(path, new Entry(file.length(), file.lastModified()));
+						}
+					});
+				}
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+		return new DirectoryManifest(entries, timestamp);
+	}
+
+	/**
+	 * Check whether specified relative path resolves to a location inside specified directory
+	 */
+	public static boolean isInside(File directory, String path) {
+		return getCanonicalPath(new File(directory, path)).startsWith(getCanonicalPath(directory) + File.separator);
+	}
+
+	/**
+	 * Check whether specified file has other hard links. Modification time of such file is 
+	 * shared with other links and should not be changed
+	 */
+	public static boolean isHardLinked(File file) {
+		try {
+			var path = file.toPath();
+			return Files.getFileStore(path).supportsFileAttributeView("unix")
+					&& (Integer) Files.getAttribute(path, "unix:nlink") > 1;
+		} catch (NoSuchFileException e) {
+			return false;
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Calculate content hashes of specified files
+	 *
+	 * @return map of file path to content hash. Files not existing are not included
+	 */
+	public static Map<String, String> hash(File directory, Collection<String> paths) {
+		Map<String, String> hashes = new HashMap<>();
+		for (var path: paths) {
+			var file = new File(directory, path);
+			if (file.isFile() && isInside(directory, path)) {
+				try (InputStream is = new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE)) {
+					hashes.put(path, DigestUtils.sha256Hex(is));
+				} catch (FileNotFoundException e) {
+					// Deleted concurrently
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				}
+			}
+		}
+		return hashes;
+	}
+
+	/**
+	 * Write specified files into a tar stream, preserving their modification times. Files
+	 * not existing are skipped
+	 */
+	public static void tar(File directory, Collection<String> paths, OutputStream os) {
+		try (TarArchiveOutputStream tos = new TarArchiveOutputStream(new BufferedOutputStream(os, BUFFER_SIZE))) {
+			tos.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+			tos.setBigNumberMode(TarArchiveOutputStream.BIGNUMBER_POSIX);
+			for (var path: paths) {
+				var file = new File(directory, path);
+				if (!file.isFile())
+					continue;
+				try (InputStream is = new FileInputStream(file)) {
+					var entry = new TarArchiveEntry(file, path);
+					tos.putArchiveEntry(entry);
+					IOUtils.copy(is, tos, BUFFER_SIZE);
+					tos.closeArchiveEntry();
+				} catch (FileNotFoundException e) {
+					// Deleted concurrently
+				}
+			}
+			tos.finish();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Extract files from a tar stream written by {@link #tar(File, Collection, OutputStream)},
+	 * replacing existing files and restoring their modification times. Existing files are
+	 * deleted before extracting, so that other links to them are not affected
+	 *
+	 * @return transfer statistics. Extracted paths are recorded in it
+	 */
+	public static TransferStats untar(InputStream is, File directory) {
+		var stats = new TransferStats();
+		var canonicalDir = getCanonicalPath(directory);
+		try (TarArchiveInputStream tis = new TarArchiveInputStream(new BufferedInputStream(is, BUFFER_SIZE))) {
+			TarArchiveEntry entry;
+			while ((entry = tis.getNextTarEntry()) != null) {
+				if (!entry.isFile())
+					continue;
+				var file = new File(directory, entry.getName());
+				if (!getCanonicalPath(file).startsWith(canonicalDir + File.separator))
+					throw new IllegalStateException("Invalid tar entry: " + entry.getName());
+				FileUtils.createDir(file.getParentFile());
+				Files.deleteIfExists(file.toPath());
+				try (OutputStream os = new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE)) {
+					stats.bytes += IOUtils.copy(tis, os, BUFFER_SIZE);
+				}
+				file.setLastModified(entry.getModTime().getTime());
+				stats.paths.add(entry.getName());
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		return stats;
+	}
+
+	private static String getCanonicalPath(File file) {
+		try {
+			return file.getCanonicalPath();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	public static class Entry implements Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		private final long length;
+
+		private final long lastModified;
+
+		public Entry(long length, long lastModified) {
+			this.length = length;
+			this.lastModified = lastModified;
+		}
+
+		public long getLength() {
+			return length;
+		}
+
+		public long getLastModified() {
+			return lastModified;
+		}
+
+	}
+
+	public static class TransferStats {
+
+		private final Set<String> paths = new HashSet<>();
+
+		private long bytes;
+
+		public Set<String> getPaths() {
+			return paths;
+		}
+
+		public long getBytes() {
+			return bytes;
+		}
+
+	}
+
+}
@@ -5829,5 +5829,34 @@ public class DataMigrator {
 			}
 		}
 	}
+
+	private void migrate143(File dataDir, Stack<Integer> versions) {
+		for (File file: dataDir.listFiles()) {
+			if (file.getName().startsWith("Settings.xml")) {
+				VersionedXmlDoc dom = VersionedXmlDoc.fromFile(file);
+				for (Element element : dom.getRootElement().elements()) {
+					if (element.elementTextTrim("key").equals("PERFORMANCE")) {
+						Element valueElement = element.element("value");
+						if (valueElement != null) {
+							var cpuIntensiveTaskConcurrency = valueElement.elementTextTrim("cpuIntensiveTaskConcurrency");
+							// Same as default of performance setting in case concurrency was never saved
+							if (cpuIntensiveTaskConcurrency == null) {
+								int concurrency;
+								try {
+									HardwareAbstractionLayer hardware = new SystemInfo().getHardware();
+									concurrency = Math.max(1, hardware.getProcessor().getLogicalProcessorCount() / 2);
+								} catch (Exception e) {
+									concurrency = 2;
+								}
+								cpuIntensiveTaskConcurrency = String.valueOf(concurrency);
+							}
+							valueElement.addElement("codeIndexParallelism").setText(cpuIntensiveTaskConcurrency);
+						}
+					}
+				}
+				dom.writeToFile(file, false);
+			}
+		}
+	}
 	
 }
@@ -0,0 +1,214 @@
+package io.onedev.server.git;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+
+import io.onedev.server.git.service.AheadBehind;
+
+/**
+ * Calculates ahead/behind counts of many commits against a base commit with help of
+ * commit graph. Each commit visited carries a bitmap of tip commits reaching it, and commits
+ * are visited in descending order of generation number so that a commit is counted only after
+ * all its descendants in the walk propagated their bits. Walk stops as soon as all pending
+ * commits are reachable from all tips, so only commits in divergent ranges are visited.
+ * <p>
+ * Commits created after commit graph is written are resolved by parsing commit objects, and
+ * their generation numbers are computed from parents.
+ */
+public class AheadBehindWalk {
+
+	// Bit 63 is reserved for base commit
+	private static final int BATCH_SIZE = 63;
+
+	private static final long BASE_BIT = Long.MIN_VALUE;
+
+	private final Repository repository;
+
+	private final CommitGraph graph;
+
+	private final Map<ObjectId, Integer> extraPositions = new HashMap<>();
+
+	private final List<int[]> extraParents = new ArrayList<>();
+
+	private final List<Integer> extraGenerations = new ArrayList<>();
+
+	public AheadBehindWalk(Repository repository, CommitGraph graph) {
+		this.repository = repository;
+		this.graph = graph;
+	}
+
+	/**
+	 * @return
+	 * 			number of commits not contained in commit graph but encountered in calculations.
+	 * 			Commit graph should be rewritten if this gets large
+	 */
+	public int getOutOfGraphCount() {
+		return extraGenerations.size();
+	}
+
+	public Map<ObjectId, AheadBehind> calculate(ObjectId baseId, Collection<ObjectId> compareIds) {
+		List<ObjectId> distinctCompareIds = new ArrayList<>(new LinkedHashSet<>(compareIds));
+		int basePosition;
+		int[] comparePositions = new int[distinctCompareIds.size()];
+		try (RevWalk revWalk = new RevWalk(repository)) {
+			basePosition = resolve(revWalk, baseId);
+			for (int i = 0; i < comparePositions.length; i++)
+				comparePositions[i] = resolve(revWalk, distinctCompareIds.get(i));
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+
+		int[] aheads = new int[comparePositions.length];
+		int[] behinds = new int[comparePositions.length];
+		long[] flags = new long[graph.getCommitCount() + extraGenerations.size()];
+		boolean[] queued = new boolean[flags.length];
+		for (int from = 0; from < comparePositions.length; from += BATCH_SIZE) {
+			int to = Math.min(from + BATCH_SIZE, comparePositions.length);
+			walk(basePosition, comparePositions, from, to, flags, queued, aheads, behinds);
+			Arrays.fill(flags, 0);
+			Arrays.fill(queued, false);
+		}
+
+		Map<ObjectId, AheadBehind> aheadBehinds = new HashMap<>();
+		for (int i = 0; i < comparePositions.length; i++)
+			aheadBehinds.put(distinctCompareIds.get(i), new AheadBehind(aheads[i], behinds[i]));
+		return aheadBehinds;
+	}
+
+	private void walk(int basePosition, int[] comparePositions, int from, int to, long[] flags,
+			boolean[] queued, int[] aheads, int[] behinds) {
+		long compareMask = (1L << (to - from)) - 1;
+		long allBits = BASE_BIT | compareMask;
+
+		PriorityQueue<Integer> queue = new PriorityQueue<>(
+				(position1, position2) -> Integer.compare(getGeneration(position2), getGeneration(position1)));
+		flags[basePosition] |= BASE_BIT;
+		for (int i = from; i < to; i++)
+			flags[comparePositions[i]] |= 1L << (i - from);
+
+		int pendingCount = 0;
+		for (int position: new LinkedHashSet<>(toList(basePosition, comparePositions, from, to))) {
+			queued[position] = true;
+			queue.add(position);
+			if (flags[position] != allBits)
+				pendingCount++;
+		}
+
+		while (pendingCount != 0) {
+			int position = queue.remove();
+			long bits = flags[position];
+			if (bits != allBits) {
+				pendingCount--;
+				if ((bits & BASE_BIT) != 0) {
+					for (long missing = ~bits & compareMask; missing != 0; missing &= missing - 1)
+						behinds[from + Long.numberOfTrailingZeros(missing)]++;
+				} else {
+					for (long reaching = bits & compareMask; reaching != 0; reaching &= reaching - 1)
+						aheads[from + Long.numberOfTrailingZeros(reaching)]++;
+				}
+			}
+
+			/*
+			 * Commits reachable from all tips still need to propagate, as their ancestors may
+			 * also be reached by pending commits with partial bits
+			 */
+			for (int parent: getParents(position)) {
+				long parentBits = flags[parent];
+				long newParentBits = parentBits | bits;
+				flags[parent] = newParentBits;
+				if (!queued[parent]) {
+					queued[parent] = true;
+					queue.add(parent);
+					if (newParentBits != allBits)
+						pendingCount++;
+				} else if (parentBits != allBits && newParentBits == allBits) {
+					pendingCount--;
+				}
+			}
+		}
+	}
+
+	private List<Integer> toList(int basePosition, int[] comparePositions, int from, int to) {
+		List<Integer> positions = new ArrayList<>();
+		positions.add(basePosition);
+		for (int i = from; i < to; i++)
+			positions.add(comparePositions[i]);
+		return positions;
+	}
+
+	private int getGeneration(int position) {
+		if (position < graph.getCommitCount())
+			return graph.getGeneration(position);
+		else
+			return extraGenerations.get(position - graph.getCommitCount());
+	}
+
+	private int[] getParents(int position) {
+		if (position < graph.getCommitCount())
+			return graph.getParents(position);
+		else
+			return extraParents.get(position - graph.getCommitCount());
+	}
+
+	private int findPosition(AnyObjectId commitId) {
+		int position = graph.findPosition(commitId);
+		if (position == -1) {
+			Integer extraPosition = extraPositions.get(commitId);
+			if (extraPosition != null)
+				position = extraPosition;
+		}
+		return position;
+	}
+
+	private int resolve(RevWalk revWalk, ObjectId commitId) throws IOException {
+		int position = findPosition(commitId);
+		if (position != -1)
+			return position;
+
+		Deque<RevCommit> stack = new ArrayDeque<>();
+		stack.push(revWalk.parseCommit(commitId));
+		while (!stack.isEmpty()) {
+			RevCommit commit = stack.peek();
+			if (findPosition(commit) != -1) {
+				stack.pop();
+				continue;
+			}
+			int[] parents = new int[commit.getParentCount()];
+			boolean resolved = true;
+			for (int i = 0; i < parents.length; i++) {
+				RevCommit parent = commit.getParent(i);
+				parents[i] = findPosition(parent);
+				if (parents[i] == -1) {
+					resolved = false;
+					stack.push(revWalk.parseCommit(parent));
+				}
+			}
+			if (resolved) {
+				stack.pop();
+				int generation = 0;
+				for (int parent: parents)
+					generation = Math.max(generation, getGeneration(parent));
+				extraPositions.put(commit.copy(), graph.getCommitCount() + extraGenerations.size());
+				extraParents.add(parents);
+				extraGenerations.add(generation + 1);
+			}
+		}
+		return findPosition(commitId);
+	}
+
+}
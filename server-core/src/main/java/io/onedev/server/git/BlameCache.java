@@ -0,0 +1,339 @@
+package io.onedev.server.git;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import javax.annotation.Nullable;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.eclipse.jgit.diff.Edit;
+import org.eclipse.jgit.diff.EditList;
+import org.eclipse.jgit.diff.MyersDiff;
+import org.eclipse.jgit.diff.RawText;
+import org.eclipse.jgit.diff.RawTextComparator;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.onedev.commons.utils.FileUtils;
+import io.onedev.commons.utils.LinearRange;
+import io.onedev.server.git.command.BlameCommand;
+
+/**
+ * Persistent store of blame results keyed by commit, file and range. Blame of whole file at
+ * a commit is derived from stored blame of its first parent if possible: lines untouched by
+ * diff between the two revisions keep their blame, and touched lines are blamed to the commit
+ * itself. Native git blame is only called if no stored ancestor blame can be used.
+ * <p>
+ * Results are stored compactly in buckets under specified directory, and least recently used
+ * entries of a bucket are evicted when the bucket is full.
+ */
+public class BlameCache {
+
+	private static final Logger logger = LoggerFactory.getLogger(BlameCache.class);
+
+	private static final int FORMAT_VERSION = 1;
+
+	private static final int MAX_BUCKET_ENTRIES = 40;
+
+	// Maximum number of first parent commits to look back for stored blame
+	private static final int MAX_DERIVATION_DEPTH = 50;
+
+	private final File cacheDir;
+
+	private final File gitDir;
+
+	private final Repository repository;
+
+	public BlameCache(File cacheDir, File gitDir, Repository repository) {
+		this.cacheDir = cacheDir;
+		this.gitDir = gitDir;
+		this.repository = repository;
+	}
+
+	/**
+	 * Get blame of specified file at specified commit
+	 *
+	 * @param range
+	 * 			0-indexed and inclusive range of lines to blame, <tt>null</tt> to blame whole file
+	 */
+	public Collection<BlameBlock> blame(ObjectId commitId, String file, @Nullable LinearRange range) {
+		Collection<BlameBlock> blame = read(commitId, file, null);
+		if (blame == null) {
+			blame = derive(commitId, file);
+			if (blame == null && range == null)
+				blame = new BlameCommand(gitDir, commitId, file).run();
+			if (blame != null)
+				write(commitId, file, null, blame);
+		}
+
+		if (blame != null) {
+			return range != null? slice(blame, range): blame;
+		} else {
+			blame = read(commitId, file, range);
+			if (blame == null) {
+				blame = new BlameCommand(gitDir, commitId, file).range(range).run();
+				write(commitId, file, range, blame);
+			}
+			return blame;
+		}
+	}
+
+	private Collection<BlameBlock> slice(Collection<BlameBlock> blame, LinearRange range) {
+		Collection<BlameBlock> sliced = new ArrayList<>();
+		for (BlameBlock block: blame) {
+			List<LinearRange> ranges = new ArrayList<>();
+			for (LinearRange each: block.getRanges()) {
+				int from = Math.max(each.getFrom(), range.getFrom());
+				int to = Math.min(each.getTo(), range.getTo());
+				if (from <= to)
+					ranges.add(new LinearRange(from, to));
+			}
+			if (!ranges.isEmpty())
+				sliced.add(new BlameBlock(block.getCommit(), ranges));
+		}
+		return sliced;
+	}
+
+	/*
+	 * Derive whole file blame from stored blame of a first parent ancestor. Returns null if
+	 * no suitable ancestor blame is stored
+	 */
+	@Nullable
+	private Collection<BlameBlock> derive(ObjectId commitId, String file) {
+		try (RevWalk revWalk = new RevWalk(repository)) {
+			List<RevCommit> commits = new ArrayList<>();
+			List<ObjectId> blobIds = new ArrayList<>();
+			RevCommit commit = revWalk.parseCommit(commitId);
+			ObjectId blobId = getBlobId(commit, file);
+			if (blobId == null)
+				return null;
+
+			Collection<BlameBlock> ancestorBlame = null;
+			for (int i = 0; i < MAX_DERIVATION_DEPTH; i++) {
+				if (commit.getParentCount() == 0)
+					return null;
+				RevCommit parent = revWalk.parseCommit(commit.getParent(0));
+				ObjectId parentBlobId = getBlobId(parent, file);
+				// Lines of a merge commit may come from other parents unless file is not changed
+				if (parentBlobId == null || commit.getParentCount() > 1 && !parentBlobId.equals(blobId))
+					return null;
+				commits.add(commit);
+				blobIds.add(blobId);
+				ancestorBlame = read(parent, file, null);
+				commit = parent;
+				blobId = parentBlobId;
+				if (ancestorBlame != null)
+					break;
+			}
+			if (ancestorBlame == null)
+				return null;
+
+			BlameCommit[] lines = toLines(ancestorBlame);
+			if (Arrays.asList(lines).contains(null))
+				return null;
+			ObjectId ancestorBlobId = blobId;
+			for (int i = commits.size() - 1; i >= 0; i--) {
+				ObjectId childBlobId = blobIds.get(i);
+				if (!childBlobId.equals(ancestorBlobId)) {
+					lines = applyDiff(lines, ancestorBlobId, childBlobId, toBlameCommit(commits.get(i)));
+					if (lines == null)
+						return null;
+					ancestorBlobId = childBlobId;
+				}
+			}
+			return toBlocks(lines);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Nullable
+	private ObjectId getBlobId(RevCommit commit, String file) throws IOException {
+		try (TreeWalk treeWalk = TreeWalk.forPath(repository, file, commit.getTree())) {
+			if (treeWalk != null && FileMode.REGULAR_FILE.equals(treeWalk.getRawMode(0)))
+				return treeWalk.getObjectId(0);
+			else
+				return null;
+		}
+	}
+
+	private BlameCommit toBlameCommit(RevCommit commit) {
+		PersonIdent committer = commit.getCommitterIdent();
+		PersonIdent author = commit.getAuthorIdent();
+		return new BlameCommit(commit.name(),
+				GitUtils.newPersonIdent(committer.getName(), committer.getEmailAddress(), committer.getWhen()),
+				GitUtils.newPersonIdent(author.getName(), author.getEmailAddress(), author.getWhen()),
+				StringUtils.substringBefore(commit.getFullMessage(), "\n").trim());
+	}
+
+	@Nullable
+	private BlameCommit[] applyDiff(BlameCommit[] oldLines, ObjectId oldBlobId, ObjectId newBlobId,
+			BlameCommit commit) throws IOException {
+		RawText oldText = new RawText(repository.open(oldBlobId).getCachedBytes(Integer.MAX_VALUE));
+		RawText newText = new RawText(repository.open(newBlobId).getCachedBytes(Integer.MAX_VALUE));
+		if (oldText.size() != oldLines.length)
+			return null;
+		EditList edits = MyersDiff.INSTANCE.diff(RawTextComparator.DEFAULT, oldText, newText);
+
+		BlameCommit[] newLines = new BlameCommit[newText.size()];
+		int oldIndex = 0, newIndex = 0;
+		for (Edit edit: edits) {
+			while (newIndex < edit.getBeginB())
+				newLines[newIndex++] = oldLines[oldIndex++];
+			while (newIndex < edit.getEndB())
+				newLines[newIndex++] = commit;
+			oldIndex = edit.getEndA();
+		}
+		while (newIndex < newLines.length)
+			newLines[newIndex++] = oldLines[oldIndex++];
+		return newLines;
+	}
+
+	private BlameCommit[] toLines(Collection<BlameBlock> blame) {
+		int lineCount = 0;
+		for (BlameBlock block: blame) {
+			for (LinearRange range: block.getRanges())
+				lineCount = Math.max(lineCount, range.getTo() + 1);
+		}
+		BlameCommit[] lines = new BlameCommit[lineCount];
+		for (BlameBlock block: blame) {
+			for (LinearRange range: block.getRanges())
+				Arrays.fill(lines, range.getFrom(), range.getTo() + 1, block.getCommit());
+		}
+		return lines;
+	}
+
+	private Collection<BlameBlock> toBlocks(BlameCommit[] lines) {
+		Map<String, BlameBlock> blocks = new LinkedHashMap<>();
+		int begin = 0;
+		for (int i = 1; i <= lines.length; i++) {
+			if (i == lines.length || !lines[i].equals(lines[begin])) {
+				BlameCommit commit = lines[begin];
+				BlameBlock block = blocks.get(commit.getHash());
+				if (block == null) {
+					block = new BlameBlock(commit, new ArrayList<>());
+					blocks.put(commit.getHash(), block);
+				}
+				block.getRanges().add(new LinearRange(begin, i - 1));
+				begin = i;
+			}
+		}
+		return new ArrayList<>(blocks.values());
+	}
+
+	private File getEntryFile(ObjectId commitId, String file, @Nullable LinearRange range) {
+		String key = DigestUtils.sha1Hex(commitId.name() + ":" + file + ":" + (range != null? range.toString(): ""));
+		return new File(cacheDir, key.substring(0, 2) + "/" + key);
+	}
+
+	@Nullable
+	private Collection<BlameBlock> read(ObjectId commitId, String file, @Nullable LinearRange range) {
+		File entryFile = getEntryFile(commitId, file, range);
+		try (DataInputStream is = new DataInputStream(new BufferedInputStream(new FileInputStream(entryFile)))) {
+			if (is.readInt() != FORMAT_VERSION)
+				return null;
+			int blockCount = is.readInt();
+			Collection<BlameBlock> blame = new ArrayList<>(blockCount);
+			for (int i = 0; i < blockCount; i++) {
+				String hash = readString(is);
+				PersonIdent author = GitUtils.newPersonIdent(readString(is), readString(is), new Date(is.readLong()));
+				PersonIdent committer = GitUtils.newPersonIdent(readString(is), readString(is), new Date(is.readLong()));
+				String subject = readString(is);
+				int rangeCount = is.readInt();
+				List<LinearRange> ranges = new ArrayList<>(rangeCount);
+				for (int j = 0; j < rangeCount; j++)
+					ranges.add(new LinearRange(is.readInt(), is.readInt()));
+				blame.add(new BlameBlock(new BlameCommit(hash, committer, author, subject), ranges));
+			}
+			entryFile.setLastModified(System.currentTimeMillis());
+			return blame;
+		} catch (FileNotFoundException e) {
+			return null;
+		} catch (IOException e) {
+			logger.warn("Error reading blame cache: " + entryFile.getAbsolutePath(), e);
+			return null;
+		}
+	}
+
+	private void write(ObjectId commitId, String file, @Nullable LinearRange range, Collection<BlameBlock> blame) {
+		File entryFile = getEntryFile(commitId, file, range);
+		File bucketDir = entryFile.getParentFile();
+		FileUtils.createDir(bucketDir);
+		File tempFile = new File(bucketDir, entryFile.getName() + "." + UUID.randomUUID() + ".tmp");
+		try {
+			try (DataOutputStream os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+				os.writeInt(FORMAT_VERSION);
+				os.writeInt(blame.size());
+				for (BlameBlock block: blame) {
+					BlameCommit commit = block.getCommit();
+					writeString(os, commit.getHash());
+					writeString(os, commit.getAuthor().getName());
+					writeString(os, commit.getAuthor().getEmailAddress());
+					os.writeLong(commit.getAuthor().getWhen().getTime());
+					writeString(os, commit.getCommitter().getName());
+					writeString(os, commit.getCommitter().getEmailAddress());
+					os.writeLong(commit.getCommitter().getWhen().getTime());
+					writeString(os, commit.getSubject());
+					os.writeInt(block.getRanges().size());
+					for (LinearRange each: block.getRanges()) {
+						os.writeInt(each.getFrom());
+						os.writeInt(each.getTo());
+					}
+				}
+			}
+			Files.move(tempFile.toPath(), entryFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			logger.warn("Error writing blame cache: " + entryFile.getAbsolutePath(), e);
+		} finally {
+			tempFile.delete();
+		}
+
+		File[] entryFiles = bucketDir.listFiles((dir, name) -> !name.endsWith(".tmp"));
+		if (entryFiles != null && entryFiles.length > MAX_BUCKET_ENTRIES) {
+			Arrays.sort(entryFiles, Comparator.comparingLong(File::lastModified));
+			for (int i = 0; i < entryFiles.length - MAX_BUCKET_ENTRIES; i++)
+				entryFiles[i].delete();
+		}
+	}
+
+	private static void writeString(DataOutputStream os, String value) throws IOException {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		os.writeInt(bytes.length);
+		os.write(bytes);
+	}
+
+	private static String readString(DataInputStream is) throws IOException {
+		byte[] bytes = new byte[is.readInt()];
+		is.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+}
@@ -27,6 +27,7 @@ import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
 import java.util.Map;
 import java.util.StringTokenizer;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 public class CommandUtils {
@@ -35,6 +36,11 @@ public class CommandUtils {
 	
 	private static final String MIN_VERSION = "2.11.1";
 	
+	// Option "--reachable" of "git commit-graph write" is available since 2.19
+	private static final String COMMIT_GRAPH_MIN_VERSION = "2.19.0";
+	
+	private static final Map<String, Boolean> commitGraphSupports = new ConcurrentHashMap<>();
+	
 	public static Commandline newGit() {
 		Commandline cmdline = new Commandline(OneDev.getInstance(GitLocation.class).getExecutable());
 		if (SystemUtils.IS_OS_MAC_OSX) {
@@ -94,6 +100,16 @@ public class CommandUtils {
 		return Agent.checkGitError(gitExe, MIN_VERSION);
 	}
 	
+	/**
+	 * Check if current git executable supports <tt>git commit-graph write --reachable</tt>. Result is 
+	 * cached per executable as checking it launches a git process
+	 */
+	public static boolean isCommitGraphSupported() {
+		String gitExe = OneDev.getInstance(GitLocation.class).getExecutable();
+		return commitGraphSupports.computeIfAbsent(gitExe, 
+				it -> Agent.checkGitError(it, COMMIT_GRAPH_MIN_VERSION) == null);
+	}
+	
 	public static FileChange parseNumStats(String line) {
 		FileChange change;
 		StringTokenizer tokenizer = new StringTokenizer(line, "\t");
@@ -0,0 +1,261 @@
+package io.onedev.server.git;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.concurrent.locks.Lock;
+
+import javax.annotation.Nullable;
+
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.onedev.commons.utils.LockUtils;
+import io.onedev.server.git.command.WriteCommitGraphCommand;
+
+/**
+ * In-memory view of git commit-graph file (<tt>objects/info/commit-graph</tt>), providing
+ * parents and generation numbers of commits without parsing commit objects. Commits are
+ * identified by their positions in the graph. Only single (non-split) graph file of SHA-1
+ * repository is supported
+ */
+public class CommitGraph {
+
+	private static final Logger logger = LoggerFactory.getLogger(CommitGraph.class);
+
+	public static final String FILE_PATH = "objects/info/commit-graph";
+
+	private static final int SIGNATURE = 0x43475048; // CGPH
+
+	private static final int CHUNK_OID_FANOUT = 0x4f494446; // OIDF
+
+	private static final int CHUNK_OID_LOOKUP = 0x4f49444c; // OIDL
+
+	private static final int CHUNK_COMMIT_DATA = 0x43444154; // CDAT
+
+	private static final int CHUNK_EXTRA_EDGES = 0x45444745; // EDGE
+
+	private static final int PARENT_NONE = 0x70000000;
+
+	private static final int PARENT_MASK = 0x7fffffff;
+
+	private static final int EDGE_LAST = 0x80000000;
+
+	private static final int FANOUT_SIZE = 256;
+
+	private static final int[] NO_PARENTS = new int[0];
+
+	private final File file;
+
+	private final long lastModified;
+
+	private final long length;
+
+	private final int[] fanout;
+
+	private final byte[] commitIds;
+
+	private final int[] parents1;
+
+	private final int[] parents2;
+
+	private final int[] generations;
+
+	private final int[] extraEdges;
+
+	private CommitGraph(File file, long lastModified, long length, int[] fanout, byte[] commitIds,
+			int[] parents1, int[] parents2, int[] generations, int[] extraEdges) {
+		this.file = file;
+		this.lastModified = lastModified;
+		this.length = length;
+		this.fanout = fanout;
+		this.commitIds = commitIds;
+		this.parents1 = parents1;
+		this.parents2 = parents2;
+		this.generations = generations;
+		this.extraEdges = extraEdges;
+	}
+
+	/**
+	 * Write commit graph of specified git repository. This is the only place writing commit
+	 * graph, and writes of same repository are serialized as git fails if
+	 * <tt>commit-graph.lock</tt> already exists
+	 *
+	 * @return
+	 * 			<tt>false</tt> if git executable does not support commit graph
+	 */
+	public static boolean write(File gitDir) {
+		if (!CommandUtils.isCommitGraphSupported())
+			return false;
+		Lock lock = LockUtils.getLock("commit-graph:" + gitDir.getAbsolutePath());
+		lock.lock();
+		try {
+			new WriteCommitGraphCommand(gitDir).run();
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Read commit graph of specified git repository
+	 *
+	 * @return
+	 * 			commit graph of the repository, or <tt>null</tt> if commit graph file does not
+	 * 			exist or is not supported
+	 */
+	@Nullable
+	public static CommitGraph read(File gitDir) {
+		File file = new File(gitDir, FILE_PATH);
+		if (!file.exists())
+			return null;
+
+		long lastModified = file.lastModified();
+		long length = file.length();
+		try {
+			ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+			if (buffer.getInt() != SIGNATURE)
+				return null;
+			int version = buffer.get();
+			int hashVersion = buffer.get();
+			int chunkCount = buffer.get() & 0xff;
+			int baseGraphCount = buffer.get() & 0xff;
+			if (version != 1 || hashVersion != 1 || baseGraphCount != 0)
+				return null;
+
+			int fanoutOffset = -1, lookupOffset = -1, dataOffset = -1, edgesOffset = -1, edgesEnd = -1;
+			int[] chunkIds = new int[chunkCount + 1];
+			long[] chunkOffsets = new long[chunkCount + 1];
+			for (int i = 0; i <= chunkCount; i++) {
+				chunkIds[i] = buffer.getInt();
+				chunkOffsets[i] = buffer.getLong();
+			}
+			for (int i = 0; i < chunkCount; i++) {
+				int offset = (int) chunkOffsets[i];
+				switch (chunkIds[i]) {
+				case CHUNK_OID_FANOUT:
+					fanoutOffset = offset;
+					break;
+				case CHUNK_OID_LOOKUP:
+					lookupOffset = offset;
+					break;
+				case CHUNK_COMMIT_DATA:
+					dataOffset = offset;
+					break;
+				case CHUNK_EXTRA_EDGES:
+					edgesOffset = offset;
+					edgesEnd = (int) chunkOffsets[i + 1];
+					break;
+				}
+			}
+			if (fanoutOffset == -1 || lookupOffset == -1 || dataOffset == -1)
+				return null;
+
+			int[] fanout = new int[FANOUT_SIZE];
+			buffer.position(fanoutOffset);
+			for (int i = 0; i < FANOUT_SIZE; i++)
+				fanout[i] = buffer.getInt();
+			int commitCount = fanout[FANOUT_SIZE - 1];
+
+			byte[] commitIds = new byte[commitCount * Constants.OBJECT_ID_LENGTH];
+			buffer.position(lookupOffset);
+			buffer.get(commitIds);
+
+			int[] parents1 = new int[commitCount];
+			int[] parents2 = new int[commitCount];
+			int[] generations = new int[commitCount];
+			buffer.position(dataOffset);
+			for (int i = 0; i < commitCount; i++) {
+				buffer.position(buffer.position() + Constants.OBJECT_ID_LENGTH);
+				parents1[i] = buffer.getInt();
+				parents2[i] = buffer.getInt();
+				// Upper 30 bits hold topological level, remaining 34 bits hold commit time
+				generations[i] = buffer.getInt() >>> 2;
+				buffer.getInt();
+				if (generations[i] == 0) // written by git without generation number support
+					return null;
+			}
+
+			int[] extraEdges;
+			if (edgesOffset != -1) {
+				extraEdges = new int[(edgesEnd - edgesOffset) / 4];
+				buffer.position(edgesOffset);
+				for (int i = 0; i < extraEdges.length; i++)
+					extraEdges[i] = buffer.getInt();
+			} else {
+				extraEdges = NO_PARENTS;
+			}
+			return new CommitGraph(file, lastModified, length, fanout, commitIds,
+					parents1, parents2, generations, extraEdges);
+		} catch (IOException | BufferUnderflowException | IllegalArgumentException
+				| IndexOutOfBoundsException e) {
+			logger.warn("Error reading commit graph: " + file.getAbsolutePath(), e);
+			return null;
+		}
+	}
+
+	/**
+	 * @return
+	 * 			whether or not underlying commit graph file has been rewritten or removed
+	 * 			since this graph is read
+	 */
+	public boolean isStale() {
+		return file.lastModified() != lastModified || file.length() != length;
+	}
+
+	public int getCommitCount() {
+		return generations.length;
+	}
+
+	/**
+	 * @return
+	 * 			position of specified commit in the graph, or <tt>-1</tt> if not found
+	 */
+	public int findPosition(AnyObjectId commitId) {
+		int firstByte = commitId.getFirstByte();
+		int low = firstByte != 0? fanout[firstByte - 1]: 0;
+		int high = fanout[firstByte] - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int result = commitId.compareTo(commitIds, mid * Constants.OBJECT_ID_LENGTH);
+			if (result < 0)
+				high = mid - 1;
+			else if (result > 0)
+				low = mid + 1;
+			else
+				return mid;
+		}
+		return -1;
+	}
+
+	public int getGeneration(int position) {
+		return generations[position];
+	}
+
+	public int[] getParents(int position) {
+		int parent1 = parents1[position];
+		if (parent1 == PARENT_NONE)
+			return NO_PARENTS;
+		int parent2 = parents2[position];
+		if (parent2 == PARENT_NONE) {
+			return new int[] {parent1};
+		} else if ((parent2 & EDGE_LAST) == 0) {
+			return new int[] {parent1, parent2};
+		} else {
+			int edgeIndex = parent2 & PARENT_MASK;
+			int edgeCount = 1;
+			while ((extraEdges[edgeIndex + edgeCount - 1] & EDGE_LAST) == 0)
+				edgeCount++;
+			int[] parents = new int[edgeCount + 1];
+			parents[0] = parent1;
+			for (int i = 0; i < edgeCount; i++)
+				parents[i + 1] = extraEdges[edgeIndex + i] & PARENT_MASK;
+			return parents;
+		}
+	}
+
+}
@@ -4,7 +4,9 @@ import com.google.common.base.Preconditions;
 import io.onedev.k8shelper.KubernetesHelper;
 import io.onedev.server.OneDev;
 import io.onedev.server.cluster.ClusterManager;
+import io.onedev.server.manager.GitRoutingManager;
 import io.onedev.server.manager.ProjectManager;
+import io.onedev.server.manager.UploadPackCacheManager;
 import io.onedev.server.exception.ServerNotReadyException;
 import io.onedev.server.git.command.AdvertiseReceiveRefsCommand;
 import io.onedev.server.git.command.AdvertiseUploadRefsCommand;
@@ -23,29 +25,35 @@ import io.onedev.server.util.concurrent.WorkExecutor;
 import io.onedev.server.util.facade.ProjectFacade;
 import org.apache.commons.compress.utils.IOUtils;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.utils.URIBuilder;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.InputStreamEntity;
+import org.apache.http.util.EntityUtils;
 import org.apache.shiro.authc.AuthenticationException;
 import org.apache.shiro.authz.UnauthorizedException;
 import org.eclipse.jgit.http.server.GitSmartHttpTools;
 import org.eclipse.jgit.http.server.ServletUtils;
 import org.eclipse.jgit.transport.PacketLineOut;
-import org.glassfish.jersey.client.ClientProperties;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 import javax.servlet.*;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import javax.ws.rs.client.*;
 import javax.ws.rs.core.HttpHeaders;
-import javax.ws.rs.core.MediaType;
-import javax.ws.rs.core.Response;
-import javax.ws.rs.core.StreamingOutput;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
 import java.util.Set;
 import java.util.concurrent.ExecutionException;
 
@@ -70,17 +78,24 @@ public class GitFilter implements Filter {
 	
 	private final ClusterManager clusterManager;
 	
+	private final UploadPackCacheManager uploadPackCacheManager;
+	
+	private final GitRoutingManager gitRoutingManager;
+	
 	private final Set<CodePullAuthorizationSource> codePullAuthorizationSources;
 	
 	@Inject
 	public GitFilter(OneDev oneDev, ProjectManager projectManager, WorkExecutor workExecutor, 
 					 SessionManager sessionManager, ClusterManager clusterManager, 
+					 UploadPackCacheManager uploadPackCacheManager, GitRoutingManager gitRoutingManager, 
 					 Set<CodePullAuthorizationSource> codePullAuthorizationSources) {
 		this.onedev = oneDev;
 		this.projectManager = projectManager;
 		this.workExecutor = workExecutor;
 		this.sessionManager = sessionManager;
 		this.clusterManager = clusterManager;
+		this.uploadPackCacheManager = uploadPackCacheManager;
+		this.gitRoutingManager = gitRoutingManager;
 		this.codePullAuthorizationSources = codePullAuthorizationSources;
 	}
 	
@@ -118,7 +133,7 @@ public class GitFilter implements Filter {
 	}
 	
 	protected void processPack(final HttpServletRequest request, final HttpServletResponse response) 
-			throws IOException, InterruptedException, ExecutionException {
+			throws IOException, InterruptedException, ExecutionException, URISyntaxException {
 		Long userId = SecurityUtils.getUserId();
 		boolean clusterAccess = userId.equals(User.SYSTEM_ID);
 		
@@ -167,18 +182,16 @@ public class GitFilter implements Filter {
 				sessionManager.closeSession();
 			}
 			
-			String activeServer = projectManager.getActiveServer(projectId, true);
-			if (activeServer.equals(clusterManager.getLocalServerAddress())) {
+			String server;
+			if (upload)
+				server = gitRoutingManager.getFetchServer(projectId);
+			else
+				server = projectManager.getActiveServer(projectId, true);
+			if (server.equals(clusterManager.getLocalServerAddress())) {
 				File gitDir = projectManager.getGitDir(projectId);
 				if (upload) {
-					workExecutor.submit(new PrioritizedRunnable(PRIORITY) {
-						
-						@Override
-						public void run() {
-							CommandUtils.uploadPack(gitDir, hookEnvs, protocol, stdin, stdout);
-						}
-						
-					}).get();
+					// Cache manager runs git via work executor if response is not cached
+					uploadPackCacheManager.uploadPack(projectId, hookEnvs, protocol, stdin, stdout, false);
 				} else {
 					workExecutor.submit(new PrioritizedRunnable(PRIORITY) {
 						
@@ -190,48 +203,25 @@ public class GitFilter implements Filter {
 					}).get();
 				}
 			} else {
-				Client client = ClientBuilder.newClient();
-				client.property(ClientProperties.REQUEST_ENTITY_PROCESSING, "CHUNKED");
-				try {
-					String serverUrl = clusterManager.getServerUrl(activeServer);
-					WebTarget target = client.target(serverUrl)
-							.path("~api/cluster/git-pack")
-							.queryParam("projectId", projectId)
-							.queryParam("userId", userId)
-							.queryParam("protocol", protocol)
-							.queryParam("upload", upload);
-					Invocation.Builder builder =  target.request();
-					builder.header(HttpHeaders.AUTHORIZATION, 
-							KubernetesHelper.BEARER + " " + clusterManager.getCredential());
-					
-					StreamingOutput os = output -> {
-						try {
-							byte[] buffer = new byte[BUFFER_SIZE];
-							int length;
-							while ((length = stdin.read(buffer)) > 0) {
-								output.write(buffer, 0, length);
-								output.flush();
-							}
-						} finally {
-							stdin.close();
-						}
-					};
-					
-					try (Response gitResponse = builder.post(Entity.entity(os, MediaType.APPLICATION_OCTET_STREAM))) {
-						KubernetesHelper.checkStatus(gitResponse);
-						try (InputStream is = gitResponse.readEntity(InputStream.class)) {
-							byte[] buffer = new byte[BUFFER_SIZE];
-					        int length;
-				            while ((length = is.read(buffer)) > 0) {
-			            		stdout.write(buffer, 0, length);
-			            		stdout.flush();
-				            }
-						} finally {
-							stdout.close();
-						}
+				URI uri = getClusterUri(server, "git-pack", projectId, protocol, upload)
+						.addParameter("userId", String.valueOf(userId))
+						.build();
+				HttpPost post = new HttpPost(uri);
+				post.setHeader(HttpHeaders.AUTHORIZATION, 
+						KubernetesHelper.BEARER + " " + clusterManager.getCredential());
+				post.setEntity(new InputStreamEntity(stdin, ContentType.APPLICATION_OCTET_STREAM));
+				try (CloseableHttpResponse gitResponse = gitRoutingManager.getHttpClient().execute(post)) {
+					checkStatus(uri, gitResponse);
+					try (InputStream is = gitResponse.getEntity().getContent()) {
+						byte[] buffer = new byte[BUFFER_SIZE];
+				        int length;
+			            while ((length = is.read(buffer)) > 0) {
+		            		stdout.write(buffer, 0, length);
+		            		stdout.flush();
+			            }
+					} finally {
+						stdout.close();
 					}
-				} finally {
-					client.close();
 				}
 			}
 		} else {
@@ -240,7 +230,7 @@ public class GitFilter implements Filter {
 				// Run immediately if accessed with cluster credential to avoid 
 				// possible deadlock as caller itself might also hold some 
 				// resources (db connections, work executors etc) 
-				CommandUtils.uploadPack(gitDir, hookEnvs, protocol, stdin, stdout);
+				uploadPackCacheManager.uploadPack(projectId, hookEnvs, protocol, stdin, stdout, true);
 			} else {
 				// Run immediately. See above for reason
 				CommandUtils.receivePack(gitDir, hookEnvs, protocol, stdin, stdout);
@@ -272,7 +262,8 @@ public class GitFilter implements Filter {
 		}
 	}
 	
-	protected void processRefs(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+	protected void processRefs(HttpServletRequest request, HttpServletResponse response) 
+			throws ServletException, IOException, URISyntaxException {
 		Long userId = SecurityUtils.getUserId();
 		boolean clusterAccess = userId.equals(User.SYSTEM_ID);
 		
@@ -314,35 +305,52 @@ public class GitFilter implements Filter {
 		
 		String protocol = request.getHeader("Git-Protocol");		
 
-		String activeServer = projectManager.getActiveServer(projectId, true);
-		if (activeServer.equals(clusterManager.getLocalServerAddress())) {
+		String server;
+		if (upload && !clusterAccess)
+			server = gitRoutingManager.getFetchServer(projectId);
+		else
+			server = projectManager.getActiveServer(projectId, true);
+		if (server.equals(clusterManager.getLocalServerAddress())) {
 			File gitDir = projectManager.getGitDir(projectId);
 			if (upload) 
 				new AdvertiseUploadRefsCommand(gitDir, output).protocol(protocol).run();
 			else 
 				new AdvertiseReceiveRefsCommand(gitDir, output).protocol(protocol).run();
 		} else {
-			Client client = ClientBuilder.newClient();
-			try {
-				String serverUrl = clusterManager.getServerUrl(activeServer);
-				WebTarget target = client.target(serverUrl)
-						.path("~api/cluster/git-advertise-refs")
-						.queryParam("projectId", projectId)
-						.queryParam("protocol", protocol)
-						.queryParam("upload", upload);
-				Invocation.Builder builder =  target.request();
-				builder.header(HttpHeaders.AUTHORIZATION, 
-						KubernetesHelper.BEARER + " " + clusterManager.getCredential());
-				try (Response gitResponse = builder.get()) {
-					KubernetesHelper.checkStatus(gitResponse);
-					try (InputStream is = gitResponse.readEntity(InputStream.class)) {
-						IOUtils.copy(is, output, BUFFER_SIZE);
-					} finally {
-						output.close();
-					}
+			URI uri = getClusterUri(server, "git-advertise-refs", projectId, protocol, upload).build();
+			HttpGet get = new HttpGet(uri);
+			get.setHeader(HttpHeaders.AUTHORIZATION, 
+					KubernetesHelper.BEARER + " " + clusterManager.getCredential());
+			try (CloseableHttpResponse gitResponse = gitRoutingManager.getHttpClient().execute(get)) {
+				checkStatus(uri, gitResponse);
+				try (InputStream is = gitResponse.getEntity().getContent()) {
+					IOUtils.copy(is, output, BUFFER_SIZE);
+				} finally {
+					output.close();
 				}
-			} finally {
-				client.close();
+			}
+		}
+	}
+	
+	private URIBuilder getClusterUri(String server, String api, Long projectId, 
+									 @Nullable String protocol, boolean upload) throws URISyntaxException {
+		URIBuilder builder = new URIBuilder(clusterManager.getServerUrl(server) + "/~api/cluster/" + api)
+				.addParameter("projectId", String.valueOf(projectId))
+				.addParameter("upload", String.valueOf(upload));
+		if (protocol != null)
+			builder.addParameter("protocol", protocol);
+		return builder;
+	}
+	
+	private void checkStatus(URI uri, CloseableHttpResponse response) throws IOException {
+		int status = response.getStatusLine().getStatusCode();
+		if (status != HttpStatus.SC_OK) {
+			String errorMessage = response.getEntity() != null? EntityUtils.toString(response.getEntity()): null;
+			if (StringUtils.isNotBlank(errorMessage)) {
+				throw new RuntimeException(String.format("Http request failed (url: %s, status code: %d, error message: %s)", 
+						uri, status, errorMessage));
+			} else {
+				throw new RuntimeException(String.format("Http request failed (url: %s, status code: %d)", uri, status));
 			}
 		}
 	}
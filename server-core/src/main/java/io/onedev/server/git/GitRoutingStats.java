@@ -0,0 +1,40 @@
+package io.onedev.server.git;
+
+import java.io.Serializable;
+
+public class GitRoutingStats implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private final Long projectId;
+	
+	private final long numOfLocalFetches;
+	
+	private final long numOfProxiedFetches;
+	
+	public GitRoutingStats(Long projectId, long numOfLocalFetches, long numOfProxiedFetches) {
+		this.projectId = projectId;
+		this.numOfLocalFetches = numOfLocalFetches;
+		this.numOfProxiedFetches = numOfProxiedFetches;
+	}
+
+	public Long getProjectId() {
+		return projectId;
+	}
+
+	/**
+	 * @return number of fetch requests served by local server, either as the active server or 
+	 * 			with an up to date replica
+	 */
+	public long getNumOfLocalFetches() {
+		return numOfLocalFetches;
+	}
+
+	/**
+	 * @return number of fetch requests proxied to the active server
+	 */
+	public long getNumOfProxiedFetches() {
+		return numOfProxiedFetches;
+	}
+	
+}
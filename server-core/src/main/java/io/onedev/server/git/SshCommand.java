@@ -5,7 +5,9 @@ import io.onedev.commons.utils.StringUtils;
 import io.onedev.commons.utils.command.ExecutionResult;
 import io.onedev.server.OneDev;
 import io.onedev.server.cluster.ClusterManager;
+import io.onedev.server.manager.GitRoutingManager;
 import io.onedev.server.manager.ProjectManager;
+import io.onedev.server.manager.UploadPackCacheManager;
 import io.onedev.server.git.command.ReceivePackCommand;
 import io.onedev.server.git.command.UploadPackCommand;
 import io.onedev.server.git.hook.HookUtils;
@@ -45,6 +47,8 @@ class SshCommand implements Command, ServerSessionAware {
 	
 	private static final int CHANNEL_OPEN_TIMEOUT = 5000;
 	
+	private static final String PROTOCOL_V2 = "version=2";
+	
 	private static final Logger logger = LoggerFactory.getLogger(SshCommand.class);
 
 	private final String commandString;
@@ -109,8 +113,12 @@ class SshCommand implements Command, ServerSessionAware {
 		
 		ClusterManager clusterManager = OneDev.getInstance(ClusterManager.class);
 		
-		String activeServerAddress = projectManager.getActiveServer(projectFacade.getId(), true);
-		if (clusterAccess || activeServerAddress.equals(clusterManager.getLocalServerAddress())) {
+		String serverAddress;
+		if (upload && !clusterAccess)
+			serverAddress = OneDev.getInstance(GitRoutingManager.class).getFetchServer(projectFacade.getId());
+		else
+			serverAddress = projectManager.getActiveServer(projectFacade.getId(), true);
+		if (clusterAccess || serverAddress.equals(clusterManager.getLocalServerAddress())) {
 	        File gitDir = OneDev.getInstance(ProjectManager.class).getGitDir(projectFacade.getId());
 	        Map<String, String> hookEnvs = HookUtils.getHookEnvs(projectFacade.getId(), SecurityUtils.getUserId());
 
@@ -135,7 +143,35 @@ class SshCommand implements Command, ServerSessionAware {
 		        }
 	        }
 			
-	        String groupId = "git-over-ssh-" + projectFacade.getId() + "-" + SecurityUtils.getUserId();
+	        Long projectId = projectFacade.getId();
+	        String groupId = "git-over-ssh-" + projectId + "-" + SecurityUtils.getUserId();
+	        
+	        if (upload && protocol != null && protocol.contains(PROTOCOL_V2)) {
+				/*
+				 * Each command of protocol v2 is self-contained and can be served from cache. 
+				 * Protocol v0 over ssh is not cached as negotiation spans multiple rounds over 
+				 * a single upload-pack process. Cache manager runs git via work executor only 
+				 * when necessary, so the session itself does not take a work executor slot. 
+				 * Git is still run with group of the user and project as before
+				 */
+				ExecutorService executorService = OneDev.getInstance(ExecutorService.class);
+				future = executorService.submit(new Runnable() {
+
+					@Override
+					public void run() {
+						try {
+							OneDev.getInstance(UploadPackCacheManager.class).uploadPackV2(
+									projectId, hookEnvs, protocol, in, out, groupId);
+							onExit(0, null);
+						} catch (Exception e) {
+							logger.error("Error executing git command", e);
+							onExit(-1, e.getMessage());
+						}
+					}
+
+				});
+				return;
+	        }
 	        
 	        WorkExecutor workExecutor = OneDev.getInstance(WorkExecutor.class);
 			future = workExecutor.submit(groupId, new PrioritizedRunnable(PRIORITY) {
@@ -168,7 +204,7 @@ class SshCommand implements Command, ServerSessionAware {
 				@Override
 				public void run() {
 					SshManager sshManager = OneDev.getInstance(SshManager.class);
-					try (	var clientSession = sshManager.ssh(activeServerAddress); 
+					try (	var clientSession = sshManager.ssh(serverAddress); 
 							var clientChannel = clientSession.createExecChannel(commandString)) {
 						clientChannel.setIn(in);
 						clientChannel.setOut(out);
@@ -0,0 +1,67 @@
+package io.onedev.server.git;
+
+import java.io.Serializable;
+
+public class UploadPackCacheStats implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private final int numOfEntries;
+
+	private final long cacheSize;
+
+	private final long numOfHits;
+
+	private final long numOfMisses;
+
+	private final long numOfBypasses;
+
+	private final long servedBytes;
+
+	public UploadPackCacheStats(int numOfEntries, long cacheSize, long numOfHits, long numOfMisses,
+			long numOfBypasses, long servedBytes) {
+		this.numOfEntries = numOfEntries;
+		this.cacheSize = cacheSize;
+		this.numOfHits = numOfHits;
+		this.numOfMisses = numOfMisses;
+		this.numOfBypasses = numOfBypasses;
+		this.servedBytes = servedBytes;
+	}
+
+	public int getNumOfEntries() {
+		return numOfEntries;
+	}
+
+	/**
+	 * @return total size of cached responses in bytes
+	 */
+	public long getCacheSize() {
+		return cacheSize;
+	}
+
+	public long getNumOfHits() {
+		return numOfHits;
+	}
+
+	/**
+	 * @return number of cacheable requests not found in cache
+	 */
+	public long getNumOfMisses() {
+		return numOfMisses;
+	}
+
+	/**
+	 * @return number of requests not cacheable, such as negotiation rounds and ls-refs
+	 */
+	public long getNumOfBypasses() {
+		return numOfBypasses;
+	}
+
+	/**
+	 * @return bytes served from cache
+	 */
+	public long getServedBytes() {
+		return servedBytes;
+	}
+
+}
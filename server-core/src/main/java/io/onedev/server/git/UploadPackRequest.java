@@ -0,0 +1,173 @@
+package io.onedev.server.git;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.charset.StandardCharsets;
+
+import javax.annotation.Nullable;
+
+/**
+ * Request sent by git client to upload-pack. Content of the request is buffered so that it can
+ * be inspected and used as cache key, and then replayed to git upload-pack
+ */
+public class UploadPackRequest {
+
+	private static final int PACKET_HEADER_LENGTH = 4;
+
+	private static final int FLUSH_PACKET = 0;
+
+	private static final int END_OF_STREAM = -1;
+
+	private static final String DONE = "done";
+
+	private static final byte[] FLUSH = new byte[0];
+
+	private final byte[] content;
+
+	private final InputStream remaining;
+
+	private final boolean done;
+
+	private UploadPackRequest(byte[] content, @Nullable InputStream remaining, boolean done) {
+		this.content = content;
+		this.remaining = remaining;
+		this.done = done;
+	}
+
+	/**
+	 * Read request of stateless rpc mode, which lasts until end of the stream. Stream is read
+	 * up to specified size, and remaining part is left to be read by upload-pack
+	 */
+	public static UploadPackRequest readStateless(InputStream is, int maxSize) throws IOException {
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		boolean done = false;
+		while (true) {
+			if (buffer.size() > maxSize)
+				return new UploadPackRequest(buffer.toByteArray(), is, false);
+			byte[] payload = readPacket(is, buffer);
+			if (payload == null)
+				break;
+			done = done || isDone(payload);
+		}
+		return new UploadPackRequest(buffer.toByteArray(), null, done);
+	}
+
+	/**
+	 * Read a single command request of protocol v2 over a stateful connection such as ssh,
+	 * which lasts until next flush packet
+	 *
+	 * @return
+	 * 			read request, or <tt>null</tt> if client ends the connection
+	 */
+	@Nullable
+	public static UploadPackRequest readCommand(InputStream is) throws IOException {
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		boolean done = false;
+		while (true) {
+			byte[] payload = readPacket(is, buffer);
+			if (payload == null) {
+				if (buffer.size() == 0)
+					return null;
+				else
+					throw new EOFException("Unexpected end of upload pack request");
+			} else if (payload == FLUSH) {
+				// Client may send a single flush packet to end the connection
+				if (buffer.size() == PACKET_HEADER_LENGTH)
+					return null;
+				else
+					return new UploadPackRequest(buffer.toByteArray(), null, done);
+			}
+			done = done || isDone(payload);
+		}
+	}
+
+	private static boolean isDone(byte[] payload) {
+		return new String(payload, StandardCharsets.UTF_8).trim().equals(DONE);
+	}
+
+	/*
+	 * Read a packet into specified buffer. Returns payload of the packet, FLUSH for flush
+	 * packet, or null if end of stream is reached
+	 */
+	@Nullable
+	private static byte[] readPacket(InputStream is, ByteArrayOutputStream buffer) throws IOException {
+		byte[] header = new byte[PACKET_HEADER_LENGTH];
+		int read = readFully(is, header, PACKET_HEADER_LENGTH);
+		if (read == 0)
+			return null;
+		else if (read != PACKET_HEADER_LENGTH)
+			throw new EOFException("Unexpected end of packet header");
+		buffer.write(header);
+		int length = getPacketLength(header);
+		if (length == FLUSH_PACKET)
+			return FLUSH;
+		else if (length < PACKET_HEADER_LENGTH) // delimiter or response end
+			return new byte[0];
+		byte[] payload = new byte[length - PACKET_HEADER_LENGTH];
+		if (readFully(is, payload, payload.length) != payload.length)
+			throw new EOFException("Unexpected end of packet");
+		buffer.write(payload);
+		return payload;
+	}
+
+	private static int readFully(InputStream is, byte[] bytes, int length) throws IOException {
+		int offset = 0;
+		while (offset < length) {
+			int count = is.read(bytes, offset, length - offset);
+			if (count == END_OF_STREAM)
+				break;
+			offset += count;
+		}
+		return offset;
+	}
+
+	private static int getPacketLength(byte[] header) throws IOException {
+		try {
+			return Integer.parseInt(new String(header, StandardCharsets.US_ASCII), 16);
+		} catch (NumberFormatException e) {
+			throw new IOException("Invalid packet header");
+		}
+	}
+
+	/**
+	 * @return
+	 * 			buffered content of the request
+	 */
+	public byte[] getContent() {
+		return content;
+	}
+
+	/**
+	 * @return
+	 * 			whether or not whole request is buffered
+	 */
+	public boolean isComplete() {
+		return remaining == null;
+	}
+
+	/**
+	 * @return
+	 * 			whether or not client concludes negotiation with this request, so that response
+	 * 			contains the pack
+	 */
+	public boolean isDone() {
+		return done;
+	}
+
+	/**
+	 * @return
+	 * 			stream replaying the whole request
+	 */
+	public InputStream getInputStream() {
+		InputStream buffered = new ByteArrayInputStream(content);
+		if (remaining != null)
+			return new SequenceInputStream(buffered, remaining);
+		else
+			return buffered;
+	}
+
+}
@@ -0,0 +1,46 @@
+package io.onedev.server.git.command;
+
+import java.io.File;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.onedev.commons.utils.command.Commandline;
+import io.onedev.commons.utils.command.LineConsumer;
+import io.onedev.server.git.CommandUtils;
+
+public class PackRefsCommand {
+
+	private static final Logger logger = LoggerFactory.getLogger(PackRefsCommand.class);
+	
+	private final File workingDir;
+	
+	public PackRefsCommand(File workingDir) {
+		this.workingDir = workingDir;
+	}
+	
+	protected Commandline newGit() {
+		return CommandUtils.newGit();
+	}
+	
+	public void run() {
+		Commandline git = newGit().workingDir(workingDir).addArgs("pack-refs", "--all", "--prune");
+		
+		git.execute(new LineConsumer() {
+
+			@Override
+			public void consume(String line) {
+				logger.debug(line);
+			}
+			
+		}, new LineConsumer() {
+
+			@Override
+			public void consume(String line) {
+				logger.warn(line);
+			}
+			
+		}).checkReturnCode();
+	}
+
+}
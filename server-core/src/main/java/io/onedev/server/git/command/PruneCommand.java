@@ -0,0 +1,55 @@
+package io.onedev.server.git.command;
+
+import java.io.File;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.onedev.commons.utils.command.Commandline;
+import io.onedev.commons.utils.command.LineConsumer;
+import io.onedev.server.git.CommandUtils;
+
+public class PruneCommand {
+
+	private static final Logger logger = LoggerFactory.getLogger(PruneCommand.class);
+	
+	private final File workingDir;
+	
+	private final String expire;
+	
+	/**
+	 * @param expire
+	 * 			only unreachable loose objects older than this are pruned, for instance 
+	 * 			<tt>2.weeks.ago</tt>. Objects being pushed are not reachable until refs 
+	 * 			are updated, and this protects them from being pruned
+	 */
+	public PruneCommand(File workingDir, String expire) {
+		this.workingDir = workingDir;
+		this.expire = expire;
+	}
+	
+	protected Commandline newGit() {
+		return CommandUtils.newGit();
+	}
+	
+	public void run() {
+		Commandline git = newGit().workingDir(workingDir).addArgs("prune", "--expire=" + expire);
+		
+		git.execute(new LineConsumer() {
+
+			@Override
+			public void consume(String line) {
+				logger.debug(line);
+			}
+			
+		}, new LineConsumer() {
+
+			@Override
+			public void consume(String line) {
+				logger.warn(line);
+			}
+			
+		}).checkReturnCode();
+	}
+
+}
@@ -0,0 +1,88 @@
+package io.onedev.server.git.command;
+
+import java.io.File;
+
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.onedev.commons.utils.command.Commandline;
+import io.onedev.commons.utils.command.LineConsumer;
+import io.onedev.server.git.CommandUtils;
+
+public class RepackCommand {
+
+	private static final Logger logger = LoggerFactory.getLogger(RepackCommand.class);
+	
+	private final File workingDir;
+	
+	private boolean all;
+	
+	private boolean writeBitmap;
+	
+	private String unpackUnreachable;
+	
+	public RepackCommand(File workingDir) {
+		this.workingDir = workingDir;
+	}
+	
+	/**
+	 * Whether or not to repack all objects into a single pack. Only loose objects are 
+	 * packed if this is <tt>false</tt>
+	 */
+	public RepackCommand all(boolean all) {
+		this.all = all;
+		return this;
+	}
+	
+	/**
+	 * Whether or not to write bitmap index. Only applicable when all objects are repacked
+	 */
+	public RepackCommand writeBitmap(boolean writeBitmap) {
+		this.writeBitmap = writeBitmap;
+		return this;
+	}
+	
+	/**
+	 * Unreachable objects in old packs are kept as loose objects unless they are older than 
+	 * specified expiry, for instance <tt>2.weeks.ago</tt>. Only applicable when all objects 
+	 * are repacked
+	 */
+	public RepackCommand unpackUnreachable(@Nullable String unpackUnreachable) {
+		this.unpackUnreachable = unpackUnreachable;
+		return this;
+	}
+	
+	protected Commandline newGit() {
+		return CommandUtils.newGit();
+	}
+	
+	public void run() {
+		Commandline git = newGit().workingDir(workingDir).addArgs("repack", "-d", "-q");
+		if (all) {
+			git.addArgs("-A");
+			if (writeBitmap)
+				git.addArgs("--write-bitmap-index");
+			if (unpackUnreachable != null)
+				git.addArgs("--unpack-unreachable=" + unpackUnreachable);
+		}
+		
+		git.execute(new LineConsumer() {
+
+			@Override
+			public void consume(String line) {
+				logger.debug(line);
+			}
+			
+		}, new LineConsumer() {
+
+			@Override
+			public void consume(String line) {
+				logger.warn(line);
+			}
+			
+		}).checkReturnCode();
+	}
+
+}
@@ -0,0 +1,47 @@
+package io.onedev.server.git.command;
+
+import java.io.File;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.onedev.commons.utils.command.Commandline;
+import io.onedev.commons.utils.command.LineConsumer;
+import io.onedev.server.git.CommandUtils;
+
+public class WriteCommitGraphCommand {
+
+	private static final Logger logger = LoggerFactory.getLogger(WriteCommitGraphCommand.class);
+
+	private final File workingDir;
+
+	public WriteCommitGraphCommand(File workingDir) {
+		this.workingDir = workingDir;
+	}
+
+	protected Commandline newGit() {
+		return CommandUtils.newGit();
+	}
+
+	public void run() {
+		Commandline git = newGit().workingDir(workingDir);
+		git.addArgs("commit-graph", "write", "--reachable");
+
+		git.execute(new LineConsumer() {
+
+			@Override
+			public void consume(String line) {
+				logger.debug(line);
+			}
+
+		}, new LineConsumer() {
+
+			@Override
+			public void consume(String line) {
+				logger.debug(line);
+			}
+
+		}).checkReturnCode();
+	}
+
+}
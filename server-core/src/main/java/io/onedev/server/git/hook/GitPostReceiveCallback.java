@@ -140,6 +140,13 @@ public class GitPostReceiveCallback extends HttpServlet {
         		fields.set(pos, field);
         }
         
+        /*
+         * Bump git version before acknowledging the push, so that replicas are no longer 
+         * considered up to date for fetching until synced. RefUpdated listeners below run 
+         * after the push is acknowledged
+         */
+        projectManager.directoryModified(projectId, projectManager.getGitDir(projectId));
+        
         sessionManager.runAsyncAfterCommit(() -> {
 			Project project = projectManager.load(projectId);
 			try {
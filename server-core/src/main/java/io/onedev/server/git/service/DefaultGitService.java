@@ -1,6 +1,8 @@
 package io.onedev.server.git.service;
 
 import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 import io.onedev.commons.loader.ManagedSerializedForm;
@@ -24,6 +26,9 @@ import io.onedev.server.model.Project;
 import io.onedev.server.model.User;
 import io.onedev.server.persistence.SessionManager;
 import io.onedev.server.persistence.annotation.Sessional;
+import io.onedev.server.util.Pair;
+import io.onedev.server.util.concurrent.PrioritizedRunnable;
+import io.onedev.server.util.concurrent.WorkExecutor;
 import org.apache.commons.lang3.SerializationUtils;
 import org.bouncycastle.openpgp.PGPSecretKeyRing;
 import org.eclipse.jgit.api.CreateBranchCommand;
@@ -46,6 +51,7 @@ import javax.inject.Singleton;
 import java.io.*;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.ReadWriteLock;
 
@@ -58,6 +64,15 @@ public class DefaultGitService implements GitService, Serializable {
 	
 	private static final int LAST_COMMITS_CACHE_THRESHOLD = 1000;
 	
+	private static final String BLAME_CACHE_DIR = "blame";
+	
+	private static final int AHEAD_BEHIND_CACHE_SIZE = 100000;
+	
+	// Rewrite commit graph if more than this number of commits are found outside of it
+	private static final int COMMIT_GRAPH_STALE_THRESHOLD = 1000;
+	
+	private static final int COMMIT_GRAPH_PRIORITY = 50;
+	
 	private final ProjectManager projectManager;
 	
 	private final SettingManager settingManager;
@@ -68,15 +83,26 @@ public class DefaultGitService implements GitService, Serializable {
 	
 	private final ListenerRegistry listenerRegistry;
 	
+	private final WorkExecutor workExecutor;
+	
+	// Ahead/behind of a commit pair never changes, and is independent of repositories
+	private final Cache<Pair<ObjectId, ObjectId>, AheadBehind> aheadBehindCache = 
+			CacheBuilder.newBuilder().maximumSize(AHEAD_BEHIND_CACHE_SIZE).build();
+	
+	private final Cache<Long, CommitGraph> commitGraphCache = CacheBuilder.newBuilder().softValues().build();
+	
+	private final Set<Long> commitGraphWritingProjectIds = ConcurrentHashMap.newKeySet();
+	
 	@Inject
 	public DefaultGitService(ProjectManager projectManager, SettingManager settingManager, 
 							 SessionManager sessionManager, ClusterManager clusterManager, 
-							 ListenerRegistry listenerRegistry) {
+							 ListenerRegistry listenerRegistry, WorkExecutor workExecutor) {
 		this.projectManager = projectManager;
 		this.sessionManager = sessionManager;
 		this.settingManager = settingManager;
 		this.clusterManager = clusterManager;
 		this.listenerRegistry = listenerRegistry;
+		this.workExecutor = workExecutor;
 	}
 
 	public Object writeReplace() throws ObjectStreamException {
@@ -95,6 +121,15 @@ public class DefaultGitService implements GitService, Serializable {
 		return projectManager.runOnActiveServer(projectId, task);
 	}
 	
+	/*
+	 * Bump git version as soon as refs are changed so that replicas are no longer considered 
+	 * up to date for fetching. This is not done in RefUpdated listeners as pushes bump git 
+	 * version before acknowledging
+	 */
+	private void gitDirModified(Long projectId) {
+		projectManager.directoryModified(projectId, projectManager.getGitDir(projectId));
+	}
+	
 	private LineConsumer newInfoLogger() {
 		return new LineConsumer() {
 
@@ -196,6 +231,7 @@ public class DefaultGitService implements GitService, Serializable {
 			}
 			
 		});
+		gitDirModified(projectId);
 		project.cacheObjectId(branchName, commitId);
 		listenerRegistry.post(new RefUpdated(project, 
 				GitUtils.branch2ref(branchName), ObjectId.zeroId(), commitId));
@@ -247,6 +283,7 @@ public class DefaultGitService implements GitService, Serializable {
 				throw new RuntimeException(e);
 			}
 		});
+		gitDirModified(projectId);
 		project.cacheObjectId(tagName, tagAndCommitId.getTagId());
 		listenerRegistry.post(new RefUpdated(project, 
 				GitUtils.tag2ref(tagName), ObjectId.zeroId(), tagAndCommitId.getCommitId()));
@@ -315,6 +352,7 @@ public class DefaultGitService implements GitService, Serializable {
 			try (RevWalk revWalk = new RevWalk(repository)) {
 				ObjectId commitId = revWalk.parseCommit(repository.resolve(branchName)).copy();
 				Git.wrap(repository).branchDelete().setForce(true).setBranchNames(branchName).call();
+				gitDirModified(projectId);
 				
 				String refName = GitUtils.branch2ref(branchName);
 				sessionManager.runAsync(new Runnable() {
@@ -345,6 +383,7 @@ public class DefaultGitService implements GitService, Serializable {
 			try (RevWalk revWalk = new RevWalk(repository)) {
 				ObjectId commitId = revWalk.parseCommit(repository.resolve(tagName)).copy();
 				Git.wrap(repository).tagDelete().setTags(tagName).call();
+				gitDirModified(projectId);
 				
 				String refName = GitUtils.tag2ref(tagName);
 				sessionManager.runAsync(() -> {
@@ -542,6 +581,7 @@ public class DefaultGitService implements GitService, Serializable {
 			return null;
 		});
 
+		gitDirModified(projectId);
 		project.cacheObjectId(refName, newObjectId);
 		
 		if (expectedOldObjectId != null 
@@ -787,6 +827,7 @@ public class DefaultGitService implements GitService, Serializable {
 
 		});
 		
+		gitDirModified(projectId);
 		project.cacheObjectId(refName, commitId);
 		listenerRegistry.post(new RefUpdated(project, refName, expectedOldCommitId, commitId));
 		
@@ -1223,88 +1264,152 @@ public class DefaultGitService implements GitService, Serializable {
 		});
 	}
 	
+	@Nullable
+	private CommitGraph getCommitGraph(Long projectId) {
+		CommitGraph commitGraph = commitGraphCache.getIfPresent(projectId);
+		if (commitGraph == null || commitGraph.isStale()) {
+			commitGraph = CommitGraph.read(getGitDir(projectId));
+			if (commitGraph != null)
+				commitGraphCache.put(projectId, commitGraph);
+			else
+				commitGraphCache.invalidate(projectId);
+		}
+		return commitGraph;
+	}
+	
+	private void requestToWriteCommitGraph(Long projectId) {
+		if (CommandUtils.isCommitGraphSupported() && commitGraphWritingProjectIds.add(projectId)) {
+			workExecutor.submit(new PrioritizedRunnable(COMMIT_GRAPH_PRIORITY) {
+
+				@Override
+				public void run() {
+					try {
+						CommitGraph.write(getGitDir(projectId));
+					} catch (Exception e) {
+						logger.warn("Error writing commit graph (project id: " + projectId + ")", e);
+					} finally {
+						commitGraphWritingProjectIds.remove(projectId);
+					}
+				}
+				
+			});
+		}
+	}
+	
 	@Override
 	public Map<ObjectId, AheadBehind> getAheadBehinds(Project project, ObjectId baseId, 
 			Collection<ObjectId> compareIds) {
 		Long projectId = project.getId();
 		return runOnProjectServer(projectId, () -> {
-			try (RevWalk revWalk = new RevWalk(getRepository(projectId))) {
-				Map<ObjectId, AheadBehind> aheadBehinds = new HashMap<>();
-				RevCommit baseCommit = revWalk.lookupCommit(baseId);
+			Map<ObjectId, AheadBehind> aheadBehinds = new HashMap<>();
+			Collection<ObjectId> uncachedIds = new LinkedHashSet<>();
+			for (ObjectId compareId: compareIds) {
+				AheadBehind aheadBehind = aheadBehindCache.getIfPresent(new Pair<>(baseId.copy(), compareId.copy()));
+				if (aheadBehind != null)
+					aheadBehinds.put(compareId, aheadBehind);
+				else
+					uncachedIds.add(compareId);
+			}
+			if (!uncachedIds.isEmpty()) {
+				Map<ObjectId, AheadBehind> calculated;
+				CommitGraph commitGraph = getCommitGraph(projectId);
+				if (commitGraph != null) {
+					AheadBehindWalk walk = new AheadBehindWalk(getRepository(projectId), commitGraph);
+					calculated = walk.calculate(baseId, uncachedIds);
+					if (walk.getOutOfGraphCount() > COMMIT_GRAPH_STALE_THRESHOLD)
+						requestToWriteCommitGraph(projectId);
+				} else {
+					calculated = calculateAheadBehinds(getRepository(projectId), baseId, uncachedIds);
+					requestToWriteCommitGraph(projectId);
+				}
+				for (Map.Entry<ObjectId, AheadBehind> entry: calculated.entrySet()) 
+					aheadBehindCache.put(new Pair<>(baseId.copy(), entry.getKey().copy()), entry.getValue());
+				aheadBehinds.putAll(calculated);
+			}
+			return aheadBehinds;
+		});
+	}
+	
+	private Map<ObjectId, AheadBehind> calculateAheadBehinds(Repository repository, ObjectId baseId, 
+			Collection<ObjectId> compareIds) {
+		try (RevWalk revWalk = new RevWalk(repository)) {
+			Map<ObjectId, AheadBehind> aheadBehinds = new HashMap<>();
+			RevCommit baseCommit = revWalk.lookupCommit(baseId);
+			revWalk.markStart(baseCommit);
+			Map<ObjectId, RevCommit> compareCommits = new HashMap<>();
+			for (ObjectId compareId: compareIds) {
+				RevCommit compareCommit = revWalk.lookupCommit(compareId);
+				compareCommits.put(compareId, compareCommit);
+				revWalk.markStart(compareCommit);
+			}
+			revWalk.setRevFilter(RevFilter.MERGE_BASE);
+			RevCommit mergeBase = revWalk.next();
+			
+			revWalk.reset();
+			revWalk.setRevFilter(RevFilter.ALL);
+
+			if (mergeBase != null) {
 				revWalk.markStart(baseCommit);
-				Map<ObjectId, RevCommit> compareCommits = new HashMap<>();
+				revWalk.markUninteresting(mergeBase);
+				Set<ObjectId> baseSet = new HashSet<>();
+				for (RevCommit commit: revWalk) 
+					baseSet.add(commit.copy());
+				revWalk.reset();
+				
 				for (ObjectId compareId: compareIds) {
-					RevCommit compareCommit = revWalk.lookupCommit(compareId);
-					compareCommits.put(compareId, compareCommit);
+					RevCommit compareCommit = Preconditions.checkNotNull(compareCommits.get(compareId));
 					revWalk.markStart(compareCommit);
-				}
-				revWalk.setRevFilter(RevFilter.MERGE_BASE);
-				RevCommit mergeBase = revWalk.next();
-				
-				revWalk.reset();
-				revWalk.setRevFilter(RevFilter.ALL);
-
-				if (mergeBase != null) {
-					revWalk.markStart(baseCommit);
 					revWalk.markUninteresting(mergeBase);
-					Set<ObjectId> baseSet = new HashSet<>();
+					Set<ObjectId> compareSet = new HashSet<>();
 					for (RevCommit commit: revWalk) 
-						baseSet.add(commit.copy());
+						compareSet.add(commit.copy());
 					revWalk.reset();
 					
-					for (ObjectId compareId: compareIds) {
-						RevCommit compareCommit = Preconditions.checkNotNull(compareCommits.get(compareId));
-						revWalk.markStart(compareCommit);
-						revWalk.markUninteresting(mergeBase);
-						Set<ObjectId> compareSet = new HashSet<>();
-						for (RevCommit commit: revWalk) 
-							compareSet.add(commit.copy());
-						revWalk.reset();
-						
-						int ahead = 0;
-						for (ObjectId each: compareSet) {
-							if (!baseSet.contains(each))
-								ahead++;
-						}
-						int behind = 0;
-						for (ObjectId each: baseSet) {
-							if (!compareSet.contains(each))
-								behind++;
-						}
-						aheadBehinds.put(compareId, new AheadBehind(ahead, behind));
-					}					
-				} else {
-					for (ObjectId compareId: compareIds) {
-						RevCommit compareCommit = Preconditions.checkNotNull(compareCommits.get(compareId));
-						revWalk.markUninteresting(baseCommit);
-						revWalk.markStart(compareCommit);
-						int ahead = 0;
-						for (@SuppressWarnings("unused") var commit: revWalk)
+					int ahead = 0;
+					for (ObjectId each: compareSet) {
+						if (!baseSet.contains(each))
 							ahead++;
-						revWalk.reset();
-						
-						revWalk.markUninteresting(compareCommit);
-						revWalk.markStart(baseCommit);
-						int behind = 0;
-						for (@SuppressWarnings("unused") var commit: revWalk)
+					}
+					int behind = 0;
+					for (ObjectId each: baseSet) {
+						if (!compareSet.contains(each))
 							behind++;
-						revWalk.reset();
-						
-						aheadBehinds.put(compareId, new AheadBehind(ahead, behind));
-					}					
-				}
-				return aheadBehinds;
-			} catch (IOException e) {
-				throw new RuntimeException(e);
+					}
+					aheadBehinds.put(compareId, new AheadBehind(ahead, behind));
+				}					
+			} else {
+				for (ObjectId compareId: compareIds) {
+					RevCommit compareCommit = Preconditions.checkNotNull(compareCommits.get(compareId));
+					revWalk.markUninteresting(baseCommit);
+					revWalk.markStart(compareCommit);
+					int ahead = 0;
+					for (@SuppressWarnings("unused") var commit: revWalk)
+						ahead++;
+					revWalk.reset();
+					
+					revWalk.markUninteresting(compareCommit);
+					revWalk.markStart(baseCommit);
+					int behind = 0;
+					for (@SuppressWarnings("unused") var commit: revWalk)
+						behind++;
+					revWalk.reset();
+					
+					aheadBehinds.put(compareId, new AheadBehind(ahead, behind));
+				}					
 			}
-		});
+			return aheadBehinds;
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
 	}
 
 	@Override
 	public Collection<BlameBlock> blame(Project project, ObjectId revId, String file, LinearRange range) {
 		Long projectId = project.getId();
-		return runOnProjectServer(projectId, () -> new BlameCommand(projectManager.getGitDir(projectId), revId, file)
-				.range(range).run());
+		return runOnProjectServer(projectId, () -> {
+			File cacheDir = new File(projectManager.getInfoDir(projectId), BLAME_CACHE_DIR);
+			return new BlameCache(cacheDir, getGitDir(projectId), getRepository(projectId)).blame(revId, file, range);
+		});
 	}
 
 	@Override
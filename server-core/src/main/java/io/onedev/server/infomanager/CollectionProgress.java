@@ -0,0 +1,68 @@
+package io.onedev.server.infomanager;
+
+import java.io.Serializable;
+
+/**
+ * Progress of a commit info collection pass of a project
+ */
+public class CollectionProgress implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	public enum Pass {
+
+		COMMITS("Commits"),
+		CONTRIBUTIONS("Contributions"),
+		FILES("Files"),
+		LINE_STATS("Source lines");
+
+		private final String displayName;
+
+		Pass(String displayName) {
+			this.displayName = displayName;
+		}
+
+		public String getDisplayName() {
+			return displayName;
+		}
+
+	}
+
+	private final Pass pass;
+
+	private final int collected;
+
+	private final int total;
+
+	public CollectionProgress(Pass pass, int collected, int total) {
+		this.pass = pass;
+		this.collected = collected;
+		this.total = total;
+	}
+
+	public Pass getPass() {
+		return pass;
+	}
+
+	/**
+	 * @return number of commits collected by this pass so far
+	 */
+	public int getCollected() {
+		return collected;
+	}
+
+	/**
+	 * @return number of commits to be collected by this pass, including collected ones
+	 */
+	public int getTotal() {
+		return total;
+	}
+
+	public int getPercentage() {
+		if (total != 0)
+			return (int) (collected * 100L / total);
+		else
+			return 0;
+	}
+
+}
@@ -86,4 +86,14 @@ public interface CommitInfoManager {
 	List<Long> sortUsersByContribution(Map<Long, Collection<EmailAddressFacade>> userEmails, 
 			Long projectId, Collection<String> files);
 	
+	/**
+	 * Get progress of ongoing commit info collection
+	 * 
+	 * @param projectId
+	 * 			project to get collection progress for
+	 * @return
+	 * 			progress of collection passes still in progress, empty if all collected
+	 */
+	List<CollectionProgress> getCollectionProgresses(Long projectId);
+	
 }
\ No newline at end of file
@@ -0,0 +1,168 @@
+package io.onedev.server.infomanager;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Compact binary encoding of info values, using variable length integers so that small
+ * numbers, such as deltas between sorted indexes, take only one or two bytes
+ */
+class CompactCodec {
+
+	static class Writer {
+
+		private byte[] bytes;
+
+		private int length;
+
+		Writer(int capacity) {
+			bytes = new byte[Math.max(capacity, 16)];
+		}
+
+		Writer() {
+			this(64);
+		}
+
+		private void ensureCapacity(int additional) {
+			if (length + additional > bytes.length)
+				bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + additional));
+		}
+
+		Writer writeByte(int value) {
+			ensureCapacity(1);
+			bytes[length++] = (byte) value;
+			return this;
+		}
+
+		Writer writeBytes(byte[] value, int offset, int count) {
+			ensureCapacity(count);
+			System.arraycopy(value, offset, bytes, length, count);
+			length += count;
+			return this;
+		}
+
+		/**
+		 * Write a non-negative int using 1 to 5 bytes
+		 */
+		Writer writeVarInt(int value) {
+			ensureCapacity(5);
+			while ((value & ~0x7F) != 0) {
+				bytes[length++] = (byte) ((value & 0x7F) | 0x80);
+				value >>>= 7;
+			}
+			bytes[length++] = (byte) value;
+			return this;
+		}
+
+		/**
+		 * Write a possibly negative int with zigzag encoding so that small negative
+		 * numbers also take few bytes
+		 */
+		Writer writeSignedVarInt(int value) {
+			return writeVarInt((value << 1) ^ (value >> 31));
+		}
+
+		Writer writeString(String value) {
+			byte[] valueBytes = value.getBytes(StandardCharsets.UTF_8);
+			writeVarInt(valueBytes.length);
+			return writeBytes(valueBytes, 0, valueBytes.length);
+		}
+
+		int length() {
+			return length;
+		}
+
+		byte[] toByteArray() {
+			return Arrays.copyOf(bytes, length);
+		}
+
+	}
+
+	static class Reader {
+
+		private final byte[] bytes;
+
+		private int position;
+
+		Reader(byte[] bytes, int position) {
+			this.bytes = bytes;
+			this.position = position;
+		}
+
+		Reader(byte[] bytes) {
+			this(bytes, 0);
+		}
+
+		boolean hasRemaining() {
+			return position < bytes.length;
+		}
+
+		int position() {
+			return position;
+		}
+
+		void position(int position) {
+			this.position = position;
+		}
+
+		int readByte() {
+			return bytes[position++] & 0xFF;
+		}
+
+		int readVarInt() {
+			int value = 0;
+			int shift = 0;
+			while (true) {
+				byte b = bytes[position++];
+				value |= (b & 0x7F) << shift;
+				if ((b & 0x80) == 0)
+					return value;
+				shift += 7;
+			}
+		}
+
+		int readSignedVarInt() {
+			int value = readVarInt();
+			return (value >>> 1) ^ -(value & 1);
+		}
+
+		String readString() {
+			int length = readVarInt();
+			String value = new String(bytes, position, length, StandardCharsets.UTF_8);
+			position += length;
+			return value;
+		}
+
+	}
+
+	/**
+	 * Encode specified ints as deltas of sorted values
+	 */
+	static byte[] encodeInts(int[] values) {
+		int[] sorted = values.clone();
+		Arrays.sort(sorted);
+		Writer writer = new Writer(sorted.length * 2 + 5);
+		writer.writeVarInt(sorted.length);
+		int prev = 0;
+		for (int value: sorted) {
+			writer.writeSignedVarInt(value - prev);
+			prev = value;
+		}
+		return writer.toByteArray();
+	}
+
+	/**
+	 * @return sorted ints decoded from bytes encoded with {@link #encodeInts(int[])}
+	 */
+	static int[] decodeInts(byte[] bytes) {
+		Reader reader = new Reader(bytes);
+		int[] values = new int[reader.readVarInt()];
+		int prev = 0;
+		for (int i=0; i<values.length; i++) {
+			prev += reader.readSignedVarInt();
+			values[i] = prev;
+		}
+		return values;
+	}
+
+}
@@ -0,0 +1,145 @@
+package io.onedev.server.infomanager;
+
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+
+/**
+ * Immutable string list stored in front coded form: each string only records bytes not
+ * shared with its predecessor, and strings are decoded on demand. This takes a fraction of
+ * memory of an ordinary string list when strings are sorted and share long prefixes, for
+ * instance file paths of a repository.
+ * <p>
+ * Every {@link #RESTART_INTERVAL} strings are stored in full so that random access only
+ * needs to decode a few preceding strings.
+ */
+public class CompactStringList extends AbstractList<String> implements RandomAccess, Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final int RESTART_INTERVAL = 16;
+
+	private final byte[] bytes;
+
+	private final int size;
+
+	private final int[] restartPositions;
+
+	private CompactStringList(byte[] bytes) {
+		this.bytes = bytes;
+		CompactCodec.Reader reader = new CompactCodec.Reader(bytes);
+		size = reader.readVarInt();
+		restartPositions = new int[(size + RESTART_INTERVAL - 1) / RESTART_INTERVAL];
+		for (int i=0; i<size; i++) {
+			if (i % RESTART_INTERVAL == 0)
+				restartPositions[i / RESTART_INTERVAL] = reader.position();
+			reader.readVarInt();
+			int suffixLength = reader.readVarInt();
+			reader.position(reader.position() + suffixLength);
+		}
+	}
+
+	/**
+	 * Encode specified strings. Order of strings is preserved, and sorting them beforehand
+	 * gives best compression
+	 */
+	public static CompactStringList of(List<String> strings) {
+		CompactCodec.Writer writer = new CompactCodec.Writer();
+		writer.writeVarInt(strings.size());
+		byte[] prev = new byte[0];
+		for (int i=0; i<strings.size(); i++) {
+			byte[] current = strings.get(i).getBytes(StandardCharsets.UTF_8);
+			int shared = 0;
+			if (i % RESTART_INTERVAL != 0) {
+				int maxShared = Math.min(prev.length, current.length);
+				while (shared < maxShared && prev[shared] == current[shared])
+					shared++;
+			}
+			writer.writeVarInt(shared);
+			writer.writeVarInt(current.length - shared);
+			writer.writeBytes(current, shared, current.length - shared);
+			prev = current;
+		}
+		return new CompactStringList(writer.toByteArray());
+	}
+
+	/**
+	 * @param bytes
+	 * 			bytes previously obtained via {@link #getBytes()}
+	 */
+	public static CompactStringList fromBytes(byte[] bytes) {
+		return new CompactStringList(bytes);
+	}
+
+	public byte[] getBytes() {
+		return bytes;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public String get(int index) {
+		if (index < 0 || index >= size)
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+		Decoder decoder = new Decoder(index / RESTART_INTERVAL * RESTART_INTERVAL);
+		for (int i=index % RESTART_INTERVAL; i>0; i--)
+			decoder.decode();
+		return decoder.decode();
+	}
+
+	@Override
+	public Iterator<String> iterator() {
+		return new Iterator<String>() {
+
+			private final Decoder decoder = new Decoder(0);
+
+			private int index;
+
+			@Override
+			public boolean hasNext() {
+				return index < size;
+			}
+
+			@Override
+			public String next() {
+				if (index >= size)
+					throw new NoSuchElementException();
+				index++;
+				return decoder.decode();
+			}
+
+		};
+	}
+
+	private class Decoder {
+
+		private final CompactCodec.Reader reader;
+
+		private byte[] current = new byte[256];
+
+		Decoder(int from) {
+			reader = new CompactCodec.Reader(bytes, from < size? restartPositions[from / RESTART_INTERVAL]: bytes.length);
+		}
+
+		String decode() {
+			int shared = reader.readVarInt();
+			int suffixLength = reader.readVarInt();
+			int length = shared + suffixLength;
+			if (length > current.length)
+				current = Arrays.copyOf(current, Math.max(length, current.length * 2));
+			System.arraycopy(bytes, reader.position(), current, shared, suffixLength);
+			reader.position(reader.position() + suffixLength);
+			return new String(current, 0, length, StandardCharsets.UTF_8);
+		}
+
+	}
+
+}
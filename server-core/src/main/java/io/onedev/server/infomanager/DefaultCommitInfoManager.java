@@ -41,7 +41,6 @@ import io.onedev.server.util.patternset.PatternSet;
 import jetbrains.exodus.ArrayByteIterable;
 import jetbrains.exodus.ByteIterable;
 import jetbrains.exodus.env.*;
-import org.apache.commons.lang3.SerializationUtils;
 import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.Ref;
@@ -62,7 +61,6 @@ import javax.ws.rs.client.WebTarget;
 import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.Response;
 import java.io.*;
-import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
@@ -77,12 +75,18 @@ public class DefaultCommitInfoManager extends AbstractMultiEnvironmentManager
 
 	private static final Logger logger = LoggerFactory.getLogger(DefaultCommitInfoManager.class);
 
-	private static final int INFO_VERSION = 15;
+	private static final int INFO_VERSION = 16;
 
 	private static final long LOG_FILE_SIZE = 256 * 1024;
 
 	private static final int COLLECT_BATCH_SIZE = 10000;
 
+	/*
+	 * Commits pass buffers commits of a batch with their file changes before writing them in 
+	 * a transaction, while other passes only accumulate aggregated increments
+	 */
+	private static final int COMMITS_COLLECT_BATCH_SIZE = 1000;
+
 	private static final int MAX_HISTORY_PATHS = 100;
 
 	private static final int MAX_COMMIT_FILES = 100;
@@ -127,6 +131,8 @@ public class DefaultCommitInfoManager extends AbstractMultiEnvironmentManager
 
 	private static final ByteIterable LINE_STATS_KEY = new StringByteIterable("lineStats");
 
+	private static final ByteIterable LINE_STATS_WALK_TARGET_KEY = new StringByteIterable("lineStatsWalkTarget");
+
 	private static final ByteIterable USERS_KEY = new StringByteIterable("users");
 
 	private static final ByteIterable FILES_KEY = new StringByteIterable("files");
@@ -165,6 +171,8 @@ public class DefaultCommitInfoManager extends AbstractMultiEnvironmentManager
 
 	private final Map<Long, List<NameAndEmail>> usersCache = new ConcurrentHashMap<>();
 
+	private final Map<Long, Map<CollectionProgress.Pass, CollectionProgress>> collectionProgresses = new ConcurrentHashMap<>();
+
 	@Inject
 	public DefaultCommitInfoManager(ProjectManager projectManager, 
 									BatchWorkManager batchWorkManager, SessionManager sessionManager,
@@ -193,6 +201,13 @@ public class DefaultCommitInfoManager extends AbstractMultiEnvironmentManager
 	private void doCollect(Project project, ObjectId commitId, String refName) {
 		logger.debug("Collecting commit information (project: {}, ref: {})...", project.getPath(), refName);
 
+		boolean onDefaultBranch = GitUtils.branch2ref(project.getDefaultBranch()).equals(refName);
+		if (onDefaultBranch) {
+			// These passes do not rely on information collected here, and can run in parallel
+			submitCollection(project.getId(), CollectionProgress.Pass.FILES);
+			submitCollection(project.getId(), CollectionProgress.Pass.LINE_STATS);
+		}
+
 		Environment env = getEnv(project.getId().toString());
 		Store defaultStore = getStore(env, DEFAULT_STORE);
 		Store commitsStore = getStore(env, COMMITS_STORE);
@@ -229,47 +244,41 @@ public class DefaultCommitInfoManager extends AbstractMultiEnvironmentManager
 		});
 
 		if (!isCommitCollected(result.getLeft())) {
-			processCommitRange(project, commitId, result.getRight(), (untilCommitId, sinceCommitId) -> env.executeInTransaction(txn -> {
-				AtomicInteger totalCommitCount = new AtomicInteger(readInt(defaultStore, txn, COMMIT_COUNT_KEY, 0));
+			processCommitRange(project, CollectionProgress.Pass.COMMITS, commitId, result.getRight(), 
+					COMMITS_COLLECT_BATCH_SIZE, (untilCommitId, sinceCommitId) -> {
+				// Run git log outside of the transaction so that other passes are not blocked 
+				// from writing while commits are being read
+				List<GitCommit> commits = new ArrayList<>();
+				List<String> revisions = new ArrayList<>();
+				revisions.add(untilCommitId.name());
 
-				NextIndex nextIndex = new NextIndex();
-				nextIndex.user = readInt(defaultStore, txn, NEXT_USER_INDEX_KEY, 0);
-				nextIndex.email = readInt(defaultStore, txn, NEXT_EMAIL_INDEX_KEY, 0);
-				nextIndex.path = readInt(defaultStore, txn, NEXT_PATH_INDEX_KEY, 0);
+				if (sinceCommitId != null)
+					revisions.add("^" + sinceCommitId.name());
 
-				Map<Long, Integer> commitCountCache = new HashMap<>();
+				EnumSet<LogCommand.Field> fields = EnumSet.allOf(LogCommand.Field.class);
+				fields.remove(LogCommand.Field.LINE_CHANGES);
+				new LogCommand(projectManager.getGitDir(project.getId()), revisions) {
 
-				Set<NameAndEmail> users;
-				byte[] userBytes = readBytes(defaultStore, txn, USERS_KEY);
-				if (userBytes != null)
-					users = SerializationUtils.deserialize(userBytes);
-				else
-					users = new HashSet<>();
+					@Override
+					protected void consume(GitCommit commit) {
+						commits.add(commit);
+					}
 
-				new ElementPumper<GitCommit>() {
+				}.fields(fields).run();
 
-					@Override
-					public void generate(Consumer<GitCommit> consumer) {
-						List<String> revisions = new ArrayList<>();
-						revisions.add(untilCommitId.name());
+				env.executeInExclusiveTransaction(txn -> {
+					AtomicInteger totalCommitCount = new AtomicInteger(readInt(defaultStore, txn, COMMIT_COUNT_KEY, 0));
 
-						if (sinceCommitId != null)
-							revisions.add("^" + sinceCommitId.name());
+					NextIndex nextIndex = new NextIndex();
+					nextIndex.user = readInt(defaultStore, txn, NEXT_USER_INDEX_KEY, 0);
+					nextIndex.email = readInt(defaultStore, txn, NEXT_EMAIL_INDEX_KEY, 0);
+					nextIndex.path = readInt(defaultStore, txn, NEXT_PATH_INDEX_KEY, 0);
 
-						EnumSet<LogCommand.Field> fields = EnumSet.allOf(LogCommand.Field.class);
-						fields.remove(LogCommand.Field.LINE_CHANGES);
-						new LogCommand(projectManager.getGitDir(project.getId()), revisions) {
-							
-							@Override
-							protected void consume(GitCommit commit) {
-								consumer.accept(commit);
-							}
+					Map<Integer, Map<Integer, Integer>> commitCountIncrements = new HashMap<>();
 
-						}.fields(fields).run();
-					}
+					Set<NameAndEmail> users = new HashSet<>(decodeUsers(readBytes(defaultStore, txn, USERS_KEY)));
 
-					@Override
-					public void process(GitCommit currentCommit) {
+					for (GitCommit currentCommit: commits) {
 						ObjectId currentCommitId = ObjectId.fromString(currentCommit.getHash());
 						ByteIterable currentCommitKey = new CommitByteIterable(currentCommitId);
 						byte[] currentCommitBytes = readBytes(commitsStore, txn, currentCommitKey);
@@ -325,7 +334,7 @@ public class DefaultCommitInfoManager extends AbstractMultiEnvironmentManager
 								writeCommits(fixCommitsStore, txn, issueKey, fixingCommits);
 								listenerRegistry.post(new IssueCommitsAttached(issueManager.load(issueId)));
 							}
-							
+						
 							entityReferenceManager.addReferenceChange(
 									new ProjectScopedCommit(project, project.getRevCommit(currentCommitId, true)));
 
@@ -336,7 +345,7 @@ public class DefaultCommitInfoManager extends AbstractMultiEnvironmentManager
 								NameAndEmail nameAndEmail = new NameAndEmail(currentCommit.getAuthor());
 								users.add(nameAndEmail);
 
-								ByteIterable authorKey = new ArrayByteIterable(SerializationUtils.serialize(nameAndEmail));
+								ByteIterable authorKey = new StringByteIterable(encodeUser(nameAndEmail));
 								int userIndex = readInt(userToIndexStore, txn, authorKey, -1);
 								if (userIndex == -1) {
 									userIndex = nextIndex.user++;
@@ -355,16 +364,16 @@ public class DefaultCommitInfoManager extends AbstractMultiEnvironmentManager
 									for (String path : change.getPaths()) {
 										int pathIndex = getPathIndex(pathToIndexStore, indexToPathStore, txn,
 												nextIndex, path);
-										updateCommitCount(commitCountsStore, txn, commitCountCache, emailIndex, pathIndex);
+										updateCommitCount(commitCountIncrements, emailIndex, pathIndex);
 										while (path.contains("/")) {
 											path = StringUtils.substringBeforeLast(path, "/");
 											pathIndex = getPathIndex(pathToIndexStore, indexToPathStore, txn,
 													nextIndex, path);
-											updateCommitCount(commitCountsStore, txn, commitCountCache, emailIndex, pathIndex);
+											updateCommitCount(commitCountIncrements, emailIndex, pathIndex);
 										}
 										pathIndex = getPathIndex(pathToIndexStore, indexToPathStore, txn,
 												nextIndex, "");
-										updateCommitCount(commitCountsStore, txn, commitCountCache, emailIndex, pathIndex);
+										updateCommitCount(commitCountIncrements, emailIndex, pathIndex);
 									}
 								}
 							}
@@ -375,32 +384,21 @@ public class DefaultCommitInfoManager extends AbstractMultiEnvironmentManager
 									int pathIndex = getPathIndex(pathToIndexStore, indexToPathStore, txn,
 											nextIndex, change.getNewPath());
 									ByteIterable pathKey = new IntByteIterable(pathIndex);
-									Set<Integer> historyPathIndexes = new HashSet<>();
 									byte[] bytesOfHistoryPaths = readBytes(historyPathsStore, txn, pathKey);
-									if (bytesOfHistoryPaths == null) {
-										bytesOfHistoryPaths = new byte[0];
-										int pos = 0;
-										for (int i = 0; i < bytesOfHistoryPaths.length / Integer.SIZE; i++) {
-											historyPathIndexes.add(ByteBuffer.wrap(bytesOfHistoryPaths, pos, Integer.SIZE).getInt());
-											pos += Integer.SIZE;
-										}
-									} else {
-										historyPathIndexes = new HashSet<>();
-									}
-									if (historyPathIndexes.size() < MAX_HISTORY_PATHS) {
+									int[] historyPathIndexes;
+									if (bytesOfHistoryPaths != null)
+										historyPathIndexes = CompactCodec.decodeInts(bytesOfHistoryPaths);
+									else
+										historyPathIndexes = new int[0];
+									if (historyPathIndexes.length < MAX_HISTORY_PATHS) {
 										int oldPathIndex = getPathIndex(pathToIndexStore, indexToPathStore, txn,
 												nextIndex, change.getOldPath());
-										if (!historyPathIndexes.contains(oldPathIndex)) {
-											historyPathIndexes.add(oldPathIndex);
-											byte[] newBytesOfHistoryPaths =
-													new byte[bytesOfHistoryPaths.length + Integer.SIZE];
-											System.arraycopy(bytesOfHistoryPaths, 0,
-													newBytesOfHistoryPaths, 0, bytesOfHistoryPaths.length);
-											ByteBuffer buffer = ByteBuffer.wrap(newBytesOfHistoryPaths,
-													bytesOfHistoryPaths.length, Integer.BYTES);
-											buffer.putInt(oldPathIndex);
-											historyPathsStore.put(txn, pathKey,
-													new ArrayByteIterable(newBytesOfHistoryPaths));
+										if (Arrays.binarySearch(historyPathIndexes, oldPathIndex) < 0) {
+											int[] newHistoryPathIndexes = Arrays.copyOf(
+													historyPathIndexes, historyPathIndexes.length + 1);
+											newHistoryPathIndexes[historyPathIndexes.length] = oldPathIndex;
+											historyPathsStore.put(txn, pathKey, new ArrayByteIterable(
+													CompactCodec.encodeInts(newHistoryPathIndexes)));
 										}
 									}
 								}
@@ -408,31 +406,34 @@ public class DefaultCommitInfoManager extends AbstractMultiEnvironmentManager
 						}
 					}
 
-				}.pump();
-
-				writeInt(defaultStore, txn, COMMIT_COUNT_KEY, totalCommitCount.get());
-				totalCommitCountCache.remove(project.getId());
+					writeInt(defaultStore, txn, COMMIT_COUNT_KEY, totalCommitCount.get());
+					totalCommitCountCache.remove(project.getId());
 
-				writeInt(defaultStore, txn, NEXT_USER_INDEX_KEY, nextIndex.user);
-				writeInt(defaultStore, txn, NEXT_EMAIL_INDEX_KEY, nextIndex.email);
-				writeInt(defaultStore, txn, NEXT_PATH_INDEX_KEY, nextIndex.path);
+					writeInt(defaultStore, txn, NEXT_USER_INDEX_KEY, nextIndex.user);
+					writeInt(defaultStore, txn, NEXT_EMAIL_INDEX_KEY, nextIndex.email);
+					writeInt(defaultStore, txn, NEXT_PATH_INDEX_KEY, nextIndex.path);
 
-				userBytes = SerializationUtils.serialize((Serializable) users);
-				defaultStore.put(txn, USERS_KEY, new ArrayByteIterable(userBytes));
-				usersCache.remove(project.getId());
+					defaultStore.put(txn, USERS_KEY, new ArrayByteIterable(encodeUsers(users)));
+					usersCache.remove(project.getId());
 
-				for (Map.Entry<Long, Integer> entry : commitCountCache.entrySet())
-					writeInt(commitCountsStore, txn, new LongByteIterable(entry.getKey()), entry.getValue());
+					for (Map.Entry<Integer, Map<Integer, Integer>> entry : commitCountIncrements.entrySet()) {
+						ByteIterable pathKey = new IntByteIterable(entry.getKey());
+						Map<Integer, Integer> commitCounts = decodeCommitCounts(readBytes(commitCountsStore, txn, pathKey));
+						for (Map.Entry<Integer, Integer> increment: entry.getValue().entrySet()) 
+							commitCounts.merge(increment.getKey(), increment.getValue(), Integer::sum);
+						commitCountsStore.put(txn, pathKey, new ArrayByteIterable(encodeCommitCounts(commitCounts)));
+					}
 
-				defaultStore.put(txn, LAST_COMMIT_KEY, new CommitByteIterable(untilCommitId));
-			}));
+					defaultStore.put(txn, LAST_COMMIT_KEY, new CommitByteIterable(untilCommitId));
+				});
+				if (onDefaultBranch)
+					submitCollection(project.getId(), CollectionProgress.Pass.CONTRIBUTIONS);
+				return true;
+			});
 		}
 
-		if (GitUtils.branch2ref(project.getDefaultBranch()).equals(refName)) {
-			collectLineStats(project, commitId);
-			collectContribs(project, commitId);
-			collectFiles(project, commitId);
-		}
+		if (onDefaultBranch)
+			submitCollection(project.getId(), CollectionProgress.Pass.CONTRIBUTIONS);
 
 		logger.debug("Collected commit information (project: {}, ref: {})", project.getPath(), refName);
 	}
@@ -440,34 +441,30 @@ public class DefaultCommitInfoManager extends AbstractMultiEnvironmentManager
 	private void collectContribs(Project project, ObjectId commitId) {
 		Environment env = getEnv(project.getId().toString());
 		Store defaultStore = getStore(env, DEFAULT_STORE);
+		Store commitsStore = getStore(env, COMMITS_STORE);
 		Store userToIndexStore = getStore(env, USER_TO_INDEX_STORE);
 		Store dailyContributionsStore = getStore(env, DAILY_CONTRIBUTIONS_STORE);
 
 		Repository repository = projectManager.getRepository(project.getId());
 		PatternSet filePatterns = PatternSet.parse(project.findCodeAnalysisPatterns());
 
-		ObjectId lastCommitId = env.computeInTransaction(txn -> {
-			ObjectId innerLastCommitId;
-			byte[] lastCommitBytes = readBytes(defaultStore, txn, LAST_COMMIT_OF_CONTRIBS_KEY);
-			if (lastCommitBytes != null) {
-				innerLastCommitId = ObjectId.fromRaw(lastCommitBytes);
-				try {
-					if (!repository.getObjectDatabase().has(innerLastCommitId))
-						innerLastCommitId = null;
-				} catch (IOException e) {
-					throw new RuntimeException(e);
-				}
-			} else {
-				innerLastCommitId = null;
-			}
-			return innerLastCommitId;
-		});
+		ObjectId lastCommitId = env.computeInReadonlyTransaction(
+				txn -> getLastCommitId(repository, defaultStore, txn, LAST_COMMIT_OF_CONTRIBS_KEY));
 
-		processCommitRange(project, commitId, lastCommitId, (untilCommitId, sinceCommitId) -> env.executeInTransaction(txn -> {
-			Map<Integer, GitContribution> overallContributions =
-					deserializeContributions(readBytes(defaultStore, txn, OVERALL_CONTRIBUTIONS_KEY));
+		processCommitRange(project, CollectionProgress.Pass.CONTRIBUTIONS, commitId, lastCommitId, 
+				COLLECT_BATCH_SIZE, (untilCommitId, sinceCommitId) -> {
+			/*
+			 * Daily contributions are keyed by user indexes assigned by the commits pass, so 
+			 * this pass trails the commits pass, and will be requested again each time the 
+			 * commits pass finishes a batch
+			 */
+			if (!env.computeInReadonlyTransaction(txn -> isCommitCollected(
+					readBytes(commitsStore, txn, new CommitByteIterable(untilCommitId))))) {
+				return false;
+			}
 
-			Map<Integer, Map<Integer, GitContribution>> dailyContributionsCache = new HashMap<>();
+			Map<Integer, GitContribution> overallIncrements = new HashMap<>();
+			Map<Integer, Map<NameAndEmail, GitContribution>> dailyIncrements = new HashMap<>();
 
 			new ElementPumper<GitCommit>() {
 
@@ -499,37 +496,44 @@ public class DefaultCommitInfoManager extends AbstractMultiEnvironmentManager
 				public void process(GitCommit currentCommit) {
 					if (currentCommit.getCommitDate() != null && currentCommit.getParentHashes().size() <= 1) {
 						int dayValue = new Day(currentCommit.getCommitDate()).getValue();
-						updateContribution(overallContributions, dayValue, currentCommit, filePatterns);
+						updateContribution(overallIncrements, dayValue, currentCommit, filePatterns);
 
 						if (currentCommit.getAuthor() != null) {
 							NameAndEmail author = new NameAndEmail(currentCommit.getAuthor());
-							ByteIterable authorKey = new ArrayByteIterable(SerializationUtils.serialize(author));
-							int userIndex = readInt(userToIndexStore, txn, authorKey, -1);
-							Preconditions.checkState(userIndex != -1);
-
-							Map<Integer, GitContribution> contributionsOnDay = dailyContributionsCache.get(dayValue);
-							if (contributionsOnDay == null) {
-								contributionsOnDay = deserializeContributions(readBytes(
-										dailyContributionsStore, txn, new IntByteIterable(dayValue)));
-								dailyContributionsCache.put(dayValue, contributionsOnDay);
-							}
-							updateContribution(contributionsOnDay, userIndex, currentCommit, filePatterns);
+							updateContribution(dailyIncrements.computeIfAbsent(dayValue, k -> new HashMap<>()),
+									author, currentCommit, filePatterns);
 						}
 					}
 				}
 
 			}.pump();
 
-			for (Map.Entry<Integer, Map<Integer, GitContribution>> entry : dailyContributionsCache.entrySet()) {
-				byte[] bytesOfContributionsOnDay = serializeContributions(entry.getValue());
-				dailyContributionsStore.put(txn, new IntByteIterable(entry.getKey()),
-						new ArrayByteIterable(bytesOfContributionsOnDay));
-			}
-			defaultStore.put(txn, OVERALL_CONTRIBUTIONS_KEY,
-					new ArrayByteIterable(serializeContributions(overallContributions)));
+			env.executeInExclusiveTransaction(txn -> {
+				for (Map.Entry<Integer, Map<NameAndEmail, GitContribution>> dayEntry : dailyIncrements.entrySet()) {
+					ByteIterable dayKey = new IntByteIterable(dayEntry.getKey());
+					Map<Integer, GitContribution> contributionsOnDay =
+							deserializeContributions(readBytes(dailyContributionsStore, txn, dayKey));
+					for (Map.Entry<NameAndEmail, GitContribution> authorEntry : dayEntry.getValue().entrySet()) {
+						ByteIterable authorKey = new StringByteIterable(encodeUser(authorEntry.getKey()));
+						int userIndex = readInt(userToIndexStore, txn, authorKey, -1);
+						Preconditions.checkState(userIndex != -1);
+						addContribution(contributionsOnDay, userIndex, authorEntry.getValue());
+					}
+					dailyContributionsStore.put(txn, dayKey,
+							new ArrayByteIterable(serializeContributions(contributionsOnDay)));
+				}
 
-			defaultStore.put(txn, LAST_COMMIT_OF_CONTRIBS_KEY, new CommitByteIterable(untilCommitId));
-		}));
+				Map<Integer, GitContribution> overallContributions =
+						deserializeContributions(readBytes(defaultStore, txn, OVERALL_CONTRIBUTIONS_KEY));
+				for (Map.Entry<Integer, GitContribution> entry : overallIncrements.entrySet())
+					addContribution(overallContributions, entry.getKey(), entry.getValue());
+				defaultStore.put(txn, OVERALL_CONTRIBUTIONS_KEY,
+						new ArrayByteIterable(serializeContributions(overallContributions)));
+
+				defaultStore.put(txn, LAST_COMMIT_OF_CONTRIBS_KEY, new CommitByteIterable(untilCommitId));
+			});
+			return true;
+		});
 	}
 
 	private void collectFiles(Project project, ObjectId commitId) {
@@ -538,48 +542,29 @@ public class DefaultCommitInfoManager extends AbstractMultiEnvironmentManager
 
 		Repository repository = projectManager.getRepository(project.getId());
 
-		ObjectId lastCommitId = env.computeInTransaction(txn -> {
-			ObjectId innerLastCommitId;
-			byte[] lastCommitBytes = readBytes(defaultStore, txn, LAST_COMMIT_OF_FILES_KEY);
-			if (lastCommitBytes != null) {
-				innerLastCommitId = ObjectId.fromRaw(lastCommitBytes);
-				try {
-					if (!repository.getObjectDatabase().has(innerLastCommitId))
-						innerLastCommitId = null;
-				} catch (IOException e) {
-					throw new RuntimeException(e);
-				}
+		ObjectId lastCommitId = env.computeInReadonlyTransaction(
+				txn -> getLastCommitId(repository, defaultStore, txn, LAST_COMMIT_OF_FILES_KEY));
+		if (commitId.equals(lastCommitId))
+			return;
+
+		setCollectionProgress(project.getId(), new CollectionProgress(CollectionProgress.Pass.FILES, 0, 1));
+		try {
+			File gitDir = projectManager.getGitDir(project.getId());
+			Collection<String> changedFiles;
+			if (lastCommitId == null) {
+				changedFiles = new ListFilesCommand(gitDir, commitId.name()).run();
 			} else {
-				innerLastCommitId = null;
-			}
-			return innerLastCommitId;
-		});
-
-		if (lastCommitId == null) {
-			env.executeInTransaction(txn -> {
-				File gitDir = projectManager.getGitDir(project.getId());
-				Collection<String> files = new ListFilesCommand(gitDir, commitId.name()).run();
-
-				byte[] bytesOfFiles = SerializationUtils.serialize((Serializable) files);
-				defaultStore.put(txn, FILES_KEY, new ArrayByteIterable(bytesOfFiles));
-				writeInt(defaultStore, txn, FILE_COUNT_KEY, files.size());
-				defaultStore.put(txn, LAST_COMMIT_OF_FILES_KEY, new CommitByteIterable(commitId));
-				filesCache.remove(project.getId());
-				fileCountCache.remove(project.getId());
-			});
-		} else {
-			env.executeInTransaction(txn -> {
-				Collection<String> files;
-				byte[] bytesOfFiles = readBytes(defaultStore, txn, FILES_KEY);
-				if (bytesOfFiles != null)
-					files = SerializationUtils.deserialize(bytesOfFiles);
-				else
-					files = new HashSet<>();
+				Collection<String> storedFiles = env.computeInReadonlyTransaction(txn -> {
+					byte[] bytesOfFiles = readBytes(defaultStore, txn, FILES_KEY);
+					if (bytesOfFiles != null)
+						return CompactStringList.fromBytes(bytesOfFiles);
+					else
+						return new ArrayList<>();
+				});
+				Collection<String> files = new HashSet<>(storedFiles);
 
 				boolean filesChanged = false;
-				ListFileChangesCommand command = new ListFileChangesCommand(
-						projectManager.getGitDir(project.getId()),
-						lastCommitId.name(), commitId.name());
+				ListFileChangesCommand command = new ListFileChangesCommand(gitDir, lastCommitId.name(), commitId.name());
 				for (FileChange change : command.run()) {
 					if (change.getOldPath() == null && change.getNewPath() != null) {
 						files.add(change.getNewPath());
@@ -589,16 +574,22 @@ public class DefaultCommitInfoManager extends AbstractMultiEnvironmentManager
 						filesChanged = true;
 					}
 				}
+				changedFiles = filesChanged? files: null;
+			}
 
-				if (filesChanged) {
-					bytesOfFiles = SerializationUtils.serialize((Serializable) files);
-					defaultStore.put(txn, FILES_KEY, new ArrayByteIterable(bytesOfFiles));
-					writeInt(defaultStore, txn, FILE_COUNT_KEY, files.size());
-					defaultStore.put(txn, LAST_COMMIT_OF_FILES_KEY, new CommitByteIterable(commitId));
-					filesCache.remove(project.getId());
-					fileCountCache.remove(project.getId());
+			env.executeInExclusiveTransaction(txn -> {
+				if (changedFiles != null) {
+					defaultStore.put(txn, FILES_KEY, new ArrayByteIterable(encodeFiles(changedFiles)));
+					writeInt(defaultStore, txn, FILE_COUNT_KEY, changedFiles.size());
 				}
+				defaultStore.put(txn, LAST_COMMIT_OF_FILES_KEY, new CommitByteIterable(commitId));
 			});
+			if (changedFiles != null) {
+				filesCache.remove(project.getId());
+				fileCountCache.remove(project.getId());
+			}
+		} finally {
+			removeCollectionProgress(project.getId(), CollectionProgress.Pass.FILES);
 		}
 	}
 
@@ -608,33 +599,55 @@ public class DefaultCommitInfoManager extends AbstractMultiEnvironmentManager
 
 		Repository repository = projectManager.getRepository(project.getId());
 
-		ObjectId lastCommitId = env.computeInTransaction(txn -> {
+		Pair<ObjectId, ObjectId> checkpoint = env.computeInReadonlyTransaction(txn -> {
 			byte[] lastCommitBytes = readBytes(defaultStore, txn, LAST_COMMIT_OF_LINE_STATS_KEY);
 			if (lastCommitBytes != null) {
 				try {
 					ObjectId innerLastCommitId = ObjectId.fromRaw(lastCommitBytes);
 					if (repository.getObjectDatabase().has(innerLastCommitId)
 							&& GitUtils.isMergedInto(repository, null, innerLastCommitId, commitId)) {
-						return innerLastCommitId;
+						byte[] walkTargetBytes = readBytes(defaultStore, txn, LINE_STATS_WALK_TARGET_KEY);
+						if (walkTargetBytes == null) 
+							return new Pair<>(innerLastCommitId, null);
+						ObjectId walkTargetId = ObjectId.fromRaw(walkTargetBytes);
+						if (repository.getObjectDatabase().has(walkTargetId)
+								&& GitUtils.isMergedInto(repository, null, walkTargetId, commitId)) {
+							return new Pair<>(innerLastCommitId, walkTargetId);
+						}
 					}
 				} catch (IOException e) {
 					throw new RuntimeException(e);
 				}
 			}
-			return null;
+			return new Pair<>(null, null);
 		});
 
+		ObjectId lastCommitId = checkpoint.getLeft();
+		ObjectId walkTargetId = checkpoint.getRight();
+		if (lastCommitId == null)
+			walkTargetId = commitId;
+
 		PatternSet filePatterns = PatternSet.parse(project.findCodeAnalysisPatterns());
-		if (lastCommitId == null) {
-			env.executeInTransaction(txn -> {
-				Map<Integer, Map<String, Integer>> lineStats = new HashMap<>();
+		if (walkTargetId != null) {
+			/*
+			 * Walk first parent history up to walk target in batches. Walk target is persisted 
+			 * along with each batch, so that an interrupted walk continues from last batch 
+			 * instead of treating remaining history as a single change
+			 */
+			ObjectId finalWalkTargetId = walkTargetId;
+			processCommitRange(project, CollectionProgress.Pass.LINE_STATS, walkTargetId, lastCommitId, 
+					COLLECT_BATCH_SIZE, (untilCommitId, sinceCommitId) -> {
+				Map<Integer, Map<String, Integer>> increments = new HashMap<>();
 
 				new ElementPumper<GitCommit>() {
 
 					@Override
 					public void generate(Consumer<GitCommit> consumer) {
 						List<String> revisions = new ArrayList<>();
-						revisions.add(commitId.name());
+						revisions.add(untilCommitId.name());
+
+						if (sinceCommitId != null)
+							revisions.add("^" + sinceCommitId.name());
 
 						EnumSet<LogCommand.Field> fields = EnumSet.of(
 								LogCommand.Field.COMMIT_DATE,
@@ -652,45 +665,74 @@ public class DefaultCommitInfoManager extends AbstractMultiEnvironmentManager
 
 					@Override
 					public void process(GitCommit currentCommit) {
-						updateLineStats(txn, currentCommit, lineStats, filePatterns);
+						updateLineStats(currentCommit, increments, filePatterns);
 					}
 
 				}.pump();
 
-				byte[] bytesOfLineStats = SerializationUtils.serialize((Serializable) lineStats);
-				defaultStore.put(txn, LINE_STATS_KEY, new ArrayByteIterable(bytesOfLineStats));
+				env.executeInExclusiveTransaction(txn -> {
+					Map<Integer, Map<String, Integer>> lineStats;
+					if (sinceCommitId != null)
+						lineStats = decodeLineStats(readBytes(defaultStore, txn, LINE_STATS_KEY));
+					else
+						lineStats = new HashMap<>();
+					addLineStats(lineStats, increments);
+					defaultStore.put(txn, LINE_STATS_KEY, new ArrayByteIterable(encodeLineStats(lineStats)));
 
-				defaultStore.put(txn, LAST_COMMIT_OF_LINE_STATS_KEY, new CommitByteIterable(commitId));
+					defaultStore.put(txn, LAST_COMMIT_OF_LINE_STATS_KEY, new CommitByteIterable(untilCommitId));
+					if (untilCommitId.equals(finalWalkTargetId))
+						defaultStore.delete(txn, LINE_STATS_WALK_TARGET_KEY);
+					else
+						defaultStore.put(txn, LINE_STATS_WALK_TARGET_KEY, new CommitByteIterable(finalWalkTargetId));
+				});
+				return true;
 			});
-		} else {
-			env.executeInTransaction(txn -> {
-				Map<Integer, Map<String, Integer>> lineStats;
-				byte[] bytesOfLineStats = readBytes(defaultStore, txn, LINE_STATS_KEY);
-				if (bytesOfLineStats != null) 
-					lineStats = SerializationUtils.deserialize(bytesOfLineStats);
-				else 
-					lineStats = new HashMap<>();
-
-				ListNumStatsCommand command = new ListNumStatsCommand(
-						projectManager.getGitDir(project.getId()),
-						lastCommitId.name(), commitId.name(), true);
-				List<FileChange> fileChanges = command.run();
-				RevCommit revCommit = project.getRevCommit(commitId, true);
-				GitCommit gitCommit = new GitCommit(revCommit.name(), null, null, revCommit.getAuthorIdent(),
-						revCommit.getCommitterIdent().getWhen(), null, null, fileChanges);
-
-				updateLineStats(txn, gitCommit, lineStats, filePatterns);
-
-				bytesOfLineStats = SerializationUtils.serialize((Serializable) lineStats);
-				defaultStore.put(txn, LINE_STATS_KEY, new ArrayByteIterable(bytesOfLineStats));
+			lastCommitId = walkTargetId;
+		}
+
+		if (!lastCommitId.equals(commitId)) {
+			ListNumStatsCommand command = new ListNumStatsCommand(
+					projectManager.getGitDir(project.getId()),
+					lastCommitId.name(), commitId.name(), true);
+			List<FileChange> fileChanges = command.run();
+			RevCommit revCommit = project.getRevCommit(commitId, true);
+			GitCommit gitCommit = new GitCommit(revCommit.name(), null, null, revCommit.getAuthorIdent(),
+					revCommit.getCommitterIdent().getWhen(), null, null, fileChanges);
+
+			Map<Integer, Map<String, Integer>> increments = new HashMap<>();
+			updateLineStats(gitCommit, increments, filePatterns);
+
+			env.executeInExclusiveTransaction(txn -> {
+				Map<Integer, Map<String, Integer>> lineStats =
+						decodeLineStats(readBytes(defaultStore, txn, LINE_STATS_KEY));
+				addLineStats(lineStats, increments);
+				defaultStore.put(txn, LINE_STATS_KEY, new ArrayByteIterable(encodeLineStats(lineStats)));
 
 				defaultStore.put(txn, LAST_COMMIT_OF_LINE_STATS_KEY, new CommitByteIterable(commitId));
 			});
 		}
 	}
 
-	private void processCommitRange(Project project, ObjectId untilCommitId,
-									@Nullable ObjectId sinceCommitId, CommitRangeProcessor commitRangeProcessor) {
+	@Nullable
+	private ObjectId getLastCommitId(Repository repository, Store store, Transaction txn, ByteIterable key) {
+		byte[] lastCommitBytes = readBytes(store, txn, key);
+		if (lastCommitBytes != null) {
+			ObjectId lastCommitId = ObjectId.fromRaw(lastCommitBytes);
+			try {
+				if (repository.getObjectDatabase().has(lastCommitId))
+					return lastCommitId;
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+		return null;
+	}
+
+	private void processCommitRange(Project project, CollectionProgress.Pass pass, ObjectId untilCommitId,
+									@Nullable ObjectId sinceCommitId, int batchSize, CommitRangeProcessor commitRangeProcessor) {
+		if (untilCommitId.equals(sinceCommitId))
+			return;
+		
 		RevListCommand revList = new RevListCommand(projectManager.getGitDir(project.getId()));
 		List<String> revisions = new ArrayList<>();
 		revisions.add(untilCommitId.name());
@@ -718,8 +760,10 @@ public class DefaultCommitInfoManager extends AbstractMultiEnvironmentManager
 		 * commits even if collection is not done yet
 		 */
 		List<ObjectId> intermediateCommitIds = new ArrayList<>();
+		List<Integer> intermediatePositions = new ArrayList<>();
 		int count = 0;
-		for (ObjectId historyId : historyIds) {
+		for (int i = 0; i < historyIds.size(); i++) {
+			ObjectId historyId = historyIds.get(i);
 			count++;
 			/*
 			 * Only use intermediate commits that are part of first parent chain. This
@@ -727,22 +771,47 @@ public class DefaultCommitInfoManager extends AbstractMultiEnvironmentManager
 			 * current intermediate commit (after reverse done below), to avoid
 			 * collecting some commits multiple times
 			 */
-			if (count > COLLECT_BATCH_SIZE && firstParentIds.contains(historyId)) {
+			if (count > batchSize && firstParentIds.contains(historyId)) {
 				intermediateCommitIds.add(historyId);
+				intermediatePositions.add(i);
 				count = 0;
 			}
 		}
 
 		Collections.reverse(intermediateCommitIds);
+		Collections.reverse(intermediatePositions);
 		intermediateCommitIds.add(untilCommitId);
+		intermediatePositions.add(0);
 
-		for (ObjectId intermediateCommitId : intermediateCommitIds) {
-			commitRangeProcessor.process(intermediateCommitId, sinceCommitId);
-			sinceCommitId = intermediateCommitId;
+		/*
+		 * A pass stopped earlier to wait for other passes continues to accumulate its 
+		 * progress, instead of starting over 
+		 */
+		Long projectId = project.getId();
+		CollectionProgress prevProgress = getCollectionProgress(projectId, pass);
+		int prevCollected = prevProgress != null? prevProgress.getCollected(): 0;
+		int total = prevCollected + historyIds.size();
+		setCollectionProgress(projectId, new CollectionProgress(pass, prevCollected, total));
+
+		boolean waiting = false;
+		try {
+			for (int i = 0; i < intermediateCommitIds.size(); i++) {
+				ObjectId intermediateCommitId = intermediateCommitIds.get(i);
+				if (!commitRangeProcessor.process(intermediateCommitId, sinceCommitId)) {
+					waiting = true;
+					break;
+				}
+				sinceCommitId = intermediateCommitId;
+				int collected = prevCollected + historyIds.size() - intermediatePositions.get(i);
+				setCollectionProgress(projectId, new CollectionProgress(pass, collected, total));
+			}
+		} finally {
+			if (!waiting)
+				removeCollectionProgress(projectId, pass);
 		}
 	}
 
-	private void updateLineStats(Transaction txn, GitCommit currentCommit, Map<Integer, Map<String, Integer>> lineStats,
+	private void updateLineStats(GitCommit currentCommit, Map<Integer, Map<String, Integer>> lineStats,
 								 PatternSet filePatterns) {
 		int dayValue = new Day(currentCommit.getCommitDate()).getValue();
 
@@ -778,6 +847,15 @@ public class DefaultCommitInfoManager extends AbstractMultiEnvironmentManager
 		}
 	}
 
+	private void addLineStats(Map<Integer, Map<String, Integer>> lineStats, 
+							  Map<Integer, Map<String, Integer>> increments) {
+		for (Map.Entry<Integer, Map<String, Integer>> dayEntry : increments.entrySet()) {
+			Map<String, Integer> lineStatsOnDay = lineStats.computeIfAbsent(dayEntry.getKey(), k -> new HashMap<>());
+			for (Map.Entry<String, Integer> languageEntry : dayEntry.getValue().entrySet())
+				lineStatsOnDay.merge(languageEntry.getKey(), languageEntry.getValue(), Integer::sum);
+		}
+	}
+
 	private int getPathIndex(Store pathToIndexStore, Store indexToPathStore, Transaction txn,
 							 NextIndex nextIndex, String path) {
 		StringByteIterable pathKey = new StringByteIterable(path);
@@ -790,15 +868,114 @@ public class DefaultCommitInfoManager extends AbstractMultiEnvironmentManager
 		return pathIndex;
 	}
 
-	private void updateCommitCount(Store store, Transaction txn,
-								   Map<Long, Integer> commitCountCache, int emailIndex, int pathIndex) {
-		long commitCountKey = ((long) emailIndex << 32) | pathIndex;
-
-		Integer commitCountOfPathByEmail = commitCountCache.get(commitCountKey);
-		if (commitCountOfPathByEmail == null)
-			commitCountOfPathByEmail = readInt(store, txn, new LongByteIterable(commitCountKey), 0);
-		commitCountOfPathByEmail++;
-		commitCountCache.put(commitCountKey, commitCountOfPathByEmail);
+	private void updateCommitCount(Map<Integer, Map<Integer, Integer>> commitCountIncrements, 
+								   int emailIndex, int pathIndex) {
+		commitCountIncrements.computeIfAbsent(pathIndex, k -> new HashMap<>()).merge(emailIndex, 1, Integer::sum);
+	}
+	
+	/*
+	 * Commit counts of a path are stored in a single value as email indexes in ascending 
+	 * order, each followed by commit count of that email
+	 */
+	private static byte[] encodeCommitCounts(Map<Integer, Integer> commitCounts) {
+		CompactCodec.Writer writer = new CompactCodec.Writer(commitCounts.size() * 3 + 5);
+		writer.writeVarInt(commitCounts.size());
+		int prevEmailIndex = 0;
+		for (Map.Entry<Integer, Integer> entry: new TreeMap<>(commitCounts).entrySet()) {
+			writer.writeVarInt(entry.getKey() - prevEmailIndex);
+			writer.writeVarInt(entry.getValue());
+			prevEmailIndex = entry.getKey();
+		}
+		return writer.toByteArray();
+	}
+	
+	private static Map<Integer, Integer> decodeCommitCounts(@Nullable byte[] bytes) {
+		Map<Integer, Integer> commitCounts = new HashMap<>();
+		if (bytes != null) {
+			CompactCodec.Reader reader = new CompactCodec.Reader(bytes);
+			int emailIndex = 0;
+			for (int i = reader.readVarInt(); i > 0; i--) {
+				emailIndex += reader.readVarInt();
+				commitCounts.put(emailIndex, reader.readVarInt());
+			}
+		}
+		return commitCounts;
+	}
+	
+	private static String encodeUser(NameAndEmail user) {
+		return user.getName() + '\0' + user.getEmailAddress();
+	}
+	
+	private static NameAndEmail decodeUser(String encodedUser) {
+		int index = encodedUser.indexOf('\0');
+		return new NameAndEmail(encodedUser.substring(0, index), encodedUser.substring(index + 1));
+	}
+	
+	private static byte[] encodeUsers(Collection<NameAndEmail> users) {
+		List<String> encodedUsers = new ArrayList<>();
+		for (NameAndEmail user: users)
+			encodedUsers.add(encodeUser(user));
+		// Separator sorts before any other char, so this is consistent with order of NameAndEmail
+		Collections.sort(encodedUsers);
+		return CompactStringList.of(encodedUsers).getBytes();
+	}
+	
+	/**
+	 * @return users in natural order
+	 */
+	private static List<NameAndEmail> decodeUsers(@Nullable byte[] bytes) {
+		List<NameAndEmail> users = new ArrayList<>();
+		if (bytes != null) {
+			for (String encodedUser: CompactStringList.fromBytes(bytes))
+				users.add(decodeUser(encodedUser));
+		}
+		return users;
+	}
+	
+	/*
+	 * Files are stored sorted in path order, so that sharing of path prefixes between 
+	 * adjacent files is maximized, and no sort is needed when loaded
+	 */
+	private static byte[] encodeFiles(Collection<String> files) {
+		List<String> sortedFiles = new ArrayList<>(files);
+		Map<String, List<String>> segmentsMap = new HashMap<>();
+		Splitter splitter = Splitter.on("/");
+		for (String file : sortedFiles)
+			segmentsMap.put(file, splitter.splitToList(file));
+		sortedFiles.sort((o1, o2) -> PathUtils.compare(segmentsMap.get(o1), segmentsMap.get(o2)));
+		return CompactStringList.of(sortedFiles).getBytes();
+	}
+	
+	private static byte[] encodeLineStats(Map<Integer, Map<String, Integer>> lineStats) {
+		CompactCodec.Writer writer = new CompactCodec.Writer();
+		writer.writeVarInt(lineStats.size());
+		int prevDayValue = 0;
+		for (Map.Entry<Integer, Map<String, Integer>> dayEntry: new TreeMap<>(lineStats).entrySet()) {
+			writer.writeSignedVarInt(dayEntry.getKey() - prevDayValue);
+			prevDayValue = dayEntry.getKey();
+			writer.writeVarInt(dayEntry.getValue().size());
+			for (Map.Entry<String, Integer> languageEntry: dayEntry.getValue().entrySet()) {
+				writer.writeString(languageEntry.getKey());
+				writer.writeSignedVarInt(languageEntry.getValue());
+			}
+		}
+		return writer.toByteArray();
+	}
+	
+	private static Map<Integer, Map<String, Integer>> decodeLineStats(@Nullable byte[] bytes) {
+		Map<Integer, Map<String, Integer>> lineStats = new HashMap<>();
+		if (bytes != null) {
+			CompactCodec.Reader reader = new CompactCodec.Reader(bytes);
+			int dayValue = 0;
+			for (int i = reader.readVarInt(); i > 0; i--) {
+				dayValue += reader.readSignedVarInt();
+				Map<String, Integer> lineStatsOnDay = new HashMap<>();
+				for (int j = reader.readVarInt(); j > 0; j--) 
+					lineStatsOnDay.put(reader.readString(), reader.readSignedVarInt());
+				lineStats.put(dayValue, lineStatsOnDay);
+			}
+		}
+		return lineStats;
 	}
 
 	@Override
@@ -815,15 +992,7 @@ public class DefaultCommitInfoManager extends AbstractMultiEnvironmentManager
 					Store store = getStore(env, DEFAULT_STORE);
 
 					users = env.computeInReadonlyTransaction(txn -> {
-						byte[] bytes = readBytes(store, txn, USERS_KEY);
-						if (bytes != null) {
-							List<NameAndEmail> innerUsers =
-									new ArrayList<>(SerializationUtils.deserialize(bytes));
-							Collections.sort(innerUsers);
-							return innerUsers;
-						} else {
-							return new ArrayList<>();
-						}
+						return decodeUsers(readBytes(store, txn, USERS_KEY));
 					});
 					usersCache.put(projectId, users);
 				}
@@ -848,18 +1017,12 @@ public class DefaultCommitInfoManager extends AbstractMultiEnvironmentManager
 					Store store = getStore(env, DEFAULT_STORE);
 
 					files = env.computeInReadonlyTransaction(txn -> {
+						// Keep files in compact form, and decode them on demand
 						byte[] bytes = readBytes(store, txn, FILES_KEY);
-						if (bytes != null) {
-							List<String> innerFiles = new ArrayList<>((Collection<String>) SerializationUtils.deserialize(bytes));
-							Map<String, List<String>> segmentsMap = new HashMap<>();
-							Splitter splitter = Splitter.on("/");
-							for (String file : innerFiles)
-								segmentsMap.put(file, splitter.splitToList(file));
-							innerFiles.sort((o1, o2) -> PathUtils.compare(segmentsMap.get(o1), segmentsMap.get(o2)));
-							return innerFiles;
-						} else {
-							return new ArrayList<>();
-						}
+						if (bytes != null) 
+							return CompactStringList.fromBytes(bytes);
+						else 
+							return new ArrayList<String>();
 					});
 					filesCache.put(projectId, files);
 				}
@@ -883,13 +1046,8 @@ public class DefaultCommitInfoManager extends AbstractMultiEnvironmentManager
 
 				return env.computeInReadonlyTransaction(txn -> {
 					Map<Day, Map<String, Integer>> lineIncrements = new HashMap<>();
-					byte[] bytes = readBytes(store, txn, LINE_STATS_KEY);
-					if (bytes != null) {
-						@SuppressWarnings("unchecked")
-						var storedMap = (Map<Integer, Map<String, Integer>>) SerializationUtils.deserialize(bytes);
-						for (var entry : storedMap.entrySet())
-							lineIncrements.put(new Day(entry.getKey()), entry.getValue());
-					}
+					for (var entry : decodeLineStats(readBytes(store, txn, LINE_STATS_KEY)).entrySet())
+						lineIncrements.put(new Day(entry.getKey()), entry.getValue());
 					return lineIncrements;
 				});
 			}
@@ -898,17 +1056,21 @@ public class DefaultCommitInfoManager extends AbstractMultiEnvironmentManager
 
 	}
 
-	private void updateContribution(Map<Integer, GitContribution> contributions, int key, GitCommit commit,
+	private <K> void updateContribution(Map<K, GitContribution> contributions, K key, GitCommit commit,
 									PatternSet filePatterns) {
+		addContribution(contributions, key, new GitContribution(
+				1, commit.getAdditions(filePatterns), commit.getDeletions(filePatterns)));
+	}
+
+	private <K> void addContribution(Map<K, GitContribution> contributions, K key, GitContribution increment) {
 		GitContribution contribution = contributions.get(key);
 		if (contribution != null) {
 			contribution = new GitContribution(
-					contribution.getCommits() + 1,
-					contribution.getAdditions() + commit.getAdditions(filePatterns),
-					contribution.getDeletions() + commit.getDeletions(filePatterns));
+					contribution.getCommits() + increment.getCommits(),
+					contribution.getAdditions() + increment.getAdditions(),
+					contribution.getDeletions() + increment.getDeletions());
 		} else {
-			contribution = new GitContribution(
-					1, commit.getAdditions(filePatterns), commit.getDeletions(filePatterns));
+			contribution = increment;
 		}
 		contributions.put(key, contribution);
 	}
@@ -921,18 +1083,22 @@ public class DefaultCommitInfoManager extends AbstractMultiEnvironmentManager
 		Store commitCountStore = getStore(env, COMMIT_COUNTS_STORE);
 
 		return env.computeInReadonlyTransaction(txn -> {
-			AtomicInteger count = new AtomicInteger(0);
-			emailAddresses.stream().filter(it -> it.isVerified()).forEach(it -> {
-				int emailIndex = readInt(emailToIndexStore, txn, new StringByteIterable(it.getValue()), -1);
-				if (emailIndex != -1) {
-					int pathIndex = readInt(pathToIndexStore, txn, new StringByteIterable(path), -1);
-					if (pathIndex != -1) {
-						long commitCountKey = ((long) emailIndex << 32) | pathIndex;
-						count.addAndGet(readInt(commitCountStore, txn, new LongByteIterable(commitCountKey), 0));
+			int pathIndex = readInt(pathToIndexStore, txn, new StringByteIterable(path), -1);
+			if (pathIndex == -1)
+				return 0;
+			Map<Integer, Integer> commitCounts = null;
+			int count = 0;
+			for (EmailAddressFacade emailAddress: emailAddresses) {
+				if (emailAddress.isVerified()) {
+					int emailIndex = readInt(emailToIndexStore, txn, new StringByteIterable(emailAddress.getValue()), -1);
+					if (emailIndex != -1) {
+						if (commitCounts == null)
+							commitCounts = decodeCommitCounts(readBytes(commitCountStore, txn, new IntByteIterable(pathIndex)));
+						count += commitCounts.getOrDefault(emailIndex, 0);
 					}
 				}
-			});
-			return count.get();
+			}
+			return count;
 		});
 	}
 
@@ -997,6 +1163,7 @@ public class DefaultCommitInfoManager extends AbstractMultiEnvironmentManager
 					totalCommitCountCache.remove(projectId);
 					fileCountCache.remove(projectId);
 					usersCache.remove(projectId);
+					collectionProgresses.remove(projectId);
 
 					return null;
 				});
@@ -1024,6 +1191,96 @@ public class DefaultCommitInfoManager extends AbstractMultiEnvironmentManager
 		};
 	}
 
+	private BatchWorker getBatchWorker(Long projectId, CollectionProgress.Pass pass) {
+		String collectionName;
+		switch (pass) {
+			case CONTRIBUTIONS:
+				collectionName = "Contribs";
+				break;
+			case FILES:
+				collectionName = "Files";
+				break;
+			case LINE_STATS:
+				collectionName = "LineStats";
+				break;
+			default:
+				throw new IllegalArgumentException("Unexpected collection pass: " + pass);
+		}
+		return new BatchWorker("project-" + projectId + "-collect" + collectionName) {
+
+			@Override
+			public void doWorks(List<Prioritized> works) {
+				sessionManager.run(() -> {
+					/*
+					 * Each pass collects up to current head of default branch, so requests 
+					 * accumulated while the pass is running are served by a single run 
+					 */
+					Project project = projectManager.load(projectId);
+					if (project.getDefaultBranch() == null)
+						return;
+					ObjectId commitId = project.getObjectId(GitUtils.branch2ref(project.getDefaultBranch()), false);
+					if (commitId == null)
+						return;
+					switch (pass) {
+						case CONTRIBUTIONS:
+							collectContribs(project, commitId);
+							break;
+						case FILES:
+							collectFiles(project, commitId);
+							break;
+						default:
+							collectLineStats(project, commitId);
+					}
+				});
+			}
+
+		};
+	}
+
+	private void submitCollection(Long projectId, CollectionProgress.Pass pass) {
+		batchWorkManager.submit(getBatchWorker(projectId, pass), new Prioritized(PRIORITY));
+	}
+
+	@Nullable
+	private CollectionProgress getCollectionProgress(Long projectId, CollectionProgress.Pass pass) {
+		Map<CollectionProgress.Pass, CollectionProgress> progressesOfProject = collectionProgresses.get(projectId);
+		return progressesOfProject != null? progressesOfProject.get(pass): null;
+	}
+
+	private void setCollectionProgress(Long projectId, CollectionProgress progress) {
+		collectionProgresses.compute(projectId, (k, v) -> {
+			if (v == null)
+				v = new ConcurrentHashMap<>();
+			v.put(progress.getPass(), progress);
+			return v;
+		});
+	}
+
+	private void removeCollectionProgress(Long projectId, CollectionProgress.Pass pass) {
+		collectionProgresses.computeIfPresent(projectId, (k, v) -> {
+			v.remove(pass);
+			return v.isEmpty()? null: v;
+		});
+	}
+
+	@Override
+	public List<CollectionProgress> getCollectionProgresses(Long projectId) {
+		return projectManager.runOnActiveServer(projectId, new ClusterTask<>() {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			public List<CollectionProgress> call() {
+				Map<CollectionProgress.Pass, CollectionProgress> progressesOfProject = collectionProgresses.get(projectId);
+				if (progressesOfProject != null)
+					return new ArrayList<>(new TreeMap<>(progressesOfProject).values());
+				else
+					return new ArrayList<>();
+			}
+
+		});
+	}
+
 	private void collect(Long projectId) {
 		List<CollectingWork> works = new ArrayList<>();
 		try (RevWalk revWalk = new RevWalk(projectManager.getRepository(projectId))) {
@@ -1235,12 +1492,10 @@ public class DefaultCommitInfoManager extends AbstractMultiEnvironmentManager
 									byte[] bytesOfHistoryPaths =
 											readBytes(historyPathsStore, txn, new IntByteIterable(eachPathIndex));
 									if (bytesOfHistoryPaths != null) {
-										int pos = 0;
-										for (int i = 0; i < bytesOfHistoryPaths.length / Integer.BYTES; i++) {
-											newPathIndexes.add(ByteBuffer.wrap(bytesOfHistoryPaths, pos, Integer.BYTES).getInt());
+										for (int historyPathIndex: CompactCodec.decodeInts(bytesOfHistoryPaths)) {
+											newPathIndexes.add(historyPathIndex);
 											if (newPathIndexes.size() == MAX_HISTORY_PATHS)
 												return getPaths(txn, newPathIndexes);
-											pos += Integer.BYTES;
 										}
 									}
 								}
@@ -1311,7 +1566,7 @@ public class DefaultCommitInfoManager extends AbstractMultiEnvironmentManager
 						if (userOpt == null) {
 							byte[] userBytes = readBytes(indexToUserStore, txn, new IntByteIterable(userIndex));
 							if (userBytes != null) {
-								NameAndEmail user = SerializationUtils.deserialize(userBytes);
+								NameAndEmail user = decodeUser(new String(userBytes, StandardCharsets.UTF_8));
 								EmailAddressFacade emailAddress = emailAddressManager.findFacadeByValue(user.getEmailAddress());
 								if (emailAddress != null && emailAddress.isVerified()) {
 									Long ownerId = emailAddress.getOwnerId();
@@ -1422,44 +1677,37 @@ public class DefaultCommitInfoManager extends AbstractMultiEnvironmentManager
 	}
 
 	private Map<Integer, GitContribution> deserializeContributions(byte[] bytes) {
+		Map<Integer, GitContribution> contributions = new HashMap<>();
 		if (bytes != null) {
-			Map<Integer, GitContribution> contributions = new HashMap<>();
-			int pos = 0;
-			for (int i = 0; i < bytes.length / 4 / Integer.BYTES; i++) {
-				int key = ByteBuffer.wrap(bytes, pos, Integer.BYTES).getInt();
-				pos += Integer.BYTES;
-				int commits = ByteBuffer.wrap(bytes, pos, Integer.BYTES).getInt();
-				pos += Integer.BYTES;
-				int additions = ByteBuffer.wrap(bytes, pos, Integer.BYTES).getInt();
-				pos += Integer.BYTES;
-				int deletions = ByteBuffer.wrap(bytes, pos, Integer.BYTES).getInt();
-				pos += Integer.BYTES;
+			CompactCodec.Reader reader = new CompactCodec.Reader(bytes);
+			int key = 0;
+			for (int i = reader.readVarInt(); i > 0; i--) {
+				key += reader.readSignedVarInt();
+				int commits = reader.readVarInt();
+				int additions = reader.readVarInt();
+				int deletions = reader.readVarInt();
 				contributions.put(key, new GitContribution(commits, additions, deletions));
 			}
-			return contributions;
-		} else {
-			return new HashMap<>();
 		}
+		return contributions;
 	}
 
+	/*
+	 * Contribution keys (day or week values) are written in ascending order as deltas, 
+	 * so that each entry normally takes only a few bytes
+	 */
 	private byte[] serializeContributions(Map<Integer, GitContribution> contributions) {
-		byte[] bytes = new byte[contributions.size() * Integer.BYTES * 4];
-		int pos = 0;
-		for (Map.Entry<Integer, GitContribution> entry : contributions.entrySet()) {
-			byte[] keyBytes = ByteBuffer.allocate(Integer.BYTES).putInt(entry.getKey()).array();
-			System.arraycopy(keyBytes, 0, bytes, pos, Integer.BYTES);
-			pos += Integer.BYTES;
-			byte[] commitsBytes = ByteBuffer.allocate(Integer.BYTES).putInt(entry.getValue().getCommits()).array();
-			System.arraycopy(commitsBytes, 0, bytes, pos, Integer.BYTES);
-			pos += Integer.BYTES;
-			byte[] additionsBytes = ByteBuffer.allocate(Integer.BYTES).putInt(entry.getValue().getAdditions()).array();
-			System.arraycopy(additionsBytes, 0, bytes, pos, Integer.BYTES);
-			pos += Integer.BYTES;
-			byte[] deletionsBytes = ByteBuffer.allocate(Integer.BYTES).putInt(entry.getValue().getDeletions()).array();
-			System.arraycopy(deletionsBytes, 0, bytes, pos, Integer.BYTES);
-			pos += Integer.BYTES;
+		CompactCodec.Writer writer = new CompactCodec.Writer(contributions.size() * 6 + 5);
+		writer.writeVarInt(contributions.size());
+		int prevKey = 0;
+		for (Map.Entry<Integer, GitContribution> entry : new TreeMap<>(contributions).entrySet()) {
+			writer.writeSignedVarInt(entry.getKey() - prevKey);
+			prevKey = entry.getKey();
+			writer.writeVarInt(entry.getValue().getCommits());
+			writer.writeVarInt(entry.getValue().getAdditions());
+			writer.writeVarInt(entry.getValue().getDeletions());
 		}
-		return bytes;
+		return writer.toByteArray();
 	}
 
 	@Override
@@ -1577,7 +1825,10 @@ public class DefaultCommitInfoManager extends AbstractMultiEnvironmentManager
 
 	private static interface CommitRangeProcessor {
 
-		void process(ObjectId untilCommitId, @Nullable ObjectId sinceCommitId);
+		/**
+		 * @return <tt>false</tt> to stop processing subsequent commit ranges
+		 */
+		boolean process(ObjectId untilCommitId, @Nullable ObjectId sinceCommitId);
 
 	}
 
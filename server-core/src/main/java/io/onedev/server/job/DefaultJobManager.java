@@ -102,12 +102,15 @@ import java.util.function.Consumer;
 
 import static io.onedev.k8shelper.KubernetesHelper.BUILD_VERSION;
 import static io.onedev.k8shelper.KubernetesHelper.replacePlaceholders;
+import static java.util.stream.Collectors.toList;
 
 @Singleton
 public class DefaultJobManager implements JobManager, Runnable, CodePullAuthorizationSource, 
 		Serializable, SchedulableTask {
 
 	private static final int CHECK_INTERVAL = 1000; // check internal in milli-seconds
+	
+	private static final int RECONCILE_INTERVAL = 60000; // reconcile interval in milli-seconds
 
 	private static final Logger logger = LoggerFactory.getLogger(DefaultJobManager.class);
 
@@ -122,6 +125,18 @@ public class DefaultJobManager implements JobManager, Runnable, CodePullAuthoriz
 	private final Map<Long, Collection<String>> projectTasks = new ConcurrentHashMap<>();
 
 	private final Map<String, Shell> jobShells = new ConcurrentHashMap<>();
+	
+	// Builds requested to be dispatched on leader server, mapping build id to project id
+	private final Map<Long, Long> dispatchRequests = new ConcurrentHashMap<>();
+	
+	// Waiting builds on leader server indexed by their unfinished dependencies, mapping 
+	// dependency id to map of dependent build id to project id
+	private final Map<Long, Map<Long, Long>> waitingDependents = new HashMap<>();
+	
+	// Builds finished since current dispatch starts, guarded by waitingDependents
+	private final Set<Long> finishedBuildIds = new HashSet<>();
+	
+	private final Object dispatchSignal = new Object();
 
 	private final Dao dao;
 	
@@ -499,6 +514,7 @@ public class DefaultJobManager implements JobManager, Runnable, CodePullAuthoriz
 		String projectGitDir = projectManager.getGitDir(build.getProject().getId()).getAbsolutePath();
 		Long buildId = build.getId();
 		Long buildNumber = build.getNumber();
+		Long submitterId = build.getSubmitter() != null? build.getSubmitter().getId(): null;
 		String refName = build.getRefName();
 		ObjectId commitId = ObjectId.fromString(build.getCommitHash());
 		BuildSpec buildSpec = build.getSpec();
@@ -539,12 +555,12 @@ public class DefaultJobManager implements JobManager, Runnable, CodePullAuthoriz
 		}
 
 		AtomicReference<JobExecution> executionRef = new AtomicReference<>(null);
-		executionRef.set(new JobExecution(executorService.submit(() -> {
+		FutureTask<Void> future = new FutureTask<>(() -> {
 			AtomicInteger retried = new AtomicInteger(0);
 			while (true) {
 				JobContext jobContext = new JobContext(jobToken, jobExecutor, projectId, projectPath,
-						projectGitDir, buildId, buildNumber, actions, refName, commitId, caches, 
-						services, timeout, retried.get());
+						projectGitDir, buildId, buildNumber, submitterId, actions, refName, commitId, 
+						caches, services, timeout, retried.get());
 				// Store original job actions as the copy in job context will be fetched from cluster and 
 				// some transient fields (such as step object in ServerSideFacade) will not be preserved 
 				jobActions.put(jobToken, actions);
@@ -575,6 +591,9 @@ public class DefaultJobManager implements JobManager, Runnable, CodePullAuthoriz
 					})) {
 						log(e, jobLogger);
 						jobLogger.warning("Job will be retried after a while...");
+						JobExecution execution = executionRef.get();
+						if (execution != null)
+							execution.markPending();
 						transactionManager.run(() -> {
 							Build innerBuild = buildManager.load(buildId);
 							innerBuild.setRunningDate(null);
@@ -590,9 +609,6 @@ public class DefaultJobManager implements JobManager, Runnable, CodePullAuthoriz
 							throw new RuntimeException(e2);
 						}
 						transactionManager.run(() -> {
-							JobExecution execution = executionRef.get();
-							if (execution != null)
-								execution.updateBeginTime();
 							Build innerBuild = buildManager.load(buildId);
 							innerBuild.setPendingDate(new Date());
 							innerBuild.setStatus(Status.PENDING);
@@ -612,7 +628,17 @@ public class DefaultJobManager implements JobManager, Runnable, CodePullAuthoriz
 					jobActions.remove(jobToken);
 				}
 			}
-		}), job.getTimeout() * 1000L));
+		}, null) {
+
+			@Override
+			protected void done() {
+				// Wake up dispatcher to process finished execution immediately
+				signalDispatch();
+			}
+			
+		};
+		executionRef.set(new JobExecution(future, job.getTimeout() * 1000L));
+		executorService.execute(future);
 
 		return executionRef.get();
 	}
@@ -1086,6 +1112,7 @@ public class DefaultJobManager implements JobManager, Runnable, CodePullAuthoriz
 	public void on(SystemStopping event) {
 		Thread copy = thread;
 		thread = null;
+		signalDispatch();
 		if (copy != null) {
 			try {
 				copy.join();
@@ -1099,8 +1126,18 @@ public class DefaultJobManager implements JobManager, Runnable, CodePullAuthoriz
 			taskScheduler.unschedule(maintenanceTaskId);
 	}
 
+	/**
+	 * Builds are dispatched by leader server when notified via build events, instead of 
+	 * polling all unfinished builds. Waiting builds are tracked in memory by their unfinished 
+	 * dependencies, so that finishing of a build only dispatches its dependents. All unfinished 
+	 * builds are still reconciled periodically in case some events are missed, for instance 
+	 * when leadership changes or server goes offline
+	 */
 	@Override
 	public void run() {
+		boolean wasLeader = false;
+		long lastReconcileTime = 0;
+		long lastSweepTime = System.currentTimeMillis();
 		while (!jobExecutions.isEmpty() || thread != null) {
 			if (thread == null) {
 				if (!jobExecutions.isEmpty())
@@ -1111,132 +1148,308 @@ public class DefaultJobManager implements JobManager, Runnable, CodePullAuthoriz
 				}
 			}
 			try {
+				long now = System.currentTimeMillis();
 				if (clusterManager.isLeaderServer()) {
-					Map<String, Collection<Long>> buildIds = new HashMap<>();
-					for (var entry : buildManager.queryUnfinished().entrySet()) {
-						var buildId = entry.getKey();
-						var projectId = entry.getValue();
-						String activeServer = projectManager.getActiveServer(projectId, false);
-						if (activeServer != null && clusterManager.getOnlineServers().contains(activeServer)) {
-							var buildIdsOfServer = buildIds.computeIfAbsent(activeServer, k -> new ArrayList<>());
-							buildIdsOfServer.add(buildId);
-						}
-					}
-
-					Collection<Future<?>> futures = new ArrayList<>();
-					for (var entry : buildIds.entrySet()) {
-						var server = entry.getKey();
-						var buildIdsOfServer = entry.getValue();
-						futures.add(clusterManager.submitToServer(server, () -> {
-							transactionManager.run(() -> {
-								for (Long buildId : buildIdsOfServer) {
-									Build build = buildManager.load(buildId);
-									if (build.getStatus() == Status.PENDING) {
-										JobExecution execution = jobExecutions.get(build.getId());
-										if (execution != null) {
-											execution.updateBeginTime();
-										} else if (thread != null) {
-											try {
-												jobExecutions.put(build.getId(), execute(build));
-											} catch (Throwable t) {
-												ExplicitException explicitException = ExceptionUtils.find(t, ExplicitException.class);
-												if (explicitException != null)
-													markBuildError(build, explicitException.getMessage());
-												else
-													markBuildError(build, Throwables.getStackTraceAsString(t));
-											}
-										}
-									} else if (build.getStatus() == Status.RUNNING) {
-										JobExecution execution = jobExecutions.get(build.getId());
-										if (execution != null) {
-											if (execution.isTimedout())
-												execution.cancel(null);
-										} else {
-											build.setStatus(Status.PENDING);
-										}
-									} else if (build.getStatus() == Status.WAITING) {
-										if (build.getRetryDate() != null) {
-											JobExecution execution = jobExecutions.get(build.getId());
-											if (execution == null && thread != null) {
-												build.setStatus(Status.PENDING);
-												build.setPendingDate(new Date());
-												listenerRegistry.post(new BuildPending(build));
-											}
-										} else if (build.getDependencies().stream().anyMatch(it -> it.isRequireSuccessful()
-												&& it.getDependency().isFinished()
-												&& it.getDependency().getStatus() != Status.SUCCESSFUL)) {
-											markBuildError(build, "Some dependencies are required to be successful but failed");
-										} else if (build.getDependencies().stream().allMatch(it -> it.getDependency().isFinished())) {
-											build.setStatus(Status.PENDING);
-											build.setPendingDate(new Date());
-											listenerRegistry.post(new BuildPending(build));
-										}
-									}
-								}
-							});
-							return null;
-						}));
-					}
-					for (var future : futures) {
-						try {
-							future.get();
-						} catch (InterruptedException | ExecutionException e) {
-							throw new RuntimeException(e);
-						}
+					boolean reconcile = !wasLeader || now - lastReconcileTime >= RECONCILE_INTERVAL;
+					if (reconcile) {
+						lastReconcileTime = now;
+						wasLeader = true;
 					}
+					dispatch(reconcile);
+				} else {
+					wasLeader = false;
+					dispatchRequests.clear();
 				}
 
-				sessionManager.run(() -> {
-					for (Iterator<Map.Entry<Long, JobExecution>> it = jobExecutions.entrySet().iterator(); it.hasNext(); ) {
-						Map.Entry<Long, JobExecution> entry = it.next();
-						Build build = buildManager.get(entry.getKey());
-						JobExecution execution = entry.getValue();
-						if (build == null || build.isFinished()) {
-							it.remove();
-							execution.cancel(null);
-						} else if (execution.isDone()) {
-							it.remove();
-							TaskLogger jobLogger = logManager.newLogger(build);
-							try {
-								execution.check();
-								build.setStatus(Status.SUCCESSFUL);
-								jobLogger.log("Job finished");
-							} catch (TimeoutException e) {
-								build.setStatus(Status.TIMED_OUT);
-							} catch (java.util.concurrent.CancellationException e) {
-								if (e instanceof CancellationException) {
-									Long cancellerId = ((CancellationException) e).getCancellerId();
-									if (cancellerId != null)
-										build.setCanceller(userManager.load(cancellerId));
-								}
-								build.setStatus(Status.CANCELLED);
-							} catch (ExecutionException e) {
-								build.setStatus(Status.FAILED);
-								ExplicitException explicitException = ExceptionUtils.find(e, ExplicitException.class);
-								if (explicitException != null)
-									jobLogger.error(explicitException.getMessage());
-								else if (ExceptionUtils.find(e, FailedException.class) == null)
-									jobLogger.error("Error running job", e);
-							} catch (InterruptedException ignored) {
-							} finally {
-								build.setFinishDate(new Date());
-								buildManager.update(build);
-								listenerRegistry.post(new BuildFinished(build));
-							}
-						}
+				boolean sweep = now - lastSweepTime >= RECONCILE_INTERVAL;
+				if (sweep)
+					lastSweepTime = now;
+				checkExecutions(sweep);
+				
+				synchronized (dispatchSignal) {
+					if (dispatchRequests.isEmpty() && thread != null
+							&& jobExecutions.values().stream().noneMatch(JobExecution::isDone)) {
+						dispatchSignal.wait(CHECK_INTERVAL);
 					}
-				});
-				Thread.sleep(CHECK_INTERVAL);
+				}
 			} catch (Throwable e) {
 				logger.error("Error checking unfinished builds", e);
+				try {
+					Thread.sleep(CHECK_INTERVAL);
+				} catch (InterruptedException ignored) {
+				}
 			}
 		}
 	}
+	
+	/**
+	 * Dispatch builds on leader server
+	 * 
+	 * @param reconcile
+	 * 			whether to rebuild dependency graph from all unfinished builds in database, 
+	 * 			instead of only dispatching requested builds
+	 */
+	void dispatch(boolean reconcile) {
+		synchronized (waitingDependents) {
+			finishedBuildIds.clear();
+		}
+		Map<Long, Long> buildIds;
+		if (reconcile) {
+			synchronized (waitingDependents) {
+				waitingDependents.clear();
+			}
+			dispatchRequests.clear();
+			buildIds = buildManager.queryUnfinished();
+		} else {
+			buildIds = new HashMap<>();
+			for (var buildId: new ArrayList<>(dispatchRequests.keySet())) {
+				var projectId = dispatchRequests.remove(buildId);
+				if (projectId != null)
+					buildIds.put(buildId, projectId);
+			}
+		}
+		if (!buildIds.isEmpty())
+			dispatch(buildIds);
+	}
+	
+	private void signalDispatch() {
+		synchronized (dispatchSignal) {
+			dispatchSignal.notifyAll();
+		}
+	}
+	
+	/**
+	 * Request leader server to dispatch specified build after current transaction is committed
+	 */
+	private void requestDispatch(Build build) {
+		Long buildId = build.getId();
+		Long projectId = build.getProject().getId();
+		transactionManager.runAfterCommit(() -> submitToLeader(() -> {
+			dispatchRequests.put(buildId, projectId);
+			signalDispatch();
+			return null;
+		}));
+	}
+	
+	private void submitToLeader(ClusterTask<Void> task) {
+		try {
+			clusterManager.submitToServer(clusterManager.getLeaderServerAddress(), task);
+		} catch (Exception e) {
+			// Missed dispatch requests will be handled by reconciliation
+			logger.error("Error submitting task to leader server", e);
+		}
+	}
+	
+	/**
+	 * Dispatch specified builds to their active servers to check their status
+	 * 
+	 * @param buildIds
+	 * 			map of build id to project id
+	 */
+	private void dispatch(Map<Long, Long> buildIds) {
+		Map<String, Collection<Long>> buildIdsByServer = new HashMap<>();
+		for (var entry : buildIds.entrySet()) {
+			var buildId = entry.getKey();
+			var projectId = entry.getValue();
+			String activeServer = projectManager.getActiveServer(projectId, false);
+			if (activeServer != null && clusterManager.getOnlineServers().contains(activeServer)) {
+				var buildIdsOfServer = buildIdsByServer.computeIfAbsent(activeServer, k -> new ArrayList<>());
+				buildIdsOfServer.add(buildId);
+			}
+		}
 
+		Collection<Future<Map<Long, Collection<Long>>>> futures = new ArrayList<>();
+		for (var entry : buildIdsByServer.entrySet()) {
+			var server = entry.getKey();
+			var buildIdsOfServer = entry.getValue();
+			futures.add(clusterManager.submitToServer(server, () -> transactionManager.call(() -> {
+				Map<Long, Collection<Long>> waitingBuilds = new HashMap<>();
+				for (Long buildId : buildIdsOfServer) {
+					Build build = buildManager.get(buildId);
+					if (build != null) {
+						Collection<Long> unfinishedDependencyIds = check(build);
+						if (unfinishedDependencyIds != null)
+							waitingBuilds.put(buildId, unfinishedDependencyIds);
+					}
+				}
+				return waitingBuilds;
+			})));
+		}
+		Map<Long, Collection<Long>> waitingBuilds = new HashMap<>();
+		for (var future : futures) {
+			try {
+				waitingBuilds.putAll(future.get());
+			} catch (InterruptedException | ExecutionException e) {
+				throw new RuntimeException(e);
+			}
+		}
+		
+		synchronized (waitingDependents) {
+			for (var entry: waitingBuilds.entrySet()) {
+				var buildId = entry.getKey();
+				var projectId = buildIds.get(buildId);
+				// Dependencies finished after checked will not find this build in the graph, 
+				// so dispatch it again
+				if (entry.getValue().stream().anyMatch(finishedBuildIds::contains)) {
+					dispatchRequests.put(buildId, projectId);
+				} else {
+					for (var dependencyId: entry.getValue())
+						waitingDependents.computeIfAbsent(dependencyId, k -> new HashMap<>()).put(buildId, projectId);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Check specified build on its active server, starting its execution if it is pending
+	 * 
+	 * @return
+	 * 			ids of unfinished dependencies if the build is waiting for them, or <tt>null</tt> 
+	 * 			otherwise
+	 */
+	@Nullable
+	private Collection<Long> check(Build build) {
+		if (build.getStatus() == Status.PENDING) {
+			if (!jobExecutions.containsKey(build.getId()) && thread != null) {
+				try {
+					jobExecutions.put(build.getId(), execute(build));
+				} catch (Throwable t) {
+					ExplicitException explicitException = ExceptionUtils.find(t, ExplicitException.class);
+					if (explicitException != null)
+						markBuildError(build, explicitException.getMessage());
+					else
+						markBuildError(build, Throwables.getStackTraceAsString(t));
+				}
+			}
+		} else if (build.getStatus() == Status.RUNNING) {
+			if (!jobExecutions.containsKey(build.getId())) {
+				build.setStatus(Status.PENDING);
+				requestDispatch(build);
+			}
+		} else if (build.getStatus() == Status.WAITING) {
+			if (build.getRetryDate() != null) {
+				JobExecution execution = jobExecutions.get(build.getId());
+				if (execution == null && thread != null) {
+					build.setStatus(Status.PENDING);
+					build.setPendingDate(new Date());
+					listenerRegistry.post(new BuildPending(build));
+				}
+			} else if (build.getDependencies().stream().anyMatch(it -> it.isRequireSuccessful()
+					&& it.getDependency().isFinished()
+					&& it.getDependency().getStatus() != Status.SUCCESSFUL)) {
+				markBuildError(build, "Some dependencies are required to be successful but failed");
+			} else if (build.getDependencies().stream().allMatch(it -> it.getDependency().isFinished())) {
+				build.setStatus(Status.PENDING);
+				build.setPendingDate(new Date());
+				listenerRegistry.post(new BuildPending(build));
+			} else {
+				return build.getDependencies().stream()
+						.filter(it -> !it.getDependency().isFinished())
+						.map(it -> it.getDependency().getId())
+						.collect(toList());
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Process finished and timed out job executions on this server. Executions are only checked 
+	 * against their builds in database when sweeping, in case builds are deleted or finished 
+	 * elsewhere
+	 */
+	private void checkExecutions(boolean sweep) {
+		for (var execution: jobExecutions.values()) {
+			if (execution.isTimedout())
+				execution.cancel(null);
+		}
+		
+		Collection<Long> buildIds = new ArrayList<>();
+		for (var entry: jobExecutions.entrySet()) {
+			if (sweep || entry.getValue().isDone())
+				buildIds.add(entry.getKey());
+		}
+		if (buildIds.isEmpty())
+			return;
+		
+		sessionManager.run(() -> {
+			for (var buildId: buildIds) {
+				JobExecution execution = jobExecutions.get(buildId);
+				if (execution == null)
+					continue;
+				Build build = buildManager.get(buildId);
+				if (build == null || build.isFinished()) {
+					jobExecutions.remove(buildId);
+					execution.cancel(null);
+				} else if (execution.isDone()) {
+					jobExecutions.remove(buildId);
+					TaskLogger jobLogger = logManager.newLogger(build);
+					try {
+						execution.check();
+						build.setStatus(Status.SUCCESSFUL);
+						jobLogger.log("Job finished");
+					} catch (TimeoutException e) {
+						build.setStatus(Status.TIMED_OUT);
+					} catch (java.util.concurrent.CancellationException e) {
+						if (e instanceof CancellationException) {
+							Long cancellerId = ((CancellationException) e).getCancellerId();
+							if (cancellerId != null)
+								build.setCanceller(userManager.load(cancellerId));
+						}
+						build.setStatus(Status.CANCELLED);
+					} catch (ExecutionException e) {
+						build.setStatus(Status.FAILED);
+						ExplicitException explicitException = ExceptionUtils.find(e, ExplicitException.class);
+						if (explicitException != null)
+							jobLogger.error(explicitException.getMessage());
+						else if (ExceptionUtils.find(e, FailedException.class) == null)
+							jobLogger.error("Error running job", e);
+					} catch (InterruptedException ignored) {
+					} finally {
+						build.setFinishDate(new Date());
+						buildManager.update(build);
+						listenerRegistry.post(new BuildFinished(build));
+					}
+				} else if (build.getStatus() == Status.RUNNING && !execution.isRunning()) {
+					// Running event might be missed if fired before execution is recorded
+					execution.markRunning();
+				}
+			}
+		});
+	}
+	
+	@Listen
+	public void on(BuildSubmitted event) {
+		requestDispatch(event.getBuild());
+	}
+	
+	@Listen
+	public void on(BuildPending event) {
+		requestDispatch(event.getBuild());
+	}
+	
+	@Listen
+	public void on(BuildRunning event) {
+		JobExecution execution = jobExecutions.get(event.getBuild().getId());
+		if (execution != null)
+			execution.markRunning();
+	}
+	
 	@Transactional
 	@Listen
 	public void on(BuildFinished event) {
 		Build build = event.getBuild();
+		Long buildId = build.getId();
+		transactionManager.runAfterCommit(() -> submitToLeader(() -> {
+			synchronized (waitingDependents) {
+				finishedBuildIds.add(buildId);
+				Map<Long, Long> dependents = waitingDependents.remove(buildId);
+				if (dependents != null)
+					dispatchRequests.putAll(dependents);
+			}
+			signalDispatch();
+			return null;
+		}));
+		
 		JobAuthorizationContext.push(build.getJobAuthorizationContext());
 		Build.push(build);
 		try {
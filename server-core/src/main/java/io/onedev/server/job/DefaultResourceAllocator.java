@@ -1,11 +1,15 @@
 package io.onedev.server.job;
 
+import com.hazelcast.core.EntryAdapter;
+import com.hazelcast.core.EntryEvent;
 import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.replicatedmap.ReplicatedMap;
 import io.onedev.commons.loader.ManagedSerializedForm;
 import io.onedev.commons.utils.ExplicitException;
 import io.onedev.server.cluster.ClusterManager;
 import io.onedev.server.cluster.ClusterRunnable;
 import io.onedev.server.manager.AgentManager;
+import io.onedev.server.manager.ProjectManager;
 import io.onedev.server.event.Listen;
 import io.onedev.server.event.agent.AgentConnected;
 import io.onedev.server.event.agent.AgentDisconnected;
@@ -15,11 +19,14 @@ import io.onedev.server.event.system.SystemStarting;
 import io.onedev.server.event.system.SystemStopped;
 import io.onedev.server.event.system.SystemStopping;
 import io.onedev.server.model.AbstractEntity;
+import io.onedev.server.model.Build;
 import io.onedev.server.persistence.TransactionManager;
 import io.onedev.server.persistence.annotation.Transactional;
 import io.onedev.server.search.entity.agent.AgentQuery;
+import io.onedev.server.util.concurrent.Histogram;
 import io.onedev.server.util.schedule.SchedulableTask;
 import io.onedev.server.util.schedule.TaskScheduler;
+import io.onedev.server.web.websocket.WebSocketManager;
 import org.quartz.ScheduleBuilder;
 import org.quartz.SimpleScheduleBuilder;
 import org.slf4j.Logger;
@@ -31,10 +38,22 @@ import javax.inject.Inject;
 import javax.inject.Singleton;
 import java.io.ObjectStreamException;
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
 
 import static java.lang.Integer.MAX_VALUE;
 import static java.util.stream.Collectors.toList;
@@ -45,8 +64,12 @@ public class DefaultResourceAllocator implements ResourceAllocator, Serializable
 
 	private static final Logger logger = LoggerFactory.getLogger(DefaultResourceAllocator.class);
 
+	private static final long ALLOCATION_RECHECK_INTERVAL = 5000;
+
 	private final AgentManager agentManager;
 
+	private final ProjectManager projectManager;
+
 	private final ClusterManager clusterManager;
 
 	private final TransactionManager transactionManager;
@@ -54,26 +77,67 @@ public class DefaultResourceAllocator implements ResourceAllocator, Serializable
 	private final JobManager jobManager;
 	
 	private final TaskScheduler taskScheduler;
+	
+	private final WebSocketManager webSocketManager;
 
 	private volatile Map<String, Integer> nodeCpus;
 
 	private final Map<String, Integer> resourceUsages = new HashMap<>();
 	
+	/*
+	 * Requests waiting to acquire resources of nodes managed by this server in FIFO order, 
+	 * keyed by resource key. Guarded by resourceUsages
+	 */
+	private final Map<String, List<AcquisitionRequest>> acquisitionQueues = new HashMap<>();
+	
+	/*
+	 * Requests issued from this server waiting for resource allocation, keyed by resource 
+	 * type. Also used as lock guarding allocation states below
+	 */
+	private final Map<String, List<AllocationRequest>> allocationQueues = new HashMap<>();
+
+	/*
+	 * Resources allocated but not yet acquired on resource nodes, keyed by resource key
+	 */
+	private final Map<String, Integer> reservedResources = new HashMap<>();
+
+	private final Map<Long, AllocationRequest> reservations = new HashMap<>();
+
+	private final Map<Long, Integer> projectAllocations = new HashMap<>();
+
+	private final Map<Long, Integer> userAllocations = new HashMap<>();
+
+	private final Map<String, Histogram> waitTimes = new ConcurrentHashMap<>();
+
+	private final AtomicLong requestSequence = new AtomicLong(0);
+	
 	private volatile Map<String, Integer> resourceUsagesCache;
 
+	/*
+	 * Resource nodes of allocation requests keyed by their query, shared by requests waiting 
+	 * in queue to avoid querying database on every allocation attempt
+	 */
+	private final Map<String, CachedResourceNodes> resourceNodesCache = new ConcurrentHashMap<>();
+
+	// Increased when resource nodes join or leave to invalidate cached resource nodes
+	private final AtomicLong resourceNodesVersion = new AtomicLong(0);
+
 	private volatile Map<Long, Long> disconnectingAgents;
 	
 	private volatile String taskId;
 	
 	@Inject
-	public DefaultResourceAllocator(AgentManager agentManager, TransactionManager transactionManager,
-									ClusterManager clusterManager, JobManager jobManager, 
-									TaskScheduler taskScheduler) {
+	public DefaultResourceAllocator(AgentManager agentManager, ProjectManager projectManager, 
+									TransactionManager transactionManager, ClusterManager clusterManager, 
+									JobManager jobManager, TaskScheduler taskScheduler, 
+									WebSocketManager webSocketManager) {
 		this.agentManager = agentManager;
+		this.projectManager = projectManager;
 		this.transactionManager = transactionManager;
 		this.clusterManager = clusterManager;
 		this.jobManager = jobManager;
 		this.taskScheduler = taskScheduler;
+		this.webSocketManager = webSocketManager;
 	}
 
 	public Object writeReplace() throws ObjectStreamException {
@@ -84,7 +148,7 @@ public class DefaultResourceAllocator implements ResourceAllocator, Serializable
 	public void on(SystemStarting event) {
 		HazelcastInstance hazelcastInstance = clusterManager.getHazelcastInstance();
 
-		nodeCpus = hazelcastInstance.getReplicatedMap("nodeCpus");
+		ReplicatedMap<String, Integer> nodeCpus = hazelcastInstance.getReplicatedMap("nodeCpus");
 		var localServer = clusterManager.getLocalServerAddress();
 		try {
 			nodeCpus.put(
@@ -94,10 +158,73 @@ public class DefaultResourceAllocator implements ResourceAllocator, Serializable
 			logger.debug("Error calling oshi", e);
 			nodeCpus.put(localServer, 4);
 		}
-		resourceUsagesCache = hazelcastInstance.getReplicatedMap("resourceUsagesCache");
-		disconnectingAgents = hazelcastInstance.getReplicatedMap("disconnectingAgents");
+		ReplicatedMap<String, Integer> resourceUsagesCache = hazelcastInstance.getReplicatedMap("resourceUsagesCache");
+		ReplicatedMap<Long, Long> disconnectingAgents = hazelcastInstance.getReplicatedMap("disconnectingAgents");
+
+		// Resources released or nodes joined anywhere in the cluster may satisfy queued requests
+		nodeCpus.addEntryListener(new EntryAdapter<String, Integer>() {
+
+			@Override
+			public void onEntryEvent(EntryEvent<String, Integer> event) {
+				resourceNodesChanged();
+			}
+			
+		});
+		resourceUsagesCache.addEntryListener(new EntryAdapter<String, Integer>() {
+
+			@Override
+			public void onEntryEvent(EntryEvent<String, Integer> event) {
+				signalAllocation();
+			}
+			
+		});
+		disconnectingAgents.addEntryListener(new EntryAdapter<Long, Long>() {
+
+			@Override
+			public void onEntryEvent(EntryEvent<Long, Long> event) {
+				resourceNodesChanged();
+			}
+			
+		});
+		
+		this.nodeCpus = nodeCpus;
+		this.resourceUsagesCache = resourceUsagesCache;
+		this.disconnectingAgents = disconnectingAgents;
 		removeNodeFromResourceUsagesCache(localServer);		
 	}
+	
+	/**
+	 * Invalidate cached resource nodes, and wake up all queued requests. Resource nodes held 
+	 * by queued requests are outdated, and requests not allocatable against them may be 
+	 * allocatable against refreshed nodes 
+	 */
+	private void resourceNodesChanged() {
+		resourceNodesVersion.incrementAndGet();
+		resourceNodesCache.clear();
+		synchronized (allocationQueues) {
+			for (var queue: allocationQueues.values()) 
+				queue.forEach(AllocationRequest::signal);
+		}
+	}
+	
+	/**
+	 * Get resource nodes of specified query from cache. Cached nodes are refreshed when nodes 
+	 * join or leave, and also periodically to reflect changes not notified, such as agents 
+	 * being paused. The latter may take up to {@link #ALLOCATION_RECHECK_INTERVAL} to be 
+	 * noticed
+	 */
+	private Collection<String> getResourceNodes(String resourceNodesKey, 
+												Supplier<Collection<String>> resourceNodesSupplier) {
+		var version = resourceNodesVersion.get();
+		var cached = resourceNodesCache.get(resourceNodesKey);
+		if (cached != null && cached.version == version 
+				&& System.currentTimeMillis() - cached.timestamp < ALLOCATION_RECHECK_INTERVAL) {
+			return cached.resourceNodes;
+		}
+		var resourceNodes = resourceNodesSupplier.get();
+		resourceNodesCache.put(resourceNodesKey, new CachedResourceNodes(version, resourceNodes));
+		return resourceNodes;
+	}
 
 	@Listen
 	public void on(SystemStopped event) {
@@ -188,27 +315,23 @@ public class DefaultResourceAllocator implements ResourceAllocator, Serializable
 	@Override
 	public void agentDisconnecting(Long agentId) {
 		disconnectingAgents.put(agentId, agentId);
-		while (true) {
-			boolean idle = true;
-			synchronized (resourceUsages) {
-				for (var entry : resourceUsages.entrySet()) {
-					if (entry.getKey().startsWith(agentId + ":") && entry.getValue() > 0) {
-						idle = false;
-						break;
-					}
-				}
-			}
-			if (idle) {
-				break;
-			} else {
-				try {
-					Thread.sleep(1000);
-				} catch (InterruptedException e) {
-					throw new RuntimeException(e);
-				}
+		synchronized (resourceUsages) {
+			try {
+				while (!isIdle(agentId)) 
+					resourceUsages.wait();
+			} catch (InterruptedException e) {
+				throw new RuntimeException(e);
 			}
 		}
 	}
+	
+	private boolean isIdle(Long agentId) {
+		for (var entry : resourceUsages.entrySet()) {
+			if (entry.getKey().startsWith(agentId + ":") && entry.getValue() > 0) 
+				return false;
+		}
+		return true;
+	}
 
 	private int getEffectiveTotalResources(String resourceNode, int totalResources) {
 		if (totalResources != 0) {
@@ -222,16 +345,26 @@ public class DefaultResourceAllocator implements ResourceAllocator, Serializable
 		}
 	}
 
+	private int getUsedResources(String resourceKey) {
+		var usedResources = resourceUsagesCache.get(resourceKey);
+		if (usedResources == null)
+			usedResources = 0;
+		var reserved = reservedResources.get(resourceKey);
+		if (reserved != null)
+			usedResources += reserved;
+		return usedResources;
+	}
+	
 	@Nullable
 	private String allocateResource(Collection<String> resourceNodes, String resourceType, 
-									int totalResources, int requiredResources) {
+									int totalResources, int requiredResources, 
+									Map<String, Integer> pendingUsages) {
 		String allocated = null;
 		var maxScore = 0;
 		for (var resourceNode: resourceNodes) {
 			var effectiveTotalResources = getEffectiveTotalResources(resourceNode, totalResources);
-			var usedResources = resourceUsagesCache.get(resourceNode + ":" + resourceType);
-			if (usedResources == null)
-				usedResources = 0;
+			var resourceKey = resourceNode + ":" + resourceType;
+			var usedResources = getUsedResources(resourceKey) + pendingUsages.getOrDefault(resourceKey, 0);
 			var score = getAllocationScore(effectiveTotalResources, usedResources, requiredResources);
 
 			if (score > maxScore) {
@@ -241,23 +374,269 @@ public class DefaultResourceAllocator implements ResourceAllocator, Serializable
 		}
 		return allocated;
 	}
+	
+	private void signalAllocation() {
+		synchronized (allocationQueues) {
+			for (var resourceType: allocationQueues.keySet())
+				signalAllocatable(resourceType);
+		}
+	}
+	
+	/**
+	 * Wake up requests of specified resource type which can be allocated now. Requests not 
+	 * allocatable keep waiting, so that they do not query resource nodes and sort the queue 
+	 * on every resource change. Should be called with allocationQueues locked
+	 */
+	private void signalAllocatable(String resourceType) {
+		for (var each: getAllocatableRequests(resourceType, null).keySet())
+			each.signal();
+	}
 
-	private void acquireResource(String resourceKey, int totalResources, int acquireResources) {
-		while (true) {
-			synchronized (resourceUsages) {	
-				var usedResources = resourceUsages.get(resourceKey);				
-				if (usedResources == null)
-					usedResources = 0;
-				usedResources += acquireResources;
-				if (usedResources <= totalResources) {
+	private int getAllocations(Map<Long, Integer> allocations, @Nullable Long id) {
+		if (id != null)
+			return allocations.getOrDefault(id, 0);
+		else
+			return 0;
+	}
+	
+	/**
+	 * Sort requests in fair share order: requests of projects and then submitters holding 
+	 * less allocations come first, and requests with same share are served in FIFO order  
+	 */
+	private List<AllocationRequest> sortInFairShareOrder(Collection<AllocationRequest> requests) {
+		List<AllocationRequest> sorted = new ArrayList<>(requests);
+		sorted.sort(Comparator
+				.comparingInt((AllocationRequest it) -> getAllocations(projectAllocations, it.projectId))
+				.thenComparingInt(it -> getAllocations(userAllocations, it.userId))
+				.thenComparingLong(it -> it.id));
+		return sorted;
+	}
+	
+	/**
+	 * Walk the queue in fair share order to find requests which can be allocated. Requests 
+	 * ahead in the queue are assumed to take resources they can be allocated, and nodes they 
+	 * are waiting for are not allocated to requests behind them, so that large requests will 
+	 * not be starved by small ones. Should be called with allocationQueues locked
+	 * 
+	 * @param untilRequest
+	 * 			stop walking after this request if not <tt>null</tt>
+	 * @return allocatable requests in fair share order, mapped to resource nodes they can be 
+	 * allocated
+	 */
+	private Map<AllocationRequest, String> getAllocatableRequests(String resourceType, 
+																	@Nullable AllocationRequest untilRequest) {
+		Map<AllocationRequest, String> allocatableRequests = new LinkedHashMap<>();
+		var queue = allocationQueues.get(resourceType);
+		if (queue == null)
+			return allocatableRequests;
+		Map<String, Integer> pendingUsages = new HashMap<>();
+		Set<String> blockedNodes = new HashSet<>();
+		for (var each: sortInFairShareOrder(queue)) {
+			if (each.resourceNodes != null) {
+				var resourceNodes = each.resourceNodes.stream()
+						.filter(it -> !blockedNodes.contains(it))
+						.collect(toList());
+				var resourceNode = allocateResource(resourceNodes, each.resourceType,
+						each.totalResources, each.requiredResources, pendingUsages);
+				if (resourceNode != null) {
+					pendingUsages.merge(resourceNode + ":" + each.resourceType, each.requiredResources, Integer::sum);
+					allocatableRequests.put(each, resourceNode);
+				} else {
+					for (var resourceNode2: each.resourceNodes) {
+						if (each.requiredResources <= getEffectiveTotalResources(resourceNode2, each.totalResources))
+							blockedNodes.add(resourceNode2);
+					}
+				}
+			}
+			if (each == untilRequest)
+				break;
+		}
+		return allocatableRequests;
+	}
+	
+	/**
+	 * Notify pages displaying queue position of builds waiting in queue of specified 
+	 * resource type. Should be called after queue or allocations of the queue change
+	 */
+	private void notifyQueuePositionChange(String resourceType) {
+		Collection<String> observables = new HashSet<>();
+		synchronized (allocationQueues) {
+			var queue = allocationQueues.get(resourceType);
+			if (queue != null) {
+				for (var request: queue) {
+					if (request.buildId != null)
+						observables.add(Build.getQueuePositionChangeObservable(request.buildId));
+				}
+			}
+		}
+		if (!observables.isEmpty())
+			webSocketManager.notifyObservablesChange(observables, null);
+	}
+	
+	/**
+	 * Allocate resources to specified request if its turn comes in fair share order
+	 * 
+	 * @return allocated resource node, or <tt>null</tt> if resources can not be allocated 
+	 * to specified request at this time
+	 */
+	@Nullable
+	private String tryAllocate(AllocationRequest request) {
+		var allocatableRequests = getAllocatableRequests(request.resourceType, request);
+		var allocated = allocatableRequests.remove(request);
+		
+		if (allocated != null) {
+			var resourceKey = allocated + ":" + request.resourceType;
+			request.reservedKey = resourceKey;
+			reservedResources.merge(resourceKey, request.requiredResources, Integer::sum);
+			reservations.put(request.id, request);
+			if (request.projectId != null)
+				projectAllocations.merge(request.projectId, 1, Integer::sum);
+			if (request.userId != null)
+				userAllocations.merge(request.userId, 1, Integer::sum);
+			waitTimes.computeIfAbsent(request.resourceType, k -> new Histogram(Histogram.DURATION_BOUNDS))
+					.record(System.currentTimeMillis() - request.queueTime);
+		}
+		
+		// Requests ahead of this one can be allocated, make sure they are awake
+		for (var each: allocatableRequests.keySet())
+			each.signal();
+		return allocated;
+	}
+	
+	/**
+	 * Queue specified request and wait until resources are allocated to it
+	 * 
+	 * @return allocated resource node
+	 */
+	private String allocate(AllocationRequest request, String resourceNodesKey, 
+							Supplier<Collection<String>> resourceNodesSupplier) {
+		synchronized (allocationQueues) {
+			allocationQueues.computeIfAbsent(request.resourceType, k -> new ArrayList<>()).add(request);
+		}
+		notifyQueuePositionChange(request.resourceType);
+		try {
+			while (true) {
+				// Query resource nodes out of lock as it may access database
+				var resourceNodes = getResourceNodes(resourceNodesKey, resourceNodesSupplier);
+				synchronized (allocationQueues) {
+					request.resourceNodes = resourceNodes;
+					// Signals from now on indicate changes after this attempt
+					request.resetSignal();
+					var allocated = tryAllocate(request);
+					if (allocated != null)
+						return allocated;
+				}
+				// Wake up when allocatable, or recheck in case resource nodes change
+				request.awaitSignal(ALLOCATION_RECHECK_INTERVAL);
+			}
+		} catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		} finally {
+			synchronized (allocationQueues) {
+				var queue = allocationQueues.get(request.resourceType);
+				queue.remove(request);
+				if (queue.isEmpty())
+					allocationQueues.remove(request.resourceType);
+				else
+					signalAllocatable(request.resourceType);
+			}
+			notifyQueuePositionChange(request.resourceType);
+		}
+	}
+	
+	private void releaseReservation(Long requestId) {
+		synchronized (allocationQueues) {
+			var request = reservations.remove(requestId);
+			if (request != null) {
+				var reserved = reservedResources.get(request.reservedKey) - request.requiredResources;
+				if (reserved > 0)
+					reservedResources.put(request.reservedKey, reserved);
+				else
+					reservedResources.remove(request.reservedKey);
+			}
+		}
+	}
+	
+	/**
+	 * Called on resource node after resources are acquired, to release reservation made by 
+	 * the server allocating the resources  
+	 */
+	private void releaseReservation(String allocatingServer, Long requestId) {
+		if (allocatingServer.equals(clusterManager.getLocalServerAddress())) {
+			releaseReservation(requestId);
+		} else {
+			try {
+				clusterManager.submitToServer(allocatingServer, () -> {
+					releaseReservation(requestId);
+					return null;
+				});
+			} catch (Exception e) {
+				// Reservation will be released after job finishes anyway
+				logger.error("Error releasing resource reservation", e);
+			}
+		}
+	}
+	
+	private void releaseAllocation(AllocationRequest request) {
+		synchronized (allocationQueues) {
+			releaseReservation(request.id);
+			if (request.reservedKey != null) {
+				if (request.projectId != null)
+					projectAllocations.computeIfPresent(request.projectId, (k, v) -> v > 1? v - 1: null);
+				if (request.userId != null)
+					userAllocations.computeIfPresent(request.userId, (k, v) -> v > 1? v - 1: null);
+			}
+			signalAllocatable(request.resourceType);
+		}
+		// Fair share order of queued requests may change as allocations are released
+		notifyQueuePositionChange(request.resourceType);
+	}
+	
+	/**
+	 * Grant resources to queued acquisition requests in FIFO order. Should be called 
+	 * with resourceUsages locked 
+	 */
+	private void grantResources(String resourceKey) {
+		var queue = acquisitionQueues.get(resourceKey);
+		if (queue != null) {
+			for (Iterator<AcquisitionRequest> it = queue.iterator(); it.hasNext();) {
+				var request = it.next();
+				var usedResources = resourceUsages.getOrDefault(resourceKey, 0) + request.resources;
+				if (usedResources <= request.totalResources) {
 					resourceUsages.put(resourceKey, usedResources);
 					resourceUsagesCache.put(resourceKey, usedResources);
+					request.granted = true;
+					it.remove();
+				} else if (request.resources <= request.totalResources) {
+					// Do not let later requests overtake this one
 					break;
 				}
 			}
+			if (queue.isEmpty())
+				acquisitionQueues.remove(resourceKey);
+			resourceUsages.notifyAll();
+		}
+	}
+	
+	private void acquireResource(String resourceKey, int totalResources, int acquireResources) {
+		synchronized (resourceUsages) {
+			var request = new AcquisitionRequest(totalResources, acquireResources);
+			acquisitionQueues.computeIfAbsent(resourceKey, k -> new LinkedList<>()).add(request);
+			grantResources(resourceKey);
 			try {
-				Thread.sleep(100);
+				while (!request.granted)
+					resourceUsages.wait();
 			} catch (InterruptedException e) {
+				if (request.granted) {
+					releaseResource(resourceKey, acquireResources);
+				} else {
+					var queue = acquisitionQueues.get(resourceKey);
+					queue.remove(request);
+					if (queue.isEmpty())
+						acquisitionQueues.remove(resourceKey);
+					else 
+						grantResources(resourceKey);
+				}
 				throw new RuntimeException(e);
 			}
 		}
@@ -269,75 +648,118 @@ public class DefaultResourceAllocator implements ResourceAllocator, Serializable
 			usedResources -= releaseResources;
 			resourceUsages.put(resourceKey, usedResources);
 			resourceUsagesCache.put(resourceKey, usedResources);
+			
+			// Hand off released resources to queued requests immediately 
+			grantResources(resourceKey);
+			resourceUsages.notifyAll();
 		}
+		signalAllocation();
 	}
 
 	@Override
-	public void runServerJob(String resourceType, int totalResources,
+	public void runServerJob(@Nullable JobContext jobContext, String resourceType, int totalResources,
 							 int requiredResources, ClusterRunnable runnable) {
-		while (true) {
+		var request = new AllocationRequest(requestSequence.incrementAndGet(), jobContext, resourceType, totalResources, requiredResources);
+		var server = allocate(request, "servers", () -> {
 			var servers = clusterManager.getServerAddresses();
 			servers.retainAll(clusterManager.getOnlineServers());
-			var server = allocateResource(servers, resourceType, totalResources, requiredResources);
-			if (server != null) {
-				jobManager.runJob(server, () -> {
-					int effectiveTotalResources = getEffectiveTotalResources(server, totalResources);
-					var resourceKey = server + ":" + resourceType;
-					acquireResource(resourceKey, effectiveTotalResources, requiredResources);
-					try {
-						jobManager.runJob(server, runnable);
-					} finally {
-						releaseResource(resourceKey, requiredResources);
-					}
-				});
-				break;
-			}
-			try {
-				Thread.sleep(1000);
-			} catch (InterruptedException e) {
-				throw new RuntimeException(e);
-			}
+			return servers;
+		});
+		var allocatingServer = clusterManager.getLocalServerAddress();
+		var requestId = request.id;
+		try {
+			jobManager.runJob(server, () -> {
+				int effectiveTotalResources = getEffectiveTotalResources(server, totalResources);
+				var resourceKey = server + ":" + resourceType;
+				acquireResource(resourceKey, effectiveTotalResources, requiredResources);
+				try {
+					releaseReservation(allocatingServer, requestId);
+					jobManager.runJob(server, runnable);
+				} finally {
+					releaseResource(resourceKey, requiredResources);
+				}
+			});
+		} finally {
+			releaseAllocation(request);
 		}
 	}
 
 	@Override
-	public void runAgentJob(AgentQuery agentQuery, String resourceType,
+	public void runAgentJob(@Nullable JobContext jobContext, AgentQuery agentQuery, String resourceType,
 							int totalResources, int requiredResources, 
 							AgentRunnable runnable) {
-		while (true) {
+		var request = new AllocationRequest(requestSequence.incrementAndGet(), jobContext, resourceType, totalResources, requiredResources);
+		var agentIdString = allocate(request, "agents:" + agentQuery, () -> {
 			var agentIds = agentManager.query(agentQuery, 0, MAX_VALUE)
 					.stream().filter(it -> it.isOnline() && !it.isPaused())
 					.map(AbstractEntity::getId)
 					.collect(toSet());
 			agentIds.removeAll(disconnectingAgents.keySet());
-			var agentIdString = allocateResource(
-					agentIds.stream().map(Object::toString).collect(toList()),
-					resourceType, totalResources, requiredResources);
-			var agentId = agentIdString != null? Long.valueOf(agentIdString): null;
-			if (agentId != null) {
-				var server = agentManager.getAgentServer(agentId);
-				if (server == null)
-					throw new ExplicitException("Can not find server managing allocated agent, please retry later");
-
-				jobManager.runJob(server, () -> {
-					var effectiveTotalResources = getEffectiveTotalResources(agentIdString, totalResources);
-					var resourceKey = agentId + ":" + resourceType;
-					acquireResource(resourceKey, effectiveTotalResources, requiredResources);
-					try {
-						updateLastUsedDate(agentId);
-						runnable.run(agentId);
-					} finally {
-						releaseResource(resourceKey, requiredResources);
-					}
-				});
-				break;
+			return agentIds.stream().map(Object::toString).collect(toList());
+		});
+		var agentId = Long.valueOf(agentIdString);
+		var allocatingServer = clusterManager.getLocalServerAddress();
+		var requestId = request.id;
+		try {
+			var server = agentManager.getAgentServer(agentId);
+			if (server == null)
+				throw new ExplicitException("Can not find server managing allocated agent, please retry later");
+
+			jobManager.runJob(server, () -> {
+				var effectiveTotalResources = getEffectiveTotalResources(agentIdString, totalResources);
+				var resourceKey = agentId + ":" + resourceType;
+				acquireResource(resourceKey, effectiveTotalResources, requiredResources);
+				try {
+					releaseReservation(allocatingServer, requestId);
+					updateLastUsedDate(agentId);
+					runnable.run(agentId);
+				} finally {
+					releaseResource(resourceKey, requiredResources);
+				}
+			});
+		} finally {
+			releaseAllocation(request);
+		}
+	}
+
+	@Nullable
+	private ResourceQueuePosition getQueuePosition(Long buildId) {
+		synchronized (allocationQueues) {
+			for (var entry: allocationQueues.entrySet()) {
+				var sorted = sortInFairShareOrder(entry.getValue());
+				for (int i=0; i<sorted.size(); i++) {
+					if (buildId.equals(sorted.get(i).buildId))
+						return new ResourceQueuePosition(entry.getKey(), i+1, sorted.size());
+				}
 			}
-			try {
-				Thread.sleep(1000);
-			} catch (InterruptedException e) {
-				throw new RuntimeException(e);
+		}
+		return null;
+	}
+	
+	@Override
+	public ResourceQueuePosition getQueuePosition(Build build) {
+		Long buildId = build.getId();
+		var activeServer = projectManager.getActiveServer(build.getProject().getId(), false);
+		if (activeServer != null)
+			return clusterManager.runOnServer(activeServer, () -> getQueuePosition(buildId));
+		else
+			return null;
+	}
+
+	@Override
+	public Collection<ResourceQueueStats> getQueueStats() {
+		Collection<ResourceQueueStats> stats = new ArrayList<>();
+		synchronized (allocationQueues) {
+			Set<String> resourceTypes = new TreeSet<>(waitTimes.keySet());
+			resourceTypes.addAll(allocationQueues.keySet());
+			for (var resourceType: resourceTypes) {
+				var queue = allocationQueues.get(resourceType);
+				var histogram = waitTimes.get(resourceType);
+				stats.add(new ResourceQueueStats(resourceType, queue != null? queue.size(): 0, 
+						histogram != null? histogram.getSnapshot(): new Histogram(Histogram.DURATION_BOUNDS).getSnapshot()));
 			}
 		}
+		return stats;
 	}
 
 	@Override
@@ -345,6 +767,8 @@ public class DefaultResourceAllocator implements ResourceAllocator, Serializable
 		synchronized (resourceUsages) {
 			resourceUsagesCache.putAll(resourceUsages);
 		}
+		// Remove entries of queries no longer used
+		resourceNodesCache.clear();
 	}
 
 	@Override
@@ -352,4 +776,94 @@ public class DefaultResourceAllocator implements ResourceAllocator, Serializable
 		return SimpleScheduleBuilder.repeatHourlyForever();
 	}
 	
+	private static class AllocationRequest {
+
+		final long id;
+
+		final Long projectId;
+
+		final Long userId;
+
+		final Long buildId;
+
+		final String resourceType;
+
+		final int totalResources;
+
+		final int requiredResources;
+
+		final long queueTime = System.currentTimeMillis();
+
+		// Refreshed by thread issuing the request
+		Collection<String> resourceNodes;
+
+		// Key of resource reserved for this request after allocated
+		String reservedKey;
+
+		// Guarded by monitor of this request
+		boolean signalled;
+
+		AllocationRequest(long id, @Nullable JobContext jobContext, String resourceType,
+						  int totalResources, int requiredResources) {
+			this.id = id;
+			if (jobContext != null) {
+				projectId = jobContext.getProjectId();
+				userId = jobContext.getSubmitterId();
+				buildId = jobContext.getBuildId();
+			} else {
+				projectId = null;
+				userId = null;
+				buildId = null;
+			}
+			this.resourceType = resourceType;
+			this.totalResources = totalResources;
+			this.requiredResources = requiredResources;
+		}
+
+		synchronized void signal() {
+			signalled = true;
+			notify();
+		}
+
+		synchronized void resetSignal() {
+			signalled = false;
+		}
+
+		synchronized void awaitSignal(long timeout) throws InterruptedException {
+			if (!signalled)
+				wait(timeout);
+		}
+
+	}
+
+	private static class CachedResourceNodes {
+
+		final long version;
+
+		final long timestamp = System.currentTimeMillis();
+
+		final Collection<String> resourceNodes;
+
+		CachedResourceNodes(long version, Collection<String> resourceNodes) {
+			this.version = version;
+			this.resourceNodes = resourceNodes;
+		}
+
+	}
+
+	private static class AcquisitionRequest {
+
+		final int totalResources;
+
+		final int resources;
+
+		boolean granted;
+
+		AcquisitionRequest(int totalResources, int resources) {
+			this.totalResources = totalResources;
+			this.resources = resources;
+		}
+
+	}
+	
 }
@@ -7,6 +7,7 @@ import io.onedev.server.buildspec.job.CacheSpec;
 import io.onedev.server.model.support.administration.jobexecutor.JobExecutor;
 import org.eclipse.jgit.lib.ObjectId;
 
+import javax.annotation.Nullable;
 import java.io.Serializable;
 import java.util.Collection;
 import java.util.List;
@@ -29,6 +30,8 @@ public class JobContext implements Serializable {
 	
 	private final Long buildNumber;
 	
+	private final Long submitterId;
+	
 	private final List<Action> actions;
 	
 	private final String refName;
@@ -44,8 +47,8 @@ public class JobContext implements Serializable {
 	private final int retried;
 	
 	public JobContext(String jobToken, JobExecutor jobExecutor, Long projectId, String projectPath, 
-			String projectGitDir, Long buildId, Long buildNumber, List<Action> actions, 
-			String refName, ObjectId commitId, Collection<CacheSpec> caches, 
+			String projectGitDir, Long buildId, Long buildNumber, @Nullable Long submitterId, 
+			List<Action> actions, String refName, ObjectId commitId, Collection<CacheSpec> caches, 
 			List<Service> services, long timeout, int retried) {
 		this.jobToken = jobToken;
 		this.jobExecutor = jobExecutor;
@@ -54,6 +57,7 @@ public class JobContext implements Serializable {
 		this.projectGitDir = projectGitDir;
 		this.buildId = buildId;
 		this.buildNumber = buildNumber;
+		this.submitterId = submitterId;
 		this.actions = actions;
 		this.refName = refName;
 		this.commitId = commitId;
@@ -111,6 +115,11 @@ public class JobContext implements Serializable {
 		return buildNumber;
 	}
 
+	@Nullable
+	public Long getSubmitterId() {
+		return submitterId;
+	}
+
 	public long getTimeout() {
 		return timeout;
 	}
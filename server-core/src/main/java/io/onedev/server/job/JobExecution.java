@@ -14,6 +14,8 @@ public class JobExecution {
 	
 	private volatile long beginTime;
 	
+	private volatile boolean running;
+	
 	private volatile Long cancellerId;
 	
 	public JobExecution(Future<?> future, long timeout) {
@@ -35,12 +37,25 @@ public class JobExecution {
 		return future.isCancelled();
 	}
 
+	/**
+	 * Only time spent running counts towards timeout, and time waiting for executor resources 
+	 * or retry is excluded
+	 */
 	public boolean isTimedout() {
-		return System.currentTimeMillis() - beginTime > timeout;
+		return running && System.currentTimeMillis() - beginTime > timeout;
+	}
+	
+	public boolean isRunning() {
+		return running;
 	}
 	
-	public void updateBeginTime() {
+	public void markRunning() {
 		beginTime = System.currentTimeMillis();
+		running = true;
+	}
+	
+	public void markPending() {
+		running = false;
 	}
 	
 	public boolean isDone() {
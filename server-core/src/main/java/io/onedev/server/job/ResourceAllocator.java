@@ -1,16 +1,50 @@
 package io.onedev.server.job;
 
+import java.util.Collection;
+
+import javax.annotation.Nullable;
+
 import io.onedev.server.cluster.ClusterRunnable;
+import io.onedev.server.model.Build;
 import io.onedev.server.search.entity.agent.AgentQuery;
 
 public interface ResourceAllocator {
 
-	void runServerJob(String resourceType, int totalResources, int requiredResources, 
-					  ClusterRunnable runnable);
+	/**
+	 * Run specified runnable on a server with enough resources. Requests waiting for resources 
+	 * of the same type are served in fair share order of their projects and submitters
+	 * 
+	 * @param jobContext
+	 * 			context of the job requesting resources, or <tt>null</tt> if not requested 
+	 * 			by a build, for instance when testing a job executor
+	 */
+	void runServerJob(@Nullable JobContext jobContext, String resourceType, int totalResources, 
+					  int requiredResources, ClusterRunnable runnable);
 
-	void runAgentJob(AgentQuery agentQuery, String resourceType, int totalResources, 
-					 int requiredResources, AgentRunnable runnable);
+	/**
+	 * Run specified runnable on an agent with enough resources. Requests waiting for resources 
+	 * of the same type are served in fair share order of their projects and submitters
+	 *
+	 * @param jobContext
+	 * 			context of the job requesting resources, or <tt>null</tt> if not requested 
+	 * 			by a build, for instance when testing a job executor
+	 */
+	void runAgentJob(@Nullable JobContext jobContext, AgentQuery agentQuery, String resourceType, 
+					 int totalResources, int requiredResources, AgentRunnable runnable);
 	
 	void agentDisconnecting(Long agentId);
 
+	/**
+	 * Get position of specified build in resource allocation queue
+	 * 
+	 * @return position of the build, or <tt>null</tt> if the build is not waiting for resources
+	 */
+	@Nullable
+	ResourceQueuePosition getQueuePosition(Build build);
+
+	/**
+	 * @return statistics of resource allocation requests issued from current server
+	 */
+	Collection<ResourceQueueStats> getQueueStats();
+	
 }
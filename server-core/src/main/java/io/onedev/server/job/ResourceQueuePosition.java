@@ -0,0 +1,39 @@
+package io.onedev.server.job;
+
+import java.io.Serializable;
+
+/**
+ * Position of a build in allocation queue of its job executor
+ */
+public class ResourceQueuePosition implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private final String resourceType;
+
+	private final int position;
+
+	private final int size;
+
+	public ResourceQueuePosition(String resourceType, int position, int size) {
+		this.resourceType = resourceType;
+		this.position = position;
+		this.size = size;
+	}
+
+	public String getResourceType() {
+		return resourceType;
+	}
+
+	/**
+	 * @return 1-based position in queue
+	 */
+	public int getPosition() {
+		return position;
+	}
+
+	public int getSize() {
+		return size;
+	}
+
+}
@@ -0,0 +1,42 @@
+package io.onedev.server.job;
+
+import java.io.Serializable;
+
+import io.onedev.server.util.concurrent.Histogram;
+
+/**
+ * Statistics of resource allocation requests of same resource type, which is
+ * name of the job executor
+ */
+public class ResourceQueueStats implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private final String resourceType;
+
+	private final int numOfQueuedRequests;
+
+	private final Histogram.Snapshot waitTimes;
+
+	public ResourceQueueStats(String resourceType, int numOfQueuedRequests, Histogram.Snapshot waitTimes) {
+		this.resourceType = resourceType;
+		this.numOfQueuedRequests = numOfQueuedRequests;
+		this.waitTimes = waitTimes;
+	}
+
+	public String getResourceType() {
+		return resourceType;
+	}
+
+	public int getNumOfQueuedRequests() {
+		return numOfQueuedRequests;
+	}
+
+	/**
+	 * @return milliseconds requests waited in queue before resources are allocated
+	 */
+	public Histogram.Snapshot getWaitTimes() {
+		return waitTimes;
+	}
+
+}
@@ -5,42 +5,58 @@ import io.onedev.commons.loader.ManagedSerializedForm;
 import io.onedev.commons.utils.ExceptionUtils;
 import io.onedev.commons.utils.TaskLogger;
 import io.onedev.server.OneDev;
-import io.onedev.server.buildspec.job.log.JobLogEntry;
 import io.onedev.server.buildspec.job.log.JobLogEntryEx;
 import io.onedev.server.buildspec.job.log.instruction.LogInstruction;
 import io.onedev.server.buildspec.job.log.instruction.LogInstructionParser.InstructionContext;
 import io.onedev.server.buildspec.job.log.instruction.LogInstructionParser.ParamContext;
 import io.onedev.server.buildspecmodel.inputspec.SecretInput;
+import io.onedev.server.cluster.ClusterManager;
 import io.onedev.server.cluster.ClusterTask;
 import io.onedev.server.manager.BuildManager;
 import io.onedev.server.manager.ProjectManager;
 import io.onedev.server.event.Listen;
 import io.onedev.server.event.project.build.BuildFinished;
+import io.onedev.server.event.system.SystemStarted;
+import io.onedev.server.event.system.SystemStopping;
 import io.onedev.server.model.Build;
+import io.onedev.server.model.Project;
 import io.onedev.server.persistence.annotation.Sessional;
+import io.onedev.server.util.schedule.SchedulableTask;
+import io.onedev.server.util.schedule.TaskScheduler;
 import io.onedev.server.web.websocket.WebSocketManager;
 import org.antlr.v4.runtime.tree.TerminalNode;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
 import org.joda.time.DateTime;
 import org.joda.time.format.DateTimeFormat;
 import org.joda.time.format.DateTimeFormatter;
+import org.quartz.CronScheduleBuilder;
+import org.quartz.ScheduleBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BiConsumer;
 import java.util.regex.Pattern;
 
 import static io.onedev.commons.utils.LockUtils.*;
 import static io.onedev.server.model.Build.getLogLockName;
 
 @Singleton
-public class DefaultLogManager implements LogManager, Serializable {
+public class DefaultLogManager implements LogManager, SchedulableTask, Serializable {
 
 	private static final Logger logger = LoggerFactory.getLogger(DefaultLogManager.class);
 	
@@ -48,6 +64,14 @@ public class DefaultLogManager implements LogManager, Serializable {
 
 	private static final int MAX_CACHE_ENTRIES = 10000;
 	
+	private static final int FLUSH_BATCH_SIZE = 1000;
+	
+	private static final int MAX_QUEUED_ENTRIES = 20000;
+	
+	private static final long FLUSH_INTERVAL = 200;
+	
+	private static final long QUEUE_IDLE_TIMEOUT = 60000;
+	
 	private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormat.forPattern("HH:mm:ss");	
 	
 	private static final Pattern EOL_PATTERN = Pattern.compile("\r?\n");
@@ -58,15 +82,31 @@ public class DefaultLogManager implements LogManager, Serializable {
 	
 	private final BuildManager buildManager;
 	
+	private final TaskScheduler taskScheduler;
+	
+	private final ClusterManager clusterManager;
+	
 	private final Map<String, LogSnippet> recentSnippets = new ConcurrentHashMap<>();
 	
 	private final Map<String, TaskLogger> jobLoggers = new ConcurrentHashMap<>();
 	
+	private final Map<String, QueuedEntries> queuedEntriesMap = new ConcurrentHashMap<>();
+	
+	private final LongAdder numOfBackpressuredEntries = new LongAdder();
+	
+	private volatile Thread thread;
+	
+	private volatile String taskId;
+	
 	@Inject
-	public DefaultLogManager(WebSocketManager webSocketManager, ProjectManager projectManager, BuildManager buildManager) {
+	public DefaultLogManager(WebSocketManager webSocketManager, ProjectManager projectManager, 
+							 BuildManager buildManager, TaskScheduler taskScheduler, 
+							 ClusterManager clusterManager) {
 		this.projectManager = projectManager;
 		this.webSocketManager = webSocketManager;
 		this.buildManager = buildManager;
+		this.taskScheduler = taskScheduler;
+		this.clusterManager = clusterManager;
 	}
 	
 	public Object writeReplace() throws ObjectStreamException {
@@ -93,42 +133,36 @@ public class DefaultLogManager implements LogManager, Serializable {
 				for (String maskSecret: secretValuesToMask)
 					message = StringUtils.replace(message, maskSecret, SecretInput.MASK);
 				
-				String maskedMessage = message;
-				write(getLogLockName(projectId, buildNumber), () -> {
-					String logKey = getLogKey(projectId, buildNumber);
-					LogSnippet snippet = recentSnippets.get(logKey);
-					if (snippet == null) {
-						File logFile = Build.getLogFile(projectId, buildNumber);
-						if (!logFile.exists())	{
-							snippet = new LogSnippet();
-							recentSnippets.put(logKey, snippet);
-						}
-					}
-					if (snippet != null) {
-						boolean entryAdded = false;
-						try {
-							snippet.entries.add(JobLogEntryEx.parse(maskedMessage, styleBuilder));
-							entryAdded = true;
-						} catch (Exception e) {
-							logger.error("Failed to parse job log message: " +  maskedMessage, e);
-						}
-						if (entryAdded) {
-							if (snippet.entries.size() > MAX_CACHE_ENTRIES) {
-								File logFile = Build.getLogFile(projectId, buildNumber);
-								try (ObjectOutputStream oos = newOutputStream(logFile)) {
-									while (snippet.entries.size() > MIN_CACHE_ENTRIES) {
-										writeLogEntry(oos, snippet.entries.remove(0));
-										snippet.offset++;
-									}
-								} catch (IOException e) {
-									throw new RuntimeException(e);
-								}
-							}
-							webSocketManager.notifyObservableChange(Build.getLogChangeObservable(buildId), null);
-						}
-					}
-					return null;
-				});
+				JobLogEntryEx entry;
+				try {
+					entry = JobLogEntryEx.parse(message, styleBuilder);
+				} catch (Exception e) {
+					logger.error("Failed to parse job log message: " +  message, e);
+					return;
+				}
+				
+				String logKey = getLogKey(projectId, buildNumber);
+				QueuedEntries queuedEntries = queuedEntriesMap.computeIfAbsent(logKey, 
+						k -> new QueuedEntries(projectId, buildId, buildNumber));
+				queuedEntries.lastActive = System.currentTimeMillis();
+				// Reserve a queue slot before adding the entry, so that concurrent logging threads 
+				// of the build can not grow the queue beyond its limit
+				int numOfEntries = queuedEntries.numOfEntries.incrementAndGet();
+				if (numOfEntries > MAX_QUEUED_ENTRIES) {
+					// Write queue is full, let logging thread write queued entries itself before 
+					// adding the entry to slow it down 
+					numOfBackpressuredEntries.increment();
+					writeQueuedEntries(queuedEntries);
+				}
+				queuedEntries.entries.offer(entry);
+				if (queuedEntriesMap.get(logKey) != queuedEntries) {
+					// Queue was discarded by writer thread as idle before we added entry into it
+					writeQueuedEntries(queuedEntries);
+				} else if (numOfEntries == FLUSH_BATCH_SIZE) {
+					Thread copy = thread;
+					if (copy != null)
+						LockSupport.unpark(copy);
+				}
 			}
 			
 			@Override
@@ -192,92 +226,131 @@ public class DefaultLogManager implements LogManager, Serializable {
 
 	@Override
 	public boolean matches(Build build, Pattern pattern) {
-		String key = getLogKey(build.getProject().getId(), build.getNumber());
-		return read(build.getLogLockName(), () -> {
-			LogSnippet snippet = recentSnippets.get(key);
-			if (snippet != null) {
-				for (JobLogEntryEx entry: snippet.entries) {
-					if ((build.getRetryDate() == null || !entry.getDate().before(build.getRetryDate())) 
-							&& pattern.matcher(entry.getMessageText()).find()) {
-						return true;
-					}
-				}
+		Long projectId = build.getProject().getId();
+		Long buildNumber = build.getNumber();
+		Date retryDate = build.getRetryDate();
+		AtomicBoolean matched = new AtomicBoolean(false);
+		scanLog(projectId, buildNumber, (index, date, text) -> {
+			if ((retryDate == null || date >= retryDate.getTime()) && pattern.matcher(text).find()) {
+				matched.set(true);
+				return false;
+			} else {
+				return true;
 			}
-			
-			File logFile = build.getLogFile();
-			
-			if (logFile.exists()) {
-				try (ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(new FileInputStream(logFile)))) {
-					while (true) {
-						JobLogEntry entry  = (JobLogEntry) ois.readObject();
-						if ((build.getRetryDate() == null || !entry.getDate().before(build.getRetryDate())) 
-								&& pattern.matcher(entry.getMessage()).find()) {
-							return true;
-						}
+		});
+		return matched.get();
+	}
+
+	@Sessional
+	@Override
+	public List<LogMatch> search(Build build, Pattern pattern, int contextLines, int maxMatches) {
+		Long projectId = build.getProject().getId();
+		Long buildNumber = build.getNumber();
+		return projectManager.runOnActiveServer(projectId, new ClusterTask<>() {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			public List<LogMatch> call() {
+				List<LogMatch> matches = new ArrayList<>();
+				List<LogMatch> matchesExpectingContext = new ArrayList<>();
+				Deque<String> recentLines = new ArrayDeque<>();
+				scanLog(projectId, buildNumber, (index, date, text) -> {
+					String line = null;
+					for (Iterator<LogMatch> it = matchesExpectingContext.iterator(); it.hasNext();) {
+						LogMatch match = it.next();
+						if (line == null)
+							line = text.toString();
+						match.getLinesAfter().add(line);
+						if (match.getLinesAfter().size() >= contextLines)
+							it.remove();
 					}
-				} catch (EOFException ignored) {
-				} catch (IOException|ClassNotFoundException e) {
-					throw new RuntimeException(e);
-				}
+					if (matches.size() < maxMatches && pattern.matcher(text).find()) {
+						if (line == null)
+							line = text.toString();
+						LogMatch match = new LogMatch(index, line, new ArrayList<>(recentLines));
+						matches.add(match);
+						if (contextLines > 0)
+							matchesExpectingContext.add(match);
+					}
+					if (contextLines > 0) {
+						recentLines.addLast(line != null? line: text.toString());
+						if (recentLines.size() > contextLines)
+							recentLines.removeFirst();
+					}
+					return matches.size() < maxMatches || !matchesExpectingContext.isEmpty();
+				});
+				return matches;
 			}
-			return false;
+
 		});
 	}
 	
-	private List<JobLogEntryEx> readLogEntries(File logFile, int from, int count) {
-		List<JobLogEntryEx> entries = new ArrayList<>();
-		if (logFile.exists()) {
-			try (ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(new FileInputStream(logFile)))) {
-				int numOfReadEntries = 0;
-				while (numOfReadEntries < from) {
-					ois.readObject();
-					numOfReadEntries++;
-				}
-				while (count == 0 || numOfReadEntries - from < count) {
-					entries.add(readLogEntry(ois));
-					numOfReadEntries++;
+	/**
+	 * Scan log entries of specified build in order, first those flushed to log file and 
+	 * then those still cached in memory. Entries in log file are scanned as raw records 
+	 * without constructing log entry objects
+	 */
+	private void scanLog(Long projectId, Long buildNumber, LogVisitor visitor) {
+		LogFile logFile = getMaintainedLogFile(projectId, buildNumber);
+		read(getLogLockName(projectId, buildNumber), () -> {
+			if (logFile.exists()) {
+				LogFile.TextDecoder decoder = new LogFile.TextDecoder();
+				try (LogFile.Reader reader = logFile.openReader(0)) {
+					ByteBuffer payload;
+					while (true) {
+						int index = reader.getIndex();
+						if ((payload = reader.nextPayload()) == null)
+							break;
+						if (!visitor.visit(index, decoder.getDate(payload), decoder.getMessageText(payload)))
+							return null;
+					}
 				}
-			} catch (EOFException ignored) {
-			} catch (IOException | ClassNotFoundException e) {
-				throw new RuntimeException(e);
 			}
-		}
-		return entries;
-	}
-	
-	private JobLogEntryEx readLogEntry(ObjectInputStream ois) throws ClassNotFoundException, IOException {
-		Object obj = ois.readObject();
-		if (obj instanceof JobLogEntry)
-			return new JobLogEntryEx((JobLogEntry) obj);
-		else
-			return (JobLogEntryEx) obj;
-	}
-	
-	private void writeLogEntry(ObjectOutputStream oos, JobLogEntryEx logEntry) throws IOException {
-		JobLogEntry spaceEfficientVersion = logEntry.getSpaceEfficientVersion();
-		if (spaceEfficientVersion != null)
-			oos.writeObject(spaceEfficientVersion);
-		else
-			oos.writeObject(logEntry);
-	}
-	
-	private LogSnippet readLogSnippetReversely(File logFile, int count) {
-		LogSnippet snippet = new LogSnippet();
-		if (logFile.exists()) {
-			try (ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(new FileInputStream(logFile)))) {
-				while (true) {
-					snippet.entries.add(readLogEntry(ois));
-					if (snippet.entries.size() > count) {
-						snippet.entries.remove(0);
-						snippet.offset ++;
-					}
+			LogSnippet snippet = recentSnippets.get(getLogKey(projectId, buildNumber));
+			if (snippet != null) {
+				int index = snippet.offset;
+				for (JobLogEntryEx entry: snippet.entries) {
+					if (!visitor.visit(index++, entry.getDate().getTime(), entry.getMessageText()))
+						break;
 				}
-			} catch (EOFException ignored) {
-			} catch (IOException | ClassNotFoundException e) {
-				throw new RuntimeException(e);
 			}
+			return null;
+		});
+	}
+	
+	/**
+	 * Get log file of specified build, converting legacy format or refreshing index 
+	 * under write lock if necessary, so that it can be read afterwards with read lock. 
+	 * Queued entries of the build are also written so that they are visible to readers
+	 */
+	private LogFile getMaintainedLogFile(Long projectId, Long buildNumber) {
+		writeQueuedEntries(projectId, buildNumber);
+		String lockName = getLogLockName(projectId, buildNumber);
+		LogFile logFile = new LogFile(Build.getLogFile(projectId, buildNumber));
+		if (read(lockName, logFile::needsMaintenance)) {
+			write(lockName, () -> {
+				if (logFile.needsMaintenance()) 
+					logFile.maintain();
+				return null;
+			});
 		}
-		return snippet;
+		return logFile;
+	}
+	
+	private void appendLogEntries(LogFile logFile, List<JobLogEntryEx> entries) {
+		if (logFile.needsMaintenance())
+			logFile.maintain();
+		if (logFile.isArchived())
+			logFile.unarchive();
+		logFile.append(entries);
+	}
+	
+	private void archive(LogFile logFile) {
+		if (logFile.needsMaintenance())
+			logFile.maintain();
+		if (logFile.exists() && !logFile.isArchived()) 
+			logFile.archive();
 	}
 	
 	private List<JobLogEntryEx> readLogEntries(List<JobLogEntryEx> cachedEntries, int from, int count) {
@@ -302,14 +375,14 @@ public class DefaultLogManager implements LogManager, Serializable {
 
 			@Override
 			public List<JobLogEntryEx> call() {
+				LogFile logFile = getMaintainedLogFile(projectId, buildNumber);
 				return read(getLogLockName(projectId, buildNumber), () -> {
-					File logFile = Build.getLogFile(projectId, buildNumber);
 					LogSnippet snippet = recentSnippets.get(getLogKey(projectId, buildNumber));
 					if (snippet != null) {
 						if (from >= snippet.offset) {
 							return readLogEntries(snippet.entries, from - snippet.offset, count);
 						} else {
-							List<JobLogEntryEx> entries = new ArrayList<>(readLogEntries(logFile, from, count));
+							List<JobLogEntryEx> entries = new ArrayList<>(logFile.read(from, count));
 							if (count == 0)
 								entries.addAll(snippet.entries);
 							else if (entries.size() < count)
@@ -317,7 +390,7 @@ public class DefaultLogManager implements LogManager, Serializable {
 							return entries;
 						}
 					} else {
-						return readLogEntries(logFile, from, count);
+						return logFile.read(from, count);
 					}
 				});
 			}
@@ -336,8 +409,8 @@ public class DefaultLogManager implements LogManager, Serializable {
 
 			@Override
 			public LogSnippet call() {
+				LogFile logFile = getMaintainedLogFile(projectId, buildNumber);
 				return read(getLogLockName(projectId, buildNumber), () -> {
-					File logFile = Build.getLogFile(projectId, buildNumber);
 					LogSnippet recentSnippet = recentSnippets.get(getLogKey(projectId, buildNumber));
 					if (recentSnippet != null) {
 						LogSnippet snippet = new LogSnippet();
@@ -345,13 +418,13 @@ public class DefaultLogManager implements LogManager, Serializable {
 							snippet.entries.addAll(recentSnippet.entries.subList(
 									recentSnippet.entries.size() - count, recentSnippet.entries.size()));
 						} else {
-							snippet.entries.addAll(readLogSnippetReversely(logFile, count - recentSnippet.entries.size()).entries);
+							snippet.entries.addAll(logFile.readReversely(count - recentSnippet.entries.size()).entries);
 							snippet.entries.addAll(recentSnippet.entries);
 						}
 						snippet.offset = recentSnippet.entries.size() + recentSnippet.offset - snippet.entries.size();
 						return snippet;
 					} else {
-						return readLogSnippetReversely(logFile, count);
+						return logFile.readReversely(count);
 					}
 				});
 			}
@@ -359,23 +432,116 @@ public class DefaultLogManager implements LogManager, Serializable {
 		});
 	}
 	
-	private ObjectOutputStream newOutputStream(File logFile) {
-		try {
-			if (logFile.exists()) {
-				return new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(logFile, true))) {
-
-					@Override
-					protected void writeStreamHeader() throws IOException {
-						reset();
+	/**
+	 * Move queued entries of specified build into recent snippet, and write overflowed 
+	 * snippet entries into log file. This is done in batch under a single write lock 
+	 * acquisition, and observers of build log are notified once per batch
+	 */
+	private void writeQueuedEntries(QueuedEntries queuedEntries) {
+		Long projectId = queuedEntries.projectId;
+		Long buildNumber = queuedEntries.buildNumber;
+		boolean entriesAdded = write(getLogLockName(projectId, buildNumber), () -> {
+			List<JobLogEntryEx> entries = new ArrayList<>();
+			JobLogEntryEx entry;
+			while ((entry = queuedEntries.entries.poll()) != null) {
+				queuedEntries.numOfEntries.decrementAndGet();
+				entries.add(entry);
+			}
+			if (entries.isEmpty())
+				return false;
+			
+			String logKey = getLogKey(projectId, buildNumber);
+			LogSnippet snippet = recentSnippets.get(logKey);
+			if (snippet == null) {
+				File logFile = Build.getLogFile(projectId, buildNumber);
+				if (!logFile.exists())	{
+					snippet = new LogSnippet();
+					recentSnippets.put(logKey, snippet);
+				}
+			}
+			if (snippet != null) {
+				snippet.entries.addAll(entries);
+				if (snippet.entries.size() > MAX_CACHE_ENTRIES) {
+					List<JobLogEntryEx> entriesToWrite = new ArrayList<>();
+					while (snippet.entries.size() > MIN_CACHE_ENTRIES) {
+						entriesToWrite.add(snippet.entries.remove(0));
+						snippet.offset++;
 					}
-					
-				};
+					appendLogEntries(new LogFile(Build.getLogFile(projectId, buildNumber)), entriesToWrite);
+				}
+				return true;
 			} else {
-				return new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(logFile)));
+				return false;
+			}
+		});
+		if (entriesAdded) 
+			webSocketManager.notifyObservableChange(Build.getLogChangeObservable(queuedEntries.buildId), null);
+	}
+	
+	private void writeQueuedEntries(Long projectId, Long buildNumber) {
+		QueuedEntries queuedEntries = queuedEntriesMap.get(getLogKey(projectId, buildNumber));
+		if (queuedEntries != null && queuedEntries.numOfEntries.get() != 0)
+			writeQueuedEntries(queuedEntries);
+	}
+	
+	private void writeQueuedEntries() {
+		long now = System.currentTimeMillis();
+		for (Map.Entry<String, QueuedEntries> entry: queuedEntriesMap.entrySet()) {
+			QueuedEntries queuedEntries = entry.getValue();
+			try {
+				if (queuedEntries.numOfEntries.get() != 0) {
+					writeQueuedEntries(queuedEntries);
+				} else if (now - queuedEntries.lastActive > QUEUE_IDLE_TIMEOUT 
+						&& queuedEntriesMap.remove(entry.getKey(), queuedEntries)
+						&& queuedEntries.numOfEntries.get() != 0) {
+					writeQueuedEntries(queuedEntries);
+				}
+			} catch (Exception e) {
+				logger.error("Error writing job log entries", e);
+			}
+		}
+	}
+	
+	@Override
+	public int getNumOfQueuedEntries() {
+		int numOfQueuedEntries = 0;
+		for (QueuedEntries queuedEntries: queuedEntriesMap.values()) 
+			numOfQueuedEntries += queuedEntries.numOfEntries.get();
+		return numOfQueuedEntries;
+	}
+
+	@Override
+	public long getNumOfBackpressuredEntries() {
+		return numOfBackpressuredEntries.sum();
+	}
+	
+	@Listen
+	public void on(SystemStarted event) {
+		thread = new Thread(() -> {
+			while (thread != null) {
+				LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(FLUSH_INTERVAL));
+				writeQueuedEntries();
+			}
+		}, "Build Log Writer");
+		thread.setDaemon(true);
+		thread.start();
+		taskId = taskScheduler.schedule(this);
+	}
+	
+	@Listen
+	public void on(SystemStopping event) {
+		if (taskId != null)
+			taskScheduler.unschedule(taskId);
+		Thread copy = thread;
+		thread = null;
+		if (copy != null) {
+			LockSupport.unpark(copy);
+			try {
+				copy.join();
+			} catch (InterruptedException ignored) {
 			}
-		} catch (IOException e) {
-			throw new RuntimeException(e);
 		}
+		writeQueuedEntries();
 	}
 	
 	@Sessional
@@ -383,22 +549,102 @@ public class DefaultLogManager implements LogManager, Serializable {
 	public void on(BuildFinished event) {
 		Build build = event.getBuild();
 		Long projectId = build.getProject().getId();
+		writeQueuedEntries(projectId, build.getNumber());
 		write(build.getLogLockName(), () -> {
 			LogSnippet snippet = recentSnippets.remove(getLogKey(projectId, build.getNumber()));
 			if (snippet != null) {
 				File logFile = build.getLogFile();
-				try (ObjectOutputStream oos = newOutputStream(logFile)) {
-					for (JobLogEntryEx entry: snippet.entries)
-						writeLogEntry(oos, entry);
-				} catch (IOException e) {
-					throw new RuntimeException(e);
-				} 
+				appendLogEntries(new LogFile(logFile), snippet.entries);
+				archive(new LogFile(logFile));
 				projectManager.directoryModified(projectId, logFile.getParentFile());
 			}
 			return null;
 		});
 	}
 	
+	/**
+	 * Archive logs of finished builds not archived yet, for instance logs written before 
+	 * archiving is introduced
+	 */
+	@Override
+	public void execute() {
+		String localServer = clusterManager.getLocalServerAddress();
+		for (Long projectId: projectManager.getIds()) {
+			if (thread == null)
+				break;
+			try {
+				if (!localServer.equals(projectManager.getActiveServer(projectId, false)))
+					continue;
+				File buildsDir = new File(projectManager.getStorageDir(projectId), Project.BUILDS_DIR);
+				forEachLogFile(buildsDir, (buildNumber, logFile) -> {
+					if (!logFile.isArchived() && isFinished(projectId, buildNumber)) {
+						boolean archived = write(getLogLockName(projectId, buildNumber), () -> {
+							if (!recentSnippets.containsKey(getLogKey(projectId, buildNumber)) 
+									&& logFile.exists() && !logFile.isArchived()) {
+								archive(logFile);
+								return true;
+							} else {
+								return false;
+							}
+						});
+						if (archived)
+							projectManager.directoryModified(projectId, logFile.getFile().getParentFile());
+					}
+				});
+			} catch (Exception e) {
+				logger.error("Error archiving build logs of project id " + projectId, e);
+			}
+		}
+	}
+	
+	@Sessional
+	protected boolean isFinished(Long projectId, Long buildNumber) {
+		Build build = buildManager.find(projectManager.load(projectId), buildNumber);
+		return build != null && build.isFinished();
+	}
+	
+	private void forEachLogFile(File buildsDir, BiConsumer<Long, LogFile> consumer) {
+		File[] suffixDirs = buildsDir.listFiles(File::isDirectory);
+		if (suffixDirs != null) {
+			for (File suffixDir: suffixDirs) {
+				File[] buildDirs = suffixDir.listFiles(File::isDirectory);
+				if (buildDirs != null) {
+					for (File buildDir: buildDirs) {
+						File logFile = new File(buildDir, Build.LOG_FILE);
+						if (NumberUtils.isDigits(buildDir.getName()) && logFile.exists()) 
+							consumer.accept(Long.valueOf(buildDir.getName()), new LogFile(logFile));
+					}
+				}
+			}
+		}
+	}
+
+	@Override
+	public ScheduleBuilder<?> getScheduleBuilder() {
+		return CronScheduleBuilder.dailyAtHourAndMinute(2, 0);
+	}
+	
+	@Override
+	public LogStorageStats getStorageStats(Long projectId) {
+		return projectManager.runOnActiveServer(projectId, () -> {
+			LogStorageStats stats = new LogStorageStats();
+			File buildsDir = new File(projectManager.getStorageDir(projectId), Project.BUILDS_DIR);
+			forEachLogFile(buildsDir, (buildNumber, logFile) -> {
+				read(getLogLockName(projectId, buildNumber), () -> {
+					if (logFile.exists()) {
+						stats.setNumOfLogs(stats.getNumOfLogs() + 1);
+						stats.setStoredSize(stats.getStoredSize() + logFile.getFile().length());
+						stats.setOriginalSize(stats.getOriginalSize() + logFile.getOriginalSize());
+						if (logFile.isArchived())
+							stats.setNumOfArchivedLogs(stats.getNumOfArchivedLogs() + 1);
+					}
+					return null;
+				});
+			});
+			return stats;
+		});
+	}
+	
 	private String getLogKey(Long projectId, Long buildNumber) {
 		return projectId + ":" + buildNumber;
 	}
@@ -410,7 +656,7 @@ public class DefaultLogManager implements LogManager, Serializable {
 
 	class LogStream extends InputStream {
 
-		private ObjectInputStream ois;
+		private LogFile.Reader reader;
 		
 		private final Lock lock;
 
@@ -421,13 +667,12 @@ public class DefaultLogManager implements LogManager, Serializable {
 		private int pos = 0;
 		
 		public LogStream(Long projectId, Long buildNumber) {
+			LogFile logFile = getMaintainedLogFile(projectId, buildNumber);
 			lock = getReadWriteLock(getLogLockName(projectId, buildNumber)).readLock();
 			lock.lock();
 			try {
-				File logFile = Build.getLogFile(projectId, buildNumber);
-				
 				if (logFile.exists())
-					ois = new ObjectInputStream(new BufferedInputStream(new FileInputStream(logFile)));
+					reader = logFile.openReader(0);
 				
 				LogSnippet snippet = recentSnippets.get(getLogKey(projectId, buildNumber));
 				if (snippet != null) {
@@ -461,20 +706,19 @@ public class DefaultLogManager implements LogManager, Serializable {
 		@Override
 		public int read() throws IOException {
 			if (pos == buffer.length) {
-				if (ois != null) {
-					try {
-						buffer = (renderAsText(readLogEntry(ois)) + "\n").getBytes(StandardCharsets.UTF_8);
-					} catch (EOFException e) {
-						ois.close();
-						ois = null;
+				if (reader != null) {
+					JobLogEntryEx entry = reader.next();
+					if (entry != null) {
+						buffer = (renderAsText(entry) + "\n").getBytes(StandardCharsets.UTF_8);
+					} else {
+						reader.close();
+						reader = null;
 						if (recentBuffer != null) {
 							buffer = recentBuffer;
 							recentBuffer = null;
 						} else {
 							return -1;
 						}
-					} catch (ClassNotFoundException e) {
-						throw new RuntimeException(e);
 					}
 				} else if (recentBuffer != null) {
 					buffer = recentBuffer;
@@ -492,8 +736,8 @@ public class DefaultLogManager implements LogManager, Serializable {
 		@Override
 		public void close() throws IOException {
 			try {
-				if (ois != null)
-					ois.close();
+				if (reader != null)
+					reader.close();
 			} finally {
 				lock.unlock();
 			}
@@ -515,4 +759,36 @@ public class DefaultLogManager implements LogManager, Serializable {
 	public void removeJobLogger(String jobToken) {
 		jobLoggers.remove(jobToken);
 	}
+	
+	private interface LogVisitor {
+		
+		/**
+		 * @return <tt>true</tt> to continue scanning, <tt>false</tt> to stop
+		 */
+		boolean visit(int index, long date, CharSequence text);
+		
+	}
+	
+	private static class QueuedEntries {
+		
+		final Long projectId;
+		
+		final Long buildId;
+		
+		final Long buildNumber;
+		
+		final Queue<JobLogEntryEx> entries = new ConcurrentLinkedQueue<>();
+		
+		final AtomicInteger numOfEntries = new AtomicInteger(0);
+		
+		volatile long lastActive;
+		
+		QueuedEntries(Long projectId, Long buildId, Long buildNumber) {
+			this.projectId = projectId;
+			this.buildId = buildId;
+			this.buildNumber = buildNumber;
+		}
+		
+	}
+	
 }
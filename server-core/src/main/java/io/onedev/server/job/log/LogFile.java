@@ -0,0 +1,805 @@
+package io.onedev.server.job.log;
+
+import io.onedev.commons.utils.FileUtils;
+import io.onedev.server.buildspec.job.log.JobLogEntry;
+import io.onedev.server.buildspec.job.log.JobLogEntryEx;
+import io.onedev.server.buildspec.job.log.Message;
+import io.onedev.server.buildspec.job.log.Style;
+
+import javax.annotation.Nullable;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Build log stored as a sequence of length-prefixed records, accompanied by a sparse
+ * index file mapping every {@link #INDEX_INTERVAL}th entry number to its byte position.
+ * This makes it possible to seek to arbitrary entry without decoding preceding ones.
+ * <p>
+ * Log file layout: magic bytes followed by records of form <tt>[int length][payload]</tt>.
+ * <p>
+ * Index file layout: <tt>[long dataLength][long dataTimestamp][int numOfEntries]</tt>
+ * followed by a <tt>long</tt> position for every {@link #INDEX_INTERVAL}th entry. The
+ * index is treated as stale and rebuilt if recorded data length or timestamp does not
+ * match the log file, for instance when log file is replaced by replica sync.
+ * <p>
+ * Legacy log files written via Java serialization are detected by their stream header
+ * and converted via {@link #maintain()}.
+ * <p>
+ * Log of finished build can be converted into archived layout via {@link #archive()}: 
+ * records are grouped into blocks of about {@link #BLOCK_SIZE} bytes, and each block is 
+ * deflated separately. A block table (position and first entry number of each block) 
+ * and a trailer are appended after the blocks, so that reading arbitrary entries only 
+ * needs to inflate blocks containing them. Index file is not used for archived layout.
+ * <p>
+ * This class is not thread-safe. Callers should hold build log lock: read lock for read
+ * operations, and write lock for {@link #append(Collection)} and {@link #maintain()}.
+ */
+public class LogFile {
+
+	public static final String INDEX_FILE_SUFFIX = ".idx";
+
+	static final int INDEX_INTERVAL = 256;
+
+	static final byte[] MAGIC = new byte[] {'O', 'D', 'L', 'G', 1};
+	
+	static final byte[] ARCHIVED_MAGIC = new byte[] {'O', 'D', 'L', 'Z', 1};
+	
+	static final int BLOCK_SIZE = 64 * 1024;
+	
+	private static final int ARCHIVE_TRAILER_SIZE = 8 + 4 + 4 + 8;
+
+	private static final int INDEX_HEADER_SIZE = 8 + 8 + 4;
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	static final byte TYPE_PLAIN = 0;
+
+	static final byte TYPE_STYLED = 1;
+
+	private final File file;
+
+	private final File indexFile;
+
+	public LogFile(File file) {
+		this.file = file;
+		indexFile = new File(file.getParentFile(), file.getName() + INDEX_FILE_SUFFIX);
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	public boolean exists() {
+		return file.exists();
+	}
+
+	/**
+	 * @return <tt>true</tt> if log file is written with Java serialization
+	 */
+	public boolean isLegacy() {
+		if (file.exists() && file.length() >= 2) {
+			try (var is = new FileInputStream(file)) {
+				return is.read() == 0xAC && is.read() == 0xED;
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		} else {
+			return false;
+		}
+	}
+
+	/**
+	 * @return <tt>true</tt> if log file is in archived layout
+	 */
+	public boolean isArchived() {
+		if (file.exists() && file.length() >= ARCHIVED_MAGIC.length) {
+			try (var is = new FileInputStream(file)) {
+				return Arrays.equals(is.readNBytes(ARCHIVED_MAGIC.length), ARCHIVED_MAGIC);
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		} else {
+			return false;
+		}
+	}
+	
+	/**
+	 * @return <tt>true</tt> if {@link #maintain()} should be called (with write lock held)
+	 * before reading the log
+	 */
+	public boolean needsMaintenance() {
+		if (file.exists()) {
+			if (isLegacy())
+				return true;
+			if (isArchived())
+				return indexFile.exists();
+			var header = readIndexHeader();
+			return header == null || header.dataLength != file.length()
+					|| header.dataTimestamp != file.lastModified();
+		} else {
+			return false;
+		}
+	}
+
+	/**
+	 * Convert legacy log file and bring the index up to date
+	 */
+	public void maintain() {
+		if (isLegacy()) {
+			var entries = new ArrayList<JobLogEntryEx>();
+			try (var ois = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+				while (true) {
+					Object obj = ois.readObject();
+					if (obj instanceof JobLogEntry)
+						entries.add(new JobLogEntryEx((JobLogEntry) obj));
+					else
+						entries.add((JobLogEntryEx) obj);
+				}
+			} catch (EOFException ignored) {
+			} catch (IOException | ClassNotFoundException e) {
+				throw new RuntimeException(e);
+			}
+			rewrite(entries);
+		} else if (isArchived()) {
+			FileUtils.deleteFile(indexFile);
+		} else if (file.exists()) {
+			var header = readIndexHeader();
+			if (header == null || header.dataLength != file.length()
+					|| header.dataTimestamp != file.lastModified()) {
+				rebuildIndex();
+			}
+		}
+	}
+
+	private void rewrite(Collection<JobLogEntryEx> entries) {
+		var tempFile = new File(file.getParentFile(), file.getName() + ".rewriting");
+		var tempLogFile = new LogFile(tempFile);
+		FileUtils.deleteFile(tempFile);
+		FileUtils.deleteFile(tempLogFile.indexFile);
+		tempLogFile.append(entries);
+		FileUtils.deleteFile(tempLogFile.indexFile);
+		replaceWith(tempFile);
+		rebuildIndex();
+	}
+	
+	private void replaceWith(File tempFile) {
+		try {
+			Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	/**
+	 * Convert this log file into archived layout. Log file should be maintained before 
+	 * calling this method
+	 * 
+	 * @return size of log file before archiving
+	 */
+	public long archive() {
+		long originalLength = file.length();
+		var tempFile = new File(file.getParentFile(), file.getName() + ".archiving");
+		var blockPositions = new ArrayList<Long>();
+		var blockFirstEntries = new ArrayList<Integer>();
+		var deflater = new Deflater();
+		try (
+				var reader = openReader(0);
+				var os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile), BUFFER_SIZE))) {
+			os.write(ARCHIVED_MAGIC);
+			long position = ARCHIVED_MAGIC.length;
+			var block = new ByteArrayOutputStream(BLOCK_SIZE + BLOCK_SIZE / 4);
+			var blockData = new DataOutputStream(block);
+			byte[] compressBuffer = new byte[BUFFER_SIZE];
+			int blockFirstEntry = 0;
+			while (true) {
+				int index = reader.getIndex();
+				var payload = reader.nextPayload();
+				if (payload == null || block.size() != 0 && block.size() + 4 + payload.remaining() > BLOCK_SIZE) {
+					if (block.size() != 0) {
+						blockPositions.add(position);
+						blockFirstEntries.add(blockFirstEntry);
+						byte[] compressed = deflate(deflater, block.toByteArray(), compressBuffer);
+						os.writeInt(compressed.length);
+						os.writeInt(block.size());
+						os.write(compressed);
+						position += 8 + compressed.length;
+						block.reset();
+					}
+					blockFirstEntry = index;
+				}
+				if (payload == null)
+					break;
+				blockData.writeInt(payload.remaining());
+				blockData.write(payload.array(), payload.arrayOffset() + payload.position(), payload.remaining());
+			}
+			
+			long tablePosition = position;
+			for (int i=0; i<blockPositions.size(); i++) {
+				os.writeLong(blockPositions.get(i));
+				os.writeInt(blockFirstEntries.get(i));
+			}
+			os.writeLong(tablePosition);
+			os.writeInt(blockPositions.size());
+			os.writeInt(reader.getIndex());
+			os.writeLong(originalLength);
+		} catch (IOException e) {
+			FileUtils.deleteFile(tempFile);
+			throw new RuntimeException(e);
+		} finally {
+			deflater.end();
+		}
+		replaceWith(tempFile);
+		FileUtils.deleteFile(indexFile);
+		return originalLength;
+	}
+	
+	/**
+	 * Convert archived log file back into appendable layout
+	 */
+	public void unarchive() {
+		rewrite(read(0, 0));
+	}
+
+	private static byte[] deflate(Deflater deflater, byte[] data, byte[] buffer) {
+		deflater.reset();
+		deflater.setInput(data);
+		deflater.finish();
+		var baos = new ByteArrayOutputStream(data.length / 4);
+		while (!deflater.finished()) {
+			int count = deflater.deflate(buffer);
+			baos.write(buffer, 0, count);
+		}
+		return baos.toByteArray();
+	}
+	
+	/**
+	 * @return size of log file before being archived, or current size if not archived
+	 */
+	public long getOriginalSize() {
+		if (isArchived()) 
+			return readArchiveTrailer().originalLength;
+		else 
+			return file.length();
+	}
+	
+	private ArchiveTrailer readArchiveTrailer() {
+		try (var raf = new RandomAccessFile(file, "r")) {
+			raf.seek(raf.length() - ARCHIVE_TRAILER_SIZE);
+			return new ArchiveTrailer(raf.readLong(), raf.readInt(), raf.readInt(), raf.readLong());
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	private void rebuildIndex() {
+		if (file.length() < MAGIC.length) {
+			try (var os = new FileOutputStream(file)) {
+				os.write(MAGIC);
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+		
+		var positions = new ArrayList<Long>();
+		int numOfEntries = 0;
+		long position = MAGIC.length;
+		long dataLength = file.length();
+		try (var channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			var lengthBuffer = ByteBuffer.allocate(4);
+			while (position + 4 <= dataLength) {
+				lengthBuffer.clear();
+				readFully(channel, lengthBuffer, position);
+				lengthBuffer.flip();
+				long nextPosition = position + 4 + lengthBuffer.getInt();
+				if (nextPosition > dataLength)
+					break;
+				if (numOfEntries % INDEX_INTERVAL == 0)
+					positions.add(position);
+				numOfEntries++;
+				position = nextPosition;
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+
+		if (position != dataLength) {
+			// Incomplete trailing record left over by an interrupted write
+			try (var raf = new RandomAccessFile(file, "rw")) {
+				raf.setLength(position);
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+
+		try (var os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile)))) {
+			os.writeLong(file.length());
+			os.writeLong(file.lastModified());
+			os.writeInt(numOfEntries);
+			for (var each: positions)
+				os.writeLong(each);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * @return number of log entries in this file
+	 */
+	public int size() {
+		if (isArchived())
+			return readArchiveTrailer().numOfEntries;
+		var header = readIndexHeader();
+		return header != null? header.numOfEntries: 0;
+	}
+
+	public void append(Collection<JobLogEntryEx> entries) {
+		boolean newFile = !file.exists();
+		if (newFile)
+			FileUtils.deleteFile(indexFile);
+		try (
+				var raf = new RandomAccessFile(indexFile, "rw");
+				var os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true), BUFFER_SIZE))) {
+			IndexHeader header;
+			long position;
+			if (newFile) {
+				os.write(MAGIC);
+				position = MAGIC.length;
+				header = new IndexHeader(0, 0, 0);
+			} else {
+				header = readIndexHeader(raf);
+				if (header == null)
+					header = new IndexHeader(0, 0, 0);
+				position = file.length();
+			}
+			int numOfEntries = header.numOfEntries;
+			var newPositions = new ArrayList<Long>();
+			for (var entry: entries) {
+				if (numOfEntries % INDEX_INTERVAL == 0)
+					newPositions.add(position);
+				byte[] payload = encode(entry);
+				os.writeInt(payload.length);
+				os.write(payload);
+				position += 4 + payload.length;
+				numOfEntries++;
+			}
+			os.flush();
+
+			raf.seek(INDEX_HEADER_SIZE + 8L * ((header.numOfEntries + INDEX_INTERVAL - 1) / INDEX_INTERVAL));
+			for (var newPosition: newPositions)
+				raf.writeLong(newPosition);
+			os.close();
+			writeIndexHeader(raf, new IndexHeader(file.length(), file.lastModified(), numOfEntries));
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Read specified number of entries starting from specified index
+	 *
+	 * @param from
+	 * 			index of first entry to read
+	 * @param count
+	 * 			number of entries to read, <tt>0</tt> to read all entries since <tt>from</tt>
+	 */
+	public List<JobLogEntryEx> read(int from, int count) {
+		var entries = new ArrayList<JobLogEntryEx>();
+		if (file.exists()) {
+			try (var reader = openReader(from)) {
+				while (count == 0 || entries.size() < count) {
+					var entry = reader.next();
+					if (entry != null)
+						entries.add(entry);
+					else
+						break;
+				}
+			}
+		}
+		return entries;
+	}
+
+	public LogSnippet readReversely(int count) {
+		var snippet = new LogSnippet();
+		if (file.exists()) {
+			int size = size();
+			snippet.offset = Math.max(0, size - count);
+			snippet.entries.addAll(read(snippet.offset, size - snippet.offset));
+		}
+		return snippet;
+	}
+
+	public Reader openReader(int from) {
+		return new Reader(from);
+	}
+
+	@Nullable
+	private IndexHeader readIndexHeader() {
+		if (indexFile.exists()) {
+			try (var raf = new RandomAccessFile(indexFile, "r")) {
+				return readIndexHeader(raf);
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		} else {
+			return null;
+		}
+	}
+
+	@Nullable
+	private IndexHeader readIndexHeader(RandomAccessFile raf) throws IOException {
+		if (raf.length() >= INDEX_HEADER_SIZE) {
+			raf.seek(0);
+			return new IndexHeader(raf.readLong(), raf.readLong(), raf.readInt());
+		} else {
+			return null;
+		}
+	}
+
+	private void writeIndexHeader(RandomAccessFile raf, IndexHeader header) throws IOException {
+		raf.seek(0);
+		raf.writeLong(header.dataLength);
+		raf.writeLong(header.dataTimestamp);
+		raf.writeInt(header.numOfEntries);
+	}
+
+	private long getIndexedPosition(int slot) {
+		try (var raf = new RandomAccessFile(indexFile, "r")) {
+			raf.seek(INDEX_HEADER_SIZE + 8L * slot);
+			return raf.readLong();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			int read = channel.read(buffer, position);
+			if (read < 0)
+				throw new EOFException();
+			position += read;
+		}
+	}
+
+	static byte[] encode(JobLogEntryEx entry) {
+		var baos = new ByteArrayOutputStream();
+		try (var os = new DataOutputStream(baos)) {
+			JobLogEntry spaceEfficientVersion = entry.getSpaceEfficientVersion();
+			if (spaceEfficientVersion != null) {
+				os.writeByte(TYPE_PLAIN);
+				os.writeLong(entry.getDate().getTime());
+				writeString(os, spaceEfficientVersion.getMessage());
+			} else {
+				os.writeByte(TYPE_STYLED);
+				os.writeLong(entry.getDate().getTime());
+				os.writeInt(entry.getMessages().size());
+				for (var message: entry.getMessages()) {
+					writeString(os, message.getStyle().getColor());
+					writeString(os, message.getStyle().getBackgroundColor());
+					os.writeBoolean(message.getStyle().isBold());
+					writeString(os, message.getText());
+				}
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		return baos.toByteArray();
+	}
+
+	static JobLogEntryEx decode(ByteBuffer payload) {
+		byte type = payload.get();
+		var date = new Date(payload.getLong());
+		if (type == TYPE_PLAIN) {
+			return new JobLogEntryEx(new JobLogEntry(date, readString(payload)));
+		} else {
+			int numOfMessages = payload.getInt();
+			var messages = new ArrayList<Message>(numOfMessages);
+			for (int i=0; i<numOfMessages; i++) {
+				var color = readString(payload);
+				var backgroundColor = readString(payload);
+				var bold = payload.get() != 0;
+				messages.add(new Message(new Style(color, backgroundColor, bold), readString(payload)));
+			}
+			return new JobLogEntryEx(date, messages);
+		}
+	}
+
+	private static void writeString(DataOutputStream os, String string) throws IOException {
+		byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+		os.writeInt(bytes.length);
+		os.write(bytes);
+	}
+
+	private static String readString(ByteBuffer buffer) {
+		int length = buffer.getInt();
+		var string = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+		buffer.position(buffer.position() + length);
+		return string;
+	}
+
+	private static class ArchiveTrailer {
+
+		final long tablePosition;
+
+		final int numOfBlocks;
+
+		final int numOfEntries;
+
+		final long originalLength;
+
+		ArchiveTrailer(long tablePosition, int numOfBlocks, int numOfEntries, long originalLength) {
+			this.tablePosition = tablePosition;
+			this.numOfBlocks = numOfBlocks;
+			this.numOfEntries = numOfEntries;
+			this.originalLength = originalLength;
+		}
+
+	}
+
+	private static class IndexHeader {
+
+		final long dataLength;
+
+		final long dataTimestamp;
+
+		final int numOfEntries;
+
+		IndexHeader(long dataLength, long dataTimestamp, int numOfEntries) {
+			this.dataLength = dataLength;
+			this.dataTimestamp = dataTimestamp;
+			this.numOfEntries = numOfEntries;
+		}
+
+	}
+
+	/**
+	 * Sequential reader of log records. Log file is read in chunks (or inflated block by 
+	 * block for archived layout), and record payloads are returned as views into the chunk 
+	 * buffer, so that scanning a log does not need to allocate per record unless entries 
+	 * are decoded
+	 */
+	public class Reader implements Closeable {
+
+		private final FileChannel channel;
+
+		private final long dataLength;
+
+		private ByteBuffer chunk = ByteBuffer.allocate(BUFFER_SIZE);
+
+		/*
+		 * File position of next byte to be loaded into chunk
+		 */
+		private long loadPosition;
+		
+		private int index;
+		
+		private Inflater inflater;
+		
+		private long[] blockPositions;
+		
+		private int nextBlock;
+
+		Reader(int from) {
+			try {
+				channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+				chunk.flip();
+				if (isArchived()) {
+					var trailer = readArchiveTrailer();
+					dataLength = trailer.tablePosition;
+					inflater = new Inflater();
+					blockPositions = new long[trailer.numOfBlocks];
+					var blockFirstEntries = new int[trailer.numOfBlocks];
+					var table = ByteBuffer.allocate(trailer.numOfBlocks * 12);
+					readFully(channel, table, trailer.tablePosition);
+					table.flip();
+					for (int i=0; i<trailer.numOfBlocks; i++) {
+						blockPositions[i] = table.getLong();
+						blockFirstEntries[i] = table.getInt();
+					}
+					if (from >= trailer.numOfEntries) {
+						nextBlock = blockPositions.length;
+						index = trailer.numOfEntries;
+					} else {
+						int block = Arrays.binarySearch(blockFirstEntries, from);
+						if (block < 0)
+							block = -block - 2;
+						nextBlock = block;
+						index = blockFirstEntries[block];
+						while (index < from)
+							nextPayload();
+					}
+				} else {
+					dataLength = channel.size();
+					int numOfEntries = size();
+					if (from >= numOfEntries) {
+						loadPosition = dataLength;
+						index = numOfEntries;
+					} else {
+						int slot = from / INDEX_INTERVAL;
+						loadPosition = getIndexedPosition(slot);
+						index = slot * INDEX_INTERVAL;
+						while (index < from) 
+							nextPayload();
+					}
+				}
+			} catch (IOException | DataFormatException e) {
+				close();
+				throw new RuntimeException(e);
+			}
+		}
+
+		private boolean ensureAvailable(int numOfBytes) throws IOException, DataFormatException {
+			if (inflater != null) {
+				// Records never span blocks in archived layout
+				if (!chunk.hasRemaining() && nextBlock < blockPositions.length) 
+					loadBlock(nextBlock++);
+			} else if (chunk.remaining() < numOfBytes) {
+				if (chunk.capacity() < numOfBytes) {
+					var newChunk = ByteBuffer.allocate(numOfBytes);
+					newChunk.put(chunk);
+					chunk = newChunk;
+				} else {
+					chunk.compact();
+				}
+				while (chunk.position() < numOfBytes && loadPosition < dataLength) {
+					int read = channel.read(chunk, loadPosition);
+					if (read < 0)
+						break;
+					loadPosition += read;
+				}
+				chunk.flip();
+			}
+			return chunk.remaining() >= numOfBytes;
+		}
+		
+		private void loadBlock(int block) throws IOException, DataFormatException {
+			var header = ByteBuffer.allocate(8);
+			readFully(channel, header, blockPositions[block]);
+			header.flip();
+			int compressedLength = header.getInt();
+			int rawLength = header.getInt();
+			var compressed = ByteBuffer.allocate(compressedLength);
+			readFully(channel, compressed, blockPositions[block] + 8);
+			
+			if (chunk.capacity() < rawLength)
+				chunk = ByteBuffer.allocate(rawLength);
+			inflater.reset();
+			inflater.setInput(compressed.array(), 0, compressedLength);
+			int inflated = 0;
+			while (inflated < rawLength && !inflater.finished()) 
+				inflated += inflater.inflate(chunk.array(), inflated, rawLength - inflated);
+			chunk.clear();
+			chunk.limit(inflated);
+		}
+
+		/**
+		 * @return index of the entry to be returned by next call of {@link #nextPayload()}
+		 * or {@link #next()}
+		 */
+		public int getIndex() {
+			return index;
+		}
+		
+		/**
+		 * @return payload of next record, or <tt>null</tt> if end of log is reached. The returned
+		 * buffer is only valid until next call of this method
+		 */
+		@Nullable
+		public ByteBuffer nextPayload() {
+			try {
+				if (!ensureAvailable(4))
+					return null;
+				int length = chunk.getInt(chunk.position());
+				if (!ensureAvailable(4 + length))
+					return null;
+				chunk.position(chunk.position() + 4);
+				var payload = chunk.slice();
+				payload.limit(length);
+				chunk.position(chunk.position() + length);
+				index++;
+				return payload;
+			} catch (IOException | DataFormatException e) {
+				throw new RuntimeException(e);
+			}
+		}
+
+		@Nullable
+		public JobLogEntryEx next() {
+			var payload = nextPayload();
+			if (payload != null)
+				return decode(payload);
+			else
+				return null;
+		}
+
+		@Override
+		public void close() {
+			if (inflater != null)
+				inflater.end();
+			try {
+				if (channel != null)
+					channel.close();
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+
+	}
+
+	/**
+	 * Decodes date and message text of record payload without constructing log entry 
+	 * objects. Decoded text is held in a reusable buffer
+	 */
+	public static class TextDecoder {
+		
+		private final CharsetDecoder charsetDecoder = StandardCharsets.UTF_8.newDecoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		
+		private CharBuffer text = CharBuffer.allocate(BUFFER_SIZE);
+		
+		public long getDate(ByteBuffer payload) {
+			return payload.getLong(payload.position() + 1);
+		}
+		
+		/**
+		 * @return message text of specified payload. The returned char sequence is only 
+		 * valid until next call of this method
+		 */
+		public CharSequence getMessageText(ByteBuffer payload) {
+			var buffer = payload.duplicate();
+			text.clear();
+			if (buffer.get() == TYPE_PLAIN) {
+				buffer.getLong();
+				decodeString(buffer);
+			} else {
+				buffer.getLong();
+				int numOfMessages = buffer.getInt();
+				for (int i=0; i<numOfMessages; i++) {
+					skipString(buffer);
+					skipString(buffer);
+					buffer.get();
+					decodeString(buffer);
+				}
+			}
+			text.flip();
+			return text;
+		}
+
+		private void skipString(ByteBuffer buffer) {
+			int length = buffer.getInt();
+			buffer.position(buffer.position() + length);
+		}
+		
+		private void decodeString(ByteBuffer buffer) {
+			int length = buffer.getInt();
+			var bytes = buffer.slice();
+			bytes.limit(length);
+			buffer.position(buffer.position() + length);
+			
+			// UTF-8 never decodes to more chars than bytes
+			if (text.remaining() < length) {
+				var newText = CharBuffer.allocate(text.position() + length);
+				text.flip();
+				newText.put(text);
+				text = newText;
+			}
+			charsetDecoder.reset();
+			charsetDecoder.decode(bytes, text, true);
+			charsetDecoder.flush(text);
+		}
+		
+	}
+	
+}
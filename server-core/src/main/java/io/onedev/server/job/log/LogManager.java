@@ -35,6 +35,24 @@ public interface LogManager {
 	
 	boolean matches(Build build, Pattern pattern);
 	
+	/**
+	 * Search log of specified build for entries matching specified pattern. Log is scanned 
+	 * in a streaming manner, and scanning stops as soon as required number of matches 
+	 * (including their trailing context) are collected 
+	 * 
+	 * @param build
+	 * 			build to search log of
+	 * @param pattern
+	 * 			pattern to find in message text of log entries
+	 * @param contextLines
+	 * 			number of log entries to include before and after each matched entry
+	 * @param maxMatches
+	 * 			maximum number of matches to return
+	 * @return
+	 * 			matches in log order
+	 */
+	List<LogMatch> search(Build build, Pattern pattern, int contextLines, int maxMatches);
+	
 	/**
 	 * Read specified number of log entries starting from end of the log
 	 * 
@@ -57,4 +75,21 @@ public interface LogManager {
 	
 	void removeJobLogger(String jobToken);
 	
+	/**
+	 * @return number of log entries queued for writing across all builds
+	 */
+	int getNumOfQueuedEntries();
+	
+	/**
+	 * @return number of log entries written by logging threads themselves since server 
+	 * start, due to write queue of the build being full
+	 */
+	long getNumOfBackpressuredEntries();
+	
+	/**
+	 * Get storage statistics of build logs of specified project, including size saved by 
+	 * archiving logs of finished builds
+	 */
+	LogStorageStats getStorageStats(Long projectId);
+	
 }
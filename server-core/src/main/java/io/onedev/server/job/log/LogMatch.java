@@ -0,0 +1,44 @@
+package io.onedev.server.job.log;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+public class LogMatch implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private final int entryIndex;
+
+	private final String line;
+
+	private final List<String> linesBefore;
+
+	private final List<String> linesAfter = new ArrayList<>();
+
+	public LogMatch(int entryIndex, String line, List<String> linesBefore) {
+		this.entryIndex = entryIndex;
+		this.line = line;
+		this.linesBefore = linesBefore;
+	}
+
+	/**
+	 * @return index of matched log entry, starting from 0
+	 */
+	public int getEntryIndex() {
+		return entryIndex;
+	}
+
+	public String getLine() {
+		return line;
+	}
+
+	public List<String> getLinesBefore() {
+		return linesBefore;
+	}
+
+	public List<String> getLinesAfter() {
+		return linesAfter;
+	}
+
+}
@@ -0,0 +1,59 @@
+package io.onedev.server.job.log;
+
+import java.io.Serializable;
+
+public class LogStorageStats implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private int numOfLogs;
+
+	private int numOfArchivedLogs;
+
+	private long originalSize;
+
+	private long storedSize;
+
+	public int getNumOfLogs() {
+		return numOfLogs;
+	}
+
+	public void setNumOfLogs(int numOfLogs) {
+		this.numOfLogs = numOfLogs;
+	}
+
+	public int getNumOfArchivedLogs() {
+		return numOfArchivedLogs;
+	}
+
+	public void setNumOfArchivedLogs(int numOfArchivedLogs) {
+		this.numOfArchivedLogs = numOfArchivedLogs;
+	}
+
+	/**
+	 * @return total size of build logs before archiving
+	 */
+	public long getOriginalSize() {
+		return originalSize;
+	}
+
+	public void setOriginalSize(long originalSize) {
+		this.originalSize = originalSize;
+	}
+
+	/**
+	 * @return total size of build logs on disk
+	 */
+	public long getStoredSize() {
+		return storedSize;
+	}
+
+	public void setStoredSize(long storedSize) {
+		this.storedSize = storedSize;
+	}
+
+	public long getSavedSize() {
+		return originalSize - storedSize;
+	}
+
+}
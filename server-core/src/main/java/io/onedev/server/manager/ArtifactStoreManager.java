@@ -0,0 +1,48 @@
+package io.onedev.server.manager;
+
+import java.io.File;
+
+/**
+ * Manages content addressed store of build artifacts. When enabled, artifact files of
+ * builds in a project with identical content are hard linked to a single blob in the
+ * store of the project, so that storage and replica sync cost scale with unique content.
+ * Artifacts are still accessed as plain files under artifacts directory of builds.
+ * <p>
+ * Number of links of a blob serves as its reference count. Blobs no longer referenced by
+ * any build are removed when garbage is collected.
+ */
+public interface ArtifactStoreManager {
+
+	/**
+	 * Deduplicate artifacts of specified build against store of the project. This should
+	 * be called with write lock of build artifacts held after artifacts are modified
+	 */
+	void deduplicate(Long projectId, Long buildNumber);
+
+	/**
+	 * Get entity tag of specified artifact file. Content hash recorded in the store is used
+	 * if it is still valid, as modification time of an artifact file changes to that of
+	 * the shared blob once linked. This should be called with read lock of build artifacts
+	 * held
+	 */
+	String getETag(Long projectId, Long buildNumber, String artifactPath, long length, long lastModified);
+
+	/**
+	 * Detach specified artifact file from the store so that it can be overwritten without
+	 * affecting other builds. This should be called with write lock of build artifacts
+	 * held before writing into an existing artifact file
+	 */
+	void detach(File artifactFile);
+
+	/**
+	 * Sync artifacts of specified build from specified server. Files with content already
+	 * existing in local store are linked instead of transferred
+	 */
+	void syncArtifacts(Long projectId, Long buildNumber, String activeServer);
+
+	/**
+	 * Request to remove blobs no longer referenced in store of specified project
+	 */
+	void requestToCollectGarbage(Long projectId);
+
+}
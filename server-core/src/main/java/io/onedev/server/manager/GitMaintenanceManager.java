@@ -0,0 +1,16 @@
+package io.onedev.server.manager;
+
+/**
+ * Maintains git repositories stored on this server. Repositories are checked periodically, and 
+ * loose objects, packs and loose refs are consolidated when they accumulate. Bitmap index and 
+ * commit graph are also written to speed up fetches and history walks
+ */
+public interface GitMaintenanceManager {
+
+	/**
+	 * Check git repository of specified project and run maintenance if necessary. Maintenance 
+	 * is run via work executor with low priority, and this method waits for it to complete 
+	 */
+	void maintain(Long projectId);
+	
+}
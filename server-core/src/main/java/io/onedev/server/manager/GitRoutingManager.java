@@ -0,0 +1,31 @@
+package io.onedev.server.manager;
+
+import java.util.Collection;
+
+import org.apache.http.impl.client.CloseableHttpClient;
+
+import io.onedev.server.git.GitRoutingStats;
+
+/**
+ * Routes git requests to servers of the cluster. Fetches are served by local server if it holds 
+ * an up to date replica of the project, and are proxied to the active server otherwise
+ */
+public interface GitRoutingManager {
+
+	/**
+	 * Get server to serve fetch requests of specified project. Decision is recorded for metrics
+	 * 
+	 * @return local server if it is the active server, or if its git repository is up to date 
+	 * 			with the active server. Otherwise the active server
+	 */
+	String getFetchServer(Long projectId);
+	
+	/**
+	 * @return http client to proxy git requests to other servers. Connections to each server are 
+	 * 			pooled and kept alive across requests 
+	 */
+	CloseableHttpClient getHttpClient();
+	
+	Collection<GitRoutingStats> getStats();
+	
+}
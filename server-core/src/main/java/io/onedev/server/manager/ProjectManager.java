@@ -5,6 +5,7 @@ import io.onedev.server.model.Project;
 import io.onedev.server.model.support.code.GitPackConfig;
 import io.onedev.server.persistence.dao.EntityManager;
 import io.onedev.server.replica.ProjectReplica;
+import io.onedev.server.replica.ReplicaCatchUpProgress;
 import io.onedev.server.search.entity.EntityQuery;
 import io.onedev.server.util.artifact.ArtifactInfo;
 import io.onedev.server.util.criteria.Criteria;
@@ -128,6 +129,15 @@ public interface ProjectManager extends EntityManager<Project> {
 	
 	boolean hasOutdatedReplicas(Long projectId);
 	
+	/**
+	 * Check whether git repository of specified project on local server is up to date with 
+	 * the active server
+	 * 
+	 * @return <tt>true</tt> if local server is the active server, or holds a replica whose git 
+	 * 			repository version is not lower than the active server 
+	 */
+	boolean isGitUpToDate(Long projectId);
+	
 	boolean isWithoutEnoughReplicas(Long projectId);
 	
 	boolean isMissingStorage(Long projectId);
@@ -144,6 +154,13 @@ public interface ProjectManager extends EntityManager<Project> {
 
 	void syncFile(Long projectId, String path, String readLock, String activeServer);
 
+	/**
+	 * @return progress of catching up project replicas of current server after it joins 
+	 * the cluster, or <tt>null</tt> if there is no replica to catch up since server start
+	 */
+	@Nullable
+	ReplicaCatchUpProgress getReplicaCatchUpProgress();
+
 	File getStorageDir();
 
 	File getStorageDir(Long projectId);
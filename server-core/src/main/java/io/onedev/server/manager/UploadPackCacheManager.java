@@ -0,0 +1,42 @@
+package io.onedev.server.manager;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+import io.onedev.server.git.UploadPackCacheStats;
+
+/**
+ * Caches responses of git upload-pack on disk. A response is cached only if client concludes
+ * negotiation in the request so that it contains the pack, and it is keyed by project, protocol,
+ * content of the request and refs of the repository. Identical requests, for instance many CI
+ * agents cloning same commit after a push, are then served from cache without running git.
+ */
+public interface UploadPackCacheManager {
+
+	/**
+	 * Serve upload-pack request of stateless rpc mode (http transport)
+	 *
+	 * @param immediate
+	 * 			whether or not to run git in calling thread. If <tt>false</tt>, git is run via
+	 * 			work executor, while cache hits are always served in calling thread
+	 */
+	void uploadPack(Long projectId, Map<String, String> envs, @Nullable String protocol,
+					InputStream stdin, OutputStream stdout, boolean immediate);
+
+	/**
+	 * Serve upload-pack session of protocol v2 over a stateful connection (ssh transport). Each 
+	 * command request of the session is served as a stateless rpc request. Git is run via work 
+	 * executor, so calling thread should not occupy a work executor slot itself
+	 * 
+	 * @param workGroupId
+	 * 			group id to run git with in work executor, or <tt>null</tt> to run without group
+	 */
+	void uploadPackV2(Long projectId, Map<String, String> envs, String protocol,
+					  InputStream stdin, OutputStream stdout, @Nullable String workGroupId);
+
+	UploadPackCacheStats getStats();
+
+}
@@ -0,0 +1,461 @@
+package io.onedev.server.manager.impl;
+
+import static io.onedev.commons.bootstrap.Bootstrap.BUFFER_SIZE;
+import static io.onedev.commons.utils.LockUtils.read;
+import static io.onedev.commons.utils.LockUtils.write;
+import static io.onedev.server.model.Build.ARTIFACTS_DIR;
+import static io.onedev.server.model.Build.getArtifactsDir;
+import static io.onedev.server.model.Build.getArtifactsLockName;
+import static io.onedev.server.model.Build.getProjectRelativeStoragePath;
+import static io.onedev.server.model.Build.getStorageDir;
+import static io.onedev.server.util.DirectoryVersionUtils.readVersion;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.quartz.ScheduleBuilder;
+import org.quartz.SimpleScheduleBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Splitter;
+
+import io.onedev.commons.loader.ManagedSerializedForm;
+import io.onedev.commons.utils.FileUtils;
+import io.onedev.commons.utils.LockUtils;
+import io.onedev.commons.utils.StringUtils;
+import io.onedev.server.cluster.ClusterManager;
+import io.onedev.server.cluster.DirectoryManifest;
+import io.onedev.server.event.Listen;
+import io.onedev.server.event.system.SystemStarted;
+import io.onedev.server.event.system.SystemStopping;
+import io.onedev.server.manager.ArtifactStoreManager;
+import io.onedev.server.manager.ProjectManager;
+import io.onedev.server.manager.SettingManager;
+import io.onedev.server.util.ContentRangeUtils;
+import io.onedev.server.util.schedule.SchedulableTask;
+import io.onedev.server.util.schedule.TaskScheduler;
+
+@Singleton
+public class DefaultArtifactStoreManager implements ArtifactStoreManager, SchedulableTask, Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final Logger logger = LoggerFactory.getLogger(DefaultArtifactStoreManager.class);
+
+	private static final String STORE_DIR = "artifact-store";
+
+	private static final String HASHES_FILE = "artifact-hashes";
+
+	private static final long FULL_COLLECTION_INTERVAL = 24L * 3600 * 1000;
+
+	private final ProjectManager projectManager;
+
+	private final ClusterManager clusterManager;
+
+	private final SettingManager settingManager;
+
+	private final TaskScheduler taskScheduler;
+
+	private final Set<Long> projectIdsToCollectGarbage = ConcurrentHashMap.newKeySet();
+
+	private volatile long lastFullCollectionTime = System.currentTimeMillis();
+
+	private volatile String taskId;
+
+	@Inject
+	public DefaultArtifactStoreManager(ProjectManager projectManager, ClusterManager clusterManager,
+									   SettingManager settingManager, TaskScheduler taskScheduler) {
+		this.projectManager = projectManager;
+		this.clusterManager = clusterManager;
+		this.settingManager = settingManager;
+		this.taskScheduler = taskScheduler;
+	}
+
+	public Object writeReplace() throws ObjectStreamException {
+		return new ManagedSerializedForm(ArtifactStoreManager.class);
+	}
+
+	private boolean isEnabled() {
+		return settingManager.getPerformanceSetting().isDeduplicateArtifacts();
+	}
+
+	private File getStoreDir(Long projectId) {
+		return new File(projectManager.getStorageDir(projectId), STORE_DIR);
+	}
+
+	private File getBlobFile(Long projectId, String hash) {
+		return new File(getStoreDir(projectId), hash.substring(0, 2) + "/" + hash);
+	}
+
+	private File getHashesFile(Long projectId, Long buildNumber) {
+		return new File(getStorageDir(projectId, buildNumber), HASHES_FILE);
+	}
+
+	private <T> T callWithStoreLock(Long projectId, Supplier<T> supplier) {
+		Lock lock = LockUtils.getLock("artifact-store:" + projectId);
+		lock.lock();
+		try {
+			return supplier.get();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private Map<String, ArtifactHash> readHashes(Long projectId, Long buildNumber) {
+		Map<String, ArtifactHash> hashes = new TreeMap<>();
+		File hashesFile = getHashesFile(projectId, buildNumber);
+		if (hashesFile.exists()) {
+			try {
+				for (String line: FileUtils.readLines(hashesFile, StandardCharsets.UTF_8)) {
+					if (StringUtils.isNotBlank(line)) {
+						List<String> fields = Splitter.on('\t').limit(4).splitToList(line);
+						hashes.put(fields.get(3), new ArtifactHash(fields.get(0),
+								Long.parseLong(fields.get(1)), Long.parseLong(fields.get(2))));
+					}
+				}
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+		return hashes;
+	}
+
+	private void writeHashes(Long projectId, Long buildNumber, Map<String, ArtifactHash> hashes) {
+		File hashesFile = getHashesFile(projectId, buildNumber);
+		if (!hashes.isEmpty()) {
+			StringBuilder builder = new StringBuilder();
+			for (var entry: hashes.entrySet()) {
+				var hash = entry.getValue();
+				builder.append(hash.hash).append('\t').append(hash.length).append('\t')
+						.append(hash.lastModified).append('\t').append(entry.getKey()).append('\n');
+			}
+			FileUtils.writeFile(hashesFile, builder.toString(), StandardCharsets.UTF_8.name());
+		} else if (hashesFile.exists()) {
+			FileUtils.deleteFile(hashesFile);
+		}
+	}
+
+	String hash(File file) {
+		try (InputStream is = new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE)) {
+			return DigestUtils.sha256Hex(is);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private boolean supportsLinkCount(File file) {
+		try {
+			return Files.getFileStore(file.toPath()).supportsFileAttributeView("unix");
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private int getLinkCount(Path path) throws IOException {
+		return (Integer) Files.getAttribute(path, "unix:nlink");
+	}
+
+	void createLink(Path link, Path existing) throws IOException {
+		Files.createLink(link, existing);
+	}
+
+	/*
+	 * Make specified artifact file a link to blob of specified hash, creating the blob
+	 * from the file if it does not exist yet
+	 */
+	private void link(Long projectId, File artifactFile, String hash) throws IOException {
+		var blobFile = getBlobFile(projectId, hash);
+		if (blobFile.exists()) {
+			if (!Files.isSameFile(blobFile.toPath(), artifactFile.toPath())) {
+				var tempFile = new File(artifactFile.getParentFile(), "." + artifactFile.getName() + "." + UUID.randomUUID());
+				createLink(tempFile.toPath(), blobFile.toPath());
+				try {
+					Files.move(tempFile.toPath(), artifactFile.toPath(), REPLACE_EXISTING, ATOMIC_MOVE);
+				} finally {
+					Files.deleteIfExists(tempFile.toPath());
+				}
+			}
+		} else {
+			FileUtils.createDir(blobFile.getParentFile());
+			createLink(blobFile.toPath(), artifactFile.toPath());
+		}
+	}
+
+	@Override
+	public void deduplicate(Long projectId, Long buildNumber) {
+		var artifactsDir = getArtifactsDir(projectId, buildNumber);
+		if (!artifactsDir.exists()) {
+			// Whole artifacts directory is deleted, blobs referenced previously may be garbage now
+			var hashesFile = getHashesFile(projectId, buildNumber);
+			if (hashesFile.exists()) {
+				FileUtils.deleteFile(hashesFile);
+				requestToCollectGarbage(projectId);
+			}
+			return;
+		}
+		if (!isEnabled() || !supportsLinkCount(artifactsDir))
+			return;
+
+		long time = System.currentTimeMillis();
+		var oldHashes = readHashes(projectId, buildNumber);
+		Map<String, ArtifactHash> hashes = new TreeMap<>();
+		int linkedFiles = callWithStoreLock(projectId, () -> {
+			int count = 0;
+			for (var entry: DirectoryManifest.of(artifactsDir).getEntries().entrySet()) {
+				var path = entry.getKey();
+				var artifactFile = new File(artifactsDir, path);
+				var oldHash = oldHashes.get(path);
+				String hash;
+				if (oldHash != null && oldHash.length == entry.getValue().getLength()
+						&& oldHash.lastModified / 1000 == entry.getValue().getLastModified() / 1000) {
+					hash = oldHash.hash;
+				} else {
+					hash = hash(artifactFile);
+				}
+				try {
+					link(projectId, artifactFile, hash);
+					count++;
+				} catch (IOException e) {
+					/*
+					 * Possibly artifacts directory resides in a different file system. Other files
+					 * can not be linked either, so do not waste time hashing them
+					 */
+					logger.debug("Unable to link artifact file with store: " + artifactFile.getAbsolutePath(), e);
+					break;
+				}
+				hashes.put(path, new ArtifactHash(hash, artifactFile.length(), artifactFile.lastModified()));
+			}
+			return count;
+		});
+		writeHashes(projectId, buildNumber, hashes);
+
+		for (var entry: oldHashes.entrySet()) {
+			var hash = hashes.get(entry.getKey());
+			if (hash == null || !hash.hash.equals(entry.getValue().hash)) {
+				requestToCollectGarbage(projectId);
+				break;
+			}
+		}
+		logger.debug("Artifacts deduplicated (project id: {}, build number: {}, files: {}, linked files: {}, duration: {} ms)",
+				projectId, buildNumber, hashes.size(), linkedFiles, System.currentTimeMillis() - time);
+	}
+
+	@Override
+	public String getETag(Long projectId, Long buildNumber, String artifactPath, long length, long lastModified) {
+		var hash = readHashes(projectId, buildNumber).get(artifactPath);
+		if (hash != null && hash.length == length && hash.lastModified == lastModified)
+			return ContentRangeUtils.getETag(hash.hash);
+		else
+			return ContentRangeUtils.getETag(length, lastModified);
+	}
+
+	@Override
+	public void detach(File artifactFile) {
+		try {
+			Path path = artifactFile.toPath();
+			if (Files.isRegularFile(path) && supportsLinkCount(artifactFile) && getLinkCount(path) > 1)
+				Files.delete(path);
+		} catch (NoSuchFileException e) {
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Override
+	public void syncArtifacts(Long projectId, Long buildNumber, String activeServer) {
+		var artifactsPath = getProjectRelativeStoragePath(buildNumber) + "/" + ARTIFACTS_DIR;
+		var lockName = getArtifactsLockName(projectId, buildNumber);
+		if (isEnabled()) {
+			var remoteVersion = clusterManager.runOnServer(activeServer,
+					() -> readVersion(getArtifactsDir(projectId, buildNumber)));
+			if (readVersion(getArtifactsDir(projectId, buildNumber)) < remoteVersion) {
+				var remoteHashes = clusterManager.runOnServer(activeServer,
+						() -> read(lockName, () -> readHashes(projectId, buildNumber)));
+				write(lockName, () -> {
+					linkStoredContents(projectId, buildNumber, remoteHashes);
+					return null;
+				});
+				projectManager.syncDirectory(projectId, artifactsPath, lockName, activeServer);
+				write(lockName, () -> {
+					writeHashes(projectId, buildNumber, localizeHashes(projectId, buildNumber, remoteHashes));
+					deduplicate(projectId, buildNumber);
+					return null;
+				});
+			}
+		} else {
+			projectManager.syncDirectory(projectId, artifactsPath, lockName, activeServer);
+		}
+	}
+
+	/*
+	 * Populate artifacts of specified build with blobs already in local store, so that
+	 * they do not need to be transferred from active server
+	 */
+	private void linkStoredContents(Long projectId, Long buildNumber, Map<String, ArtifactHash> remoteHashes) {
+		var artifactsDir = getArtifactsDir(projectId, buildNumber);
+		if (remoteHashes.isEmpty())
+			return;
+		FileUtils.createDir(artifactsDir);
+		if (!supportsLinkCount(artifactsDir))
+			return;
+		callWithStoreLock(projectId, () -> {
+			for (var entry: remoteHashes.entrySet()) {
+				var hash = entry.getValue();
+				var blobFile = getBlobFile(projectId, hash.hash);
+				var artifactFile = new File(artifactsDir, entry.getKey());
+				if (blobFile.exists() && blobFile.length() == hash.length
+						&& !(artifactFile.exists() && artifactFile.length() == hash.length
+								&& artifactFile.lastModified() / 1000 == hash.lastModified / 1000)) {
+					try {
+						FileUtils.createDir(artifactFile.getParentFile());
+						// Do not touch modification time as the inode is shared with other builds
+						link(projectId, artifactFile, hash.hash);
+					} catch (IOException e) {
+						logger.debug("Unable to link artifact file with store: " + artifactFile.getAbsolutePath(), e);
+					}
+				}
+			}
+			return null;
+		});
+	}
+
+	/*
+	 * Artifact files linked with local blobs take modification time of the shared inode, which 
+	 * may differ from the one recorded on active server. Record that instead so that linked 
+	 * files are not hashed again
+	 */
+	private Map<String, ArtifactHash> localizeHashes(Long projectId, Long buildNumber, 
+													 Map<String, ArtifactHash> remoteHashes) {
+		var artifactsDir = getArtifactsDir(projectId, buildNumber);
+		Map<String, ArtifactHash> hashes = new TreeMap<>();
+		for (var entry: remoteHashes.entrySet()) {
+			var hash = entry.getValue();
+			var artifactFile = new File(artifactsDir, entry.getKey());
+			var blobFile = getBlobFile(projectId, hash.hash);
+			try {
+				if (artifactFile.exists() && blobFile.exists() 
+						&& Files.isSameFile(artifactFile.toPath(), blobFile.toPath())) {
+					hash = new ArtifactHash(hash.hash, artifactFile.length(), artifactFile.lastModified());
+				}
+			} catch (NoSuchFileException e) {
+				// Removed concurrently
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+			hashes.put(entry.getKey(), hash);
+		}
+		return hashes;
+	}
+
+	@Override
+	public void requestToCollectGarbage(Long projectId) {
+		projectIdsToCollectGarbage.add(projectId);
+	}
+
+	private void collectGarbage(Long projectId) {
+		var storeDir = getStoreDir(projectId);
+		if (!storeDir.exists())
+			return;
+		long time = System.currentTimeMillis();
+		int removedBlobs = callWithStoreLock(projectId, () -> {
+			int count = 0;
+			try (Stream<Path> stream = Files.walk(storeDir.toPath())) {
+				for (var path: (Iterable<Path>) stream.filter(Files::isRegularFile)::iterator) {
+					// Only referenced by the store itself
+					if (getLinkCount(path) == 1) {
+						Files.delete(path);
+						count++;
+					}
+				}
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+			return count;
+		});
+		logger.debug("Artifact store garbage collected (project id: {}, removed blobs: {}, duration: {} ms)",
+				projectId, removedBlobs, System.currentTimeMillis() - time);
+	}
+
+	@Override
+	public void execute() {
+		Set<Long> projectIds = new HashSet<>();
+		if (System.currentTimeMillis() - lastFullCollectionTime > FULL_COLLECTION_INTERVAL) {
+			// Builds removed from replicas via sync are not tracked, check all stores periodically
+			lastFullCollectionTime = System.currentTimeMillis();
+			projectIds.addAll(projectManager.getIds());
+		}
+		for (var it = projectIdsToCollectGarbage.iterator(); it.hasNext();) {
+			projectIds.add(it.next());
+			it.remove();
+		}
+		for (var projectId: projectIds) {
+			try {
+				if (projectManager.getStorageDir(projectId).exists())
+					collectGarbage(projectId);
+			} catch (Exception e) {
+				logger.error("Error collecting garbage of artifact store (project id: " + projectId + ")", e);
+			}
+		}
+	}
+
+	@Override
+	public ScheduleBuilder<?> getScheduleBuilder() {
+		return SimpleScheduleBuilder.repeatMinutelyForever(10);
+	}
+
+	@Listen
+	public void on(SystemStarted event) {
+		taskId = taskScheduler.schedule(this);
+	}
+
+	@Listen
+	public void on(SystemStopping event) {
+		if (taskId != null)
+			taskScheduler.unschedule(taskId);
+	}
+
+	private static class ArtifactHash implements Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		final String hash;
+
+		final long length;
+
+		final long lastModified;
+
+		ArtifactHash(String hash, long length, long lastModified) {
+			this.hash = hash;
+			this.length = length;
+			this.lastModified = lastModified;
+		}
+
+	}
+
+}
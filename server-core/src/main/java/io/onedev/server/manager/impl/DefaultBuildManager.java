@@ -41,6 +41,7 @@ import io.onedev.server.util.StatusInfo;
 import io.onedev.server.util.artifact.ArtifactInfo;
 import io.onedev.server.util.artifact.DirectoryInfo;
 import io.onedev.server.util.artifact.FileInfo;
+import io.onedev.server.util.artifact.ResumableUpload;
 import io.onedev.server.util.criteria.Criteria;
 import io.onedev.server.util.facade.BuildFacade;
 import io.onedev.server.util.schedule.SchedulableTask;
@@ -86,6 +87,8 @@ public class DefaultBuildManager extends BaseEntityManager<Build> implements Bui
 	
 	private static final int CLEANUP_BATCH = 5000;
 	
+	private static final long ARTIFACT_UPLOAD_TTL = 7 * 24 * 3600 * 1000L;
+	
 	private static final Logger logger = LoggerFactory.getLogger(DefaultBuildManager.class);
 	
 	private final BuildParamManager buildParamManager;
@@ -106,6 +109,8 @@ public class DefaultBuildManager extends BaseEntityManager<Build> implements Bui
 	
 	private final StorageManager storageManager;
 	
+	private final ArtifactStoreManager artifactStoreManager;
+	
 	private final Set<BuildStorageSyncer> storageSyncers;
 	
 	private final SequenceGenerator numberGenerator;
@@ -122,7 +127,7 @@ public class DefaultBuildManager extends BaseEntityManager<Build> implements Bui
 							   ProjectManager projectManager, SessionManager sessionManager, 
 							   TransactionManager transactionManager, SettingManager settingManager, 
 							   ClusterManager clusterManager, StorageManager storageManager, 
-							   Set<BuildStorageSyncer> storageSyncers) {
+							   ArtifactStoreManager artifactStoreManager, Set<BuildStorageSyncer> storageSyncers) {
 		super(dao);
 		this.buildParamManager = buildParamManager;
 		this.buildDependenceManager = buildDependenceManager;
@@ -133,6 +138,7 @@ public class DefaultBuildManager extends BaseEntityManager<Build> implements Bui
 		this.settingManager = settingManager;
 		this.clusterManager = clusterManager;
 		this.storageManager = storageManager;
+		this.artifactStoreManager = artifactStoreManager;
 		this.storageSyncers = storageSyncers;
 
 		numberGenerator = new SequenceGenerator(Build.class, clusterManager, dao);
@@ -230,6 +236,7 @@ public class DefaultBuildManager extends BaseEntityManager<Build> implements Bui
 							var buildDir = getStorageDir(projectId, buildNumber);
 							FileUtils.deleteDir(buildDir);
 							projectManager.directoryModified(projectId, buildDir.getParentFile());
+							artifactStoreManager.requestToCollectGarbage(projectId);
 						} catch (Exception e) {
 							logger.error("Error deleting storage directory of build id '" + buildId + "'", e);
 						}
@@ -660,8 +667,33 @@ public class DefaultBuildManager extends BaseEntityManager<Build> implements Bui
 		return maxId!=null?maxId:0;
 	}
 
+	/*
+	 * Artifact uploads are removed together with build storage. Uploads abandoned by 
+	 * clients are purged here as they are never completed
+	 */
+	private void purgeExpiredArtifactUploads() {
+		for (var projectId: projectManager.getIds()) {
+			try {
+				var suffixDirs = new File(projectManager.getStorageDir(projectId), BUILDS_DIR).listFiles(File::isDirectory);
+				if (suffixDirs == null)
+					continue;
+				for (var suffixDir: suffixDirs) {
+					var buildDirs = suffixDir.listFiles(File::isDirectory);
+					if (buildDirs != null) {
+						for (var buildDir: buildDirs)
+							ResumableUpload.purgeExpired(new File(buildDir, ARTIFACT_UPLOADS_DIR), ARTIFACT_UPLOAD_TTL);
+					}
+				}
+			} catch (Exception e) {
+				logger.error("Error purging expired artifact uploads (project id: " + projectId + ")", e);
+			}
+		}
+	}
+	
 	@Override
 	public void execute() {
+		// Uploads are stored on the server receiving them, purge them on every server
+		purgeExpiredArtifactUploads();
 		if (clusterManager.isLeaderServer()) {
 			long maxId = getMaxId();
 			Collection<Long> idsToPreserve = new HashSet<>();
@@ -1061,6 +1093,7 @@ public class DefaultBuildManager extends BaseEntityManager<Build> implements Bui
 			} else {
 				FileUtils.cleanDir(artifactsDir);
 			}
+			artifactStoreManager.deduplicate(projectId, buildNumber);
 			projectManager.directoryModified(projectId, artifactsDir);
 			return null;
 		}));
@@ -1087,10 +1120,8 @@ public class DefaultBuildManager extends BaseEntityManager<Build> implements Bui
 					} finally {
 						FileUtils.deleteFile(testFile);
 					}
-					if (!artifactsDirShared) {
-						projectManager.syncDirectory(projectId, buildPath + "/" + ARTIFACTS_DIR,
-								getArtifactsLockName(projectId, buildNumber), activeServer);
-					}
+					if (!artifactsDirShared) 
+						artifactStoreManager.syncArtifacts(projectId, buildNumber, activeServer);
 				}
 				storageSyncers.forEach(it->it.sync(projectId, buildNumber, activeServer));
 			}, activeServer);
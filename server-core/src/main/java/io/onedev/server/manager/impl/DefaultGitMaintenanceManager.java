@@ -0,0 +1,237 @@
+package io.onedev.server.manager.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Lock;
+import java.util.stream.Stream;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.quartz.ScheduleBuilder;
+import org.quartz.SimpleScheduleBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.onedev.commons.loader.ManagedSerializedForm;
+import io.onedev.commons.utils.LockUtils;
+import io.onedev.server.cluster.ClusterManager;
+import io.onedev.server.event.Listen;
+import io.onedev.server.event.project.ProjectDeleted;
+import io.onedev.server.event.system.SystemStarted;
+import io.onedev.server.event.system.SystemStopping;
+import io.onedev.server.git.CommitGraph;
+import io.onedev.server.git.command.PackRefsCommand;
+import io.onedev.server.git.command.PruneCommand;
+import io.onedev.server.git.command.RepackCommand;
+import io.onedev.server.manager.GitMaintenanceManager;
+import io.onedev.server.manager.ProjectManager;
+import io.onedev.server.model.Project;
+import io.onedev.server.util.concurrent.PrioritizedRunnable;
+import io.onedev.server.util.concurrent.WorkExecutor;
+import io.onedev.server.util.schedule.SchedulableTask;
+import io.onedev.server.util.schedule.TaskScheduler;
+
+@Singleton
+public class DefaultGitMaintenanceManager implements GitMaintenanceManager, SchedulableTask, Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final Logger logger = LoggerFactory.getLogger(DefaultGitMaintenanceManager.class);
+
+	private static final int PRIORITY = 200;
+
+	// Same as git gc, loose objects are estimated by counting objects in a single fan-out directory
+	private static final String SAMPLE_OBJECT_DIR = "objects/17";
+
+	private static final int LOOSE_OBJECTS_THRESHOLD = 1000;
+
+	private static final int PACKS_THRESHOLD = 20;
+
+	private static final int LOOSE_REFS_THRESHOLD = 100;
+
+	private static final long MIN_FULL_REPACK_INTERVAL = 24 * 3600 * 1000L;
+
+	private static final String PRUNE_EXPIRE = "2.weeks.ago";
+
+	private final ProjectManager projectManager;
+
+	private final ClusterManager clusterManager;
+
+	private final WorkExecutor workExecutor;
+
+	private final TaskScheduler taskScheduler;
+
+	private final Map<Long, Long> fullRepackTimes = new ConcurrentHashMap<>();
+
+	private final AtomicBoolean maintaining = new AtomicBoolean();
+
+	private volatile String taskId;
+
+	@Inject
+	public DefaultGitMaintenanceManager(ProjectManager projectManager, ClusterManager clusterManager,
+										WorkExecutor workExecutor, TaskScheduler taskScheduler) {
+		this.projectManager = projectManager;
+		this.clusterManager = clusterManager;
+		this.workExecutor = workExecutor;
+		this.taskScheduler = taskScheduler;
+	}
+
+	public Object writeReplace() throws ObjectStreamException {
+		return new ManagedSerializedForm(GitMaintenanceManager.class);
+	}
+
+	@Override
+	public void maintain(Long projectId) {
+		try {
+			workExecutor.submit(new PrioritizedRunnable(PRIORITY) {
+
+				@Override
+				public void run() {
+					doMaintain(projectId);
+				}
+
+			}).get();
+		} catch (InterruptedException | ExecutionException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private void doMaintain(Long projectId) {
+		// Do not rewrite packs while replica is being synced. Skipped replica will be checked next time
+		Lock lock = LockUtils.getLock(Project.getSyncLockName(projectId));
+		if (!lock.tryLock())
+			return;
+		try {
+			File gitDir = projectManager.getGitDir(projectId);
+			File packDir = new File(gitDir, "objects/pack");
+			if (!packDir.exists())
+				return;
+
+			int numOfLooseObjects = estimateLooseObjects(gitDir);
+			int numOfPacks = 0;
+			boolean hasBitmap = false;
+			long packTimestamp = 0;
+			for (File file: packDir.listFiles()) {
+				String fileName = file.getName();
+				if (fileName.endsWith(".pack")) {
+					String baseName = fileName.substring(0, fileName.length() - ".pack".length());
+					if (!new File(packDir, baseName + ".keep").exists())
+						numOfPacks++;
+					packTimestamp = Math.max(packTimestamp, file.lastModified());
+				} else if (fileName.endsWith(".bitmap")) {
+					hasBitmap = true;
+				}
+			}
+
+			/*
+			 * Maintenance does not change content of the repository, and directory version is
+			 * left untouched so that replicas are not synced unnecessarily
+			 */
+			boolean repacked = false;
+			Long fullRepackTime = fullRepackTimes.get(projectId);
+			if ((numOfPacks > PACKS_THRESHOLD || numOfPacks != 0 && !hasBitmap)
+					&& (fullRepackTime == null || System.currentTimeMillis() - fullRepackTime > MIN_FULL_REPACK_INTERVAL)) {
+				long time = System.currentTimeMillis();
+				new RepackCommand(gitDir).all(true).writeBitmap(true).unpackUnreachable(PRUNE_EXPIRE).run();
+				new PruneCommand(gitDir, PRUNE_EXPIRE).run();
+				fullRepackTimes.put(projectId, System.currentTimeMillis());
+				repacked = true;
+				logger.debug("Repacked all objects (project id: {}, packs: {}, loose objects: {}, duration: {} ms)",
+						projectId, numOfPacks, numOfLooseObjects, System.currentTimeMillis() - time);
+			} else if (numOfLooseObjects > LOOSE_OBJECTS_THRESHOLD) {
+				new RepackCommand(gitDir).run();
+				repacked = true;
+				logger.debug("Repacked loose objects (project id: {}, loose objects: {})",
+						projectId, numOfLooseObjects);
+			}
+
+			if (countLooseRefs(gitDir) > LOOSE_REFS_THRESHOLD)
+				new PackRefsCommand(gitDir).run();
+
+			File commitGraphFile = new File(gitDir, CommitGraph.FILE_PATH);
+			if (repacked || commitGraphFile.lastModified() < packTimestamp) {
+				try {
+					CommitGraph.write(gitDir);
+				} catch (Exception e) {
+					logger.warn("Error writing commit graph (project id: " + projectId + ")", e);
+				}
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private int estimateLooseObjects(File gitDir) {
+		File[] files = new File(gitDir, SAMPLE_OBJECT_DIR).listFiles();
+		int count = 0;
+		if (files != null) {
+			for (File file: files) {
+				if (file.getName().length() == 38)
+					count++;
+			}
+		}
+		return count * 256;
+	}
+
+	private long countLooseRefs(File gitDir) {
+		try (Stream<Path> paths = Files.walk(new File(gitDir, "refs").toPath())) {
+			return paths.filter(Files::isRegularFile).count();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Override
+	public void execute() {
+		if (maintaining.compareAndSet(false, true)) {
+			try {
+				String localServer = clusterManager.getLocalServerAddress();
+				for (Long projectId: projectManager.getIds()) {
+					try {
+						var replicas = projectManager.getReplicas(projectId);
+						// Outdated replicas will be maintained after they are synced
+						if (replicas != null && replicas.containsKey(localServer)
+								&& projectManager.isGitUpToDate(projectId)) {
+							maintain(projectId);
+						}
+					} catch (Exception e) {
+						logger.error("Error maintaining git repository (project id: " + projectId + ")", e);
+					}
+				}
+			} finally {
+				maintaining.set(false);
+			}
+		}
+	}
+
+	@Override
+	public ScheduleBuilder<?> getScheduleBuilder() {
+		return SimpleScheduleBuilder.repeatHourlyForever();
+	}
+
+	@Listen
+	public void on(ProjectDeleted event) {
+		fullRepackTimes.remove(event.getProjectId());
+	}
+
+	@Listen
+	public void on(SystemStarted event) {
+		taskId = taskScheduler.schedule(this);
+	}
+
+	@Listen
+	public void on(SystemStopping event) {
+		if (taskId != null)
+			taskScheduler.unschedule(taskId);
+	}
+
+}
@@ -0,0 +1,134 @@
+package io.onedev.server.manager.impl;
+
+import java.io.IOException;
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.onedev.commons.loader.ManagedSerializedForm;
+import io.onedev.server.cluster.ClusterManager;
+import io.onedev.server.event.Listen;
+import io.onedev.server.event.project.ProjectDeleted;
+import io.onedev.server.event.system.SystemStopped;
+import io.onedev.server.git.GitRoutingStats;
+import io.onedev.server.manager.GitRoutingManager;
+import io.onedev.server.manager.ProjectManager;
+
+import static java.util.stream.Collectors.toList;
+
+@Singleton
+public class DefaultGitRoutingManager implements GitRoutingManager, Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final Logger logger = LoggerFactory.getLogger(DefaultGitRoutingManager.class);
+	
+	private static final int MAX_CONNECTIONS = 200;
+	
+	private static final int CONNECTION_REQUEST_TIMEOUT_SECONDS = 30;
+	
+	private static final long MAX_IDLE_SECONDS = 60;
+	
+	private final ProjectManager projectManager;
+	
+	private final ClusterManager clusterManager;
+	
+	private final Map<Long, Counts> counts = new ConcurrentHashMap<>();
+	
+	private volatile CloseableHttpClient httpClient;
+	
+	@Inject
+	public DefaultGitRoutingManager(ProjectManager projectManager, ClusterManager clusterManager) {
+		this.projectManager = projectManager;
+		this.clusterManager = clusterManager;
+	}
+
+	public Object writeReplace() throws ObjectStreamException {
+		return new ManagedSerializedForm(GitRoutingManager.class);
+	}
+	
+	@Override
+	public String getFetchServer(Long projectId) {
+		var projectCounts = counts.computeIfAbsent(projectId, k -> new Counts());
+		if (projectManager.isGitUpToDate(projectId)) {
+			projectCounts.local.incrementAndGet();
+			return clusterManager.getLocalServerAddress();
+		} else {
+			projectCounts.proxied.incrementAndGet();
+			return projectManager.getActiveServer(projectId, true);
+		}
+	}
+
+	@Override
+	public CloseableHttpClient getHttpClient() {
+		if (httpClient == null) {
+			synchronized (this) {
+				if (httpClient == null) {
+					var connectionManager = new PoolingHttpClientConnectionManager();
+					connectionManager.setMaxTotal(MAX_CONNECTIONS);
+					// Proxied requests of a project all go to its active server, so a server 
+					// may use up the whole pool
+					connectionManager.setDefaultMaxPerRoute(MAX_CONNECTIONS);
+					// Fail git requests instead of blocking forever when pool is exhausted
+					var requestConfig = RequestConfig.custom()
+							.setConnectionRequestTimeout(CONNECTION_REQUEST_TIMEOUT_SECONDS * 1000)
+							.build();
+					httpClient = HttpClients.custom()
+							.setConnectionManager(connectionManager)
+							.setDefaultRequestConfig(requestConfig)
+							.evictExpiredConnections()
+							.evictIdleConnections(MAX_IDLE_SECONDS, TimeUnit.SECONDS)
+							.build();
+				}
+			}
+		}
+		return httpClient;
+	}
+
+	@Override
+	public Collection<GitRoutingStats> getStats() {
+		return counts.entrySet().stream()
+				.map(it -> new GitRoutingStats(it.getKey(), it.getValue().local.get(), it.getValue().proxied.get()))
+				.collect(toList());
+	}
+	
+	@Listen
+	public void on(ProjectDeleted event) {
+		counts.remove(event.getProjectId());
+	}
+	
+	@Listen
+	public synchronized void on(SystemStopped event) {
+		if (httpClient != null) {
+			try {
+				httpClient.close();
+			} catch (IOException e) {
+				logger.error("Error closing http client", e);
+			}
+			httpClient = null;
+		}
+	}
+	
+	private static class Counts {
+		
+		final AtomicLong local = new AtomicLong();
+		
+		final AtomicLong proxied = new AtomicLong();
+		
+	}
+	
+}
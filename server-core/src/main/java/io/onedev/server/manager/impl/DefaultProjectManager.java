@@ -18,10 +18,12 @@ import io.onedev.server.OneDev;
 import io.onedev.server.attachment.AttachmentManager;
 import io.onedev.server.cluster.ClusterManager;
 import io.onedev.server.cluster.ClusterTask;
+import io.onedev.server.cluster.DirectoryManifest;
 import io.onedev.server.manager.*;
 import io.onedev.server.event.Listen;
 import io.onedev.server.event.ListenerRegistry;
 import io.onedev.server.event.cluster.ConnectionEvent;
+import io.onedev.server.event.cluster.ConnectionRestored;
 import io.onedev.server.event.entity.EntityPersisted;
 import io.onedev.server.event.entity.EntityRemoved;
 import io.onedev.server.event.project.*;
@@ -53,6 +55,7 @@ import io.onedev.server.persistence.dao.BaseEntityManager;
 import io.onedev.server.persistence.dao.Dao;
 import io.onedev.server.persistence.dao.EntityCriteria;
 import io.onedev.server.replica.ProjectReplica;
+import io.onedev.server.replica.ReplicaCatchUpProgress;
 import io.onedev.server.search.entity.EntityQuery;
 import io.onedev.server.search.entity.EntitySort;
 import io.onedev.server.search.entity.issue.IssueQueryUpdater;
@@ -67,6 +70,7 @@ import io.onedev.server.util.artifact.DirectoryInfo;
 import io.onedev.server.util.artifact.FileInfo;
 import io.onedev.server.util.concurrent.BatchWorkManager;
 import io.onedev.server.util.concurrent.BatchWorker;
+import io.onedev.server.util.concurrent.BoundedExecution;
 import io.onedev.server.util.concurrent.Prioritized;
 import io.onedev.server.util.criteria.Criteria;
 import io.onedev.server.util.facade.ProjectCache;
@@ -97,6 +101,7 @@ import javax.inject.Singleton;
 import javax.persistence.criteria.*;
 import javax.ws.rs.client.Client;
 import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.client.Entity;
 import javax.ws.rs.client.Invocation;
 import javax.ws.rs.client.WebTarget;
 import javax.ws.rs.core.MediaType;
@@ -105,7 +110,9 @@ import java.io.*;
 import java.nio.file.Files;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Lock;
 import java.util.function.Consumer;
 
@@ -138,6 +145,8 @@ public class DefaultProjectManager extends BaseEntityManager<Project>
 	
 	private static final int SYNC_PRIORITY = 20;
 	
+	private static final int CATCH_UP_CONCURRENCY = 8;
+	
 	private static final Logger logger = LoggerFactory.getLogger(DefaultProjectManager.class);
 	
 	private final CommitInfoManager commitInfoManager;
@@ -182,11 +191,15 @@ public class DefaultProjectManager extends BaseEntityManager<Project>
 	
 	private final StorageManager storageManager;
 	
+	private final ExecutorService executorService;
+	
 	private final Collection<String> reservedNames = Sets.newHashSet("robots.txt", "sitemap.xml", "sitemap.txt",
 			"favicon.ico", "favicon.png", "logo.png", "wicket", "projects");
 
 	private final Map<Long, Repository> repositoryCache = new ConcurrentHashMap<>();
 	
+	private final Map<Long, ActiveGitVersion> activeGitVersions = new ConcurrentHashMap<>();
+	
 	private volatile IMap<Long, LinkedHashMap<String, ProjectReplica>> replicas;
 	
 	private volatile IMap<Long, String> activeServers;
@@ -194,6 +207,8 @@ public class DefaultProjectManager extends BaseEntityManager<Project>
 	private volatile ProjectCache cache;
 	
 	private volatile String taskId;
+	
+	private volatile CatchUp catchUp;
 
 	@Inject
 	public DefaultProjectManager(Dao dao, CommitInfoManager commitInfoManager,
@@ -206,7 +221,7 @@ public class DefaultProjectManager extends BaseEntityManager<Project>
 								 ProjectLastEventDateManager lastEventDateManager, PullRequestManager pullRequestManager,
 								 AttachmentManager attachmentManager, BatchWorkManager batchWorkManager,
 								 VisitInfoManager visitInfoManager, StorageManager storageManager, 
-								 Set<ProjectNameReservation> nameReservations) {
+								 ExecutorService executorService, Set<ProjectNameReservation> nameReservations) {
 		super(dao);
 
 		this.commitInfoManager = commitInfoManager;
@@ -230,6 +245,7 @@ public class DefaultProjectManager extends BaseEntityManager<Project>
 		this.batchWorkManager = batchWorkManager;
 		this.visitInfoManager = visitInfoManager;
 		this.storageManager = storageManager;
+		this.executorService = executorService;
 
 		for (ProjectNameReservation reservation : nameReservations)
 			reservedNames.addAll(reservation.getReserved());
@@ -439,6 +455,7 @@ public class DefaultProjectManager extends BaseEntityManager<Project>
 		dao.remove(project);
 		lastEventDateManager.delete(project.getLastEventDate());
 
+		activeGitVersions.remove(project.getId());
 		synchronized (repositoryCache) {
 			Repository repository = repositoryCache.remove(project.getId());
 			if (repository != null)
@@ -617,6 +634,7 @@ public class DefaultProjectManager extends BaseEntityManager<Project>
 		transactionManager.runAfterCommit(() -> {
 			submitToActiveServer(projectId, () -> {
 				try {
+					directoryModified(projectId, getGitDir(projectId));
 					sessionManager.run(() -> {
 						var project = load(projectId);
 						var repository = getRepository(projectId);
@@ -805,6 +823,28 @@ public class DefaultProjectManager extends BaseEntityManager<Project>
 		}
 	}
 
+	@Listen
+	public void on(ConnectionRestored event) {
+		// Sync requests from the server may be missed while connection is lost, so catch 
+		// up replicas of projects active on the server
+		var server = event.getServer();
+		var localServer = clusterManager.getLocalServerAddress();
+		Collection<Long> projectIds = new ArrayList<>();
+		for (var entry: replicas.entrySet()) {
+			var projectId = entry.getKey();
+			var replica = entry.getValue().get(localServer);
+			if (replica != null && replica.getType() != REDUNDANT 
+					&& server.equals(getActiveServer(projectId, false))) {
+				projectIds.add(projectId);
+			}
+		}
+		if (!projectIds.isEmpty()) {
+			Map<String, Collection<Long>> projectIdsToCatchUp = new HashMap<>();
+			projectIdsToCatchUp.put(server, projectIds);
+			executorService.execute(() -> catchUpReplicas(projectIdsToCatchUp));
+		}
+	}
+
 	@Override
 	public void updateActiveServers() {
 		var newActiveServers = new HashMap<Long, String>();
@@ -819,6 +859,7 @@ public class DefaultProjectManager extends BaseEntityManager<Project>
 	@Listen
 	public void on(SystemStarted event) {
 		var localServer = clusterManager.getLocalServerAddress();
+		Map<String, Collection<Long>> projectIdsToCatchUp = new HashMap<>();
 		for (var entry: replicas.entrySet()) {
 			var projectId = entry.getKey();
 			var replicasOfProject = entry.getValue();
@@ -829,13 +870,91 @@ public class DefaultProjectManager extends BaseEntityManager<Project>
 					if (activeServer.equals(localServer)) 
 						requestToSyncReplicas(projectId, activeServer, replicasOfProject);
 					else if (replica.getType() != REDUNDANT) 
-						requestToSyncReplica(projectId, activeServer);
+						projectIdsToCatchUp.computeIfAbsent(activeServer, k -> new ArrayList<>()).add(projectId);
 				}
 			}
 		}
+		if (!projectIdsToCatchUp.isEmpty()) 
+			executorService.execute(() -> catchUpReplicas(projectIdsToCatchUp));
 		taskId = taskScheduler.schedule(this);
 	}
 	
+	/**
+	 * Catch up local replicas with active servers in bulk. Storage versions of all projects 
+	 * are fetched from each active server in a single call to find out stale replicas, which 
+	 * are then synced with bounded parallelism
+	 * 
+	 * @param projectIdsToCatchUp
+	 * 			map of active server to ids of projects to catch up with the server 
+	 */
+	private void catchUpReplicas(Map<String, Collection<Long>> projectIdsToCatchUp) {
+		var catchUp = new CatchUp(projectIdsToCatchUp.values().stream().mapToInt(Collection::size).sum());
+		this.catchUp = catchUp;
+		logger.info("Catching up {} project replicas...", catchUp.numOfReplicas);
+		try (var execution = new BoundedExecution(executorService, CATCH_UP_CONCURRENCY, CATCH_UP_CONCURRENCY)) {
+			for (var entry: projectIdsToCatchUp.entrySet()) {
+				var activeServer = entry.getKey();
+				var projectIds = entry.getValue();
+				Map<Long, StorageVersions> remoteVersionsMap;
+				try {
+					remoteVersionsMap = clusterManager.runOnServer(activeServer, () -> readStorageVersions(projectIds));
+				} catch (Exception e) {
+					logger.error("Error reading storage versions from server '" + activeServer + "', fall back to sync projects individually", e);
+					for (var projectId: projectIds) 
+						requestToSyncReplica(projectId, activeServer);
+					catchUp.numOfCheckedReplicas.addAndGet(projectIds.size());
+					continue;
+				}
+				for (var projectId: projectIds) {
+					var remoteVersions = remoteVersionsMap.get(projectId);
+					if (readVersion(getStorageDir(projectId)) < remoteVersions.project) {
+						catchUp.numOfStaleReplicas.incrementAndGet();
+						execution.submit(() -> {
+							try {
+								syncReplica(projectId, activeServer, remoteVersions);
+								catchUp.numOfSyncedReplicas.incrementAndGet();
+							} catch (Exception e) {
+								logger.error(String.format("Error syncing (project id: %d, server: %s)", projectId, activeServer), e);
+								catchUp.numOfFailedReplicas.incrementAndGet();
+							}
+						}, 1);
+					} else {
+						updateReplicaVersion(projectId);
+					}
+					catchUp.numOfCheckedReplicas.incrementAndGet();
+				}
+			}
+			execution.await();
+		} catch (InterruptedException e) {
+			logger.warn("Catching up of project replicas interrupted");
+		} finally {
+			catchUp.finishDate = new Date();
+		}
+		logger.info("Project replicas caught up (stale: {}, synced: {}, failed: {}, duration: {} ms)", 
+				catchUp.numOfStaleReplicas.get(), catchUp.numOfSyncedReplicas.get(), 
+				catchUp.numOfFailedReplicas.get(), 
+				catchUp.finishDate.getTime() - catchUp.startDate.getTime());
+	}
+	
+	private Map<Long, StorageVersions> readStorageVersions(Collection<Long> projectIds) {
+		Map<Long, StorageVersions> versions = new HashMap<>();
+		for (var projectId: projectIds)
+			versions.put(projectId, readStorageVersions(projectId));
+		return versions;
+	}
+
+	@Override
+	public ReplicaCatchUpProgress getReplicaCatchUpProgress() {
+		var catchUp = this.catchUp;
+		if (catchUp != null) {
+			return new ReplicaCatchUpProgress(catchUp.startDate, catchUp.finishDate, catchUp.numOfReplicas, 
+					catchUp.numOfCheckedReplicas.get(), catchUp.numOfStaleReplicas.get(), 
+					catchUp.numOfSyncedReplicas.get(), catchUp.numOfFailedReplicas.get());
+		} else {
+			return null;
+		}
+	}
+	
 	@Listen
 	public void on(SystemStopping event) {
 		if (taskId != null)
@@ -1351,8 +1470,8 @@ public class DefaultProjectManager extends BaseEntityManager<Project>
 	
 	@Listen
 	public void on(RefUpdated event) {
+		// Git version is bumped by whoever changes the ref, see GitPostReceiveCallback for instance
 		Long projectId = event.getProject().getId();
-		directoryModified(projectId, getGitDir(projectId));
 		if (!event.getNewCommitId().equals(ObjectId.zeroId()))
 			writeLfsSinceCommits(projectId, Sets.newHashSet(event.getNewCommitId()));
 	}
@@ -1423,6 +1542,40 @@ public class DefaultProjectManager extends BaseEntityManager<Project>
 			return false;
 	}
 
+	@Override
+	public boolean isGitUpToDate(Long projectId) {
+		var localServer = clusterManager.getLocalServerAddress();
+		var activeServer = getActiveServer(projectId, false);
+		if (activeServer == null)
+			return false;
+		else if (activeServer.equals(localServer))
+			return true;
+		
+		var replicasOfProject = replicas.get(projectId);
+		if (replicasOfProject == null)
+			return false;
+		var localReplica = replicasOfProject.get(localServer);
+		var activeReplica = replicasOfProject.get(activeServer);
+		if (localReplica == null || localReplica.getType() == REDUNDANT || activeReplica == null)
+			return false;
+		else if (localReplica.getVersion() >= activeReplica.getVersion())
+			return true;
+		
+		/*
+		 * Project version also changes with builds and attachments, check git version then. Git 
+		 * version of active server can only change with its project version, so cache it until 
+		 * then to avoid querying active server for every fetch request
+		 */
+		var activeGitVersion = activeGitVersions.get(projectId);
+		if (activeGitVersion == null || !activeGitVersion.server.equals(activeServer) 
+				|| activeGitVersion.projectVersion != activeReplica.getVersion()) {
+			activeGitVersion = new ActiveGitVersion(activeServer, activeReplica.getVersion(), 
+					clusterManager.runOnServer(activeServer, () -> readVersion(getGitDir(projectId))));
+			activeGitVersions.put(projectId, activeGitVersion);
+		}
+		return readVersion(getGitDir(projectId)) >= activeGitVersion.gitVersion;
+	}
+
 	private boolean hasOutdatedReplicas(Map<String, ProjectReplica> replicasOfProject, String activeServer) {
 		var activeReplica = replicasOfProject.get(activeServer);
 		return replicasOfProject.entrySet().stream().anyMatch(it -> clusterManager.getServer(it.getKey(), false) != null && it.getValue().getType() != REDUNDANT && it.getValue().getVersion() < activeReplica.getVersion());
@@ -1583,6 +1736,14 @@ public class DefaultProjectManager extends BaseEntityManager<Project>
 		}
 	}
 
+	/**
+	 * Sync directory with the active server by only transferring changed files. Files with 
+	 * same length and modification time are considered unchanged. Files with same length 
+	 * but different modification time are compared by content hash, as modification time 
+	 * may not be preserved by previous syncs. Synced files modified too close to building 
+	 * of remote manifest get a stale modification time, so that they are compared by content 
+	 * hash again in next sync
+	 */
 	@Override
 	public void syncDirectory(Long projectId, String path, String readLock, String activeServer) {
 		var directory = new File(getStorageDir(projectId), path);
@@ -1593,31 +1754,114 @@ public class DefaultProjectManager extends BaseEntityManager<Project>
 		});
 
 		if (version < remoteVersion) {
-			FileUtils.cleanDir(directory);
-			Client client = ClientBuilder.newClient();
-			try {
-				String fromServerUrl = clusterManager.getServerUrl(activeServer);
-				WebTarget target = client.target(fromServerUrl).path("/~api/cluster/project-files")
-						.queryParam("projectId", projectId)
-						.queryParam("path", path)
-						.queryParam("patterns", "** -" + FILE_VERSION)
-						.queryParam("readLock", readLock);
-				Invocation.Builder builder = target.request();
-				builder.header(AUTHORIZATION,
-						BEARER + " " + clusterManager.getCredential());
-
-				try (Response response = builder.get()) {
-					KubernetesHelper.checkStatus(response);
-					try (InputStream is = response.readEntity(InputStream.class)) {
-						FileUtils.untar(is, directory, false);
-					} catch (IOException e) {
-						throw new RuntimeException(e);
+			long time = System.currentTimeMillis();
+			DirectoryManifest remoteManifest = clusterManager.runOnServer(activeServer, () -> read(readLock, () -> {
+				return DirectoryManifest.of(new File(getStorageDir(projectId), path));
+			}));
+			FileUtils.createDir(directory);
+			var manifest = DirectoryManifest.of(directory);
+			
+			Collection<String> changedPaths = new ArrayList<>();
+			Collection<String> suspectedPaths = new ArrayList<>();
+			for (var entry: remoteManifest.getEntries().entrySet()) {
+				var remoteFile = entry.getValue();
+				var file = manifest.getEntries().get(entry.getKey());
+				if (file == null || file.getLength() != remoteFile.getLength())
+					changedPaths.add(entry.getKey());
+				else if (file.getLastModified() != remoteFile.getLastModified())
+					suspectedPaths.add(entry.getKey());
+			}
+			if (!suspectedPaths.isEmpty()) {
+				Map<String, String> remoteHashes = clusterManager.runOnServer(activeServer, () -> read(readLock, () -> {
+					return DirectoryManifest.hash(new File(getStorageDir(projectId), path), suspectedPaths);
+				}));
+				var hashes = DirectoryManifest.hash(directory, suspectedPaths);
+				for (var suspectedPath: suspectedPaths) {
+					var remoteHash = remoteHashes.get(suspectedPath);
+					if (remoteHash != null && remoteHash.equals(hashes.get(suspectedPath))) {
+						var file = new File(directory, suspectedPath);
+						// Modification time of hard linked files, such as deduplicated artifacts, is shared by other links
+						if (!DirectoryManifest.isHardLinked(file)) 
+							file.setLastModified(getSyncedLastModified(remoteManifest, suspectedPath));
+					} else {
+						changedPaths.add(suspectedPath);
 					}
 				}
-			} finally {
-				client.close();
 			}
+			
+			int deletedFiles = 0;
+			for (var filePath: manifest.getEntries().keySet()) {
+				if (!remoteManifest.getEntries().containsKey(filePath)) {
+					FileUtils.deleteFile(new File(directory, filePath));
+					deletedFiles++;
+				}
+			}
+			
+			long transferredBytes = 0;
+			if (!changedPaths.isEmpty()) {
+				Client client = ClientBuilder.newClient();
+				try {
+					String fromServerUrl = clusterManager.getServerUrl(activeServer);
+					WebTarget target = client.target(fromServerUrl).path("/~api/cluster/project-files")
+							.queryParam("projectId", projectId)
+							.queryParam("path", path)
+							.queryParam("readLock", readLock);
+					Invocation.Builder builder = target.request();
+					builder.header(AUTHORIZATION,
+							BEARER + " " + clusterManager.getCredential());
+
+					try (Response response = builder.post(Entity.text(String.join("\n", changedPaths)))) {
+						KubernetesHelper.checkStatus(response);
+						try (InputStream is = response.readEntity(InputStream.class)) {
+							var stats = DirectoryManifest.untar(is, directory);
+							transferredBytes = stats.getBytes();
+							
+							// Tar only keeps modification time in seconds
+							for (var extractedPath: stats.getPaths()) {
+								new File(directory, extractedPath).setLastModified(
+										getSyncedLastModified(remoteManifest, extractedPath));
+							}
+							
+							// Files deleted on active server after manifest is built
+							for (var changedPath: changedPaths) {
+								if (!stats.getPaths().contains(changedPath)) 
+									FileUtils.deleteFile(new File(directory, changedPath));
+							}
+						} catch (IOException e) {
+							throw new RuntimeException(e);
+						}
+					}
+				} finally {
+					client.close();
+				}
+			}
+			if (deletedFiles != 0)
+				deleteEmptyDirs(directory);
 			writeVersion(directory, remoteVersion);
+			
+			logger.debug("Directory synced (project id: {}, path: {}, files: {}, transferred files: {}, " 
+							+ "transferred bytes: {}, deleted files: {}, duration: {} ms)", 
+					projectId, path, remoteManifest.getEntries().size(), changedPaths.size(), 
+					transferredBytes, deletedFiles, System.currentTimeMillis() - time);
+		}
+	}
+	
+	private long getSyncedLastModified(DirectoryManifest remoteManifest, String path) {
+		var remoteFile = remoteManifest.getEntries().get(path);
+		if (remoteManifest.isRacy(remoteFile))
+			return 0;
+		else
+			return remoteFile.getLastModified();
+	}
+	
+	private void deleteEmptyDirs(File directory) {
+		for (var child: directory.listFiles()) {
+			if (child.isDirectory()) {
+				deleteEmptyDirs(child);
+				var grandChildren = child.list();
+				if (grandChildren != null && grandChildren.length == 0)
+					FileUtils.deleteDir(child);
+			}
 		}
 	}
 
@@ -1665,123 +1909,146 @@ public class DefaultProjectManager extends BaseEntityManager<Project>
 				var project = cache.get(projectId);
 				if (project != null) {
 					try {
-						var projectDir = getStorageDir(projectId);
-						var remoteVersion = clusterManager.runOnServer(syncWithServer, () -> {
-							return readVersion(getStorageDir(projectId));
-						});
-						var version = readVersion(projectDir);
-
-						if (version < remoteVersion) {
-							logger.debug("Syncing project (project: {}, server: {})...", project.getPath(), syncWithServer);
-							syncGit(projectId, syncWithServer);
-							attachmentManager.syncAttachments(projectId, syncWithServer);
-							buildManager.syncBuilds(projectId, syncWithServer);
-							visitInfoManager.syncVisitInfo(projectId, syncWithServer);
-							
-							syncDirectory(projectId, SITE_DIR, getSiteLockName(projectId), syncWithServer);
-							
-							writeVersion(projectDir, remoteVersion);
-							logger.debug("Project synced (project: {}, server: {})", project.getPath(), syncWithServer);
-						}
-						updateReplicaVersion(projectId);
+						syncReplica(projectId, syncWithServer, null);
 					} catch (Exception e) {
 						logger.error(String.format("Error syncing (project: %s, server: %s)", project.getPath(), syncWithServer), e);
 					}
 				}
 			}
 
-			private void syncGit(Long projectId, String activeServer) {
-				var gitDir = getGitDir(projectId);
-				var remoteGitVersion = clusterManager.runOnServer(activeServer, () -> readVersion(getGitDir(projectId)));
-				var gitVersion = readVersion(gitDir);
-				if (gitVersion < remoteGitVersion) {
-					var repository = getRepository(projectId);
-					var defaultBranch = getDefaultBranch(repository);
-					var remoteDefaultBranch = clusterManager.runOnServer(activeServer, () -> getDefaultBranch(getRepository(projectId)));
-					var withLfs = clusterManager.runOnServer(activeServer, () -> hasLfsObjects(projectId));
-
-					if (remoteDefaultBranch != null) {
-						CommandUtils.callWithClusterCredential(new GitTask<>() {
-
-							private void fetch(Commandline git, String fetchUrl) {
-								git.addArgs("fetch", "--force", fetchUrl, "refs/*:refs/*", "-pP");
-								git.execute(new LineConsumer() {
-									@Override
-									public void consume(String line) {
-										logger.debug(line);
-									}
-								}, new LineConsumer() {
-									@Override
-									public void consume(String line) {
-										if (!line.startsWith("From") && !line.contains("->"))
-											logger.error(line);
-										else
-											logger.debug(line);
-									}
-								}).checkReturnCode();
-							}
+		};
+	}
+	
+	/**
+	 * Sync replica of specified project with specified server. Only storage parts with 
+	 * version older than the server are synced
+	 * 
+	 * @param remoteVersions
+	 * 			storage versions of the project on specified server, or <tt>null</tt> to 
+	 * 			read them from the server
+	 */
+	private void syncReplica(Long projectId, String syncWithServer, @Nullable StorageVersions remoteVersions) {
+		Lock lock = LockUtils.getLock(getSyncLockName(projectId));
+		lock.lock();
+		try {
+			if (remoteVersions == null)
+				remoteVersions = clusterManager.runOnServer(syncWithServer, () -> readStorageVersions(projectId));
+			var versions = readStorageVersions(projectId);
+			if (versions.project < remoteVersions.project) {
+				logger.debug("Syncing project (project id: {}, server: {})...", projectId, syncWithServer);
+				var outdatedParts = versions.getOutdatedParts(remoteVersions);
+				if (outdatedParts.contains(StoragePart.GIT))
+					syncGit(projectId, syncWithServer);
+				if (outdatedParts.contains(StoragePart.ATTACHMENTS))
+					attachmentManager.syncAttachments(projectId, syncWithServer);
+				if (outdatedParts.contains(StoragePart.BUILDS))
+					buildManager.syncBuilds(projectId, syncWithServer);
+				visitInfoManager.syncVisitInfo(projectId, syncWithServer);
+				if (outdatedParts.contains(StoragePart.SITE))
+					syncDirectory(projectId, SITE_DIR, getSiteLockName(projectId), syncWithServer);
+				
+				writeVersion(getStorageDir(projectId), remoteVersions.project);
+				logger.debug("Project synced (project id: {}, server: {})", projectId, syncWithServer);
+			}
+			updateReplicaVersion(projectId);
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	private StorageVersions readStorageVersions(Long projectId) {
+		return StorageVersions.read(getStorageDir(projectId), getGitDir(projectId));
+	}
 
+	private void syncGit(Long projectId, String activeServer) {
+		var gitDir = getGitDir(projectId);
+		var remoteGitVersion = clusterManager.runOnServer(activeServer, () -> readVersion(getGitDir(projectId)));
+		var gitVersion = readVersion(gitDir);
+		if (gitVersion < remoteGitVersion) {
+			var repository = getRepository(projectId);
+			var defaultBranch = getDefaultBranch(repository);
+			var remoteDefaultBranch = clusterManager.runOnServer(activeServer, () -> getDefaultBranch(getRepository(projectId)));
+			var withLfs = clusterManager.runOnServer(activeServer, () -> hasLfsObjects(projectId));
+
+			if (remoteDefaultBranch != null) {
+				CommandUtils.callWithClusterCredential(new GitTask<>() {
+
+					private void fetch(Commandline git, String fetchUrl) {
+						git.addArgs("fetch", "--force", fetchUrl, "refs/*:refs/*", "-pP");
+						git.execute(new LineConsumer() {
+							@Override
+							public void consume(String line) {
+								logger.debug(line);
+							}
+						}, new LineConsumer() {
 							@Override
-							public Object call(Commandline git) throws IOException {
-								git.workingDir(repository.getDirectory());
-								var fetchUrl = clusterManager.getServerUrl(activeServer) + "/" + cache.get(projectId).getPath();
+							public void consume(String line) {
+								if (!line.startsWith("From") && !line.contains("->"))
+									logger.error(line);
+								else
+									logger.debug(line);
+							}
+						}).checkReturnCode();
+					}
+
+					@Override
+					public Object call(Commandline git) throws IOException {
+						git.workingDir(repository.getDirectory());
+						var fetchUrl = clusterManager.getServerUrl(activeServer) + "/" + cache.get(projectId).getPath();
+						fetch(git, fetchUrl);
+						git.clearArgs();
+
+						if (withLfs) {
+							var lfsDir = storageManager.initLfsDir(projectId);
+							boolean lfsDirShared;
+							var testFile = new File(lfsDir, SHARE_TEST_DIR + "/" + UUID.randomUUID());
+							FileUtils.touchFile(testFile);
+							try {
+								lfsDirShared = clusterManager.runOnServer(activeServer, 
+										new SharedLfsDirTester(projectId, testFile.getName()));
+							} finally {
+								FileUtils.deleteFile(testFile);
+							}
+							
+							if (lfsDirShared) {
 								fetch(git, fetchUrl);
-								git.clearArgs();
-
-								if (withLfs) {
-									var lfsDir = storageManager.initLfsDir(projectId);
-									boolean lfsDirShared;
-									var testFile = new File(lfsDir, SHARE_TEST_DIR + "/" + UUID.randomUUID());
-									FileUtils.touchFile(testFile);
-									try {
-										lfsDirShared = clusterManager.runOnServer(activeServer, 
-												new SharedLfsDirTester(projectId, testFile.getName()));
-									} finally {
-										FileUtils.deleteFile(testFile);
-									}
-									
-									if (lfsDirShared) {
-										fetch(git, fetchUrl);
-									} else {
-										var sinceCommitIds = readLfsSinceCommits(projectId);
-										var untilCommitIds = new HashSet<ObjectId>();
-										for (Ref ref: repository.getRefDatabase().getRefs())
-											untilCommitIds.add(ref.getObjectId());
-
-										if (sinceCommitIds.isEmpty()) {
-											new LfsFetchAllCommand(git.workingDir(), fetchUrl) {
-												@Override
-												protected Commandline newGit() {
-													return git;
-												}
-											}.run();
-										} else {
-											var fetchCommitIds = getReachableCommits(repository, sinceCommitIds, untilCommitIds)
-													.stream().map(AnyObjectId::copy).collect(toList());
-											new LfsFetchCommand(git.workingDir(), fetchUrl, fetchCommitIds) {
-												@Override
-												protected Commandline newGit() {
-													return git;
-												}
-											}.run();
+							} else {
+								var sinceCommitIds = readLfsSinceCommits(projectId);
+								var untilCommitIds = new HashSet<ObjectId>();
+								for (Ref ref: repository.getRefDatabase().getRefs())
+									untilCommitIds.add(ref.getObjectId());
+
+								if (sinceCommitIds.isEmpty()) {
+									new LfsFetchAllCommand(git.workingDir(), fetchUrl) {
+										@Override
+										protected Commandline newGit() {
+											return git;
 										}
-										writeLfsSinceCommits(projectId, untilCommitIds);
-									}
+									}.run();
 								} else {
-									fetch(git, fetchUrl);
+									var fetchCommitIds = getReachableCommits(repository, sinceCommitIds, untilCommitIds)
+											.stream().map(AnyObjectId::copy).collect(toList());
+									new LfsFetchCommand(git.workingDir(), fetchUrl, fetchCommitIds) {
+										@Override
+										protected Commandline newGit() {
+											return git;
+										}
+									}.run();
 								}
-								return null;
+								writeLfsSinceCommits(projectId, untilCommitIds);
 							}
-						});
-
-						if (!remoteDefaultBranch.equals(defaultBranch))
-							setDefaultBranch(repository, remoteDefaultBranch);
+						} else {
+							fetch(git, fetchUrl);
+						}
+						return null;
 					}
-					writeVersion(gitDir, remoteGitVersion);
-				}
+				});
+
+				if (!remoteDefaultBranch.equals(defaultBranch))
+					setDefaultBranch(repository, remoteDefaultBranch);
 			}
-			
-		};
+			writeVersion(gitDir, remoteGitVersion);
+		}
 	}
 
 	@Override
@@ -1908,6 +2175,95 @@ public class DefaultProjectManager extends BaseEntityManager<Project>
 		return CronScheduleBuilder.dailyAtHourAndMinute(3, 0);
 	}
 
+	enum StoragePart {GIT, ATTACHMENTS, BUILDS, SITE}
+	
+	static class StorageVersions implements Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		final long project;
+
+		final long git;
+
+		final long attachments;
+
+		final long builds;
+
+		final long site;
+
+		StorageVersions(long project, long git, long attachments, long builds, long site) {
+			this.project = project;
+			this.git = git;
+			this.attachments = attachments;
+			this.builds = builds;
+			this.site = site;
+		}
+		
+		static StorageVersions read(File projectDir, File gitDir) {
+			return new StorageVersions(
+					readVersion(projectDir), 
+					readVersion(gitDir), 
+					readVersion(new File(projectDir, ATTACHMENT_DIR)), 
+					readVersion(new File(projectDir, BUILDS_DIR)), 
+					readVersion(new File(projectDir, SITE_DIR)));
+		}
+		
+		/**
+		 * Get storage parts older than specified versions, which need to be synced
+		 */
+		Set<StoragePart> getOutdatedParts(StorageVersions remoteVersions) {
+			Set<StoragePart> outdatedParts = EnumSet.noneOf(StoragePart.class);
+			if (git < remoteVersions.git)
+				outdatedParts.add(StoragePart.GIT);
+			if (attachments < remoteVersions.attachments)
+				outdatedParts.add(StoragePart.ATTACHMENTS);
+			if (builds < remoteVersions.builds)
+				outdatedParts.add(StoragePart.BUILDS);
+			if (site < remoteVersions.site)
+				outdatedParts.add(StoragePart.SITE);
+			return outdatedParts;
+		}
+
+	}
+
+	private static class CatchUp {
+
+		final Date startDate = new Date();
+
+		final int numOfReplicas;
+
+		final AtomicInteger numOfCheckedReplicas = new AtomicInteger(0);
+
+		final AtomicInteger numOfStaleReplicas = new AtomicInteger(0);
+
+		final AtomicInteger numOfSyncedReplicas = new AtomicInteger(0);
+
+		final AtomicInteger numOfFailedReplicas = new AtomicInteger(0);
+
+		volatile Date finishDate;
+
+		CatchUp(int numOfReplicas) {
+			this.numOfReplicas = numOfReplicas;
+		}
+
+	}
+
+	private static class ActiveGitVersion {
+
+		final String server;
+
+		final long projectVersion;
+
+		final long gitVersion;
+
+		ActiveGitVersion(String server, long projectVersion, long gitVersion) {
+			this.server = server;
+			this.projectVersion = projectVersion;
+			this.gitVersion = gitVersion;
+		}
+
+	}
+
 	private static class SyncWork extends Prioritized {
 
 		final String syncWithServer;
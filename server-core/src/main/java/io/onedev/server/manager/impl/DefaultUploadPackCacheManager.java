@@ -0,0 +1,421 @@
+package io.onedev.server.manager.impl;
+
+import static io.onedev.commons.bootstrap.Bootstrap.BUFFER_SIZE;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectStreamException;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.quartz.ScheduleBuilder;
+import org.quartz.SimpleScheduleBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.onedev.commons.bootstrap.Bootstrap;
+import io.onedev.commons.loader.ManagedSerializedForm;
+import io.onedev.commons.utils.FileUtils;
+import io.onedev.server.event.Listen;
+import io.onedev.server.event.system.SystemStarted;
+import io.onedev.server.event.system.SystemStopping;
+import io.onedev.server.git.CommandUtils;
+import io.onedev.server.git.GitFilter;
+import io.onedev.server.git.UploadPackCacheStats;
+import io.onedev.server.git.UploadPackRequest;
+import io.onedev.server.git.command.AdvertiseUploadRefsCommand;
+import io.onedev.server.manager.ProjectManager;
+import io.onedev.server.manager.UploadPackCacheManager;
+import io.onedev.server.util.concurrent.PrioritizedRunnable;
+import io.onedev.server.util.concurrent.WorkExecutor;
+import io.onedev.server.util.schedule.SchedulableTask;
+import io.onedev.server.util.schedule.TaskScheduler;
+
+@Singleton
+public class DefaultUploadPackCacheManager implements UploadPackCacheManager, SchedulableTask, Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final Logger logger = LoggerFactory.getLogger(DefaultUploadPackCacheManager.class);
+
+	private static final String CACHE_DIR = "upload-pack-cache";
+
+	private static final long MAX_CACHE_SIZE = 2048L * 1024 * 1024;
+
+	private static final long MAX_ENTRY_SIZE = 512L * 1024 * 1024;
+
+	private static final long ENTRY_TTL = 30 * 60 * 1000L;
+
+	// Requests larger than this are normally incremental fetches with many haves, not worth caching
+	private static final int MAX_REQUEST_SIZE = 64 * 1024;
+
+	private static final byte[] FLUSH_PACKET = "0000".getBytes(UTF_8);
+
+	private final ProjectManager projectManager;
+
+	private final WorkExecutor workExecutor;
+
+	private final TaskScheduler taskScheduler;
+
+	private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+	private final Map<String, CompletableFuture<Void>> fills = new ConcurrentHashMap<>();
+
+	private final AtomicLong cacheSize = new AtomicLong();
+
+	private final AtomicLong numOfHits = new AtomicLong();
+
+	private final AtomicLong numOfMisses = new AtomicLong();
+
+	private final AtomicLong numOfBypasses = new AtomicLong();
+
+	private final AtomicLong servedBytes = new AtomicLong();
+
+	private volatile File cacheDir;
+
+	private volatile String taskId;
+
+	@Inject
+	public DefaultUploadPackCacheManager(ProjectManager projectManager, WorkExecutor workExecutor,
+										 TaskScheduler taskScheduler) {
+		this.projectManager = projectManager;
+		this.workExecutor = workExecutor;
+		this.taskScheduler = taskScheduler;
+	}
+
+	public Object writeReplace() throws ObjectStreamException {
+		return new ManagedSerializedForm(UploadPackCacheManager.class);
+	}
+
+	@Override
+	public void uploadPack(Long projectId, Map<String, String> envs, @Nullable String protocol,
+						   InputStream stdin, OutputStream stdout, boolean immediate) {
+		try {
+			UploadPackRequest request = UploadPackRequest.readStateless(stdin, MAX_REQUEST_SIZE);
+			serve(projectId, envs, protocol, request, stdout, immediate, null);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Override
+	public void uploadPackV2(Long projectId, Map<String, String> envs, String protocol,
+							 InputStream stdin, OutputStream stdout, @Nullable String workGroupId) {
+		try {
+			run(() -> new AdvertiseUploadRefsCommand(projectManager.getGitDir(projectId), stdout)
+					.protocol(protocol).run(), false, workGroupId);
+			stdout.flush();
+			UploadPackRequest request;
+			while ((request = UploadPackRequest.readCommand(stdin)) != null) {
+				serve(projectId, envs, protocol, request, stdout, false, workGroupId);
+				stdout.flush();
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private void serve(Long projectId, Map<String, String> envs, @Nullable String protocol,
+					   UploadPackRequest request, OutputStream stdout, boolean immediate, 
+					   @Nullable String workGroupId) throws IOException {
+		File gitDir = projectManager.getGitDir(projectId);
+		String key;
+		if (cacheDir != null && request.isComplete() && request.isDone()
+				&& request.getContent().length <= MAX_REQUEST_SIZE) {
+			key = getKey(projectId, protocol, request);
+		} else {
+			key = null;
+		}
+
+		if (key == null) {
+			numOfBypasses.incrementAndGet();
+			run(() -> uploadPack(gitDir, envs, protocol, request.getInputStream(), stdout), immediate, workGroupId);
+		} else if (!serveFromCache(key, stdout)) {
+			/*
+			 * Identical concurrent requests wait for the first one to fill the cache in calling 
+			 * thread, so that only the filling request takes a work executor slot
+			 */
+			CompletableFuture<Void> fill = new CompletableFuture<>();
+			CompletableFuture<Void> inflightFill = fills.putIfAbsent(key, fill);
+			if (inflightFill == null) {
+				try {
+					numOfMisses.incrementAndGet();
+					run(() -> {
+						try {
+							uploadPackAndCache(key, gitDir, envs, protocol, request, stdout);
+						} catch (IOException e) {
+							throw new RuntimeException(e);
+						}
+					}, immediate, workGroupId);
+				} finally {
+					fills.remove(key, fill);
+					fill.complete(null);
+				}
+			} else {
+				try {
+					inflightFill.get();
+				} catch (InterruptedException | ExecutionException e) {
+					throw new RuntimeException(e);
+				}
+				if (!serveFromCache(key, stdout)) {
+					// Response of the filling request is not cacheable, for instance too large
+					numOfMisses.incrementAndGet();
+					run(() -> uploadPack(gitDir, envs, protocol, request.getInputStream(), stdout), immediate, workGroupId);
+				}
+			}
+		}
+	}
+
+	private void run(Runnable runnable, boolean immediate, @Nullable String workGroupId) {
+		if (immediate) {
+			runnable.run();
+		} else {
+			var prioritizedRunnable = new PrioritizedRunnable(GitFilter.PRIORITY) {
+
+				@Override
+				public void run() {
+					runnable.run();
+				}
+
+			};
+			try {
+				if (workGroupId != null)
+					workExecutor.submit(workGroupId, prioritizedRunnable).get();
+				else
+					workExecutor.submit(prioritizedRunnable).get();
+			} catch (InterruptedException | ExecutionException e) {
+				throw new RuntimeException(e);
+			}
+		}
+	}
+
+	private String getKey(Long projectId, @Nullable String protocol, UploadPackRequest request) throws IOException {
+		MessageDigest digest = DigestUtils.getSha256Digest();
+		digest.update((projectId + ":" + protocol + ":").getBytes(UTF_8));
+		digest.update(request.getContent());
+
+		// Include refs so that objects no longer reachable are not served after refs are updated
+		List<Ref> refs = new ArrayList<>(projectManager.getRepository(projectId).getRefDatabase().getRefs());
+		refs.sort(Comparator.comparing(Ref::getName));
+		for (Ref ref: refs) {
+			digest.update(ref.getName().getBytes(UTF_8));
+			ObjectId objectId = ref.getObjectId();
+			if (objectId != null)
+				digest.update(objectId.name().getBytes(UTF_8));
+		}
+		return Hex.encodeHexString(digest.digest());
+	}
+
+	void uploadPack(File gitDir, Map<String, String> envs, @Nullable String protocol, 
+					InputStream stdin, OutputStream stdout) {
+		CommandUtils.uploadPack(gitDir, envs, protocol, stdin, stdout);
+	}
+	
+	long getEntryTtl() {
+		return ENTRY_TTL;
+	}
+	
+	long getMaxCacheSize() {
+		return MAX_CACHE_SIZE;
+	}
+	
+	private boolean serveFromCache(String key, OutputStream stdout) throws IOException {
+		Entry entry = entries.get(key);
+		if (entry == null || entry.isExpired(getEntryTtl()))
+			return false;
+		try (InputStream is = new FileInputStream(entry.file)) {
+			entry.lastAccessTime = System.currentTimeMillis();
+			byte[] buffer = new byte[BUFFER_SIZE];
+			int length;
+			while ((length = is.read(buffer)) > 0)
+				stdout.write(buffer, 0, length);
+			stdout.flush();
+		} catch (FileNotFoundException e) {
+			// Evicted concurrently
+			return false;
+		}
+		numOfHits.incrementAndGet();
+		servedBytes.addAndGet(entry.size);
+		return true;
+	}
+
+	private void uploadPackAndCache(String key, File gitDir, Map<String, String> envs, @Nullable String protocol,
+									UploadPackRequest request, OutputStream stdout) throws IOException {
+		File tempFile = new File(cacheDir, UUID.randomUUID() + ".tmp");
+		try {
+			CachingOutputStream cachingStdout;
+			try (OutputStream os = new FileOutputStream(tempFile)) {
+				cachingStdout = new CachingOutputStream(stdout, os);
+				uploadPack(gitDir, envs, protocol, request.getInputStream(), cachingStdout);
+			}
+			// Response may be truncated if upload-pack tolerates errors such as client hanging up
+			if (cachingStdout.isCacheable()) {
+				File entryFile = new File(cacheDir, key);
+				Files.move(tempFile.toPath(), entryFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+				Entry entry = new Entry(entryFile, cachingStdout.size);
+				Entry oldEntry = entries.put(key, entry);
+				if (oldEntry != null)
+					cacheSize.addAndGet(-oldEntry.size);
+				cacheSize.addAndGet(entry.size);
+				evict();
+			}
+		} finally {
+			if (tempFile.exists())
+				FileUtils.deleteFile(tempFile);
+		}
+	}
+
+	private synchronized void evict() {
+		List<Map.Entry<String, Entry>> sortedEntries = new ArrayList<>(entries.entrySet());
+		sortedEntries.sort(Comparator.comparingLong(it -> it.getValue().lastAccessTime));
+		for (Map.Entry<String, Entry> entry: sortedEntries) {
+			if (entry.getValue().isExpired(getEntryTtl()) || cacheSize.get() > getMaxCacheSize()) {
+				if (entries.remove(entry.getKey(), entry.getValue())) {
+					cacheSize.addAndGet(-entry.getValue().size);
+					try {
+						Files.deleteIfExists(entry.getValue().file.toPath());
+					} catch (IOException e) {
+						logger.warn("Error deleting cached upload pack response", e);
+					}
+				}
+			}
+		}
+	}
+
+	@Override
+	public UploadPackCacheStats getStats() {
+		return new UploadPackCacheStats(entries.size(), cacheSize.get(), numOfHits.get(),
+				numOfMisses.get(), numOfBypasses.get(), servedBytes.get());
+	}
+
+	@Override
+	public void execute() {
+		evict();
+	}
+
+	@Override
+	public ScheduleBuilder<?> getScheduleBuilder() {
+		return SimpleScheduleBuilder.repeatMinutelyForever();
+	}
+
+	@Listen
+	public void on(SystemStarted event) {
+		start(new File(Bootstrap.getTempDir(), CACHE_DIR));
+	}
+	
+	void start(File cacheDir) {
+		// Entries are only tracked in memory, discard those left by last run
+		FileUtils.cleanDir(cacheDir);
+		this.cacheDir = cacheDir;
+		taskId = taskScheduler.schedule(this);
+	}
+
+	@Listen
+	public void on(SystemStopping event) {
+		if (taskId != null)
+			taskScheduler.unschedule(taskId);
+	}
+
+	private static class Entry {
+
+		final File file;
+
+		final long size;
+
+		final long createTime = System.currentTimeMillis();
+
+		volatile long lastAccessTime = createTime;
+
+		Entry(File file, long size) {
+			this.file = file;
+			this.size = size;
+		}
+
+		boolean isExpired(long ttl) {
+			return System.currentTimeMillis() - createTime > ttl;
+		}
+
+	}
+
+	/*
+	 * Copies response to client into cache file, until response exceeds max entry size
+	 */
+	private static class CachingOutputStream extends OutputStream {
+
+		private final OutputStream delegate;
+
+		private final OutputStream cache;
+
+		private final byte[] tail = new byte[FLUSH_PACKET.length];
+
+		private long size;
+
+		private boolean overflow;
+
+		CachingOutputStream(OutputStream delegate, OutputStream cache) {
+			this.delegate = delegate;
+			this.cache = cache;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] {(byte) b}, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			delegate.write(b, off, len);
+			if (!overflow) {
+				if (size + len <= MAX_ENTRY_SIZE)
+					cache.write(b, off, len);
+				else
+					overflow = true;
+			}
+			for (int i = Math.max(off, off + len - tail.length); i < off + len; i++) {
+				System.arraycopy(tail, 1, tail, 0, tail.length - 1);
+				tail[tail.length - 1] = b[i];
+			}
+			size += len;
+		}
+
+		@Override
+		public void flush() throws IOException {
+			delegate.flush();
+		}
+
+		/*
+		 * Complete response of both protocol v0 (with side band) and v2 ends with a flush packet
+		 */
+		boolean isCacheable() {
+			return !overflow && size != 0 && Arrays.equals(tail, FLUSH_PACKET);
+		}
+
+	}
+
+}
@@ -41,6 +41,7 @@ import io.onedev.server.web.editable.BeanDescriptor;
 import io.onedev.server.web.editable.PropertyDescriptor;
 import io.onedev.server.web.util.BuildAware;
 import io.onedev.server.web.util.WicketUtils;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.revwalk.RevCommit;
@@ -82,6 +83,8 @@ public class Build extends ProjectBelonging
 	
 	public static final String ARTIFACTS_DIR = "artifacts";
 
+	public static final String ARTIFACT_UPLOADS_DIR = "artifact-uploads";
+
 	public static final String LOG_FILE = "build.log";
 
 	public static final int MAX_DESCRIPTION_LEN = 12000;
@@ -812,6 +815,16 @@ public class Build extends ProjectBelonging
 		return new File(getStorageDir(projectId, buildNumber), ARTIFACTS_DIR);
 	}
 	
+	/**
+	 * Get directory holding partially uploaded data of specified artifact. It is kept out 
+	 * of artifacts directory so that incomplete artifacts are never exposed or synced. 
+	 * Being inside build storage directory, it is removed together with the build
+	 */
+	public static File getArtifactUploadDir(Long projectId, Long buildNumber, String artifactPath) {
+		return new File(getStorageDir(projectId, buildNumber), 
+				ARTIFACT_UPLOADS_DIR + "/" + DigestUtils.sha1Hex(artifactPath));
+	}
+	
 	@Nullable
 	public Build getStreamPrevious(@Nullable Status status) {
 		if (streamPreviousCache == null) 
@@ -875,6 +888,10 @@ public class Build extends ProjectBelonging
 		return Build.class.getName() + ":" + buildId;
 	}
 	
+	public static String getQueuePositionChangeObservable(Long buildId) {
+		return "build-queue-position:" + buildId;
+	}
+	
 	public static String getCommitStatusChangeObservable(Long projectId, String commitHash) {
 		return "commit-status:" + projectId + ":" + commitHash;
 	}
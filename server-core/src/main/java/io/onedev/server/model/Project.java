@@ -1685,6 +1685,18 @@ public class Project extends AbstractEntity implements LabelSupport<ProjectLabel
 		
 		return "**";
 	}
+	
+	@Nullable
+	public String findCodeIndexedBranches() {
+		Project current = this;
+		do {
+			if (current.getCodeAnalysisSetting().getIndexedBranches() != null)
+				return current.getCodeAnalysisSetting().getIndexedBranches();
+			current = current.getParent();
+		} while (current != null);
+		
+		return null;
+	}
 
 	public MergeStrategy findDefaultMergeStrategy() {
 		Project current = this;
@@ -1704,6 +1716,14 @@ public class Project extends AbstractEntity implements LabelSupport<ProjectLabel
 	public static String getSiteLockName(Long projectId) {
 		return "project-site:" + projectId;
 	}
+	
+	/**
+	 * Name of the lock held while syncing storage of a replica with the active server. Git 
+	 * maintenance also holds this lock to avoid rewriting packs being fetched into 
+	 */
+	public static String getSyncLockName(Long projectId) {
+		return "project-sync:" + projectId;
+	}
 
 	public Collection<Build> getBuilds(ObjectId commitId) {
 		if (buildsCache == null)
@@ -1,11 +1,15 @@
 package io.onedev.server.model.support;
 
+import io.onedev.commons.codeassist.InputSuggestion;
 import io.onedev.server.rest.annotation.Api;
 import io.onedev.server.annotation.Editable;
 import io.onedev.server.annotation.Patterns;
+import io.onedev.server.model.Project;
+import io.onedev.server.web.util.SuggestionUtils;
 
 import javax.annotation.Nullable;
 import java.io.Serializable;
+import java.util.List;
 
 @Editable
 public class CodeAnalysisSetting implements Serializable {
@@ -15,6 +19,9 @@ public class CodeAnalysisSetting implements Serializable {
 	@Api(description = "May be null")
 	private String analysisFiles;
 	
+	@Api(description = "May be null")
+	private String indexedBranches;
+	
 	@Editable(order=100, name="Files to Be Analyzed", placeholder="Inherit from parent", rootPlaceholder ="All files", description="OneDev analyzes repository files for code search, "
 			+ "line statistics, and code contribution statistics. This setting tells which files should be analyzed, and expects space-separated "
 			+ "<a href='https://docs.onedev.io/appendix/path-wildcard' target='_blank'>path patterns</a>. A pattern can be excluded by prefixing with '-', for "
@@ -33,4 +40,24 @@ public class CodeAnalysisSetting implements Serializable {
 		this.analysisFiles = analyzeFiles;
 	}
 	
+	@Editable(order=200, name="Branches to Keep Indexed", placeholder="Inherit from parent", rootPlaceholder="Default branch only", 
+			description="Code search of any branch head is fast if it is among recently indexed commits. Specify space-separated "
+			+ "branches here (for instance release branches) to keep their heads searchable fast even if they have not been "
+			+ "updated for a long time. Default branch is always kept. Use '**', '*' or '?' for "
+			+ "<a href='https://docs.onedev.io/appendix/path-wildcard' target='_blank'>path wildcard match</a>. Prefix with '-' to exclude")
+	@Patterns(suggester = "suggestBranches", path=true)
+	@Nullable
+	public String getIndexedBranches() {
+		return indexedBranches;
+	}
+
+	public void setIndexedBranches(@Nullable String indexedBranches) {
+		this.indexedBranches = indexedBranches;
+	}
+	
+	@SuppressWarnings("unused")
+	private static List<InputSuggestion> suggestBranches(String matchWith) {
+		return SuggestionUtils.suggestBranches(Project.get(), matchWith);
+	}
+	
 }
@@ -2,6 +2,8 @@ package io.onedev.server.model.support.administration;
 
 import java.io.Serializable;
 
+import javax.validation.constraints.Min;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -18,12 +20,16 @@ public class PerformanceSetting implements Serializable {
 	
 	private int cpuIntensiveTaskConcurrency;
 	
+	private int codeIndexParallelism;
+	
 	private int maxGitLFSFileSize = 4096;  
 	
 	private int maxUploadFileSize = 20;
 	
 	private int maxCodeSearchEntries = 100;
 	
+	private boolean deduplicateArtifacts;
+	
 	public PerformanceSetting() {
 		try {
 			HardwareAbstractionLayer hardware = new SystemInfo().getHardware();
@@ -34,6 +40,7 @@ public class PerformanceSetting implements Serializable {
 			logger.debug("Error calling oshi", e);
 			cpuIntensiveTaskConcurrency = 2;
 		}
+		codeIndexParallelism = cpuIntensiveTaskConcurrency;
 	}
 
 	@Editable(order=100, name="CPU Intensive Task Concurrency", description="" +
@@ -47,6 +54,19 @@ public class PerformanceSetting implements Serializable {
 		this.cpuIntensiveTaskConcurrency = cpuIntensiveTaskConcurrency;
 	}
 
+	@Editable(order=200, name="Code Index Parallelism", description="" +
+			"Specify max number of files to be analyzed concurrently when index code of a commit. " +
+			"Note that this applies to each indexing commit, and multiple commits may be indexed " +
+			"concurrently subject to CPU intensive task concurrency above")
+	@Min(1)
+	public int getCodeIndexParallelism() {
+		return codeIndexParallelism;
+	}
+
+	public void setCodeIndexParallelism(int codeIndexParallelism) {
+		this.codeIndexParallelism = codeIndexParallelism;
+	}
+
 	@Editable(order=600, name="Max Git LFS File Size (MB)", description="Specify max git LFS file size in mega bytes")
 	public int getMaxGitLFSFileSize() {
 		return maxGitLFSFileSize;
@@ -76,4 +96,15 @@ public class PerformanceSetting implements Serializable {
 		this.maxCodeSearchEntries = maxCodeSearchEntries;
 	}
 
+	@Editable(order=900, name="Deduplicate Build Artifacts", description="If enabled, artifact files with same " +
+			"content published by different builds of a project are stored only once via hard links. This " +
+			"takes effect for artifacts published afterwards, and requires a file system supporting hard links")
+	public boolean isDeduplicateArtifacts() {
+		return deduplicateArtifacts;
+	}
+
+	public void setDeduplicateArtifacts(boolean deduplicateArtifacts) {
+		this.deduplicateArtifacts = deduplicateArtifacts;
+	}
+
 }
@@ -0,0 +1,87 @@
+package io.onedev.server.replica;
+
+import javax.annotation.Nullable;
+import java.io.Serializable;
+import java.util.Date;
+
+/**
+ * Progress of catching up project replicas of a server with active servers of projects, 
+ * after the server joins the cluster
+ */
+public class ReplicaCatchUpProgress implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private final Date startDate;
+
+	private final Date finishDate;
+
+	private final int numOfReplicas;
+
+	private final int numOfCheckedReplicas;
+
+	private final int numOfStaleReplicas;
+
+	private final int numOfSyncedReplicas;
+
+	private final int numOfFailedReplicas;
+
+	public ReplicaCatchUpProgress(Date startDate, @Nullable Date finishDate, int numOfReplicas,
+								  int numOfCheckedReplicas, int numOfStaleReplicas,
+								  int numOfSyncedReplicas, int numOfFailedReplicas) {
+		this.startDate = startDate;
+		this.finishDate = finishDate;
+		this.numOfReplicas = numOfReplicas;
+		this.numOfCheckedReplicas = numOfCheckedReplicas;
+		this.numOfStaleReplicas = numOfStaleReplicas;
+		this.numOfSyncedReplicas = numOfSyncedReplicas;
+		this.numOfFailedReplicas = numOfFailedReplicas;
+	}
+
+	public Date getStartDate() {
+		return startDate;
+	}
+
+	/**
+	 * @return finish date, or <tt>null</tt> if catch-up is still in progress
+	 */
+	@Nullable
+	public Date getFinishDate() {
+		return finishDate;
+	}
+
+	public int getNumOfReplicas() {
+		return numOfReplicas;
+	}
+
+	/**
+	 * @return number of replicas whose versions are compared with active servers
+	 */
+	public int getNumOfCheckedReplicas() {
+		return numOfCheckedReplicas;
+	}
+
+	/**
+	 * @return number of replicas found to be older than active servers
+	 */
+	public int getNumOfStaleReplicas() {
+		return numOfStaleReplicas;
+	}
+
+	public int getNumOfSyncedReplicas() {
+		return numOfSyncedReplicas;
+	}
+
+	public int getNumOfFailedReplicas() {
+		return numOfFailedReplicas;
+	}
+
+	public int getPercentage() {
+		int total = numOfReplicas + numOfStaleReplicas;
+		if (total != 0)
+			return (int) ((numOfCheckedReplicas + numOfSyncedReplicas + numOfFailedReplicas) * 100L / total);
+		else
+			return 100;
+	}
+
+}
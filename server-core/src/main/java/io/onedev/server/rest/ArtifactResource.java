@@ -9,6 +9,8 @@ import io.onedev.server.model.Build;
 import io.onedev.server.rest.annotation.Api;
 import io.onedev.server.security.SecurityUtils;
 import io.onedev.server.util.artifact.ArtifactInfo;
+import io.onedev.server.util.artifact.ResumableUpload;
+import io.onedev.server.util.artifact.UploadStatus;
 import org.apache.shiro.authz.UnauthorizedException;
 import org.glassfish.jersey.client.ClientProperties;
 
@@ -25,13 +27,17 @@ import javax.ws.rs.core.Response;
 import javax.ws.rs.core.StreamingOutput;
 import java.io.InputStream;
 
+import static com.google.common.net.HttpHeaders.*;
 import static io.onedev.commons.bootstrap.Bootstrap.BUFFER_SIZE;
 import static io.onedev.k8shelper.KubernetesHelper.BEARER;
 import static io.onedev.k8shelper.KubernetesHelper.checkStatus;
+import static io.onedev.server.util.ContentRangeUtils.parseContentRange;
 import static javax.ws.rs.client.Entity.entity;
-import static javax.ws.rs.core.HttpHeaders.AUTHORIZATION;
 import static javax.ws.rs.core.MediaType.APPLICATION_OCTET_STREAM;
+import static javax.ws.rs.core.Response.Status.PARTIAL_CONTENT;
+import static javax.ws.rs.core.Response.Status.REQUESTED_RANGE_NOT_SATISFIABLE;
 import static javax.ws.rs.core.Response.ok;
+import static javax.ws.rs.core.Response.status;
 import static org.apache.commons.compress.utils.IOUtils.copy;
 
 @Api(order=4100, description="In most cases, artifact resource is operated with build id, which is different from build number. "
@@ -81,42 +87,74 @@ public class ArtifactResource {
 		return buildManager.getArtifactInfo(build, normalizeArtifactPath(artifactPath));
     }
 
-	@Api(order=200, description = "Download artifact of specified path")
+	@Api(order=200, description = "Download artifact of specified path. Single byte range specified via "
+			+ "<code>Range</code> header is supported to resume or parallelize download. Header <code>If-Range</code> "
+			+ "can be used with <code>ETag</code> of previous response to make sure the artifact is not changed")
 	@Path("/{buildId}/contents/{artifactPath:(.*)}")
 	@GET
 	@Produces(APPLICATION_OCTET_STREAM)
-	public StreamingOutput downloadArtifact(@PathParam("buildId") Long buildId,
-									 @PathParam("artifactPath") @Api(example = "path/to/file") String artifactPath) {
+	public Response downloadArtifact(@PathParam("buildId") Long buildId,
+									 @PathParam("artifactPath") @Api(example = "path/to/file") String artifactPath, 
+									 @HeaderParam(RANGE) @Nullable String range, 
+									 @HeaderParam(IF_RANGE) @Nullable String ifRange) {
 		Build build = buildManager.load(buildId);
 		if (!SecurityUtils.canAccess(build))
 			throw new UnauthorizedException();
 
-		return output -> {
-			String activeServer = projectManager.getActiveServer(
-					build.getProject().getId(), true);
-			String serverUrl = clusterManager.getServerUrl(activeServer);
-			Client client = ClientBuilder.newClient();
-			try {
-				WebTarget target = client.target(serverUrl).path("~api/cluster/artifact")
-						.queryParam("projectId", build.getProject().getId())
-						.queryParam("buildNumber", build.getNumber())
-						.queryParam("artifactPath", normalizeArtifactPath(artifactPath));
-				Invocation.Builder builder = target.request();
-				builder.header(AUTHORIZATION, BEARER + " "
-						+ clusterManager.getCredential());
-
-				try (Response response = builder.get()) {
-					checkStatus(response);
-					try (InputStream is = response.readEntity(InputStream.class)) {
-						copy(is, output, BUFFER_SIZE);
-					} finally {
-						output.close();
-					}
+		String activeServer = projectManager.getActiveServer(
+				build.getProject().getId(), true);
+		String serverUrl = clusterManager.getServerUrl(activeServer);
+		Client client = ClientBuilder.newClient();
+		Response response = null;
+		boolean streaming = false;
+		try {
+			WebTarget target = client.target(serverUrl).path("~api/cluster/artifact")
+					.queryParam("projectId", build.getProject().getId())
+					.queryParam("buildNumber", build.getNumber())
+					.queryParam("artifactPath", normalizeArtifactPath(artifactPath));
+			Invocation.Builder builder = target.request();
+			builder.header(AUTHORIZATION, BEARER + " "
+					+ clusterManager.getCredential());
+			if (range != null)
+				builder.header(RANGE, range);
+			if (ifRange != null)
+				builder.header(IF_RANGE, ifRange);
+
+			response = builder.get();
+			int status = response.getStatus();
+			if (status == REQUESTED_RANGE_NOT_SATISFIABLE.getStatusCode()) {
+				return status(REQUESTED_RANGE_NOT_SATISFIABLE)
+						.header(CONTENT_RANGE, response.getHeaderString(CONTENT_RANGE))
+						.build();
+			} else if (status != PARTIAL_CONTENT.getStatusCode()) {
+				checkStatus(response);
+			}
+			
+			Response remoteResponse = response;
+			StreamingOutput os = output -> {
+				try (InputStream is = remoteResponse.readEntity(InputStream.class)) {
+					copy(is, output, BUFFER_SIZE);
+				} finally {
+					output.close();
+					remoteResponse.close();
+					client.close();
 				}
-			} finally {
+			};
+			Response.ResponseBuilder responseBuilder = status(status).entity(os);
+			for (String header: new String[] {CONTENT_LENGTH, CONTENT_RANGE, ACCEPT_RANGES, ETAG}) {
+				String value = response.getHeaderString(header);
+				if (value != null)
+					responseBuilder.header(header, value);
+			}
+			streaming = true;
+			return responseBuilder.build();
+		} finally {
+			if (!streaming) {
+				if (response != null)
+					response.close();
 				client.close();
 			}
-		};
+		}
 	}
 
 	@Api(order=300, description = "Upload artifact to specified path")
@@ -164,6 +202,89 @@ public class ArtifactResource {
 		return ok().build();
 	}
 	
+	@Api(order=310, description = "Upload a chunk of artifact to specified path. Range of the chunk is specified via "
+			+ "<code>Content-Range</code> header, for instance <code>bytes 0-1048575/5000000</code>. Chunks can be "
+			+ "uploaded in any order and in parallel, and the artifact is published after all chunks are received. "
+			+ "Status of the upload is returned")
+	@Path("/{buildId}/contents/{artifactPath:(.*)}")
+	@PUT
+	@Consumes(APPLICATION_OCTET_STREAM)
+	public Response uploadArtifactChunk(
+			@PathParam("buildId") Long buildId, 
+			@PathParam("artifactPath") @Api(example = "path/to/file") String artifactPath, 
+			@HeaderParam(CONTENT_RANGE) @Api(example = "bytes 0-1048575/5000000") String contentRange, 
+			InputStream input) {
+		Build build = buildManager.load(buildId);
+		if (!SecurityUtils.canManage(build))
+			throw new UnauthorizedException();
+		
+		artifactPath = normalizeArtifactPath(artifactPath);
+		if (artifactPath == null)
+			throw new ExplicitException("Artifact path should be specified");
+		if (contentRange == null)
+			throw new ExplicitException("Header '" + CONTENT_RANGE + "' should be specified");
+		try {
+			parseContentRange(contentRange);
+		} catch (IllegalArgumentException e) {
+			throw new ExplicitException(e.getMessage());
+		}
+
+		String activeServer = projectManager.getActiveServer(
+				build.getProject().getId(), true);
+		String serverUrl = clusterManager.getServerUrl(activeServer);
+
+		Client client = ClientBuilder.newClient();
+		client.property(ClientProperties.REQUEST_ENTITY_PROCESSING, "CHUNKED");
+		try {
+			WebTarget target = client.target(serverUrl)
+					.path("~api/cluster/artifact")
+					.queryParam("projectId", build.getProject().getId())
+					.queryParam("buildNumber", build.getNumber())
+					.queryParam("artifactPath", artifactPath);
+			Invocation.Builder builder = target.request();
+			builder.header(AUTHORIZATION, BEARER + " " + clusterManager.getCredential());
+			builder.header(CONTENT_RANGE, contentRange);
+
+			StreamingOutput os = output -> {
+				try {
+					copy(input, output, BUFFER_SIZE);
+				} finally {
+					input.close();
+					output.close();
+				}
+			};
+
+			try (Response response = builder.put(entity(os, APPLICATION_OCTET_STREAM))) {
+				checkStatus(response);
+				return ok(response.readEntity(String.class), MediaType.APPLICATION_JSON).build();
+			}
+		} finally {
+			client.close();
+		}
+	}
+	
+	@Api(order=320, description = "Get status of chunked upload of specified artifact. Received ranges are "
+			+ "returned so that an interrupted upload can be resumed by uploading missing chunks")
+	@Path("/{buildId}/uploads/{artifactPath:(.*)}")
+	@GET
+	public UploadStatus getArtifactUploadStatus(
+			@PathParam("buildId") Long buildId, 
+			@PathParam("artifactPath") @Api(example = "path/to/file") String artifactPath) {
+		Build build = buildManager.load(buildId);
+		if (!SecurityUtils.canManage(build))
+			throw new UnauthorizedException();
+		
+		String normalizedPath = normalizeArtifactPath(artifactPath);
+		if (normalizedPath == null)
+			throw new ExplicitException("Artifact path should be specified");
+		Long projectId = build.getProject().getId();
+		Long buildNumber = build.getNumber();
+		return projectManager.runOnActiveServer(projectId, () -> {
+			var uploadDir = Build.getArtifactUploadDir(projectId, buildNumber, normalizedPath);
+			return new ResumableUpload(uploadDir).getStatus();
+		});
+	}
+	
 	@Api(order=400, description = "Delete artifact of specified path, or delete all artifacts " +
 			"if artifact path is not specified")
 	@Path("/{buildId}{artifactPath:(/.*)?}")
@@ -4,6 +4,8 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
@@ -27,6 +29,8 @@ import io.onedev.server.model.Build;
 import io.onedev.server.model.BuildDependence;
 import io.onedev.server.model.BuildParam;
 import io.onedev.server.buildspecmodel.inputspec.SecretInput;
+import io.onedev.server.job.log.LogManager;
+import io.onedev.server.job.log.LogMatch;
 import io.onedev.server.rest.annotation.Api;
 import io.onedev.server.rest.exception.InvalidParamException;
 import io.onedev.server.rest.support.RestConstants;
@@ -42,11 +46,16 @@ import io.onedev.server.security.SecurityUtils;
 @Singleton
 public class BuildResource {
 
+	private static final int MAX_LOG_CONTEXT_LINES = 100;
+	
 	private final BuildManager buildManager;
 	
+	private final LogManager logManager;
+	
 	@Inject
-	public BuildResource(BuildManager buildManager) {
+	public BuildResource(BuildManager buildManager, LogManager logManager) {
 		this.buildManager = buildManager;
+		this.logManager = logManager;
 	}
 
 	@Api(order=100)
@@ -116,6 +125,34 @@ public class BuildResource {
     	return build.getFixedIssueIds();
     }
 	
+	@Api(order=550, description="Search build log for entries matching specified regular expression")
+	@Path("/{buildId}/log-matches")
+	@GET
+	public List<LogMatch> searchLog(
+			@PathParam("buildId") Long buildId, 
+			@QueryParam("pattern") @Api(description="Regular expression to find in log entries", example="BUILD FAILURE") String pattern, 
+			@QueryParam("contextLines") @Api(description="Number of log entries to include before and after each match", example="3") int contextLines, 
+			@QueryParam("maxMatches") @Api(example="100") int maxMatches) {
+		Build build = buildManager.load(buildId);
+		if (!SecurityUtils.canAccessLog(build))
+			throw new UnauthorizedException();
+		
+		if (!SecurityUtils.isAdministrator() && maxMatches > RestConstants.MAX_PAGE_SIZE)
+			throw new InvalidParamException("Max matches should not be greater than " + RestConstants.MAX_PAGE_SIZE);
+		if (contextLines < 0 || contextLines > MAX_LOG_CONTEXT_LINES)
+			throw new InvalidParamException("Context lines should be between 0 and " + MAX_LOG_CONTEXT_LINES);
+		
+		if (pattern == null)
+			throw new InvalidParamException("Pattern should be specified");
+		Pattern parsedPattern;
+		try {
+			parsedPattern = Pattern.compile(pattern);
+		} catch (PatternSyntaxException e) {
+			throw new InvalidParamException("Error parsing pattern", e);
+		}
+		return logManager.search(build, parsedPattern, contextLines, maxMatches);
+	}
+	
 	@Api(order=600)
 	@GET
     public List<Build> queryBasicInfo(
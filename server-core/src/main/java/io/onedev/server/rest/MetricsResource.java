@@ -0,0 +1,281 @@
+package io.onedev.server.rest;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+
+import org.apache.shiro.authz.UnauthorizedException;
+
+import io.onedev.server.cluster.ClusterManager;
+import io.onedev.server.git.GitRoutingStats;
+import io.onedev.server.git.UploadPackCacheStats;
+import io.onedev.server.job.ResourceAllocator;
+import io.onedev.server.job.ResourceQueueStats;
+import io.onedev.server.job.log.LogManager;
+import io.onedev.server.manager.GitRoutingManager;
+import io.onedev.server.manager.ProjectManager;
+import io.onedev.server.manager.UploadPackCacheManager;
+import io.onedev.server.rest.annotation.Api;
+import io.onedev.server.security.SecurityUtils;
+import io.onedev.server.util.concurrent.BatchWorkManager;
+import io.onedev.server.util.concurrent.BatchWorkStats;
+import io.onedev.server.util.concurrent.Histogram;
+import io.onedev.server.util.concurrent.WorkExecutor;
+import io.onedev.server.util.concurrent.WorkExecutorStats;
+import io.onedev.server.util.facade.ProjectFacade;
+import io.onedev.server.util.lucene.LuceneIndexManager;
+import io.onedev.server.util.lucene.LuceneIndexStats;
+
+@Api(order=10600, description="Metrics of the server serving the request in Prometheus text format. "
+		+ "Each server of a cluster should be scraped separately")
+@Path("/metrics")
+@Produces("text/plain; version=0.0.4; charset=utf-8")
+@Singleton
+public class MetricsResource {
+
+	private final WorkExecutor workExecutor;
+
+	private final BatchWorkManager batchWorkManager;
+
+	private final LogManager logManager;
+
+	private final ClusterManager clusterManager;
+
+	private final LuceneIndexManager luceneIndexManager;
+
+	private final ResourceAllocator resourceAllocator;
+
+	private final UploadPackCacheManager uploadPackCacheManager;
+
+	private final GitRoutingManager gitRoutingManager;
+
+	private final ProjectManager projectManager;
+
+	@Inject
+	public MetricsResource(WorkExecutor workExecutor, BatchWorkManager batchWorkManager,
+			LogManager logManager, ClusterManager clusterManager, LuceneIndexManager luceneIndexManager, 
+			ResourceAllocator resourceAllocator, UploadPackCacheManager uploadPackCacheManager, 
+			GitRoutingManager gitRoutingManager, ProjectManager projectManager) {
+		this.workExecutor = workExecutor;
+		this.batchWorkManager = batchWorkManager;
+		this.logManager = logManager;
+		this.clusterManager = clusterManager;
+		this.luceneIndexManager = luceneIndexManager;
+		this.resourceAllocator = resourceAllocator;
+		this.uploadPackCacheManager = uploadPackCacheManager;
+		this.gitRoutingManager = gitRoutingManager;
+		this.projectManager = projectManager;
+	}
+
+	@Api(order=100)
+	@GET
+	public String getMetrics() {
+		if (!SecurityUtils.isAdministrator())
+			throw new UnauthorizedException();
+
+		Writer writer = new Writer(clusterManager.getLocalServerAddress());
+
+		WorkExecutorStats executorStats = workExecutor.getStats();
+		writer.gauge("onedev_work_executor_concurrency",
+				"Max number of work groups allowed to run concurrently",
+				executorStats.getConcurrency());
+		writer.gauge("onedev_work_executor_running_groups",
+				"Number of running work groups", executorStats.getNumOfRunningGroups());
+		writer.gauge("onedev_work_executor_running_works",
+				"Number of running works", executorStats.getNumOfRunningWorks());
+		writer.gauge("onedev_work_executor_waiting_groups",
+				"Number of work groups waiting for a free slot", executorStats.getNumOfWaitingGroups());
+		writer.gauge("onedev_work_executor_waiting_works",
+				"Number of works waiting for a free slot", executorStats.getNumOfWaitingWorks());
+		writer.gauge("onedev_work_executor_oldest_waiting_seconds",
+				"Seconds the longest waiting work group has been waiting",
+				executorStats.getOldestWaitingAge() / 1000.0);
+		writer.gauge("onedev_work_executor_saturation",
+				"Ratio of running work groups against concurrency", executorStats.getSaturation());
+		writer.histogram("onedev_work_executor_wait_seconds",
+				"Seconds works wait before being started", executorStats.getWaitTimes(), 1000);
+		writer.histogram("onedev_work_executor_execution_seconds",
+				"Seconds works take to run", executorStats.getExecutionTimes(), 1000);
+
+		// Samples of a metric family should be grouped together, so write family by family
+		Map<Map<String, String>, BatchWorkStats> batchStats = new LinkedHashMap<>();
+		for (BatchWorkStats stats: batchWorkManager.getStats())
+			batchStats.put(labels("category", stats.getCategory()), stats);
+		writer.gauge("onedev_batch_work_active_workers", "Number of workers having queued or working works",
+				batchStats, BatchWorkStats::getNumOfActiveWorkers);
+		writer.gauge("onedev_batch_work_queued_works", "Number of queued works",
+				batchStats, BatchWorkStats::getNumOfQueuedWorks);
+		writer.gauge("onedev_batch_work_working_works", "Number of works being worked on",
+				batchStats, BatchWorkStats::getNumOfWorkingWorks);
+		writer.gauge("onedev_batch_work_oldest_queued_seconds", "Seconds the oldest queued work has been waiting",
+				batchStats, it -> it.getOldestQueuedAge() / 1000.0);
+		writer.counter("onedev_batch_work_failed_batches_total", "Number of batches failed with exception",
+				batchStats, BatchWorkStats::getNumOfFailedBatches);
+		writer.histogram("onedev_batch_work_batch_size", "Number of works in a batch",
+				batchStats, BatchWorkStats::getBatchSizes, 1);
+		writer.histogram("onedev_batch_work_execution_seconds", "Seconds batches take to run",
+				batchStats, BatchWorkStats::getExecutionTimes, 1000);
+
+		writer.gauge("onedev_build_log_queued_entries",
+				"Number of build log entries waiting to be written", logManager.getNumOfQueuedEntries());
+		writer.counter("onedev_build_log_backpressured_entries_total",
+				"Number of build log entries written synchronously due to full queue",
+				logManager.getNumOfBackpressuredEntries());
+
+		LuceneIndexStats luceneStats = luceneIndexManager.getStats();
+		writer.gauge("onedev_lucene_open_indexes",
+				"Number of Lucene indexes kept open", luceneStats.getNumOfOpenIndexes());
+		writer.gauge("onedev_lucene_open_writers",
+				"Number of Lucene index writers kept open", luceneStats.getNumOfOpenWriters());
+		writer.gauge("onedev_lucene_uncommitted_indexes",
+				"Number of Lucene indexes having uncommitted changes", luceneStats.getNumOfUncommittedIndexes());
+		writer.histogram("onedev_lucene_refresh_seconds",
+				"Seconds taken to refresh near real-time searchers", luceneStats.getRefreshTimes(), 1000);
+		writer.histogram("onedev_lucene_commit_seconds",
+				"Seconds taken to commit Lucene indexes", luceneStats.getCommitTimes(), 1000);
+
+		Map<Map<String, String>, ResourceQueueStats> queueStats = new LinkedHashMap<>();
+		for (ResourceQueueStats stats: resourceAllocator.getQueueStats())
+			queueStats.put(labels("executor", stats.getResourceType()), stats);
+		writer.gauge("onedev_resource_queued_requests", "Number of jobs waiting for executor resources",
+				queueStats, ResourceQueueStats::getNumOfQueuedRequests);
+		writer.histogram("onedev_resource_wait_seconds", "Seconds jobs waited for executor resources",
+				queueStats, ResourceQueueStats::getWaitTimes, 1000);
+
+		UploadPackCacheStats cacheStats = uploadPackCacheManager.getStats();
+		writer.gauge("onedev_upload_pack_cache_entries",
+				"Number of cached upload-pack responses", cacheStats.getNumOfEntries());
+		writer.gauge("onedev_upload_pack_cache_size_bytes",
+				"Total size of cached upload-pack responses", cacheStats.getCacheSize());
+		writer.counter("onedev_upload_pack_cache_hits_total",
+				"Number of upload-pack requests served from cache", cacheStats.getNumOfHits());
+		writer.counter("onedev_upload_pack_cache_misses_total",
+				"Number of cacheable upload-pack requests not found in cache", cacheStats.getNumOfMisses());
+		writer.counter("onedev_upload_pack_cache_bypasses_total",
+				"Number of upload-pack requests not cacheable", cacheStats.getNumOfBypasses());
+		writer.counter("onedev_upload_pack_cache_served_bytes_total",
+				"Bytes of upload-pack responses served from cache", cacheStats.getServedBytes());
+
+		Map<Map<String, String>, GitRoutingStats> routingStats = new LinkedHashMap<>();
+		for (GitRoutingStats stats: gitRoutingManager.getStats()) {
+			ProjectFacade project = projectManager.findFacadeById(stats.getProjectId());
+			if (project != null)
+				routingStats.put(labels("project", project.getPath()), stats);
+		}
+		writer.counter("onedev_git_fetches_local_total", "Number of git fetch requests served by this server",
+				routingStats, GitRoutingStats::getNumOfLocalFetches);
+		writer.counter("onedev_git_fetches_proxied_total", "Number of git fetch requests proxied to active server",
+				routingStats, GitRoutingStats::getNumOfProxiedFetches);
+
+		return writer.toString();
+	}
+
+	private static Map<String, String> labels(String name, String value) {
+		Map<String, String> labels = new LinkedHashMap<>();
+		labels.put(name, value);
+		return labels;
+	}
+
+	private static class Writer {
+
+		private final StringBuilder builder = new StringBuilder();
+
+		private final String server;
+
+		Writer(String server) {
+			this.server = server;
+		}
+
+		private void header(String name, String help, String type) {
+			builder.append("# HELP ").append(name).append(" ").append(help).append("\n");
+			builder.append("# TYPE ").append(name).append(" ").append(type).append("\n");
+		}
+
+		private void sample(String name, Map<String, String> labels, Object value) {
+			builder.append(name).append("{server=\"").append(escape(server)).append("\"");
+			for (Map.Entry<String, String> entry: labels.entrySet())
+				builder.append(",").append(entry.getKey()).append("=\"").append(escape(entry.getValue())).append("\"");
+			builder.append("} ").append(value).append("\n");
+		}
+
+		void gauge(String name, String help, Object value) {
+			header(name, help, "gauge");
+			sample(name, new LinkedHashMap<>(), value);
+		}
+
+		/**
+		 * Write a gauge family with one sample for each labels
+		 */
+		<T> void gauge(String name, String help, Map<Map<String, String>, T> samples, Function<T, Object> value) {
+			header(name, help, "gauge");
+			for (Map.Entry<Map<String, String>, T> entry: samples.entrySet())
+				sample(name, entry.getKey(), value.apply(entry.getValue()));
+		}
+
+		void counter(String name, String help, Object value) {
+			header(name, help, "counter");
+			sample(name, new LinkedHashMap<>(), value);
+		}
+
+		/**
+		 * Write a counter family with one sample for each labels
+		 */
+		<T> void counter(String name, String help, Map<Map<String, String>, T> samples, Function<T, Object> value) {
+			header(name, help, "counter");
+			for (Map.Entry<Map<String, String>, T> entry: samples.entrySet())
+				sample(name, entry.getKey(), value.apply(entry.getValue()));
+		}
+
+		/**
+		 * @param divisor
+		 * 			divisor to convert recorded values to unit of the metric, for
+		 * 			instance 1000 to convert milliseconds to seconds
+		 */
+		void histogram(String name, String help, Histogram.Snapshot snapshot, double divisor) {
+			header(name, help, "histogram");
+			histogramSamples(name, new LinkedHashMap<>(), snapshot, divisor);
+		}
+
+		/**
+		 * Write a histogram family with one histogram for each labels
+		 */
+		<T> void histogram(String name, String help, Map<Map<String, String>, T> samples,
+				Function<T, Histogram.Snapshot> snapshot, double divisor) {
+			header(name, help, "histogram");
+			for (Map.Entry<Map<String, String>, T> entry: samples.entrySet())
+				histogramSamples(name, entry.getKey(), snapshot.apply(entry.getValue()), divisor);
+		}
+
+		private void histogramSamples(String name, Map<String, String> labels,
+				Histogram.Snapshot snapshot, double divisor) {
+			long[] bounds = snapshot.getBounds();
+			long[] counts = snapshot.getCounts();
+			long accumulated = 0;
+			for (int i=0; i<counts.length; i++) {
+				accumulated += counts[i];
+				Map<String, String> bucketLabels = new LinkedHashMap<>(labels);
+				bucketLabels.put("le", i<bounds.length? String.valueOf(bounds[i] / divisor): "+Inf");
+				sample(name + "_bucket", bucketLabels, accumulated);
+			}
+			sample(name + "_sum", labels, snapshot.getSum() / divisor);
+			sample(name + "_count", labels, accumulated);
+		}
+
+		private String escape(String value) {
+			return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+		}
+
+		@Override
+		public String toString() {
+			return builder.toString();
+		}
+
+	}
+
+}
@@ -7,6 +7,8 @@ import io.onedev.server.manager.UrlManager;
 import io.onedev.server.git.GitContribution;
 import io.onedev.server.git.GitContributor;
 import io.onedev.server.infomanager.CommitInfoManager;
+import io.onedev.server.job.log.LogManager;
+import io.onedev.server.job.log.LogStorageStats;
 import io.onedev.server.model.*;
 import io.onedev.server.model.support.NamedCodeCommentQuery;
 import io.onedev.server.model.support.NamedCommitQuery;
@@ -57,13 +59,16 @@ public class ProjectResource {
 	
 	private final UrlManager urlManager;
 	
+	private final LogManager logManager;
+	
 	@Inject
 	public ProjectResource(ProjectManager projectManager, MilestoneManager milestoneManager, 
-			CommitInfoManager commitInfoManager, UrlManager urlManager) {
+			CommitInfoManager commitInfoManager, UrlManager urlManager, LogManager logManager) {
 		this.projectManager = projectManager;
 		this.milestoneManager = milestoneManager;
 		this.commitInfoManager = commitInfoManager;
 		this.urlManager = urlManager;
+		this.logManager = logManager;
 	}
 	
 	@Api(order=100)
@@ -239,6 +244,16 @@ public class ProjectResource {
     			count, type, sinceDay.getValue(), untilDay.getValue());
     }
 	
+	@Api(order=770, description="Get storage statistics of build logs, including size saved by archiving logs of finished builds")
+	@Path("/{projectId}/build-log-storage-stats")
+	@GET
+	public LogStorageStats getBuildLogStorageStats(@PathParam("projectId") Long projectId) {
+		Project project = projectManager.load(projectId);
+		if (!SecurityUtils.canManage(project))
+			throw new UnauthorizedException();
+		return logManager.getStorageStats(projectId);
+	}
+	
 	@SuppressWarnings("unused")
 	private static String getDateExample() {
 		return DateUtils.formatISO8601Date(new Date());
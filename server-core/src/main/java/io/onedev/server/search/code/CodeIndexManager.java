@@ -1,7 +1,11 @@
 package io.onedev.server.search.code;
 
+import java.util.BitSet;
+
 import javax.annotation.Nullable;
 
+import org.apache.lucene.search.IndexSearcher;
+import org.eclipse.jgit.lib.AnyObjectId;
 import org.eclipse.jgit.lib.ObjectId;
 
 import io.onedev.commons.jsymbol.Symbol;
@@ -15,4 +19,15 @@ public interface CodeIndexManager {
 	
 	String getIndexVersion(@Nullable SymbolExtractor<Symbol> extractor);
 	
+	/**
+	 * Get ordinals of blobs contained in specified commit
+	 * 
+	 * @return
+	 * 			bit set of ordinals of blob documents (stored in field {@link FieldConstants#BLOB_ORDINAL}) 
+	 * 			contained in specified commit, or <tt>null</tt> if this information is not available 
+	 * 			for the commit, for instance commit not indexed or not indexed recently
+	 */
+	@Nullable
+	BitSet getCommitBlobs(IndexSearcher searcher, AnyObjectId commitId);
+	
 }
@@ -1,5 +1,6 @@
 package io.onedev.server.search.code;
 
+import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Splitter;
 import io.onedev.commons.jsymbol.Symbol;
@@ -9,10 +10,13 @@ import io.onedev.commons.loader.ManagedSerializedForm;
 import io.onedev.commons.utils.ExceptionUtils;
 import io.onedev.commons.utils.FileUtils;
 import io.onedev.commons.utils.StringUtils;
+import io.onedev.server.cluster.ClusterManager;
 import io.onedev.server.cluster.ClusterTask;
 import io.onedev.server.manager.ProjectManager;
+import io.onedev.server.manager.SettingManager;
 import io.onedev.server.event.Listen;
 import io.onedev.server.event.ListenerRegistry;
+import io.onedev.server.event.entity.EntityRemoved;
 import io.onedev.server.event.project.CommitIndexed;
 import io.onedev.server.event.project.RefUpdated;
 import io.onedev.server.event.system.SystemStarted;
@@ -20,11 +24,14 @@ import io.onedev.server.git.GitUtils;
 import io.onedev.server.model.Project;
 import io.onedev.server.persistence.SessionManager;
 import io.onedev.server.persistence.annotation.Sessional;
+import io.onedev.server.persistence.annotation.Transactional;
 import io.onedev.server.util.ContentDetector;
 import io.onedev.server.util.IndexResult;
 import io.onedev.server.util.concurrent.BatchWorkManager;
 import io.onedev.server.util.concurrent.BatchWorker;
+import io.onedev.server.util.concurrent.BoundedExecution;
 import io.onedev.server.util.concurrent.Prioritized;
+import io.onedev.server.util.lucene.LuceneIndexManager;
 import io.onedev.server.util.match.Matcher;
 import io.onedev.server.util.match.PathMatcher;
 import io.onedev.server.util.patternset.PatternSet;
@@ -33,11 +40,11 @@ import org.apache.commons.lang.SerializationUtils;
 import org.apache.lucene.document.*;
 import org.apache.lucene.document.Field.Store;
 import org.apache.lucene.index.*;
-import org.apache.lucene.index.IndexWriterConfig.OpenMode;
 import org.apache.lucene.search.BooleanClause.Occur;
 import org.apache.lucene.search.*;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.Bits;
 import org.apache.lucene.util.BytesRef;
 import org.apache.wicket.request.cycle.RequestCycle;
 import org.eclipse.jgit.lib.*;
@@ -47,14 +54,24 @@ import org.eclipse.jgit.treewalk.filter.TreeFilter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 import java.io.File;
 import java.io.IOException;
 import java.io.ObjectStreamException;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
 import static io.onedev.server.search.code.FieldConstants.*;
@@ -69,7 +86,13 @@ public class DefaultCodeIndexManager implements CodeIndexManager, Serializable {
 	
 	private static final int BACKEND_INDEXING_PRIORITY = 90;
 	
-	private static final int DATA_VERSION = 7;
+	private static final int DATA_VERSION = 10;
+	
+	private static final int MAX_PENDING_BLOB_BYTES = 64*1024*1024;
+	
+	private static final int LOOKUP_BATCH_SIZE = 1000;
+	
+	private static final int MAX_COMMITS_WITH_BLOBS = 100;
 	
 	private final BatchWorkManager batchWorkManager;
 	
@@ -79,13 +102,27 @@ public class DefaultCodeIndexManager implements CodeIndexManager, Serializable {
 	
 	private final ListenerRegistry listenerRegistry;
 	
+	private final LuceneIndexManager luceneIndexManager;
+	
+	private final ClusterManager clusterManager;
+	
+	private final SettingManager settingManager;
+	
+	private final ExecutorService executorService;
+	
 	@Inject
 	public DefaultCodeIndexManager(ListenerRegistry listenerRegistry, BatchWorkManager batchWorkManager, 
-								   SessionManager sessionManager, ProjectManager projectManager) {
+								   SessionManager sessionManager, ProjectManager projectManager, 
+								   LuceneIndexManager luceneIndexManager, ClusterManager clusterManager, 
+								   SettingManager settingManager, ExecutorService executorService) {
 		this.listenerRegistry = listenerRegistry;
 		this.batchWorkManager = batchWorkManager;
 		this.sessionManager = sessionManager;
 		this.projectManager = projectManager;
+		this.luceneIndexManager = luceneIndexManager;
+		this.clusterManager = clusterManager;
+		this.settingManager = settingManager;
+		this.executorService = executorService;
 	}
 
 	public Object writeReplace() throws ObjectStreamException {
@@ -118,112 +155,208 @@ public class DefaultCodeIndexManager implements CodeIndexManager, Serializable {
 		return indexVersion.get();
 	}
 	
+	@Nullable
+	@Override
+	public BitSet getCommitBlobs(IndexSearcher searcher, AnyObjectId commitId) {
+		try {
+			TopDocs topDocs = searcher.search(COMMIT_HASH.getTermQuery(commitId.name()), 1);
+			if (topDocs.scoreDocs.length != 0) {
+				Document doc = searcher.doc(topDocs.scoreDocs[0].doc);
+				BytesRef bytesRef = doc.getBinaryValue(COMMIT_BLOBS.name());
+				if (bytesRef != null && getIndexVersion().equals(doc.get(COMMIT_INDEX_VERSION.name()))) 
+					return BitSet.valueOf(ByteBuffer.wrap(bytesRef.bytes, bytesRef.offset, bytesRef.length));
+			}
+			return null;
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	private int getNextBlobOrdinal(IndexSearcher searcher) throws IOException {
+		int nextBlobOrdinal = 0;
+		for (LeafReaderContext context: searcher.getIndexReader().leaves()) {
+			PointValues values = context.reader().getPointValues(BLOB_ORDINAL.name());
+			if (values != null) {
+				int maxBlobOrdinal = IntPoint.decodeDimension(values.getMaxPackedValue(), 0);
+				nextBlobOrdinal = Math.max(nextBlobOrdinal, maxBlobOrdinal + 1);
+			}
+		}
+		return nextBlobOrdinal;
+	}
+	
 	private IndexResult index(Repository repository, AnyObjectId commitId, IndexWriter writer, 
-			IndexSearcher searcher, PatternSet filePatterns) throws Exception {
+			@Nullable IndexSearcher searcher, PatternSet filePatterns, 
+			Set<String> keptCommitHashes) throws Exception {
 		try (	RevWalk revWalk = new RevWalk(repository); 
 				TreeWalk treeWalk = new TreeWalk(repository)) {
 			treeWalk.addTree(revWalk.parseCommit(commitId).getTree());
 			treeWalk.setRecursive(true);
 			
+			BitSet commitBlobs = null;
+			List<String> recentCommitHashes = new ArrayList<>();
+			recentCommitHashes.add(commitId.name());
 			if (searcher != null) {
 				TopDocs topDocs = searcher.search(META.getTermQuery(LAST_COMMIT.name()), 1);
 				if (topDocs.scoreDocs.length != 0) {
 					Document doc = searcher.doc(topDocs.scoreDocs[0].doc);
 					String lastCommitIndexVersion = doc.get(LAST_COMMIT_INDEX_VERSION.name());
 					if (lastCommitIndexVersion.equals(getIndexVersion())) {
+						String recentCommitHashesValue = doc.get(RECENT_COMMIT_HASHES.name());
+						if (recentCommitHashesValue != null) {
+							for (String hash: Splitter.on(',').omitEmptyStrings().split(recentCommitHashesValue)) {
+								if (!hash.equals(commitId.name()))
+									recentCommitHashes.add(hash);
+							}
+						}
 						String lastCommitHash = doc.get(LAST_COMMIT_HASH.name());
 						ObjectId lastCommitId = ObjectId.fromString(lastCommitHash);
-						if (repository.getObjectDatabase().has(lastCommitId)) { 
-							treeWalk.addTree(revWalk.parseCommit(lastCommitId).getTree());
-							treeWalk.setFilter(TreeFilter.ANY_DIFF);
+						if (repository.getObjectDatabase().has(lastCommitId)) {
+							// Blobs of this commit can only be derived from last commit if we know blobs 
+							// of last commit
+							commitBlobs = getCommitBlobs(searcher, lastCommitId);
+							if (commitBlobs != null) {
+								treeWalk.addTree(revWalk.parseCommit(lastCommitId).getTree());
+								treeWalk.setFilter(TreeFilter.ANY_DIFF);
+							}
 						}
 					}
 				}
 			}
+			if (commitBlobs == null)
+				commitBlobs = new BitSet();
 	
+			/*
+			 * Tree is walked on current thread and changed blobs are resolved in batches, while 
+			 * blob loading, symbol extraction and document construction run in parallel feeding 
+			 * the thread-safe index writer
+			 */
+			int parallelism = Math.max(1, settingManager.getPerformanceSetting().getCodeIndexParallelism());
 			Matcher matcher = new PathMatcher();
-			int indexed = 0;
-			int checked = 0;
-			while (treeWalk.next()) {
-				if ((treeWalk.getRawMode(0) & FileMode.TYPE_MASK) == FileMode.TYPE_FILE 
-						&& (treeWalk.getTreeCount() == 1 || !treeWalk.idEqual(0, 1))) {
-					String blobPath = treeWalk.getPathString();
-					
-					if (filePatterns.matches(matcher, blobPath)) {
-						ObjectId blobId = treeWalk.getObjectId(0);
-						String blobName = treeWalk.getNameString();
-						
-						BooleanQuery.Builder builder = new BooleanQuery.Builder();
-						builder.add(BLOB_HASH.getTermQuery(blobId.name()), Occur.MUST);
-						builder.add(BLOB_PATH.getTermQuery(blobPath), Occur.MUST);
-						BooleanQuery query = builder.build();
-						
-						final AtomicReference<String> blobIndexVersionRef = new AtomicReference<>(null);
-						if (searcher != null) {
-							searcher.search(query, new SimpleCollector() {
-		
-								private LeafReaderContext context;
-		
-								@Override
-								public void collect(int doc) throws IOException {
-									blobIndexVersionRef.set(searcher.doc(context.docBase+doc).get(BLOB_INDEX_VERSION.name()));
-								}
-		
-								@Override
-								protected void doSetNextReader(LeafReaderContext context) throws IOException {
-									this.context = context;
-								}
-		
-								@Override
-								public ScoreMode scoreMode() {
-									return ScoreMode.COMPLETE_NO_SCORES;
-								}
-								
-							});
-							checked++;
-						}
-		
-						SymbolExtractor<Symbol> extractor = SymbolExtractorRegistry.getExtractor(blobName);
-						String currentBlobIndexVersion = getIndexVersion(extractor);
-						String blobIndexVersion = blobIndexVersionRef.get();
-						if (blobIndexVersion != null) {
-							if (!blobIndexVersion.equals(currentBlobIndexVersion)) {
-								writer.deleteDocuments(query);
-								indexBlob(writer, repository, extractor, blobId, blobPath);
-								indexed++;
+			BlobIndexer blobIndexer;
+			try (	ObjectReader reader = repository.newObjectReader();
+					BoundedExecution execution = new BoundedExecution(executorService, 
+							parallelism, MAX_PENDING_BLOB_BYTES)) {
+				blobIndexer = new BlobIndexer(repository, reader, writer, searcher, execution, commitBlobs);
+				while (treeWalk.next()) {
+					if (treeWalk.getTreeCount() == 1 || !treeWalk.idEqual(0, 1)) {
+						String blobPath = treeWalk.getPathString();
+						if (filePatterns.matches(matcher, blobPath)) {
+							if ((treeWalk.getRawMode(0) & FileMode.TYPE_MASK) == FileMode.TYPE_FILE)
+								blobIndexer.add(new IndexingBlob(treeWalk.getObjectId(0), blobPath, false));
+							if (treeWalk.getTreeCount() == 2 
+									&& (treeWalk.getRawMode(1) & FileMode.TYPE_MASK) == FileMode.TYPE_FILE) {
+								blobIndexer.add(new IndexingBlob(treeWalk.getObjectId(1), blobPath, true));
 							}
-						} else {
-							indexBlob(writer, repository, extractor, blobId, blobPath);
-							indexed++;
 						}
 					}
-					
 				}
+				blobIndexer.flush();
+				execution.await();
 			}
 	
-			// record current commit so that we know which commit has been indexed
+			// record current commit along with its blobs so that we know which commit has been 
+			// indexed, and search can tell blobs of this commit without walking its tree
 			Document document = new Document();
 			document.add(new StringField(COMMIT_HASH.name(), commitId.getName(), Store.NO));
 			document.add(new StoredField(COMMIT_INDEX_VERSION.name(), getIndexVersion()));
+			document.add(new StoredField(COMMIT_BLOBS.name(), commitBlobs.toByteArray()));
 			writer.updateDocument(COMMIT_HASH.getTerm(commitId.getName()), document);
 			
+			// only keep blobs of recently indexed commits and heads of kept branches to limit 
+			// index size. Search against other commits will fall back to check blobs by walking 
+			// commit tree
+			int index = recentCommitHashes.size() - 1;
+			while (recentCommitHashes.size() > MAX_COMMITS_WITH_BLOBS && index > 0) {
+				String commitHash = recentCommitHashes.get(index--);
+				if (keptCommitHashes.contains(commitHash))
+					continue;
+				recentCommitHashes.remove(commitHash);
+				document = new Document();
+				document.add(new StringField(COMMIT_HASH.name(), commitHash, Store.NO));
+				document.add(new StoredField(COMMIT_INDEX_VERSION.name(), getIndexVersion()));
+				writer.updateDocument(COMMIT_HASH.getTerm(commitHash), document);
+			}
+			
 			// record last commit so that we only need to indexing changed files for subsequent commits
 			document = new Document();
 			document.add(new StringField(META.name(), LAST_COMMIT.name(), Store.NO));
 			document.add(new StoredField(LAST_COMMIT_INDEX_VERSION.name(), getIndexVersion()));
 			document.add(new StoredField(LAST_COMMIT_HASH.name(), commitId.getName()));
+			document.add(new StoredField(RECENT_COMMIT_HASHES.name(), Joiner.on(',').join(recentCommitHashes)));
 			writer.updateDocument(META.getTerm(LAST_COMMIT.name()), document);
 			
-			return new IndexResult(checked, indexed);
+			return new IndexResult(blobIndexer.checked, blobIndexer.indexed.get());
 		}
 	}
 	
-	private void indexBlob(IndexWriter writer, Repository repository, 
-			SymbolExtractor<Symbol> extractor, ObjectId blobId, String blobPath) throws IOException {
+	/**
+	 * Resolve index versions and ordinals of specified blobs with one pass over each index 
+	 * segment instead of querying them one by one. Documents of all blob hashes are collected 
+	 * via sorted term seeks first, and then their paths, index versions and ordinals are read 
+	 * from doc values in doc order without loading stored fields
+	 */
+	private void resolveBlobs(IndexSearcher searcher, List<IndexingBlob> blobs) throws IOException {
+		Map<BytesRef, List<IndexingBlob>> blobsByHash = new TreeMap<>();
+		for (IndexingBlob blob: blobs) 
+			blobsByHash.computeIfAbsent(new BytesRef(blob.id.name()), it -> new ArrayList<>()).add(blob);
+		
+		for (LeafReaderContext context: searcher.getIndexReader().leaves()) {
+			LeafReader reader = context.reader();
+			Terms terms = reader.terms(BLOB_HASH.name());
+			if (terms == null)
+				continue;
+			
+			Bits liveDocs = reader.getLiveDocs();
+			TermsEnum termsEnum = terms.iterator();
+			PostingsEnum postingsEnum = null;
+			TreeMap<Integer, List<IndexingBlob>> candidates = new TreeMap<>();
+			for (Map.Entry<BytesRef, List<IndexingBlob>> entry: blobsByHash.entrySet()) {
+				if (termsEnum.seekExact(entry.getKey())) {
+					postingsEnum = termsEnum.postings(postingsEnum, PostingsEnum.NONE);
+					int doc;
+					while ((doc = postingsEnum.nextDoc()) != DocIdSetIterator.NO_MORE_DOCS) {
+						if (liveDocs == null || liveDocs.get(doc))
+							candidates.put(doc, entry.getValue());
+					}
+				}
+			}
+			
+			if (!candidates.isEmpty()) {
+				BinaryDocValues pathValues = DocValues.getBinary(reader, BLOB_PATH.name());
+				SortedDocValues versionValues = DocValues.getSorted(reader, BLOB_INDEX_VERSION.name());
+				NumericDocValues ordinalValues = DocValues.getNumeric(reader, BLOB_ORDINAL.name());
+				for (Map.Entry<Integer, List<IndexingBlob>> entry: candidates.entrySet()) {
+					int doc = entry.getKey();
+					if (pathValues.advanceExact(doc)) {
+						String path = pathValues.binaryValue().utf8ToString();
+						for (IndexingBlob blob: entry.getValue()) {
+							if (blob.path.equals(path)) {
+								if (versionValues.advanceExact(doc)) 
+									blob.indexVersion = versionValues.lookupOrd(versionValues.ordValue()).utf8ToString();
+								else // indexed without version doc value, treat as outdated 
+									blob.indexVersion = "";
+								if (ordinalValues.advanceExact(doc))
+									blob.ordinal = (int) ordinalValues.longValue();
+								break;
+							}
+						}
+					}
+				}
+			}
+		}
+	}
+	
+	private void indexBlob(IndexWriter writer, Repository repository, SymbolExtractor<Symbol> extractor, 
+			ObjectId blobId, String blobPath, int blobOrdinal) throws IOException {
 		Document document = new Document();
 		
-		document.add(new StoredField(BLOB_INDEX_VERSION.name(), getIndexVersion(extractor)));
+		document.add(new IntPoint(BLOB_ORDINAL.name(), blobOrdinal));
+		document.add(new NumericDocValuesField(BLOB_ORDINAL.name(), blobOrdinal));
+		document.add(new SortedDocValuesField(BLOB_INDEX_VERSION.name(), new BytesRef(getIndexVersion(extractor))));
 		document.add(new StringField(BLOB_HASH.name(), blobId.name(), Store.NO));
+		byte[] blobIdBytes = new byte[Constants.OBJECT_ID_LENGTH];
+		blobId.copyRawTo(blobIdBytes, 0);
+		document.add(new BinaryDocValuesField(BLOB_HASH.name(), new BytesRef(blobIdBytes)));
 		document.add(new StringField(BLOB_PATH.name(), blobPath, Store.NO));
 		document.add(new BinaryDocValuesField(BLOB_PATH.name(), new BytesRef(blobPath.getBytes(StandardCharsets.UTF_8))));
 		
@@ -295,42 +428,66 @@ public class DefaultCodeIndexManager implements CodeIndexManager, Serializable {
 		};
 	}
 
-	private IndexResult doIndex(Project project, ObjectId commit, Directory directory, IndexSearcher searcher) {
-		IndexWriterConfig writerConfig = new IndexWriterConfig(new NGramAnalyzer(NGRAM_SIZE, NGRAM_SIZE));
-		writerConfig.setOpenMode(OpenMode.CREATE_OR_APPEND);
-		try (IndexWriter writer = new IndexWriter(directory, writerConfig)) {
-			try {
-				logger.debug("Indexing commit (project: {}, commit: {})...", project.getPath(), commit.getName());
-				IndexResult indexResult = index(projectManager.getRepository(project.getId()), 
-						commit, writer, searcher, PatternSet.parse(project.findCodeAnalysisPatterns()));
-				writer.commit();
-				logger.debug("Commit indexed (project: {}, commit: {})", project.getPath(), commit.getName());
-				return indexResult;
-			} catch (Exception e) {
-				writer.rollback();
-				throw ExceptionUtils.unchecked(e);
-			}
-		} catch (IOException e) {
-			throw new RuntimeException(e);
-		}
+	private IndexResult doIndex(Project project, ObjectId commit) {
+		File indexDir = projectManager.getIndexDir(project.getId());
+		if (isIndexed(indexDir, commit))
+			return new IndexResult(0, 0);
+		
+		logger.debug("Indexing commit (project: {}, commit: {})...", project.getPath(), commit.getName());
+		Repository repository = projectManager.getRepository(project.getId());
+		PatternSet filePatterns = PatternSet.parse(project.findCodeAnalysisPatterns());
+		Set<String> keptCommitHashes = getKeptCommitHashes(project, repository);
+		IndexResult indexResult = luceneIndexManager.callWithWriter(indexDir, 
+				() -> new NGramAnalyzer(NGRAM_SIZE, NGRAM_SIZE), writer -> {
+			return luceneIndexManager.callWithSearcher(indexDir, searcher -> {
+				try {
+					return index(repository, commit, writer, searcher, filePatterns, keptCommitHashes);
+				} catch (Exception e) {
+					throw ExceptionUtils.unchecked(e);
+				}
+			});
+		});
+		
+		// Code search reads committed index, so commit immediately instead of waiting for 
+		// periodical commit
+		luceneIndexManager.commit(indexDir);
+		logger.debug("Commit indexed (project: {}, commit: {})", project.getPath(), commit.getName());
+		return indexResult;
 	}
 	
-	private IndexResult doIndex(Project project, ObjectId commit) {
-		try (Directory directory = FSDirectory.open(projectManager.getIndexDir(project.getId()).toPath())) {
-			if (DirectoryReader.indexExists(directory)) {
-				try (IndexReader reader = DirectoryReader.open(directory)) {
-					IndexSearcher searcher = new IndexSearcher(reader);
-					if (getIndexVersion().equals(getCommitIndexVersion(searcher, commit)))
-						return new IndexResult(0, 0);
-					else
-						return doIndex(project, commit, directory, searcher);
+	/*
+	 * Heads of default branch and configured branches (for instance release branches) keep 
+	 * their blobs in index even if they are not among recently indexed commits
+	 */
+	private Set<String> getKeptCommitHashes(Project project, Repository repository) {
+		Set<String> keptCommitHashes = new HashSet<>();
+		String defaultBranch = project.getDefaultBranch();
+		String indexedBranches = project.findCodeIndexedBranches();
+		PatternSet branchPatterns = indexedBranches != null? PatternSet.parse(indexedBranches): null;
+		Matcher matcher = new PathMatcher();
+		try {
+			for (Ref ref: repository.getRefDatabase().getRefsByPrefix(Constants.R_HEADS)) {
+				String branch = GitUtils.ref2branch(ref.getName());
+				if (ref.getObjectId() != null && (branch.equals(defaultBranch) 
+						|| branchPatterns != null && branchPatterns.matches(matcher, branch))) {
+					keptCommitHashes.add(ref.getObjectId().name());
 				}
-			} else {
-				return doIndex(project, commit, directory, null);
 			}
 		} catch (IOException e) {
 			throw new RuntimeException(e);
 		}
+		return keptCommitHashes;
+	}
+	
+	private boolean isIndexed(File indexDir, ObjectId commitId) {
+		Boolean indexed = luceneIndexManager.callWithSearcher(indexDir, searcher -> {
+			try {
+				return getIndexVersion().equals(getCommitIndexVersion(searcher, commitId));
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		});
+		return indexed != null && indexed;
 	}
 
 	private String getIndexVersion() {
@@ -355,19 +512,7 @@ public class DefaultCodeIndexManager implements CodeIndexManager, Serializable {
 
 			@Override
 			public Boolean call() {
-				File indexDir = projectManager.getIndexDir(projectId);
-				try (Directory directory = FSDirectory.open(indexDir.toPath())) {
-					if (DirectoryReader.indexExists(directory)) {
-						try (IndexReader reader = DirectoryReader.open(directory)) {
-							IndexSearcher searcher = new IndexSearcher(reader);
-							return getIndexVersion().equals(getCommitIndexVersion(searcher, commitId));
-						}
-					} else {
-						return false;
-					}
-				} catch (IOException e) {
-					throw new RuntimeException(e);
-				}
+				return isIndexed(projectManager.getIndexDir(projectId), commitId);
 			}
 			
 		});
@@ -406,6 +551,21 @@ public class DefaultCodeIndexManager implements CodeIndexManager, Serializable {
 		}
 	}
 	
+	@Transactional
+	@Listen
+	public void on(EntityRemoved event) {
+		if (event.getEntity() instanceof Project) {
+			Long projectId = event.getEntity().getId();
+			String activeServer = projectManager.getActiveServer(projectId, false);
+			if (activeServer != null) {
+				clusterManager.runOnServer(activeServer, () -> {
+					luceneIndexManager.close(projectManager.getIndexDir(projectId));
+					return null;
+				});
+			}
+		}
+	}
+	
 	@Override
 	public void indexAsync(Long projectId, ObjectId commitId) {
 		int priority;
@@ -427,6 +587,112 @@ public class DefaultCodeIndexManager implements CodeIndexManager, Serializable {
 		});
 	}
 	
+	/**
+	 * Indexes changed blobs of a commit in batches, and maintains blobs of the commit
+	 */
+	private class BlobIndexer {
+		
+		private final Repository repository;
+		
+		private final ObjectReader reader;
+		
+		private final IndexWriter writer;
+		
+		private final IndexSearcher searcher;
+		
+		private final BoundedExecution execution;
+		
+		private final BitSet commitBlobs;
+		
+		private final AtomicInteger indexed = new AtomicInteger(0);
+		
+		private int checked;
+		
+		private int nextBlobOrdinal;
+		
+		private List<IndexingBlob> batch = new ArrayList<>();
+		
+		BlobIndexer(Repository repository, ObjectReader reader, IndexWriter writer, 
+				@Nullable IndexSearcher searcher, BoundedExecution execution, 
+				BitSet commitBlobs) throws IOException {
+			this.repository = repository;
+			this.reader = reader;
+			this.writer = writer;
+			this.searcher = searcher;
+			this.execution = execution;
+			this.commitBlobs = commitBlobs;
+			if (searcher != null)
+				nextBlobOrdinal = getNextBlobOrdinal(searcher);
+		}
+		
+		void add(IndexingBlob blob) throws IOException, InterruptedException {
+			batch.add(blob);
+			if (batch.size() >= LOOKUP_BATCH_SIZE)
+				flush();
+		}
+		
+		void flush() throws IOException, InterruptedException {
+			if (searcher != null)
+				resolveBlobs(searcher, batch);
+			for (IndexingBlob blob: batch) {
+				if (blob.removed) {
+					if (blob.ordinal != -1)
+						commitBlobs.clear(blob.ordinal);
+					continue;
+				}
+				if (searcher != null)
+					checked++;
+				
+				SymbolExtractor<Symbol> extractor = SymbolExtractorRegistry.getExtractor(GitUtils.getBlobName(blob.path));
+				if (blob.indexVersion == null || blob.ordinal == -1 
+						|| !blob.indexVersion.equals(getIndexVersion(extractor))) {
+					// Reuse ordinal of outdated blob as it may still be referenced by other commits
+					int blobOrdinal = blob.ordinal != -1? blob.ordinal: nextBlobOrdinal++;
+					long blobSize = reader.getObjectSize(blob.id, Constants.OBJ_BLOB);
+					execution.submit(() -> {
+						if (blob.indexVersion != null) {
+							BooleanQuery.Builder builder = new BooleanQuery.Builder();
+							builder.add(BLOB_HASH.getTermQuery(blob.id.name()), Occur.MUST);
+							builder.add(BLOB_PATH.getTermQuery(blob.path), Occur.MUST);
+							writer.deleteDocuments(builder.build());
+						}
+						indexBlob(writer, repository, extractor, blob.id, blob.path, blobOrdinal);
+						indexed.incrementAndGet();
+					}, (int) Math.min(blobSize, MAX_INDEXABLE_BLOB_SIZE));
+					commitBlobs.set(blobOrdinal);
+				} else {
+					commitBlobs.set(blob.ordinal);
+				}
+			}
+			batch = new ArrayList<>();
+		}
+		
+	}
+	
+	private static class IndexingBlob {
+		
+		final ObjectId id;
+		
+		final String path;
+		
+		/*
+		 * Whether or not this blob is removed from last indexed commit, in which case we only 
+		 * need to resolve its ordinal to exclude it from blobs of current commit
+		 */
+		final boolean removed;
+		
+		String indexVersion;
+		
+		int ordinal = -1;
+		
+		IndexingBlob(ObjectId id, String path, boolean removed) {
+			this.id = id;
+			this.path = path;
+			this.removed = removed;
+		}
+		
+	}
+	
 	private static class IndexWork extends Prioritized {
 
 		private final ObjectId commitId;
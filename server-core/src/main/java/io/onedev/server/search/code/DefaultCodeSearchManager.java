@@ -23,13 +23,17 @@ import org.apache.commons.lang3.SerializationUtils;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.index.BinaryDocValues;
 import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.DocValues;
 import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.SortedDocValues;
 import org.apache.lucene.search.BooleanClause.Occur;
 import org.apache.lucene.search.*;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
 import org.apache.lucene.util.BytesRef;
 import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.RevTree;
 import org.eclipse.jgit.revwalk.RevWalk;
@@ -130,24 +134,44 @@ public class DefaultCodeSearchManager implements CodeSearchManager, Serializable
 				final IndexSearcher searcher = searcherManager.acquire();
 				try {
 					Repository repository = projectManager.getRepository(projectId);
-					try (RevWalk revWalk = new RevWalk(repository)){
+					try (	RevWalk revWalk = new RevWalk(repository); 
+							ObjectReader reader = repository.newObjectReader()) {
 						final RevTree revTree = revWalk.parseCommit(commitId).getTree();
 						final Set<String> checkedBlobPaths = new HashSet<>();
 						
+						// If blobs of the commit are known, matched blobs can be checked against them 
+						// and collected with indexed blob id and path without walking commit tree
+						final BitSet commitBlobs = indexManager.getCommitBlobs(searcher, commitId);
+						
 						searcher.search(query.asLuceneQuery(), new SimpleCollector() {
 	
 							private BinaryDocValues blobPathValues;
 							
+							private BinaryDocValues blobHashValues;
+							
+							private NumericDocValues blobOrdinalValues;
+							
 							@Override
 							public void collect(int doc) throws IOException {
 								if (hits.size() < query.getCount()) {
+									if (commitBlobs != null && (!blobOrdinalValues.advanceExact(doc) 
+											|| !commitBlobs.get((int) blobOrdinalValues.longValue()))) {
+										return;
+									}
 									Preconditions.checkState(blobPathValues.advanceExact(doc));
 									String blobPath = blobPathValues.binaryValue().utf8ToString();
 									
 									if (!checkedBlobPaths.contains(blobPath)) {
-										TreeWalk treeWalk = TreeWalk.forPath(repository, blobPath, revTree);									
-										if (treeWalk != null)
-											query.collect(searcher, treeWalk, hits);
+										if (commitBlobs != null) {
+											Preconditions.checkState(blobHashValues.advanceExact(doc));
+											BytesRef blobHash = blobHashValues.binaryValue();
+											ObjectId blobId = ObjectId.fromRaw(blobHash.bytes, blobHash.offset);
+											query.collect(searcher, reader, blobId, blobPath, hits);
+										} else {
+											TreeWalk treeWalk = TreeWalk.forPath(reader, blobPath, revTree);
+											if (treeWalk != null)
+												query.collect(searcher, reader, treeWalk.getObjectId(0), blobPath, hits);
+										}
 										checkedBlobPaths.add(blobPath);
 									}
 								} else {
@@ -158,6 +182,8 @@ public class DefaultCodeSearchManager implements CodeSearchManager, Serializable
 							@Override
 							protected void doSetNextReader(LeafReaderContext context) throws IOException {
 								blobPathValues  = context.reader().getBinaryDocValues(FieldConstants.BLOB_PATH.name());
+								blobHashValues = DocValues.getBinary(context.reader(), FieldConstants.BLOB_HASH.name());
+								blobOrdinalValues = DocValues.getNumeric(context.reader(), FieldConstants.BLOB_ORDINAL.name());
 							}
 
 							@Override
@@ -234,12 +260,15 @@ public class DefaultCodeSearchManager implements CodeSearchManager, Serializable
 				searcher.search(query, new SimpleCollector() {
 
 					private LeafReaderContext context;
+					
+					private SortedDocValues indexVersionValues;
 
 					@SuppressWarnings("unchecked")
 					@Override
 					public void collect(int doc) throws IOException {
-						Document document = searcher.doc(context.docBase+doc);
-						if (indexVersion.equals(document.get(BLOB_INDEX_VERSION.name()))) {
+						if (indexVersionValues.advanceExact(doc) && indexVersion.equals(
+								indexVersionValues.lookupOrd(indexVersionValues.ordValue()).utf8ToString())) {
+							Document document = searcher.doc(context.docBase+doc);
 							BytesRef bytesRef = document.getBinaryValue(BLOB_SYMBOL_LIST.name());
 							if (bytesRef != null) {
 								try {
@@ -254,6 +283,7 @@ public class DefaultCodeSearchManager implements CodeSearchManager, Serializable
 					@Override
 					protected void doSetNextReader(LeafReaderContext context) throws IOException {
 						this.context = context;
+						indexVersionValues = DocValues.getSorted(context.reader(), BLOB_INDEX_VERSION.name());
 					}
 
 					@Override
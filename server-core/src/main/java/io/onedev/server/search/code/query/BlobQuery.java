@@ -6,7 +6,8 @@ import org.apache.lucene.search.BooleanQuery;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.WildcardQuery;
-import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
 
 import javax.annotation.Nullable;
 import java.io.Serializable;
@@ -36,7 +37,8 @@ public abstract class BlobQuery implements Serializable {
 		return count;
 	}
 
-	public abstract void collect(IndexSearcher searcher, TreeWalk treeWalk, List<QueryHit> hits);
+	public abstract void collect(IndexSearcher searcher, ObjectReader reader, ObjectId blobId, 
+								 String blobPath, List<QueryHit> hits);
 
 	/**
 	 * Get lucene query representation of this query
@@ -6,7 +6,8 @@ import io.onedev.server.search.code.hit.FileHit;
 import io.onedev.server.search.code.hit.QueryHit;
 import org.apache.lucene.search.BooleanQuery;
 import org.apache.lucene.search.IndexSearcher;
-import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
 
 import javax.annotation.Nullable;
 import java.util.List;
@@ -31,8 +32,8 @@ public class FileQuery extends BlobQuery {
 	}
 
 	@Override
-	public void collect(IndexSearcher searcher, TreeWalk treeWalk, List<QueryHit> hits) {
-		String blobPath = treeWalk.getPathString();
+	public void collect(IndexSearcher searcher, ObjectReader reader, ObjectId blobId, 
+						String blobPath, List<QueryHit> hits) {
 		String blobName = GitUtils.getBlobName(blobPath);
 		var match = getOption().matches(blobName, excludeFileName);
 		if (match != null)
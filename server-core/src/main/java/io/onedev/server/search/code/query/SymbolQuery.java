@@ -9,7 +9,7 @@ import io.onedev.server.search.code.hit.SymbolHit;
 import org.apache.lucene.search.BooleanQuery;
 import org.apache.lucene.search.IndexSearcher;
 import org.eclipse.jgit.lib.ObjectId;
-import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.lib.ObjectReader;
 
 import javax.annotation.Nullable;
 import java.util.List;
@@ -52,10 +52,8 @@ public class SymbolQuery extends BlobQuery {
 	}
  
 	@Override
-	public void collect(IndexSearcher searcher, TreeWalk treeWalk, List<QueryHit> hits) {
-		String blobPath = treeWalk.getPathString();
-		ObjectId blobId = treeWalk.getObjectId(0);
-		
+	public void collect(IndexSearcher searcher, ObjectReader reader, ObjectId blobId, 
+						String blobPath, List<QueryHit> hits) {
 		List<Symbol> symbols = OneDev.getInstance(CodeSearchManager.class).getSymbols(searcher, blobId, blobPath);
 		if (symbols != null) {
 			var matches = getOption().matches(blobPath, symbols, excludeTerm, excludeBlobPath, 
@@ -5,8 +5,9 @@ import io.onedev.server.search.code.hit.QueryHit;
 import io.onedev.server.search.code.hit.TextHit;
 import org.apache.lucene.search.BooleanQuery;
 import org.apache.lucene.search.IndexSearcher;
+import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.ObjectLoader;
-import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.lib.ObjectReader;
 
 import javax.annotation.Nullable;
 import java.io.IOException;
@@ -37,11 +38,11 @@ public class TextQuery extends BlobQuery {
 	}
 
 	@Override
-	public void collect(IndexSearcher searcher, TreeWalk treeWalk, List<QueryHit> hits) {
+	public void collect(IndexSearcher searcher, ObjectReader reader, ObjectId blobId, 
+						String blobPath, List<QueryHit> hits) {
 		ObjectLoader objectLoader;
 		try {
-			objectLoader = treeWalk.getObjectReader().open(treeWalk.getObjectId(0));
-			var blobPath = treeWalk.getPathString();
+			objectLoader = reader.open(blobId);
 			for (var match: getOption().matches(blobPath, objectLoader, getCount() - hits.size())) 
 				hits.add(new TextHit(blobPath, match.getPosition(), match.getLine()));								
 		} catch (IOException e) {
@@ -15,6 +15,7 @@ import io.onedev.server.security.permission.AccessProject;
 import io.onedev.server.util.ProjectScope;
 import io.onedev.server.util.concurrent.BatchWorkManager;
 import io.onedev.server.util.lucene.BooleanQueryBuilder;
+import io.onedev.server.util.lucene.LuceneIndexManager;
 import io.onedev.server.util.lucene.LuceneUtils;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.document.Document;
@@ -69,8 +70,9 @@ public class DefaultIssueTextManager extends ProjectTextManager<Issue> implement
 								   TransactionManager transactionManager, ProjectManager projectManager,
 								   IssueFieldManager fieldManager, IssueLinkManager linkManager,
 								   ClusterManager clusterManager, SessionManager sessionManager, 
-								   IssueTouchManager touchManager) {
-		super(dao, batchWorkManager, transactionManager, projectManager, clusterManager, sessionManager);
+								   IssueTouchManager touchManager, LuceneIndexManager luceneIndexManager) {
+		super(dao, batchWorkManager, transactionManager, projectManager, clusterManager, 
+				sessionManager, luceneIndexManager);
 		this.userManager = userManager;
 		this.fieldManager = fieldManager;
 		this.linkManager = linkManager;
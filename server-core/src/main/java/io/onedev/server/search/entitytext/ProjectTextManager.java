@@ -1,6 +1,5 @@
 package io.onedev.server.search.entitytext;
 
-import io.onedev.commons.utils.ExceptionUtils;
 import io.onedev.commons.utils.FileUtils;
 import io.onedev.commons.utils.WordUtils;
 import io.onedev.server.OneDev;
@@ -13,7 +12,6 @@ import io.onedev.server.event.project.ActiveServerChanged;
 import io.onedev.server.event.project.ProjectDeleted;
 import io.onedev.server.event.system.SystemStarted;
 import io.onedev.server.event.system.SystemStarting;
-import io.onedev.server.event.system.SystemStopped;
 import io.onedev.server.model.AbstractEntity;
 import io.onedev.server.model.support.EntityTouch;
 import io.onedev.server.model.support.ProjectBelonging;
@@ -28,7 +26,7 @@ import io.onedev.server.util.concurrent.BatchWorkManager;
 import io.onedev.server.util.concurrent.BatchWorker;
 import io.onedev.server.util.concurrent.Prioritized;
 import io.onedev.server.util.lucene.BooleanQueryBuilder;
-import io.onedev.server.util.lucene.LuceneUtils;
+import io.onedev.server.util.lucene.LuceneIndexManager;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.CharArraySet;
 import org.apache.lucene.analysis.WordlistLoader;
@@ -143,12 +141,13 @@ public abstract class ProjectTextManager<T extends ProjectBelonging> implements
 	
 	private final SessionManager sessionManager;
 
-	private volatile SearcherManager searcherManager;
+	private final LuceneIndexManager luceneIndexManager;
 	
 	@SuppressWarnings("unchecked")
 	public ProjectTextManager(Dao dao, BatchWorkManager batchWorkManager, 
 							  TransactionManager transactionManager, ProjectManager projectManager, 
-							  ClusterManager clusterManager, SessionManager sessionManager) {
+							  ClusterManager clusterManager, SessionManager sessionManager, 
+							  LuceneIndexManager luceneIndexManager) {
 		List<Class<?>> typeArguments = ReflectionUtils.getTypeArguments(ProjectTextManager.class, getClass());
 		if (typeArguments.size() == 1 && AbstractEntity.class.isAssignableFrom(typeArguments.get(0))) {
 			entityClass = (Class<T>) typeArguments.get(0);
@@ -162,14 +161,14 @@ public abstract class ProjectTextManager<T extends ProjectBelonging> implements
 		this.transactionManager = transactionManager;
 		this.clusterManager = clusterManager;
 		this.sessionManager = sessionManager;
+		this.luceneIndexManager = luceneIndexManager;
 	}
 
 	@Listen
 	public void on(SystemStarting event) {
 		File indexDir = getIndexDir();
 		FileUtils.createDir(indexDir);
-		try {
-			Directory directory = FSDirectory.open(indexDir.toPath());
+		try (Directory directory = FSDirectory.open(indexDir.toPath())) {
 			int indexVersion = -1;
 			if (DirectoryReader.indexExists(directory)) {
 				try (IndexReader reader = DirectoryReader.open(directory)) {
@@ -188,8 +187,8 @@ public abstract class ProjectTextManager<T extends ProjectBelonging> implements
 					updateMetaDoc(writer, 0L, document);
 					return null;
 				});
+				luceneIndexManager.commit(indexDir);
 			}
-			searcherManager = new SearcherManager(directory, null);
 		} catch (IOException e) {
 			throw new RuntimeException(e);
 		}
@@ -202,17 +201,6 @@ public abstract class ProjectTextManager<T extends ProjectBelonging> implements
 			requestToIndex(projectId);
 	}
 	
-	@Listen
-	public void on(SystemStopped event) {
-		if (searcherManager != null) {
-			try {
-				searcherManager.close();
-			} catch (IOException e) {
-				throw ExceptionUtils.unchecked(e);
-			}
-		}
-	}
-
 	@Sessional
 	@Listen
 	public void on(ProjectDeleted event) {
@@ -252,22 +240,13 @@ public abstract class ProjectTextManager<T extends ProjectBelonging> implements
 			requestToIndex(projectId);
 	}
 	
+	@Nullable
 	protected <R> R callWithSearcher(Function<IndexSearcher, R> func) {
-		return LuceneUtils.callWithSearcher(getIndexDir(), func);
+		return luceneIndexManager.callWithSearcher(getIndexDir(), func);
 	}
 	
 	protected synchronized <R> R callWithWriter(Function<IndexWriter, R> func) {
-		try (Analyzer analyzer = newAnalyzer()) {
-			return LuceneUtils.callWithWriter(getIndexDir(), analyzer, func);
-		} finally {
-			if (searcherManager != null) {
-				try {
-					searcherManager.maybeRefresh();
-				} catch (IOException e) {
-					throw new RuntimeException(e);
-				}
-			}
-		}
+		return luceneIndexManager.callWithWriter(getIndexDir(), this::newAnalyzer, func);
 	}
 	
 	protected void requestToIndex(Long projectId) {
@@ -369,22 +348,16 @@ public abstract class ProjectTextManager<T extends ProjectBelonging> implements
 			String contentQueryString = query.getContentQuery().toString();
 			var projectIdsByServer = projectManager.groupByActiveServers(query.getApplicableProjectIds());
 			return clusterManager.runOnServers(projectIdsByServer.keySet(), () -> {
-				if (searcherManager != null) {
+				Long count = callWithSearcher(searcher -> {
 					try {
-						IndexSearcher indexSearcher = searcherManager.acquire();
-						try {
-							TotalHitCountCollector collector = new TotalHitCountCollector();
-							indexSearcher.search(buildQuery(projectIdsByServer, contentQueryString), collector);
-							return (long) collector.getTotalHits();
-						} finally {
-							searcherManager.release(indexSearcher);
-						}
+						TotalHitCountCollector collector = new TotalHitCountCollector();
+						searcher.search(buildQuery(projectIdsByServer, contentQueryString), collector);
+						return (long) collector.getTotalHits();
 					} catch (IOException e) {
 						throw new RuntimeException(e);
 					}
-				} else {
-					return 0L;
-				}
+				});
+				return count != null? count: 0L;
 			}).values().stream().reduce(0L, Long::sum);
 		} else {
 			return 0;
@@ -397,26 +370,20 @@ public abstract class ProjectTextManager<T extends ProjectBelonging> implements
 			var projectIdsByServer = projectManager.groupByActiveServers(query.getApplicableProjectIds());
 			Map<Long, Float> entityScores = new HashMap<>();
 			for (var entry : clusterManager.runOnServers(projectIdsByServer.keySet(), (ClusterTask<Map<Long, Float>>) () -> {
-				if (searcherManager != null) {
+				Map<Long, Float> innerEntityScores = callWithSearcher(searcher -> {
 					try {
-						IndexSearcher searcher = searcherManager.acquire();
-						try {
-							Map<Long, Float> innerEntityScores = new HashMap<>();
-							TopDocs topDocs = searcher.search(buildQuery(projectIdsByServer, contentQueryString), firstResult + maxResults);
-							for (var scoreDoc : topDocs.scoreDocs) {
-								Document doc = searcher.doc(scoreDoc.doc);
-								innerEntityScores.put(valueOf(doc.get(FIELD_ENTITY_ID)), scoreDoc.score);
-							}
-							return innerEntityScores;
-						} finally {
-							searcherManager.release(searcher);
+						Map<Long, Float> scores = new HashMap<>();
+						TopDocs topDocs = searcher.search(buildQuery(projectIdsByServer, contentQueryString), firstResult + maxResults);
+						for (var scoreDoc : topDocs.scoreDocs) {
+							Document doc = searcher.doc(scoreDoc.doc);
+							scores.put(valueOf(doc.get(FIELD_ENTITY_ID)), scoreDoc.score);
 						}
+						return scores;
 					} catch (IOException e) {
 						throw new RuntimeException(e);
 					}
-				} else {
-					return new HashMap<>();
-				}
+				});
+				return innerEntityScores != null? innerEntityScores: new HashMap<>();
 			}).entrySet()) {
 				entityScores.putAll(entry.getValue());
 			}
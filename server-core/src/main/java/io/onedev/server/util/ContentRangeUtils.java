@@ -0,0 +1,122 @@
+package io.onedev.server.util;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.annotation.Nullable;
+
+import io.onedev.commons.utils.StringUtils;
+
+/**
+ * Helpers to handle http range requests (<tt>Range</tt>, <tt>If-Range</tt>) and ranged
+ * uploads (<tt>Content-Range</tt>). Only single byte ranges are supported
+ */
+public class ContentRangeUtils {
+
+	private static final String BYTES_UNIT = "bytes";
+
+	private static final Pattern BYTE_RANGE_SPEC = Pattern.compile("(\\d*)\\s*-\\s*(\\d*)");
+
+	/**
+	 * Calculate strong entity tag of a file. The tag changes whenever the file is rewritten
+	 */
+	public static String getETag(long length, long lastModified) {
+		return "\"" + Long.toHexString(length) + "-" + Long.toHexString(lastModified) + "\"";
+	}
+
+	/**
+	 * Calculate strong entity tag of a file from hash of its content
+	 */
+	public static String getETag(String contentHash) {
+		return "\"" + contentHash + "\"";
+	}
+
+	/**
+	 * Parse value of <tt>Range</tt> header against content of specified length
+	 *
+	 * @param range
+	 * 			value of <tt>Range</tt> header
+	 * @param ifRange
+	 * 			value of <tt>If-Range</tt> header. Range is ignored if this is specified and
+	 * 			does not match <tt>etag</tt>
+	 * @param etag
+	 * 			entity tag of current content
+	 * @return
+	 * 			range to serve with both ends inclusive, or <tt>null</tt> if whole content should
+	 * 			be served, including the case that range is syntactically invalid. Start of 
+	 * 			returned range is greater than its end if range is not satisfiable
+	 */
+	@Nullable
+	public static LongRange parseRange(@Nullable String range, @Nullable String ifRange,
+									   String etag, long length) {
+		if (range == null || ifRange != null && !ifRange.trim().equals(etag))
+			return null;
+		range = range.trim();
+		if (!range.startsWith(BYTES_UNIT + "="))
+			return null;
+		range = range.substring(BYTES_UNIT.length() + 1).trim();
+
+		// Multiple ranges are not supported, and invalid ranges should be ignored
+		Matcher matcher = BYTE_RANGE_SPEC.matcher(range);
+		if (!matcher.matches())
+			return null;
+		String startString = matcher.group(1);
+		String endString = matcher.group(2);
+		if (startString.length() == 0 && endString.length() == 0)
+			return null;
+		try {
+			if (startString.length() == 0) {
+				// Suffix length of 0 is valid but not satisfiable
+				long suffixLength = Long.parseLong(endString);
+				return new LongRange(Math.max(0, length - suffixLength), length - 1);
+			} else {
+				long start = Long.parseLong(startString);
+				long end = endString.length() != 0? Long.parseLong(endString): Long.MAX_VALUE;
+				if (end < start)
+					return null;
+				return new LongRange(start, Math.min(end, length - 1));
+			}
+		} catch (NumberFormatException e) {
+			// Out of range of long
+			return null;
+		}
+	}
+
+	/**
+	 * Parse value of <tt>Content-Range</tt> header of a ranged upload, for instance
+	 * <tt>bytes 0-1048575/5000000</tt>
+	 *
+	 * @return pair of uploaded range with both ends inclusive, and total length of the content
+	 * @throws IllegalArgumentException
+	 * 			if header is malformed
+	 */
+	public static Pair<LongRange, Long> parseContentRange(String contentRange) {
+		String value = contentRange.trim();
+		if (!value.startsWith(BYTES_UNIT + " ") || !value.contains("/") || !value.contains("-"))
+			throw new IllegalArgumentException("Invalid content range: " + contentRange);
+		value = value.substring(BYTES_UNIT.length() + 1).trim();
+		try {
+			long start = Long.parseLong(StringUtils.substringBefore(value, "-").trim());
+			long end = Long.parseLong(StringUtils.substringBetween(value, "-", "/").trim());
+			long total = Long.parseLong(StringUtils.substringAfter(value, "/").trim());
+			if (start < 0 || end < start || end >= total)
+				throw new IllegalArgumentException("Invalid content range: " + contentRange);
+			return new Pair<>(new LongRange(start, end), total);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid content range: " + contentRange);
+		}
+	}
+
+	public static String formatContentRange(LongRange range, long length) {
+		return BYTES_UNIT + " " + range.getStart() + "-" + range.getEnd() + "/" + length;
+	}
+
+	public static String formatUnsatisfiedRange(long length) {
+		return BYTES_UNIT + " */" + length;
+	}
+
+	public static String formatRange(LongRange range) {
+		return BYTES_UNIT + "=" + range.getStart() + "-" + range.getEnd();
+	}
+
+}
@@ -1,20 +1,31 @@
 package io.onedev.server.util;
 
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.FileChannel;
 
 import io.onedev.commons.bootstrap.Bootstrap;
 
 public class IOUtils extends org.apache.commons.io.IOUtils {
 
 	public static void copyRange(InputStream in, OutputStream out, LongRange range) throws IOException {
-		int totalSkipped = 0;
-		while (totalSkipped < range.getStart())	 {
-			long skipped = in.skip(range.getStart()-totalSkipped);
-			if (skipped == 0)
-				break;
-			totalSkipped += skipped;
+		long totalSkipped = 0;
+		if (in instanceof FileInputStream) {
+			// Seek directly instead of skipping, as skipping a file stream past EOF
+			// keeps reporting success
+			FileChannel channel = ((FileInputStream) in).getChannel();
+			long position = Math.min(channel.position() + range.getStart(), channel.size());
+			totalSkipped = position - channel.position();
+			channel.position(position);
+		} else {
+			while (totalSkipped < range.getStart()) {
+				long skipped = in.skip(range.getStart() - totalSkipped);
+				if (skipped <= 0)
+					break;
+				totalSkipped += skipped;
+			}
 		}
 		
 		if (totalSkipped < range.getStart()) 
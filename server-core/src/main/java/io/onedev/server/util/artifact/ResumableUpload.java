@@ -0,0 +1,206 @@
+package io.onedev.server.util.artifact;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Supplier;
+
+import com.google.common.base.Splitter;
+
+import io.onedev.commons.utils.ExplicitException;
+import io.onedev.commons.utils.FileUtils;
+import io.onedev.commons.utils.LockUtils;
+import io.onedev.commons.utils.StringUtils;
+import io.onedev.server.util.LongRange;
+
+import static io.onedev.commons.bootstrap.Bootstrap.BUFFER_SIZE;
+
+/**
+ * A file uploaded in chunks. Chunks can be sent in any order and in parallel, and data of
+ * each chunk is written into the data file at its offset. Received ranges are recorded in
+ * a separate file so that an interrupted upload can be resumed by sending only missing
+ * ranges
+ */
+public class ResumableUpload {
+
+	private static final String DATA_FILE = "data";
+
+	private static final String RANGES_FILE = "ranges";
+
+	private final File uploadDir;
+
+	public ResumableUpload(File uploadDir) {
+		this.uploadDir = uploadDir;
+	}
+
+	private <T> T locked(Supplier<T> supplier) {
+		Lock lock = LockUtils.getLock("resumable-upload:" + uploadDir.getAbsolutePath());
+		lock.lock();
+		try {
+			return supplier.get();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public File getDataFile() {
+		return new File(uploadDir, DATA_FILE);
+	}
+
+	public UploadStatus getStatus() {
+		return locked(this::readStatus);
+	}
+
+	private UploadStatus readStatus() {
+		File rangesFile = new File(uploadDir, RANGES_FILE);
+		if (rangesFile.exists()) {
+			try {
+				List<String> lines = FileUtils.readLines(rangesFile, StandardCharsets.UTF_8);
+				long total = Long.parseLong(lines.get(0));
+				List<LongRange> receivedRanges = new ArrayList<>();
+				for (String line: lines.subList(1, lines.size())) {
+					if (StringUtils.isNotBlank(line)) {
+						List<String> fields = Splitter.on('-').splitToList(line.trim());
+						receivedRanges.add(new LongRange(Long.parseLong(fields.get(0)), Long.parseLong(fields.get(1))));
+					}
+				}
+				return new UploadStatus(total, receivedRanges);
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		} else {
+			return new UploadStatus(-1, new ArrayList<>());
+		}
+	}
+
+	private void writeStatus(UploadStatus status) {
+		StringBuilder builder = new StringBuilder();
+		builder.append(status.getTotal()).append("\n");
+		for (LongRange range: status.getReceivedRanges())
+			builder.append(range.getStart()).append("-").append(range.getEnd()).append("\n");
+		File rangesFile = new File(uploadDir, RANGES_FILE);
+		File tempFile = new File(uploadDir, RANGES_FILE + ".tmp");
+		FileUtils.writeFile(tempFile, builder.toString(), StandardCharsets.UTF_8.name());
+		if (!tempFile.renameTo(rangesFile)) {
+			FileUtils.deleteFile(rangesFile);
+			if (!tempFile.renameTo(rangesFile))
+				throw new RuntimeException("Unable to rename file: " + tempFile.getAbsolutePath());
+		}
+	}
+
+	/**
+	 * Receive a chunk of the upload
+	 *
+	 * @param range
+	 * 			range of the chunk in uploaded file, with both ends inclusive. Data received
+	 * 			so far is recorded even if the stream ends before the range is filled
+	 * @param total
+	 * 			length of uploaded file
+	 * @return status of the upload after receiving the chunk
+	 */
+	public UploadStatus receive(LongRange range, long total, InputStream is) {
+		FileUtils.createDir(uploadDir);
+		locked(() -> {
+			UploadStatus status = readStatus();
+			if (status.getTotal() == -1)
+				writeStatus(new UploadStatus(total, status.getReceivedRanges()));
+			else if (status.getTotal() != total)
+				throw new ExplicitException("Upload length mismatch (expected: " + status.getTotal() + ", actual: " + total + ")");
+			return null;
+		});
+
+		long received = 0;
+		long expected = range.getEnd() - range.getStart() + 1;
+		try (RandomAccessFile file = new RandomAccessFile(getDataFile(), "rw")) {
+			file.seek(range.getStart());
+			byte[] buffer = new byte[BUFFER_SIZE];
+			while (received < expected) {
+				int count = is.read(buffer, 0, (int) Math.min(buffer.length, expected - received));
+				if (count == -1)
+					break;
+				file.write(buffer, 0, count);
+				received += count;
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		} finally {
+			if (received != 0) {
+				long receivedEnd = range.getStart() + received - 1;
+				locked(() -> {
+					UploadStatus status = readStatus();
+					status.getReceivedRanges().add(new LongRange(range.getStart(), receivedEnd));
+					writeStatus(new UploadStatus(status.getTotal(), merge(status.getReceivedRanges())));
+					return null;
+				});
+			}
+		}
+		return getStatus();
+	}
+
+	public void delete() {
+		locked(() -> {
+			FileUtils.deleteDir(uploadDir);
+			return null;
+		});
+	}
+
+	private long getLastModified() {
+		long lastModified = uploadDir.lastModified();
+		lastModified = Math.max(lastModified, getDataFile().lastModified());
+		return Math.max(lastModified, new File(uploadDir, RANGES_FILE).lastModified());
+	}
+
+	/**
+	 * Delete uploads under specified directory not receiving any data for specified period,
+	 * as abandoned uploads are never completed
+	 *
+	 * @return number of deleted uploads
+	 */
+	public static int purgeExpired(File uploadsDir, long ttl) {
+		int count = 0;
+		File[] uploadDirs = uploadsDir.listFiles(File::isDirectory);
+		if (uploadDirs != null) {
+			long expireTime = System.currentTimeMillis() - ttl;
+			for (File uploadDir: uploadDirs) {
+				ResumableUpload upload = new ResumableUpload(uploadDir);
+				boolean deleted = upload.locked(() -> {
+					if (upload.getLastModified() < expireTime) {
+						FileUtils.deleteDir(uploadDir);
+						return true;
+					} else {
+						return false;
+					}
+				});
+				if (deleted)
+					count++;
+			}
+		}
+		return count;
+	}
+
+	static List<LongRange> merge(List<LongRange> ranges) {
+		List<LongRange> sorted = new ArrayList<>(ranges);
+		sorted.sort((o1, o2) -> Long.compare(o1.getStart(), o2.getStart()));
+		List<LongRange> merged = new ArrayList<>();
+		LongRange current = null;
+		for (LongRange range: sorted) {
+			if (current == null) {
+				current = range;
+			} else if (range.getStart() <= current.getEnd() + 1) {
+				current = new LongRange(current.getStart(), Math.max(current.getEnd(), range.getEnd()));
+			} else {
+				merged.add(current);
+				current = range;
+			}
+		}
+		if (current != null)
+			merged.add(current);
+		return merged;
+	}
+
+}
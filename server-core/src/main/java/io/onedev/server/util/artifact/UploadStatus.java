@@ -0,0 +1,41 @@
+package io.onedev.server.util.artifact;
+
+import java.io.Serializable;
+import java.util.List;
+
+import io.onedev.server.util.LongRange;
+
+public class UploadStatus implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private final long total;
+
+	private final List<LongRange> receivedRanges;
+
+	public UploadStatus(long total, List<LongRange> receivedRanges) {
+		this.total = total;
+		this.receivedRanges = receivedRanges;
+	}
+
+	/**
+	 * @return length of uploaded file, or <tt>-1</tt> if upload is not started yet
+	 */
+	public long getTotal() {
+		return total;
+	}
+
+	/**
+	 * @return received ranges sorted by offset, with both ends inclusive
+	 */
+	public List<LongRange> getReceivedRanges() {
+		return receivedRanges;
+	}
+
+	public boolean isCompleted() {
+		return receivedRanges.size() == 1
+				&& receivedRanges.get(0).getStart() == 0
+				&& receivedRanges.get(0).getEnd() == total - 1;
+	}
+
+}
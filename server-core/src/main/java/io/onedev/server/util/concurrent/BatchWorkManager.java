@@ -1,7 +1,14 @@
 package io.onedev.server.util.concurrent;
 
+import java.util.List;
+
 public interface BatchWorkManager {
 
 	void submit(BatchWorker worker, Prioritized work);
 	
+	/**
+	 * @return statistics of batch workers grouped by their categories
+	 */
+	List<BatchWorkStats> getStats();
+	
 }
@@ -0,0 +1,85 @@
+package io.onedev.server.util.concurrent;
+
+import java.io.Serializable;
+
+/**
+ * Statistics of batch workers of same category
+ *
+ * @see BatchWorker#getCategory()
+ */
+public class BatchWorkStats implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private final String category;
+
+	private final int numOfActiveWorkers;
+
+	private final int numOfQueuedWorks;
+
+	private final int numOfWorkingWorks;
+
+	private final long oldestQueuedAge;
+
+	private final long numOfFailedBatches;
+
+	private final Histogram.Snapshot batchSizes;
+
+	private final Histogram.Snapshot executionTimes;
+
+	public BatchWorkStats(String category, int numOfActiveWorkers, int numOfQueuedWorks,
+			int numOfWorkingWorks, long oldestQueuedAge, long numOfFailedBatches,
+			Histogram.Snapshot batchSizes, Histogram.Snapshot executionTimes) {
+		this.category = category;
+		this.numOfActiveWorkers = numOfActiveWorkers;
+		this.numOfQueuedWorks = numOfQueuedWorks;
+		this.numOfWorkingWorks = numOfWorkingWorks;
+		this.oldestQueuedAge = oldestQueuedAge;
+		this.numOfFailedBatches = numOfFailedBatches;
+		this.batchSizes = batchSizes;
+		this.executionTimes = executionTimes;
+	}
+
+	public String getCategory() {
+		return category;
+	}
+
+	/**
+	 * @return number of workers having queued or working works
+	 */
+	public int getNumOfActiveWorkers() {
+		return numOfActiveWorkers;
+	}
+
+	public int getNumOfQueuedWorks() {
+		return numOfQueuedWorks;
+	}
+
+	public int getNumOfWorkingWorks() {
+		return numOfWorkingWorks;
+	}
+
+	/**
+	 * @return milliseconds the oldest queued work has been waiting, or <tt>0</tt> if
+	 * no works are queued
+	 */
+	public long getOldestQueuedAge() {
+		return oldestQueuedAge;
+	}
+
+	public long getNumOfFailedBatches() {
+		return numOfFailedBatches;
+	}
+
+	public Histogram.Snapshot getBatchSizes() {
+		return batchSizes;
+	}
+
+	/**
+	 * @return histogram of milliseconds batches take to run
+	 */
+	public Histogram.Snapshot getExecutionTimes() {
+		return executionTimes;
+	}
+
+}
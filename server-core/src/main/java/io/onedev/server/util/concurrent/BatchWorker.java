@@ -35,6 +35,17 @@ public abstract class BatchWorker implements Serializable {
 		return maxBatchSize;
 	}
 
+	/**
+	 * Get category of this worker to aggregate statistics of similar workers. Default
+	 * implementation masks numbers in worker id, so that for instance workers collecting 
+	 * commit info of different projects fall into same category
+	 * 
+	 * @return category of this worker
+	 */
+	public String getCategory() {
+		return id != null? id.replaceAll("\\d+", "*"): getClass().getName();
+	}
+
 	@Override
 	public boolean equals(Object other) {
 		if (!(other instanceof BatchWorker))
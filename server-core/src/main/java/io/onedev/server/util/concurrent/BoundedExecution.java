@@ -0,0 +1,116 @@
+package io.onedev.server.util.concurrent;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.google.common.base.Preconditions;
+
+import io.onedev.commons.utils.ExceptionUtils;
+
+/**
+ * Runs tasks submitted by a producer thread with limited parallelism. The producer is blocked
+ * if all slots are taken, or if memory estimated to be held by running tasks exceeds the
+ * budget, so that it can not run too far ahead of tasks.
+ * <p>
+ * Closing the execution waits for running tasks to finish, so that resources shared with
+ * tasks can be released safely after it, even if producer fails.
+ */
+public class BoundedExecution implements AutoCloseable {
+
+	private final ExecutorService executorService;
+
+	private final int parallelism;
+
+	private final int memoryBudget;
+
+	private final Semaphore slots;
+
+	private final Semaphore memory;
+
+	private final AtomicReference<Throwable> failure = new AtomicReference<>(null);
+
+	/**
+	 * @param parallelism
+	 * 			max number of tasks to run concurrently
+	 * @param memoryBudget
+	 * 			max sum of memory weights of running tasks
+	 */
+	public BoundedExecution(ExecutorService executorService, int parallelism, int memoryBudget) {
+		Preconditions.checkArgument(parallelism > 0 && memoryBudget > 0);
+		this.executorService = executorService;
+		this.parallelism = parallelism;
+		this.memoryBudget = memoryBudget;
+		slots = new Semaphore(parallelism);
+		memory = new Semaphore(memoryBudget);
+	}
+
+	/**
+	 * Submit a task, blocking until there is a free slot and enough memory budget
+	 *
+	 * @param memoryWeight
+	 * 			estimated memory held by the task, capped to the memory budget
+	 * @throws RuntimeException
+	 * 			if some previously submitted task failed. No more tasks should be
+	 * 			submitted in this case
+	 */
+	public void submit(Task task, int memoryWeight) throws InterruptedException {
+		checkFailure();
+		int permits = Math.max(0, Math.min(memoryWeight, memoryBudget));
+		memory.acquire(permits);
+		try {
+			slots.acquire();
+		} catch (InterruptedException e) {
+			memory.release(permits);
+			throw e;
+		}
+		try {
+			executorService.execute(() -> {
+				try {
+					if (failure.get() == null)
+						task.run();
+				} catch (Throwable e) {
+					failure.compareAndSet(null, e);
+				} finally {
+					memory.release(permits);
+					slots.release();
+				}
+			});
+		} catch (Throwable e) {
+			memory.release(permits);
+			slots.release();
+			throw e;
+		}
+	}
+
+	/**
+	 * Wait for all submitted tasks to finish
+	 *
+	 * @throws RuntimeException
+	 * 			if any submitted task failed
+	 */
+	public void await() throws InterruptedException {
+		slots.acquire(parallelism);
+		slots.release(parallelism);
+		checkFailure();
+	}
+
+	private void checkFailure() {
+		Throwable e = failure.get();
+		if (e != null)
+			throw ExceptionUtils.unchecked(e);
+	}
+
+	@Override
+	public void close() {
+		slots.acquireUninterruptibly(parallelism);
+		slots.release(parallelism);
+	}
+
+	public interface Task {
+
+		void run() throws Exception;
+
+	}
+
+}
@@ -13,7 +13,10 @@ import javax.inject.Inject;
 import javax.inject.Singleton;
 import java.util.*;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.stream.Collectors;
 
 @Singleton
@@ -25,6 +28,8 @@ public class DefaultBatchWorkManager implements BatchWorkManager, Runnable {
 	
 	private final Map<BatchWorker, Works> works = new HashMap<>();
 	
+	private final Map<String, Metrics> metrics = new ConcurrentHashMap<>();
+	
 	private Thread thread;
 	
 	@Inject
@@ -63,18 +68,30 @@ public class DefaultBatchWorkManager implements BatchWorkManager, Runnable {
 				BatchWorker worker = entry.getKey();
 				Works works = entry.getValue();
 				if (works.working.isEmpty()) {
-					works.queued.drainTo(works.working, worker.getMaxBatchSize());
+					for (int i=0; i<worker.getMaxBatchSize(); i++) {
+						QueuedWork queuedWork = works.queued.poll();
+						if (queuedWork != null)
+							works.working.add(queuedWork.work);
+						else
+							break;
+					}
 					if (!works.working.isEmpty()) {
 						double priority = works.working.stream().collect(Collectors.averagingInt(Prioritized::getPriority));
+						Metrics metricsOfWorker = getMetrics(worker);
+						metricsOfWorker.batchSizes.record(works.working.size());
 						workExecutor.submit(new PrioritizedRunnable((int) priority) {
 
 							@Override
 							public void run() {
+								long startTime = System.nanoTime();
 								try {
 									worker.doWorks(works.working);
 								} catch (Exception e) {
+									metricsOfWorker.numOfFailedBatches.increment();
 									logger.error("Error doing works", e);
 								} finally {
+									metricsOfWorker.executionTimes.record(
+											TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
 									synchronized (DefaultBatchWorkManager.this) {
 										works.working.clear();
 										DefaultBatchWorkManager.this.notify();
@@ -105,16 +122,86 @@ public class DefaultBatchWorkManager implements BatchWorkManager, Runnable {
 				ThreadContext.bind(subject);
 				worker.doWorks(works);
 			}
+
+			@Override
+			public String getCategory() {
+				return worker.getCategory();
+			}
 			
-		}).queued.offer(work);
+		}).queued.offer(new QueuedWork(work));
 		
 		notify();
 	}
+	
+	private Metrics getMetrics(BatchWorker worker) {
+		return metrics.computeIfAbsent(worker.getCategory(), k -> new Metrics());
+	}
+
+	@Override
+	public List<BatchWorkStats> getStats() {
+		Map<String, int[]> counts = new HashMap<>();
+		Map<String, Long> oldestQueueTimes = new HashMap<>();
+		synchronized (this) {
+			for (Map.Entry<BatchWorker, Works> entry: works.entrySet()) {
+				String category = entry.getKey().getCategory();
+				Works worksOfWorker = entry.getValue();
+				int[] countsOfCategory = counts.computeIfAbsent(category, k -> new int[3]);
+				countsOfCategory[0]++;
+				countsOfCategory[1] += worksOfWorker.queued.size();
+				countsOfCategory[2] += worksOfWorker.working.size();
+				for (QueuedWork queuedWork: worksOfWorker.queued) 
+					oldestQueueTimes.merge(category, queuedWork.queueTime, Math::min);
+			}
+		}
+		
+		long now = System.currentTimeMillis();
+		Set<String> categories = new TreeSet<>(metrics.keySet());
+		categories.addAll(counts.keySet());
+		List<BatchWorkStats> stats = new ArrayList<>();
+		for (String category: categories) {
+			int[] countsOfCategory = counts.getOrDefault(category, new int[3]);
+			Long oldestQueueTime = oldestQueueTimes.get(category);
+			Metrics metricsOfCategory = metrics.computeIfAbsent(category, k -> new Metrics());
+			stats.add(new BatchWorkStats(category, countsOfCategory[0], countsOfCategory[1], 
+					countsOfCategory[2], oldestQueueTime != null? now - oldestQueueTime: 0, 
+					metricsOfCategory.numOfFailedBatches.sum(), 
+					metricsOfCategory.batchSizes.getSnapshot(), 
+					metricsOfCategory.executionTimes.getSnapshot()));
+		}
+		return stats;
+	}
 
 	private static class Works {
-		BlockingQueue<Prioritized> queued = new PriorityBlockingQueue<>();
+		BlockingQueue<QueuedWork> queued = new PriorityBlockingQueue<>();
 		
 		List<Prioritized> working = new ArrayList<>();
 	}
+	
+	private static class QueuedWork implements Comparable<QueuedWork> {
+		
+		final Prioritized work;
+		
+		final long queueTime = System.currentTimeMillis();
+		
+		QueuedWork(Prioritized work) {
+			this.work = work;
+		}
+
+		@Override
+		public int compareTo(QueuedWork o) {
+			return work.compareTo(o.work);
+		}
+		
+	}
+	
+	private static class Metrics {
+		
+		final Histogram batchSizes = new Histogram(Histogram.BATCH_SIZE_BOUNDS);
+		
+		final Histogram executionTimes = new Histogram(Histogram.DURATION_BOUNDS);
+		
+		final LongAdder numOfFailedBatches = new LongAdder();
+		
+	}
 
 }
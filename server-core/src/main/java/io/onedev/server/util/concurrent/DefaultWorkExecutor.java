@@ -2,15 +2,20 @@ package io.onedev.server.util.concurrent;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableSet;
 import java.util.UUID;
-import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntSupplier;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
@@ -18,174 +23,304 @@ import javax.inject.Singleton;
 import io.onedev.server.manager.SettingManager;
 import io.onedev.server.security.SecurityUtils;
 
-import static java.util.Collections.sort;
-import static java.util.Comparator.comparingInt;
-
+/**
+ * Work executor admitting groups of works in order of their average priority. Groups of same 
+ * priority share the executor fairly via start-time fair queueing: each group is tagged with 
+ * a virtual start time when it starts waiting, which is current virtual time, or virtual finish 
+ * time of previous group of same id if that is later. Execution time consumed by a group is 
+ * charged to its virtual finish time, so that a group submitting again after consuming more 
+ * than its share is admitted after groups consuming less. All groups have equal weight.
+ * <p>
+ * Waiting groups are kept in a concurrent skip list, and number of running groups is
+ * reserved via compare-and-set, so that submitting and completing works do not contend
+ * on a global monitor. State of each group is guarded by monitor of the group itself,
+ * which is only contended by works of that group.
+ */
 @Singleton
 public class DefaultWorkExecutor implements WorkExecutor {
 
-	private final SettingManager settingManager;
-	
+	private static final int MIN_PURGE_THRESHOLD = 1000;
+
 	private final ExecutorService executorService;
-	
-	private final Map<String, Collection<PrioritizedCallable<?>>> runnings = new HashMap<>();
-	
-	private final Map<String, Collection<WorkFuture<?>>> waitings = new HashMap<>();
+
+	private final IntSupplier concurrencySupplier;
+
+	private final Map<String, Group> groups = new ConcurrentHashMap<>();
+
+	private final NavigableSet<Group> waitingGroups = new ConcurrentSkipListSet<>(
+			Comparator.<Group>comparingInt(it -> it.priority)
+					.thenComparingLong(it -> it.virtualStartTime)
+					.thenComparingLong(it -> it.sequence));
+
+	private final AtomicInteger numOfRunningGroups = new AtomicInteger(0);
+
+	private final AtomicInteger numOfWaitingGroups = new AtomicInteger(0);
+
+	/*
+	 * Virtual time in nanoseconds. It advances by execution time of each finished work divided 
+	 * by number of active groups, and to virtual start time of each admitted group
+	 */
+	private final AtomicLong virtualTime = new AtomicLong(0);
+
+	/*
+	 * Virtual finish times of retired groups later than current virtual time 
+	 */
+	private final Map<String, Long> virtualFinishTimes = new ConcurrentHashMap<>();
+
+	private volatile int purgeThreshold = MIN_PURGE_THRESHOLD;
+
+	private final AtomicLong groupSequence = new AtomicLong(0);
+
+	private final AtomicInteger numOfRunningWorks = new AtomicInteger(0);
+
+	private final Histogram waitTimes = new Histogram(Histogram.DURATION_BOUNDS);
+
+	private final Histogram executionTimes = new Histogram(Histogram.DURATION_BOUNDS);
 
 	@Inject
 	public DefaultWorkExecutor(ExecutorService executorService, SettingManager settingManager) {
-		this.executorService = executorService;
-		this.settingManager = settingManager;
+		this(executorService, () -> settingManager.getPerformanceSetting().getCpuIntensiveTaskConcurrency());
 	}
-	
-	private int getConcurrency() {
-		return settingManager.getPerformanceSetting().getCpuIntensiveTaskConcurrency();
+
+	DefaultWorkExecutor(ExecutorService executorService, IntSupplier concurrencySupplier) {
+		this.executorService = executorService;
+		this.concurrencySupplier = concurrencySupplier;
 	}
 
-	private synchronized void check() {
-		if (getConcurrency() > runnings.size()) {
-			Map<String, Integer> averagePriorities = new HashMap<>();
-			for (Map.Entry<String, Collection<WorkFuture<?>>> entry: waitings.entrySet()) {
-				int totalPriorities = 0;
-				for (WorkFuture<?> future: entry.getValue()) 
-					totalPriorities += future.callable.getPriority();
-				averagePriorities.put(entry.getKey(), totalPriorities/entry.getValue().size());
-			}
-			List<String> groupIds = new ArrayList<>(waitings.keySet());
-			sort(groupIds, comparingInt(averagePriorities::get));
-			for (String groupId: groupIds) {
-				Collection<PrioritizedCallable<?>> runningsOfGroup = new ArrayList<>();
-				for (WorkFuture<?> future: waitings.remove(groupId)) {
-					future.runningFuture = call(future.groupId, future.callable);
-					notifyAll();
-					runningsOfGroup.add(future.callable);
-				}
-				runnings.put(groupId, runningsOfGroup);
-				if (runnings.size() == getConcurrency())
-					break;
+	/**
+	 * Admit waiting groups as long as there are free slots
+	 */
+	private void dispatch() {
+		while (!waitingGroups.isEmpty()) {
+			int numOfRunning = numOfRunningGroups.get();
+			if (numOfRunning >= concurrencySupplier.getAsInt())
+				break;
+			if (!numOfRunningGroups.compareAndSet(numOfRunning, numOfRunning + 1))
+				continue;
+			Group group = waitingGroups.pollFirst();
+			if (group != null) {
+				numOfWaitingGroups.decrementAndGet();
+				virtualTime.accumulateAndGet(group.virtualStartTime, Math::max);
 			}
+			if (group == null || !start(group))
+				numOfRunningGroups.decrementAndGet();
 		}
 	}
-	
-	private synchronized <T> Future<T> call(String groupId, PrioritizedCallable<T> callable) {
-		return executorService.submit(() -> {
-			try {
-				return callable.call();
-			} finally {
-				synchronized (DefaultWorkExecutor.this) {
-					Collection<PrioritizedCallable<?>> runningsOfGroup = runnings.get(groupId);
-					runningsOfGroup.remove(callable);
-					if (runningsOfGroup.isEmpty()) {
-						runnings.remove(groupId);
-						check();
-					}
-				}
+
+	/**
+	 * @return <tt>true</tt> if group is started, or <tt>false</tt> if group does not have
+	 * any works to run
+	 */
+	private boolean start(Group group) {
+		List<Work<?>> worksToRun = new ArrayList<>();
+		synchronized (group) {
+			for (Work<?> work: group.waitingWorks) {
+				if (!work.isCancelled())
+					worksToRun.add(work);
 			}
-		});
+			group.waitingWorks.clear();
+			group.totalPriority = 0;
+			if (worksToRun.isEmpty()) {
+				retire(group);
+				return false;
+			}
+			group.running = true;
+			group.numOfRunningWorks = worksToRun.size();
+		}
+		for (Work<?> work: worksToRun)
+			executorService.execute(work);
+		return true;
 	}
-	
-	@Override
-	public synchronized <T> Future<T> submit(String groupId, PrioritizedCallable<T> callable) {
-		callable = SecurityUtils.inheritSubject(callable);
-		Collection<PrioritizedCallable<?>> runningsOfGroup = runnings.get(groupId);
-		if (runningsOfGroup != null) {
-			runningsOfGroup.add(callable);
-			return call(groupId, callable);
-		} else {
-			WorkFuture<T> future = new WorkFuture<T>(groupId, callable);
-			Collection<WorkFuture<?>> waitingsOfGroup = waitings.get(groupId);
-			if (waitingsOfGroup == null) {
-				waitingsOfGroup = new ArrayList<>();
-				waitings.put(groupId, waitingsOfGroup);
+
+	private void retire(Group group) {
+		long virtualFinishTime = group.virtualStartTime + group.consumedTime;
+		if (virtualFinishTime - virtualTime.get() > 0) {
+			virtualFinishTimes.put(group.id, virtualFinishTime);
+			if (virtualFinishTimes.size() > purgeThreshold) {
+				long time = virtualTime.get();
+				virtualFinishTimes.values().removeIf(it -> it - time <= 0);
+				purgeThreshold = Math.max(MIN_PURGE_THRESHOLD, virtualFinishTimes.size() * 2);
 			}
-			waitingsOfGroup.add(future);
-			check();
-			return future;
 		}
+		group.retired = true;
+		groups.remove(group.id, group);
 	}
 
-	private class WorkFuture<T> implements Future<T> {
-
-		private final String groupId;
-		
-		private final PrioritizedCallable<T> callable;
-		
-		private Future<?> runningFuture;
-		
-		public WorkFuture(String groupId, PrioritizedCallable<T> callable) {
-			this.groupId = groupId;
-			this.callable = callable;
+	private void workFinished(Group group, long executionTime) {
+		int numOfActiveGroups = numOfRunningGroups.get() + numOfWaitingGroups.get();
+		virtualTime.addAndGet(executionTime / Math.max(1, numOfActiveGroups));
+		synchronized (group) {
+			group.consumedTime += executionTime;
+			if (--group.numOfRunningWorks != 0)
+				return;
+			retire(group);
 		}
-		
-		@Override
-		public boolean cancel(boolean mayInterruptIfRunning) {
-			synchronized (DefaultWorkExecutor.this) {
-				if (runningFuture != null) {
-					return runningFuture.cancel(mayInterruptIfRunning);
+		numOfRunningGroups.decrementAndGet();
+		dispatch();
+	}
+
+	@Override
+	public <T> Future<T> submit(String groupId, PrioritizedCallable<T> callable) {
+		Work<T> work = new Work<>(SecurityUtils.inheritSubject(callable), callable.getPriority());
+		boolean runImmediately;
+		while (true) {
+			Group group = groups.computeIfAbsent(groupId, Group::new);
+			synchronized (group) {
+				if (group.retired)
+					continue;
+				work.group = group;
+				if (group.running) {
+					group.numOfRunningWorks++;
+					runImmediately = true;
 				} else {
-					Collection<WorkFuture<?>> waitingsOfGroup = waitings.get(groupId);
-					if (waitingsOfGroup != null)
-						return waitingsOfGroup.remove(this);
-					else 
-						return false;
+					boolean isNew = group.sequence == 0;
+					// Re-position group in waiting set as its average priority changes. Group
+					// not in the set is being started, and will pick up this work anyway
+					boolean wasWaiting = !isNew && waitingGroups.remove(group);
+					group.waitingWorks.add(work);
+					group.totalPriority += work.priority;
+					if (isNew || wasWaiting) {
+						if (isNew) {
+							group.sequence = groupSequence.incrementAndGet();
+							group.waitingSince = System.nanoTime();
+							long time = virtualTime.get();
+							Long finishTime = virtualFinishTimes.remove(groupId);
+							if (finishTime != null && finishTime - time > 0)
+								group.virtualStartTime = finishTime;
+							else
+								group.virtualStartTime = time;
+							numOfWaitingGroups.incrementAndGet();
+						}
+						group.priority = (int) (group.totalPriority / group.waitingWorks.size());
+						waitingGroups.add(group);
+					}
+					runImmediately = false;
 				}
 			}
+			break;
 		}
+		if (runImmediately)
+			executorService.execute(work);
+		else
+			dispatch();
+		return work;
+	}
 
-		@Override
-		public boolean isCancelled() {
-			synchronized (DefaultWorkExecutor.this) {
-				if (runningFuture != null) {
-					return runningFuture.isCancelled();
-				} else {
-					Collection<WorkFuture<?>> waitingsOfGroup = waitings.get(groupId);
-					if (waitingsOfGroup != null)
-						return !waitingsOfGroup.contains(this);
-					else 
-						return true;
+	private void workCancelled(Work<?> work) {
+		Group group = work.group;
+		synchronized (group) {
+			if (!group.running && group.waitingWorks.remove(work)) {
+				group.totalPriority -= work.priority;
+				if (group.waitingWorks.isEmpty() && waitingGroups.remove(group)) {
+					numOfWaitingGroups.decrementAndGet();
+					retire(group);
 				}
 			}
 		}
+	}
+
+	private static class Group {
+
+		final String id;
+
+		final Collection<Work<?>> waitingWorks = new ArrayList<>();
+
+		long totalPriority;
+
+		/*
+		 * Average priority of waiting works. Only modified when group is not in waiting set
+		 */
+		volatile int priority;
+
+		/*
+		 * Arrival order of the group. Only modified when group is not in waiting set
+		 */
+		volatile long sequence;
+
+		/*
+		 * Virtual start time for fair sharing. Only modified when group is not in waiting set
+		 */
+		volatile long virtualStartTime;
+
+		volatile long waitingSince;
+
+		/*
+		 * Execution time in nanoseconds consumed by finished works of the group
+		 */
+		long consumedTime;
+
+		int numOfRunningWorks;
+
+		boolean running;
+
+		boolean retired;
+
+		Group(String id) {
+			this.id = id;
+		}
+
+	}
+
+	private class Work<T> extends FutureTask<T> {
+
+		private final int priority;
+
+		private final long submitTime = System.nanoTime();
+
+		private volatile Group group;
+
+		Work(PrioritizedCallable<T> callable, int priority) {
+			super(callable);
+			this.priority = priority;
+		}
 
 		@Override
-		public boolean isDone() {
-			synchronized (DefaultWorkExecutor.this) {
-				if (runningFuture != null) 
-					return runningFuture.isDone();
-				else
-					return false;
+		public void run() {
+			long startTime = System.nanoTime();
+			waitTimes.record(TimeUnit.NANOSECONDS.toMillis(startTime - submitTime));
+			numOfRunningWorks.incrementAndGet();
+			try {
+				super.run();
+			} finally {
+				numOfRunningWorks.decrementAndGet();
+				long executionTime = System.nanoTime() - startTime;
+				executionTimes.record(TimeUnit.NANOSECONDS.toMillis(executionTime));
+				workFinished(group, executionTime);
 			}
 		}
 
-		@SuppressWarnings("unchecked")
 		@Override
-		public T get() throws InterruptedException, ExecutionException {
-			synchronized (DefaultWorkExecutor.this) {
-				while (runningFuture == null) 
-					DefaultWorkExecutor.this.wait();
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			if (super.cancel(mayInterruptIfRunning)) {
+				workCancelled(this);
+				return true;
+			} else {
+				return false;
 			}
-			return (T) runningFuture.get();
 		}
 
-		private long getRemainingTime(long timeoutTime) throws TimeoutException {
-			long remainingTime = timeoutTime - System.currentTimeMillis();
-			if (remainingTime > 0)
-				return remainingTime;
-			else
-				throw new TimeoutException();
-		}
-		
-		@SuppressWarnings("unchecked")
-		@Override
-		public T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
-			long timeoutTime = System.currentTimeMillis() + unit.toMillis(timeout);
-			synchronized (DefaultWorkExecutor.this) {
-				while (runningFuture == null) 
-					DefaultWorkExecutor.this.wait(getRemainingTime(timeoutTime));
-			}			
-			return (T) runningFuture.get(getRemainingTime(timeoutTime), TimeUnit.MILLISECONDS);
+	}
+
+	@Override
+	public WorkExecutorStats getStats() {
+		int numOfWaitingGroups = 0;
+		int numOfWaitingWorks = 0;
+		long oldestWaitingSince = 0;
+		for (Group group: waitingGroups) {
+			synchronized (group) {
+				if (!group.waitingWorks.isEmpty()) {
+					numOfWaitingGroups++;
+					numOfWaitingWorks += group.waitingWorks.size();
+					if (numOfWaitingGroups == 1 || group.waitingSince - oldestWaitingSince < 0)
+						oldestWaitingSince = group.waitingSince;
+				}
+			}
 		}
-		
+		long oldestWaitingAge = numOfWaitingGroups != 0?
+				TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - oldestWaitingSince): 0;
+		return new WorkExecutorStats(concurrencySupplier.getAsInt(), numOfRunningGroups.get(),
+				numOfRunningWorks.get(), numOfWaitingGroups, numOfWaitingWorks, oldestWaitingAge,
+				waitTimes.getSnapshot(), executionTimes.getSnapshot());
 	}
 
 	@Override
@@ -202,7 +337,7 @@ public class DefaultWorkExecutor implements WorkExecutor {
 				runnable.run();
 				return null;
 			}
-			
+
 		});
 	}
 
@@ -210,5 +345,5 @@ public class DefaultWorkExecutor implements WorkExecutor {
 	public Future<?> submit(PrioritizedRunnable runnable) {
 		return submit(UUID.randomUUID().toString(), runnable);
 	}
-	
+
 }
@@ -0,0 +1,136 @@
+package io.onedev.server.util.concurrent;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Histogram with fixed bucket bounds which can be recorded concurrently without locking
+ */
+public class Histogram {
+
+	/**
+	 * Bucket bounds suitable to record durations in milliseconds
+	 */
+	public static final long[] DURATION_BOUNDS = new long[] {
+			1, 5, 10, 50, 100, 500, 1000, 5000, 10000, 60000, 300000};
+
+	/**
+	 * Bucket bounds suitable to record number of works in a batch
+	 */
+	public static final long[] BATCH_SIZE_BOUNDS = new long[] {
+			1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 5000};
+
+	private final long[] bounds;
+
+	private final LongAdder[] counts;
+
+	private final LongAdder sum = new LongAdder();
+
+	/**
+	 * @param bounds
+	 * 			inclusive upper bounds of buckets in ascending order. Values greater than
+	 * 			last bound are recorded into an overflow bucket
+	 */
+	public Histogram(long[] bounds) {
+		for (int i=1; i<bounds.length; i++)
+			Preconditions.checkArgument(bounds[i] > bounds[i-1], "Bounds should be in ascending order");
+		this.bounds = bounds.clone();
+		counts = new LongAdder[bounds.length + 1];
+		for (int i=0; i<counts.length; i++)
+			counts[i] = new LongAdder();
+	}
+
+	public void record(long value) {
+		int bucket = Arrays.binarySearch(bounds, value);
+		if (bucket < 0)
+			bucket = -bucket - 1;
+		counts[bucket].increment();
+		sum.add(value);
+	}
+
+	public Snapshot getSnapshot() {
+		long[] countsSnapshot = new long[counts.length];
+		for (int i=0; i<counts.length; i++)
+			countsSnapshot[i] = counts[i].sum();
+		return new Snapshot(bounds, countsSnapshot, sum.sum());
+	}
+
+	public static class Snapshot implements Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		private final long[] bounds;
+
+		private final long[] counts;
+
+		private final long sum;
+
+		public Snapshot(long[] bounds, long[] counts, long sum) {
+			this.bounds = bounds;
+			this.counts = counts;
+			this.sum = sum;
+		}
+
+		public long[] getBounds() {
+			return bounds;
+		}
+
+		/**
+		 * @return count of each bucket. Length of the array is one more than bounds, with
+		 * the last one being count of the overflow bucket
+		 */
+		public long[] getCounts() {
+			return counts;
+		}
+
+		public long getSum() {
+			return sum;
+		}
+
+		public long getCount() {
+			long count = 0;
+			for (long each: counts)
+				count += each;
+			return count;
+		}
+
+		public double getMean() {
+			long count = getCount();
+			return count != 0? sum * 1.0 / count: 0;
+		}
+
+		/**
+		 * @param percentile
+		 * 			percentile between 0 and 1
+		 * @return upper bound of the bucket containing specified percentile, or
+		 * <tt>-1</tt> if nothing is recorded, or {@link Long#MAX_VALUE} if it falls
+		 * into the overflow bucket
+		 */
+		public long getPercentile(double percentile) {
+			long count = getCount();
+			if (count == 0)
+				return -1;
+			long rank = (long) Math.ceil(percentile * count);
+			long accumulated = 0;
+			for (int i=0; i<bounds.length; i++) {
+				accumulated += counts[i];
+				if (accumulated >= rank)
+					return bounds[i];
+			}
+			return Long.MAX_VALUE;
+		}
+
+		public Snapshot merge(Snapshot snapshot) {
+			Preconditions.checkArgument(Arrays.equals(bounds, snapshot.bounds));
+			long[] mergedCounts = new long[counts.length];
+			for (int i=0; i<counts.length; i++)
+				mergedCounts[i] = counts[i] + snapshot.counts[i];
+			return new Snapshot(bounds, mergedCounts, sum + snapshot.sum);
+		}
+
+	}
+
+}
@@ -17,4 +17,7 @@ public interface WorkExecutor {
 	Future<?> submit(String groupId, PrioritizedRunnable runnable); 
 	
 	Future<?> submit(PrioritizedRunnable runnable); 
+	
+	WorkExecutorStats getStats();
+	
 }
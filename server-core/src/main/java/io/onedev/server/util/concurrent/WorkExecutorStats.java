@@ -0,0 +1,90 @@
+package io.onedev.server.util.concurrent;
+
+import java.io.Serializable;
+
+public class WorkExecutorStats implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private final int concurrency;
+
+	private final int numOfRunningGroups;
+
+	private final int numOfRunningWorks;
+
+	private final int numOfWaitingGroups;
+
+	private final int numOfWaitingWorks;
+
+	private final long oldestWaitingAge;
+
+	private final Histogram.Snapshot waitTimes;
+
+	private final Histogram.Snapshot executionTimes;
+
+	public WorkExecutorStats(int concurrency, int numOfRunningGroups, int numOfRunningWorks,
+			int numOfWaitingGroups, int numOfWaitingWorks, long oldestWaitingAge,
+			Histogram.Snapshot waitTimes, Histogram.Snapshot executionTimes) {
+		this.concurrency = concurrency;
+		this.numOfRunningGroups = numOfRunningGroups;
+		this.numOfRunningWorks = numOfRunningWorks;
+		this.numOfWaitingGroups = numOfWaitingGroups;
+		this.numOfWaitingWorks = numOfWaitingWorks;
+		this.oldestWaitingAge = oldestWaitingAge;
+		this.waitTimes = waitTimes;
+		this.executionTimes = executionTimes;
+	}
+
+	/**
+	 * @return max number of groups allowed to run concurrently
+	 */
+	public int getConcurrency() {
+		return concurrency;
+	}
+
+	public int getNumOfRunningGroups() {
+		return numOfRunningGroups;
+	}
+
+	public int getNumOfRunningWorks() {
+		return numOfRunningWorks;
+	}
+
+	public int getNumOfWaitingGroups() {
+		return numOfWaitingGroups;
+	}
+
+	public int getNumOfWaitingWorks() {
+		return numOfWaitingWorks;
+	}
+
+	/**
+	 * @return milliseconds the longest waiting group has been waiting, or <tt>0</tt> if
+	 * no groups are waiting
+	 */
+	public long getOldestWaitingAge() {
+		return oldestWaitingAge;
+	}
+
+	/**
+	 * @return ratio of running groups against concurrency
+	 */
+	public double getSaturation() {
+		return concurrency != 0? numOfRunningGroups * 1.0 / concurrency: 0;
+	}
+
+	/**
+	 * @return histogram of milliseconds works wait before being started
+	 */
+	public Histogram.Snapshot getWaitTimes() {
+		return waitTimes;
+	}
+
+	/**
+	 * @return histogram of milliseconds works take to run
+	 */
+	public Histogram.Snapshot getExecutionTimes() {
+		return executionTimes;
+	}
+
+}
@@ -0,0 +1,410 @@
+package io.onedev.server.util.lucene;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.quartz.ScheduleBuilder;
+import org.quartz.SimpleScheduleBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.onedev.commons.utils.ExceptionUtils;
+import io.onedev.commons.utils.FileUtils;
+import io.onedev.server.event.Listen;
+import io.onedev.server.event.system.SystemStarted;
+import io.onedev.server.event.system.SystemStopped;
+import io.onedev.server.util.concurrent.Histogram;
+import io.onedev.server.util.schedule.SchedulableTask;
+import io.onedev.server.util.schedule.TaskScheduler;
+
+@Singleton
+public class DefaultLuceneIndexManager implements LuceneIndexManager, SchedulableTask {
+
+	private static final Logger logger = LoggerFactory.getLogger(DefaultLuceneIndexManager.class);
+
+	private static final int CHECK_INTERVAL = 5; // in seconds
+
+	private static final int COMMIT_INTERVAL = 30; // in seconds
+
+	private static final long COMMIT_RAM_THRESHOLD = 32L * 1024 * 1024;
+
+	private static final int IDLE_TIMEOUT = 600; // in seconds
+
+	private final TaskScheduler taskScheduler;
+
+	private final Map<File, ManagedIndex> indexes = new ConcurrentHashMap<>();
+
+	private final Map<File, ManagedIndex> closingIndexes = new ConcurrentHashMap<>();
+
+	private final Histogram refreshTimes = new Histogram(Histogram.DURATION_BOUNDS);
+
+	private final Histogram commitTimes = new Histogram(Histogram.DURATION_BOUNDS);
+
+	private volatile String taskId;
+
+	@Inject
+	public DefaultLuceneIndexManager(TaskScheduler taskScheduler) {
+		this.taskScheduler = taskScheduler;
+	}
+
+	/**
+	 * Get managed index with usage lock held. Caller should release the lock via 
+	 * {@link #unlockIndex(ManagedIndex)} after use
+	 */
+	@Nullable
+	private ManagedIndex lockIndex(File indexDir, @Nullable Supplier<Analyzer> analyzerSupplier) {
+		while (true) {
+			ManagedIndex index = indexes.get(indexDir);
+			if (index == null || analyzerSupplier != null && index.writer == null) {
+				ManagedIndex readOnlyIndex = null;
+				ManagedIndex closingWriterIndex = null;
+				synchronized (this) {
+					index = indexes.get(indexDir);
+					if (index == null || analyzerSupplier != null && index.writer == null) {
+						ManagedIndex closingIndex = closingIndexes.get(indexDir);
+						if (closingIndex != null && closingIndex.writer != null) {
+							// Can not open another writer before the closing one releases its write lock
+							closingWriterIndex = closingIndex;
+						} else {
+							if (index != null) {
+								// Replaced by a writable one below. Searchers may still be using it, so 
+								// close it outside of the manager monitor
+								indexes.remove(indexDir);
+								readOnlyIndex = index;
+							}
+							index = openIndex(indexDir, analyzerSupplier);
+							if (index != null)
+								indexes.put(indexDir, index);
+						}
+					}
+				}
+				if (readOnlyIndex != null)
+					closeIndex(readOnlyIndex);
+				if (closingWriterIndex != null) {
+					closeIndex(closingWriterIndex);
+					continue;
+				}
+				if (index == null)
+					return null;
+			}
+			index.lock.readLock().lock();
+			if (!index.closed) {
+				index.lastAccessTime = System.currentTimeMillis();
+				return index;
+			} else {
+				// Closed concurrently, retry with a new one
+				index.lock.readLock().unlock();
+			}
+		}
+	}
+
+	private void unlockIndex(ManagedIndex index) {
+		// Refresh access time also on release, so that an index held for a long time is 
+		// not considered idle right after use
+		index.lastAccessTime = System.currentTimeMillis();
+		index.lock.readLock().unlock();
+	}
+
+	/**
+	 * Remove index from the map and close it. Closing happens outside of the manager monitor
+	 * as it waits for current users of the index
+	 */
+	private void retireIndex(File indexDir, ManagedIndex index) {
+		if (removeIndex(indexDir, index))
+			closeRemovedIndex(indexDir, index);
+	}
+
+	private synchronized boolean removeIndex(File indexDir, ManagedIndex index) {
+		boolean removed = indexes.remove(indexDir, index);
+		if (removed)
+			closingIndexes.put(indexDir, index);
+		return removed;
+	}
+
+	private void closeRemovedIndex(File indexDir, ManagedIndex index) {
+		try {
+			closeIndex(index);
+		} finally {
+			closingIndexes.remove(indexDir, index);
+		}
+	}
+
+	@Nullable
+	private ManagedIndex openIndex(File indexDir, @Nullable Supplier<Analyzer> analyzerSupplier) {
+		Directory directory = null;
+		try {
+			if (analyzerSupplier != null) {
+				FileUtils.createDir(indexDir);
+				directory = FSDirectory.open(indexDir.toPath());
+				IndexWriterConfig writerConfig = new IndexWriterConfig(analyzerSupplier.get());
+				writerConfig.setOpenMode(IndexWriterConfig.OpenMode.CREATE_OR_APPEND);
+				IndexWriter writer = new IndexWriter(directory, writerConfig);
+				return new ManagedIndex(directory, writer, new SearcherManager(writer, null));
+			} else if (indexDir.exists()) {
+				directory = FSDirectory.open(indexDir.toPath());
+				if (DirectoryReader.indexExists(directory))
+					return new ManagedIndex(directory, null, new SearcherManager(directory, null));
+			}
+		} catch (Exception e) {
+			if (directory != null) {
+				try {
+					directory.close();
+				} catch (IOException e2) {
+				}
+			}
+			throw ExceptionUtils.unchecked(e);
+		}
+		if (directory != null) {
+			try {
+				directory.close();
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+		return null;
+	}
+
+	private void commitIndex(ManagedIndex index) throws IOException {
+		if (index.writer != null && !index.rollback && index.writer.hasUncommittedChanges()) {
+			long time = System.nanoTime();
+			index.writer.commit();
+			commitTimes.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - time));
+		}
+		index.lastCommitTime = System.currentTimeMillis();
+	}
+
+	private void closeIndex(ManagedIndex index) {
+		Lock writeLock = index.lock.writeLock();
+		writeLock.lock();
+		try {
+			if (!index.closed) {
+				index.closed = true;
+				try {
+					commitIndex(index);
+				} catch (Exception e) {
+					logger.error("Error committing index", e);
+				}
+				try {
+					index.searcherManager.close();
+					if (index.writer != null) {
+						// Rollback closes the writer as well
+						if (index.rollback)
+							index.writer.rollback();
+						else
+							index.writer.close();
+					}
+					index.directory.close();
+				} catch (Exception e) {
+					logger.error("Error closing index", e);
+				}
+			}
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	@Override
+	public <T> T callWithSearcher(File indexDir, Function<IndexSearcher, T> func) {
+		ManagedIndex index = lockIndex(indexDir, null);
+		if (index != null) {
+			try {
+				IndexSearcher searcher = index.searcherManager.acquire();
+				try {
+					return func.apply(searcher);
+				} finally {
+					index.searcherManager.release(searcher);
+				}
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			} finally {
+				unlockIndex(index);
+			}
+		} else {
+			return null;
+		}
+	}
+
+	@Override
+	public <T> T callWithWriter(File indexDir, Supplier<Analyzer> analyzerSupplier, Function<IndexWriter, T> func) {
+		ManagedIndex index = lockIndex(indexDir, analyzerSupplier);
+		T result;
+		try {
+			result = func.apply(index.writer);
+		} catch (Throwable e) {
+			/*
+			 * Discard partial changes of the function by rolling back the writer. The index is 
+			 * removed first so that it is not committed or used again, and writer will be 
+			 * reopened from last commit on next access
+			 */
+			boolean removed;
+			try {
+				index.rollback = true;
+				removed = removeIndex(indexDir, index);
+			} finally {
+				unlockIndex(index);
+			}
+			if (removed) 
+				closeRemovedIndex(indexDir, index);
+			throw e;
+		}
+		try {
+			long time = System.nanoTime();
+			index.searcherManager.maybeRefreshBlocking();
+			refreshTimes.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - time));
+			return result;
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		} finally {
+			unlockIndex(index);
+		}
+	}
+
+	@Override
+	public void commit(File indexDir) {
+		ManagedIndex index = indexes.get(indexDir);
+		if (index != null) {
+			index.lock.readLock().lock();
+			try {
+				if (!index.closed)
+					commitIndex(index);
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			} finally {
+				index.lock.readLock().unlock();
+			}
+		}
+	}
+
+	@Override
+	public void close(File indexDir) {
+		ManagedIndex index = indexes.get(indexDir);
+		if (index != null)
+			retireIndex(indexDir, index);
+	}
+
+	@Override
+	public LuceneIndexStats getStats() {
+		int numOfOpenIndexes = 0;
+		int numOfOpenWriters = 0;
+		int numOfUncommittedIndexes = 0;
+		for (ManagedIndex index: indexes.values()) {
+			numOfOpenIndexes++;
+			if (index.writer != null) {
+				numOfOpenWriters++;
+				if (index.writer.hasUncommittedChanges())
+					numOfUncommittedIndexes++;
+			}
+		}
+		return new LuceneIndexStats(numOfOpenIndexes, numOfOpenWriters, numOfUncommittedIndexes,
+				refreshTimes.getSnapshot(), commitTimes.getSnapshot());
+	}
+
+	/**
+	 * Commit indexes with changes pending for long enough, or taking too much memory, and
+	 * close indexes not accessed for a while
+	 */
+	@Override
+	public void execute() {
+		long now = System.currentTimeMillis();
+		for (Map.Entry<File, ManagedIndex> entry: new ArrayList<>(indexes.entrySet())) {
+			ManagedIndex index = entry.getValue();
+			if (now - index.lastAccessTime > IDLE_TIMEOUT * 1000L) {
+				// Skip indexes in use instead of waiting for them. Holding the write lock also 
+				// keeps the index from being used again until closed
+				Lock writeLock = index.lock.writeLock();
+				if (writeLock.tryLock()) {
+					try {
+						retireIndex(entry.getKey(), index);
+					} finally {
+						writeLock.unlock();
+					}
+				}
+			} else if (index.writer != null
+					&& (now - index.lastCommitTime > COMMIT_INTERVAL * 1000L
+							|| index.writer.ramBytesUsed() > COMMIT_RAM_THRESHOLD)) {
+				index.lock.readLock().lock();
+				try {
+					if (!index.closed)
+						commitIndex(index);
+				} catch (Exception e) {
+					logger.error("Error committing index", e);
+				} finally {
+					index.lock.readLock().unlock();
+				}
+			}
+		}
+	}
+
+	@Override
+	public ScheduleBuilder<?> getScheduleBuilder() {
+		return SimpleScheduleBuilder.repeatSecondlyForever(CHECK_INTERVAL);
+	}
+
+	@Listen
+	public void on(SystemStarted event) {
+		taskId = taskScheduler.schedule(this);
+	}
+
+	@Listen
+	public void on(SystemStopped event) {
+		if (taskId != null)
+			taskScheduler.unschedule(taskId);
+		for (Map.Entry<File, ManagedIndex> entry: new ArrayList<>(indexes.entrySet()))
+			retireIndex(entry.getKey(), entry.getValue());
+	}
+
+	private static class ManagedIndex {
+
+		final Directory directory;
+
+		final IndexWriter writer;
+
+		final SearcherManager searcherManager;
+
+		/*
+		 * Held in read mode while index is being used, and in write mode while
+		 * index is being closed
+		 */
+		final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+		volatile boolean closed;
+
+		/*
+		 * Whether or not to discard uncommitted changes when closing the index
+		 */
+		volatile boolean rollback;
+
+		volatile long lastAccessTime = System.currentTimeMillis();
+
+		volatile long lastCommitTime = System.currentTimeMillis();
+
+		ManagedIndex(Directory directory, @Nullable IndexWriter writer, SearcherManager searcherManager) {
+			this.directory = directory;
+			this.writer = writer;
+			this.searcherManager = searcherManager;
+		}
+
+	}
+
+}
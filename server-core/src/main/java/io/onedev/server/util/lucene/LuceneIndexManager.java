@@ -0,0 +1,61 @@
+package io.onedev.server.util.lucene;
+
+import java.io.File;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import javax.annotation.Nullable;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.search.IndexSearcher;
+
+/**
+ * Manages long-lived writers and near real-time searchers of Lucene indexes, so that 
+ * index accesses do not need to open and close index for each call.
+ * <p>
+ * Changes made via writers are visible to searchers immediately after the call, but are 
+ * only committed periodically, or when the index is committed or closed explicitly. Changes 
+ * not committed yet will be lost if server crashes. Callers should record their progress in 
+ * the index itself (for instance a meta document holding last indexed position), so that 
+ * lost changes can be redone from last committed progress. Call {@link #commit(File)} if 
+ * changes need to be durable immediately.
+ */
+public interface LuceneIndexManager {
+
+	/**
+	 * Call specified function with a near real-time searcher of specified index. The function 
+	 * should not call {@link #callWithWriter(File, Supplier, Function)} of the same index, 
+	 * while the reverse is allowed
+	 * 
+	 * @return result of the function, or <tt>null</tt> if index does not exist
+	 */
+	@Nullable
+	<T> T callWithSearcher(File indexDir, Function<IndexSearcher, T> func);
+	
+	/**
+	 * Call specified function with writer of specified index. The index will be created if 
+	 * not exist. If the function throws exception, uncommitted changes of the index are 
+	 * rolled back, including those made by other calls since last commit, and the writer is 
+	 * reopened from last commit on next access. Changes made by the function may still be 
+	 * committed periodically before it fails, so they should be idempotent
+	 * 
+	 * @param analyzerSupplier
+	 * 			supplier of analyzer to be used if writer of the index needs to be opened 
+	 */
+	<T> T callWithWriter(File indexDir, Supplier<Analyzer> analyzerSupplier, Function<IndexWriter, T> func);
+	
+	/**
+	 * Commit pending changes of specified index if it is open
+	 */
+	void commit(File indexDir);
+	
+	/**
+	 * Commit pending changes of specified index and close it if it is open. This should be 
+	 * called before index directory is removed or replaced
+	 */
+	void close(File indexDir);
+	
+	LuceneIndexStats getStats();
+	
+}
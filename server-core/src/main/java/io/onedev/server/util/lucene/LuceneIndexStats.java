@@ -0,0 +1,65 @@
+package io.onedev.server.util.lucene;
+
+import java.io.Serializable;
+
+import io.onedev.server.util.concurrent.Histogram;
+
+public class LuceneIndexStats implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private final int numOfOpenIndexes;
+	
+	private final int numOfOpenWriters;
+	
+	private final int numOfUncommittedIndexes;
+	
+	private final Histogram.Snapshot refreshTimes;
+	
+	private final Histogram.Snapshot commitTimes;
+
+	public LuceneIndexStats(int numOfOpenIndexes, int numOfOpenWriters, int numOfUncommittedIndexes, 
+			Histogram.Snapshot refreshTimes, Histogram.Snapshot commitTimes) {
+		this.numOfOpenIndexes = numOfOpenIndexes;
+		this.numOfOpenWriters = numOfOpenWriters;
+		this.numOfUncommittedIndexes = numOfUncommittedIndexes;
+		this.refreshTimes = refreshTimes;
+		this.commitTimes = commitTimes;
+	}
+
+	/**
+	 * @return number of indexes having searcher open
+	 */
+	public int getNumOfOpenIndexes() {
+		return numOfOpenIndexes;
+	}
+
+	/**
+	 * @return number of indexes having writer open
+	 */
+	public int getNumOfOpenWriters() {
+		return numOfOpenWriters;
+	}
+
+	/**
+	 * @return number of indexes having changes not committed yet
+	 */
+	public int getNumOfUncommittedIndexes() {
+		return numOfUncommittedIndexes;
+	}
+
+	/**
+	 * @return milliseconds taken to refresh searchers after changes
+	 */
+	public Histogram.Snapshot getRefreshTimes() {
+		return refreshTimes;
+	}
+
+	/**
+	 * @return milliseconds taken to commit indexes
+	 */
+	public Histogram.Snapshot getCommitTimes() {
+		return commitTimes;
+	}
+	
+}
@@ -56,6 +56,7 @@ import io.onedev.server.web.page.admin.usermanagement.password.UserPasswordPage;
 import io.onedev.server.web.page.admin.usermanagement.profile.UserProfilePage;
 import io.onedev.server.web.page.admin.usermanagement.sshkeys.UserSshKeysPage;
 import io.onedev.server.web.page.admin.usermanagement.twofactorauthentication.UserTwoFactorAuthenticationPage;
+import io.onedev.server.web.page.admin.workqueue.WorkQueuePage;
 import io.onedev.server.web.page.builds.BuildListPage;
 import io.onedev.server.web.page.help.IncompatibilitiesPage;
 import io.onedev.server.web.page.help.MethodDetailPage;
@@ -304,6 +305,7 @@ public class BaseUrlMapper extends CompoundRequestMapper {
 		
 		add(new BasePageMapper("~administration/server-log/#{" + ServerLogPage.PARAM_SERVER + "}", ServerLogPage.class));
 		add(new BasePageMapper("~administration/server-information/#{" + ServerInformationPage.PARAM_SERVER + "}", ServerInformationPage.class));
+		add(new BasePageMapper("~administration/work-queues/#{" + WorkQueuePage.PARAM_SERVER + "}", WorkQueuePage.class));
 	}
 	
 	private void addProjectPages() {
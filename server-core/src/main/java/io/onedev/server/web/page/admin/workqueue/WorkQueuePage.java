@@ -0,0 +1,237 @@
+package io.onedev.server.web.page.admin.workqueue;
+
+import io.onedev.server.OneDev;
+import io.onedev.server.cluster.ClusterManager;
+import io.onedev.server.manager.ProjectManager;
+import io.onedev.server.replica.ReplicaCatchUpProgress;
+import io.onedev.server.util.DateUtils;
+import io.onedev.server.util.concurrent.BatchWorkManager;
+import io.onedev.server.util.concurrent.BatchWorkStats;
+import io.onedev.server.util.concurrent.Histogram;
+import io.onedev.server.util.concurrent.WorkExecutor;
+import io.onedev.server.util.concurrent.WorkExecutorStats;
+import io.onedev.server.web.page.admin.ServerDetailPage;
+import org.apache.wicket.markup.ComponentTag;
+import org.apache.wicket.markup.html.WebMarkupContainer;
+import org.apache.wicket.markup.html.basic.Label;
+import org.apache.wicket.markup.html.list.ListItem;
+import org.apache.wicket.markup.html.list.ListView;
+import org.apache.wicket.model.AbstractReadOnlyModel;
+import org.apache.wicket.model.IModel;
+import org.apache.wicket.model.LoadableDetachableModel;
+import org.apache.wicket.request.mapper.parameter.PageParameters;
+
+import javax.annotation.Nullable;
+import java.io.Serializable;
+import java.util.*;
+
+@SuppressWarnings("serial")
+public class WorkQueuePage extends ServerDetailPage {
+
+	private final IModel<WorkQueueStats> statsModel = new LoadableDetachableModel<>() {
+		@Override
+		protected WorkQueueStats load() {
+			return getStats(server);
+		}
+
+	};
+
+	public WorkQueuePage(PageParameters params) {
+		super(params);
+	}
+
+	@Override
+	protected void onInitialize() {
+		super.onInitialize();
+
+		add(new ListView<Map.Entry<String, String>>("executorProperties", new LoadableDetachableModel<>() {
+
+			@Override
+			protected List<Map.Entry<String, String>> load() {
+				WorkExecutorStats stats = statsModel.getObject().executorStats;
+				Map<String, String> properties = new LinkedHashMap<>();
+				properties.put("Concurrency", String.valueOf(stats.getConcurrency()));
+				properties.put("Running Groups", String.valueOf(stats.getNumOfRunningGroups()));
+				properties.put("Running Works", String.valueOf(stats.getNumOfRunningWorks()));
+				properties.put("Waiting Groups", String.valueOf(stats.getNumOfWaitingGroups()));
+				properties.put("Waiting Works", String.valueOf(stats.getNumOfWaitingWorks()));
+				properties.put("Oldest Waiting", DateUtils.formatDuration(stats.getOldestWaitingAge()));
+				properties.put("Completed Works", String.valueOf(stats.getExecutionTimes().getCount()));
+				properties.put("Wait Time (p50 / p95)", formatPercentiles(stats.getWaitTimes()));
+				properties.put("Execution Time (p50 / p95)", formatPercentiles(stats.getExecutionTimes()));
+				return new ArrayList<>(properties.entrySet());
+			}
+		}) {
+
+			@Override
+			protected void populateItem(ListItem<Map.Entry<String, String>> item) {
+				item.add(new Label("name", item.getModelObject().getKey()));
+				item.add(new Label("value", item.getModelObject().getValue()));
+			}
+		});
+
+		add(new Label("saturation", new AbstractReadOnlyModel<String>() {
+			@Override
+			public String getObject() {
+				return getSaturation();
+			}
+		}) {
+
+			@Override
+			protected void onComponentTag(ComponentTag tag) {
+				super.onComponentTag(tag);
+				tag.put("style", "width: " + getSaturation());
+			}
+
+		});
+
+		WebMarkupContainer replicaCatchUp = new WebMarkupContainer("replicaCatchUp") {
+
+			@Override
+			protected void onConfigure() {
+				super.onConfigure();
+				setVisible(statsModel.getObject().catchUpProgress != null);
+			}
+
+		};
+		add(replicaCatchUp);
+		replicaCatchUp.add(new ListView<Map.Entry<String, String>>("catchUpProperties", new LoadableDetachableModel<>() {
+
+			@Override
+			protected List<Map.Entry<String, String>> load() {
+				ReplicaCatchUpProgress progress = statsModel.getObject().catchUpProgress;
+				Map<String, String> properties = new LinkedHashMap<>();
+				if (progress != null) {
+					properties.put("Started", DateUtils.formatDateTime(progress.getStartDate()));
+					if (progress.getFinishDate() != null)
+						properties.put("Finished", DateUtils.formatDateTime(progress.getFinishDate()));
+					else
+						properties.put("Finished", "In progress");
+					properties.put("Replicas", String.valueOf(progress.getNumOfReplicas()));
+					properties.put("Checked Replicas", String.valueOf(progress.getNumOfCheckedReplicas()));
+					properties.put("Stale Replicas", String.valueOf(progress.getNumOfStaleReplicas()));
+					properties.put("Synced Replicas", String.valueOf(progress.getNumOfSyncedReplicas()));
+					properties.put("Failed Replicas", String.valueOf(progress.getNumOfFailedReplicas()));
+				}
+				return new ArrayList<>(properties.entrySet());
+			}
+		}) {
+
+			@Override
+			protected void populateItem(ListItem<Map.Entry<String, String>> item) {
+				item.add(new Label("name", item.getModelObject().getKey()));
+				item.add(new Label("value", item.getModelObject().getValue()));
+			}
+		});
+		replicaCatchUp.add(new Label("catchUpProgress", new AbstractReadOnlyModel<String>() {
+			@Override
+			public String getObject() {
+				return getCatchUpPercentage();
+			}
+		}) {
+
+			@Override
+			protected void onComponentTag(ComponentTag tag) {
+				super.onComponentTag(tag);
+				tag.put("style", "width: " + getCatchUpPercentage());
+			}
+
+		});
+
+		add(new ListView<BatchWorkStats>("batchWorks", new AbstractReadOnlyModel<List<BatchWorkStats>>() {
+
+			@Override
+			public List<BatchWorkStats> getObject() {
+				return statsModel.getObject().batchWorkStats;
+			}
+		}) {
+
+			@Override
+			protected void populateItem(ListItem<BatchWorkStats> item) {
+				BatchWorkStats stats = item.getModelObject();
+				item.add(new Label("category", stats.getCategory()));
+				item.add(new Label("activeWorkers", stats.getNumOfActiveWorkers()));
+				item.add(new Label("queued", stats.getNumOfQueuedWorks()));
+				item.add(new Label("working", stats.getNumOfWorkingWorks()));
+				item.add(new Label("oldestQueued", DateUtils.formatDuration(stats.getOldestQueuedAge())));
+				item.add(new Label("batches", stats.getBatchSizes().getCount()));
+				item.add(new Label("failedBatches", stats.getNumOfFailedBatches()));
+				item.add(new Label("meanBatchSize", String.format("%.1f", stats.getBatchSizes().getMean())));
+				item.add(new Label("executionTime", formatPercentiles(stats.getExecutionTimes())));
+			}
+		});
+
+		add(new WebMarkupContainer("noBatchWorks") {
+
+			@Override
+			protected void onConfigure() {
+				super.onConfigure();
+				setVisible(statsModel.getObject().batchWorkStats.isEmpty());
+			}
+
+		});
+	}
+
+	private String getSaturation() {
+		return (int) (Math.min(statsModel.getObject().executorStats.getSaturation(), 1) * 100) + "%";
+	}
+
+	private String getCatchUpPercentage() {
+		ReplicaCatchUpProgress progress = statsModel.getObject().catchUpProgress;
+		return (progress != null? progress.getPercentage(): 0) + "%";
+	}
+
+	private static String formatPercentiles(Histogram.Snapshot snapshot) {
+		return formatPercentile(snapshot, 0.5) + " / " + formatPercentile(snapshot, 0.95);
+	}
+
+	private static String formatPercentile(Histogram.Snapshot snapshot, double percentile) {
+		long value = snapshot.getPercentile(percentile);
+		if (value == -1)
+			return "n/a";
+		else if (value == Long.MAX_VALUE)
+			return "> " + DateUtils.formatDuration(snapshot.getBounds()[snapshot.getBounds().length - 1]);
+		else
+			return "<= " + DateUtils.formatDuration(value);
+	}
+
+	@Override
+	protected void onDetach() {
+		statsModel.detach();
+		super.onDetach();
+	}
+
+	private static ClusterManager getClusterManager() {
+		return OneDev.getInstance(ClusterManager.class);
+	}
+
+	private static WorkQueueStats getStats() {
+		var stats = new WorkQueueStats();
+		stats.executorStats = OneDev.getInstance(WorkExecutor.class).getStats();
+		stats.batchWorkStats = new ArrayList<>(OneDev.getInstance(BatchWorkManager.class).getStats());
+		stats.catchUpProgress = OneDev.getInstance(ProjectManager.class).getReplicaCatchUpProgress();
+		return stats;
+	}
+
+	private static WorkQueueStats getStats(@Nullable String server) {
+		if (server != null)
+			return getClusterManager().runOnServer(server, () -> getStats());
+		else
+			return getStats();
+	}
+
+	@Override
+	protected String newTopbarTitle() {
+		return "Work Queues";
+	}
+
+	private static class WorkQueueStats implements Serializable {
+
+		WorkExecutorStats executorStats;
+
+		List<BatchWorkStats> batchWorkStats;
+
+		ReplicaCatchUpProgress catchUpProgress;
+
+	}
+}
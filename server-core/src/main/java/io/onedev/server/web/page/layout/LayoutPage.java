@@ -68,6 +68,7 @@ import io.onedev.server.web.page.admin.sshserverkey.SshServerKeyPage;
 import io.onedev.server.web.page.admin.ssosetting.SsoConnectorListPage;
 import io.onedev.server.web.page.admin.systemsetting.SystemSettingPage;
 import io.onedev.server.web.page.admin.usermanagement.*;
+import io.onedev.server.web.page.admin.workqueue.WorkQueuePage;
 import io.onedev.server.web.page.base.BasePage;
 import io.onedev.server.web.page.help.IncompatibilitiesPage;
 import io.onedev.server.web.page.my.MyPage;
@@ -328,19 +329,25 @@ public abstract class LayoutPage extends BasePage {
 					if (servers.size() > 1) {
 						List<SidebarMenuItem> serverLogMenuItems = new ArrayList<>();
 						List<SidebarMenuItem> serverInformationMenuItems = new ArrayList<>();
+						List<SidebarMenuItem> workQueueMenuItems = new ArrayList<>();
 						for (var server : servers) {
 							serverLogMenuItems.add(new SidebarMenuItem.Page(null, server,
 									ServerLogPage.class, ServerLogPage.paramsOf(server)));
 							serverInformationMenuItems.add(new SidebarMenuItem.Page(null, server,
 									ServerInformationPage.class, ServerInformationPage.paramsOf(server)));
+							workQueueMenuItems.add(new SidebarMenuItem.Page(null, server,
+									WorkQueuePage.class, WorkQueuePage.paramsOf(server)));
 						}
 						maintenanceMenuItems.add(new SidebarMenuItem.SubMenu(null, "Server Log", serverLogMenuItems));
 						maintenanceMenuItems.add(new SidebarMenuItem.SubMenu(null, "Server Information", serverInformationMenuItems));
+						maintenanceMenuItems.add(new SidebarMenuItem.SubMenu(null, "Work Queues", workQueueMenuItems));
 					} else {
 						maintenanceMenuItems.add(new SidebarMenuItem.Page(null, "Server Log",
 								ServerLogPage.class, new PageParameters()));
 						maintenanceMenuItems.add(new SidebarMenuItem.Page(null, "Server Information",
 								ServerInformationPage.class, new PageParameters()));
+						maintenanceMenuItems.add(new SidebarMenuItem.Page(null, "Work Queues",
+								WorkQueuePage.class, new PageParameters()));
 					}
 
 					administrationMenuItems.add(new SidebarMenuItem.SubMenu(null, "System Maintenance", maintenanceMenuItems));
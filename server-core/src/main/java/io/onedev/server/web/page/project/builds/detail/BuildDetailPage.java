@@ -13,6 +13,8 @@ import io.onedev.server.job.JobAuthorizationContext;
 import io.onedev.server.job.JobAuthorizationContextAware;
 import io.onedev.server.job.JobContext;
 import io.onedev.server.job.JobManager;
+import io.onedev.server.job.ResourceAllocator;
+import io.onedev.server.job.ResourceQueuePosition;
 import io.onedev.server.model.Build;
 import io.onedev.server.model.Build.Status;
 import io.onedev.server.model.Project;
@@ -230,6 +232,40 @@ public abstract class BuildDetailPage extends ProjectPage
 			}
 			
 		}));
+		statusContainer.add(new Label("queuePosition", new LoadableDetachableModel<String>() {
+
+			@Override
+			protected String load() {
+				if (getBuild().getStatus() == Status.PENDING) {
+					ResourceQueuePosition position = OneDev.getInstance(ResourceAllocator.class).getQueuePosition(getBuild());
+					if (position != null) 
+						return String.format("(%d of %d in queue)", position.getPosition(), position.getSize());
+				}
+				return null;
+			}
+			
+		}) {
+
+			@Override
+			protected void onConfigure() {
+				super.onConfigure();
+				setVisible(getDefaultModelObject() != null);
+			}
+			
+		});
+		
+		// Queue position changes without build events, observe it while waiting for resources
+		statusContainer.add(new ChangeObserver() {
+			
+			@Override
+			protected Collection<String> findObservables() {
+				if (getBuild().getStatus() == Status.PENDING)
+					return Sets.newHashSet(Build.getQueuePositionChangeObservable(getBuild().getId()));
+				else
+					return Sets.newHashSet();
+			}
+			
+		});
 		
 		add(new WebMarkupContainer("actions") {
 			@Override
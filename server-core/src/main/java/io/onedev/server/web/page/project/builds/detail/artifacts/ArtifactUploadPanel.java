@@ -5,6 +5,7 @@ import io.onedev.commons.utils.LockUtils;
 import io.onedev.k8shelper.KubernetesHelper;
 import io.onedev.server.OneDev;
 import io.onedev.server.cluster.ClusterManager;
+import io.onedev.server.manager.ArtifactStoreManager;
 import io.onedev.server.manager.ProjectManager;
 import io.onedev.server.manager.SettingManager;
 import io.onedev.server.model.Build;
@@ -105,11 +106,13 @@ public abstract class ArtifactUploadPanel extends Panel {
 					if (activeServer.equals(clusterManager.getLocalServerAddress())) {
 						LockUtils.write(getBuild().getArtifactsLockName(), () -> {
 							StorageManager storageManager = OneDev.getInstance(StorageManager.class);
+							ArtifactStoreManager artifactStoreManager = OneDev.getInstance(ArtifactStoreManager.class);
 							var artifactsDir = storageManager.initArtifactsDir(getBuild().getProject().getId(), getBuild().getNumber());
 							for (FileUpload upload: uploads) {
 								String filePath = getArtifactPath(upload);
 								File file = new File(artifactsDir, filePath);
 								FileUtils.createDir(file.getParentFile());
+								artifactStoreManager.detach(file);
 								try (	InputStream is = upload.getInputStream();
 										OutputStream os = new FileOutputStream(file)) {
 									IOUtils.copy(is, os, BUFFER_SIZE);
@@ -117,6 +120,7 @@ public abstract class ArtifactUploadPanel extends Panel {
 									upload.release();
 								}
 							}
+							artifactStoreManager.deduplicate(projectId, getBuild().getNumber());
 							projectManager.directoryModified(projectId, artifactsDir);
 							return null;
 						});
@@ -1,11 +1,25 @@
 package io.onedev.server.web.page.project.stats;
 
+import java.util.List;
+
 import io.onedev.server.web.component.link.ViewStateAwarePageLink;
+import org.apache.wicket.ajax.AjaxSelfUpdatingTimerBehavior;
+import org.apache.wicket.markup.ComponentTag;
 import org.apache.wicket.markup.head.IHeaderResponse;
 import org.apache.wicket.markup.head.JavaScriptHeaderItem;
+import org.apache.wicket.markup.html.WebMarkupContainer;
+import org.apache.wicket.markup.html.basic.Label;
 import org.apache.wicket.markup.html.link.BookmarkablePageLink;
+import org.apache.wicket.markup.html.list.ListItem;
+import org.apache.wicket.markup.html.list.ListView;
+import org.apache.wicket.model.IModel;
+import org.apache.wicket.model.LoadableDetachableModel;
 import org.apache.wicket.request.mapper.parameter.PageParameters;
+import org.apache.wicket.util.time.Duration;
 
+import io.onedev.server.OneDev;
+import io.onedev.server.infomanager.CollectionProgress;
+import io.onedev.server.infomanager.CommitInfoManager;
 import io.onedev.server.model.Project;
 import io.onedev.server.security.SecurityUtils;
 import io.onedev.server.web.page.project.ProjectPage;
@@ -14,6 +28,15 @@ import io.onedev.server.web.page.project.dashboard.ProjectDashboardPage;
 @SuppressWarnings("serial")
 public abstract class ProjectStatsPage extends ProjectPage {
 
+	private final IModel<List<CollectionProgress>> collectionProgressesModel = new LoadableDetachableModel<>() {
+
+		@Override
+		protected List<CollectionProgress> load() {
+			return OneDev.getInstance(CommitInfoManager.class).getCollectionProgresses(getProject().getId());
+		}
+		
+	};
+	
 	public ProjectStatsPage(PageParameters params) {
 		super(params);
 	}
@@ -21,6 +44,45 @@ public abstract class ProjectStatsPage extends ProjectPage {
 	@Override
 	protected void onInitialize() {
 		super.onInitialize();
+		
+		WebMarkupContainer collectionProgress = new WebMarkupContainer("collectionProgress") {
+
+			@Override
+			protected void onConfigure() {
+				super.onConfigure();
+				setVisible(!collectionProgressesModel.getObject().isEmpty());
+			}
+			
+		};
+		collectionProgress.add(new ListView<>("passes", collectionProgressesModel) {
+
+			@Override
+			protected void populateItem(ListItem<CollectionProgress> item) {
+				CollectionProgress progress = item.getModelObject();
+				item.add(new Label("name", progress.getPass().getDisplayName()));
+				item.add(new Label("percentage", progress.getPercentage() + "%") {
+
+					@Override
+					protected void onComponentTag(ComponentTag tag) {
+						super.onComponentTag(tag);
+						tag.put("style", "width: " + progress.getPercentage() + "%");
+					}
+					
+				});
+			}
+			
+		});
+		collectionProgress.setOutputMarkupPlaceholderTag(true);
+		add(collectionProgress);
+		
+		if (!collectionProgressesModel.getObject().isEmpty()) 
+			collectionProgress.add(new AjaxSelfUpdatingTimerBehavior(Duration.seconds(5)));
+	}
+	
+	@Override
+	protected void onDetach() {
+		collectionProgressesModel.detach();
+		super.onDetach();
 	}
 	
 	@Override
@@ -7,6 +7,7 @@ import io.onedev.commons.utils.StringUtils;
 import io.onedev.k8shelper.KubernetesHelper;
 import io.onedev.server.OneDev;
 import io.onedev.server.cluster.ClusterManager;
+import io.onedev.server.manager.ArtifactStoreManager;
 import io.onedev.server.manager.BuildManager;
 import io.onedev.server.manager.ProjectManager;
 import io.onedev.server.model.Build;
@@ -14,11 +15,12 @@ import io.onedev.server.model.Project;
 import io.onedev.server.model.User;
 import io.onedev.server.security.SecurityUtils;
 import io.onedev.server.util.IOUtils;
+import io.onedev.server.util.LongRange;
 import io.onedev.server.util.artifact.FileInfo;
 import io.onedev.server.web.util.MimeUtils;
+import io.onedev.server.web.util.WicketUtils;
 import org.apache.shiro.authz.UnauthorizedException;
 import org.apache.tika.mime.MimeTypes;
-import org.apache.wicket.request.cycle.RequestCycle;
 import org.apache.wicket.request.mapper.parameter.PageParameters;
 import org.apache.wicket.request.resource.AbstractResource;
 
@@ -35,9 +37,14 @@ import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
 
+import static com.google.common.net.HttpHeaders.IF_RANGE;
+import static com.google.common.net.HttpHeaders.RANGE;
 import static io.onedev.commons.bootstrap.Bootstrap.BUFFER_SIZE;
 import static io.onedev.commons.utils.LockUtils.read;
 import static io.onedev.server.model.Build.getArtifactsLockName;
+import static io.onedev.server.util.ContentRangeUtils.formatRange;
+import static io.onedev.server.util.IOUtils.copyRange;
+import static javax.ws.rs.core.Response.Status.PARTIAL_CONTENT;
 
 public class ArtifactResource extends AbstractResource {
 
@@ -99,12 +106,14 @@ public class ArtifactResource extends AbstractResource {
 		}
 		
 		if (fileInfo != null) {
+			response.setAcceptRange(ContentRangeType.BYTES);
 			response.setContentLength(fileInfo.getLength());
 			response.setContentType(MimeUtils.sanitize(fileInfo.getMediaType()));
 		} else {
 			response.setContentType(MimeTypes.OCTET_STREAM);
 		}
 		
+		FileInfo finalFileInfo = fileInfo;
 		response.setWriteCallback(new WriteCallback() {
 
 			@Override
@@ -112,35 +121,53 @@ public class ArtifactResource extends AbstractResource {
 				ProjectManager projectManager = OneDev.getInstance(ProjectManager.class);
 				String activeServer = projectManager.getActiveServer(projectId, true);
 				ClusterManager clusterManager = OneDev.getInstance(ClusterManager.class);
+				LongRange range = finalFileInfo != null? WicketUtils.getRequestContentRange(finalFileInfo.getLength()): null;
 				if (activeServer.equals(clusterManager.getLocalServerAddress())) {
 					read(getArtifactsLockName(projectId, buildNumber), () -> {
 						File artifactFile = new File(Build.getArtifactsDir(projectId, buildNumber), artifactPath);
 						try (
 								InputStream is = new FileInputStream(artifactFile);
 								OutputStream os = attributes.getResponse().getOutputStream()) {
-							IOUtils.copy(is, os, BUFFER_SIZE);
+							if (range != null)
+								copyRange(is, os, range);
+							else
+								IOUtils.copy(is, os, BUFFER_SIZE);
 						}
 						return null;
 					});
 				} else {
 	    			Client client = ClientBuilder.newClient();
 	    			try {
-	    				CharSequence path = RequestCycle.get().urlFor(
-	    						new ArtifactResourceReference(), 
-	    						ArtifactResource.paramsOf(projectId, buildNumber, artifactPath));
 	    				String activeServerUrl = clusterManager.getServerUrl(activeServer);
-	    				
-	    				WebTarget target = client.target(activeServerUrl).path(path.toString());
+	    				WebTarget target = client.target(activeServerUrl).path("~api/cluster/artifact")
+								.queryParam("projectId", projectId)
+								.queryParam("buildNumber", buildNumber)
+								.queryParam("artifactPath", artifactPath);
 	    				Invocation.Builder builder =  target.request();
 	    				builder.header(HttpHeaders.AUTHORIZATION, 
 	    						KubernetesHelper.BEARER + " " + clusterManager.getCredential());
+						
+						// Only fetch requested range from active server instead of whole file
+						if (range != null && (range.getStart() != 0 || range.getEnd() < finalFileInfo.getLength() - 1)) {
+							var requestRange = new LongRange(range.getStart(), Math.min(range.getEnd(), finalFileInfo.getLength() - 1));
+							builder.header(RANGE, formatRange(requestRange));
+							long length = finalFileInfo.getLength();
+							long lastModified = finalFileInfo.getLastModified();
+							var etag = clusterManager.runOnServer(activeServer, () -> read(getArtifactsLockName(projectId, buildNumber), 
+									() -> OneDev.getInstance(ArtifactStoreManager.class).getETag(projectId, buildNumber, artifactPath, length, lastModified)));
+							builder.header(IF_RANGE, etag);
+						}
 	    				
 	    				try (Response response = builder.get()) {
-	    					KubernetesHelper.checkStatus(response);
+							if (response.getStatus() != PARTIAL_CONTENT.getStatusCode())
+								KubernetesHelper.checkStatus(response);
 	    					try (
 	    							InputStream is = response.readEntity(InputStream.class);
 	    							OutputStream os = attributes.getResponse().getOutputStream()) {
-	    						IOUtils.copy(is, os, BUFFER_SIZE);
+								if (range != null && response.getStatus() != PARTIAL_CONTENT.getStatusCode())
+									copyRange(is, os, range);
+								else
+									IOUtils.copy(is, os, BUFFER_SIZE);
 	    					} 
 	    				} 
 	    			} finally {
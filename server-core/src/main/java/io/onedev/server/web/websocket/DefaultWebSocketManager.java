@@ -1,16 +1,22 @@
 package io.onedev.server.web.websocket;
 
+import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
+import com.hazelcast.core.EntryAdapter;
+import com.hazelcast.core.EntryEvent;
+import com.hazelcast.replicatedmap.ReplicatedMap;
 import io.onedev.commons.loader.ManagedSerializedForm;
 import io.onedev.commons.utils.StringUtils;
 import io.onedev.server.cluster.ClusterManager;
 import io.onedev.server.cluster.ClusterRunnable;
 import io.onedev.server.event.Listen;
+import io.onedev.server.event.cluster.ConnectionLost;
+import io.onedev.server.event.cluster.ConnectionRestored;
 import io.onedev.server.event.system.SystemStarted;
+import io.onedev.server.event.system.SystemStarting;
 import io.onedev.server.event.system.SystemStopping;
 import io.onedev.server.persistence.TransactionManager;
 import io.onedev.server.persistence.annotation.Sessional;
-import io.onedev.server.util.Pair;
 import io.onedev.server.util.schedule.SchedulableTask;
 import io.onedev.server.util.schedule.TaskScheduler;
 import io.onedev.server.web.behavior.ChangeObserver;
@@ -34,9 +40,9 @@ import java.io.ObjectStreamException;
 import java.io.Serializable;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.LockSupport;
 
 import static io.onedev.server.web.behavior.ChangeObserver.containsObservable;
-import static io.onedev.server.web.behavior.ChangeObserver.filterObservables;
 
 @Singleton
 public class DefaultWebSocketManager implements WebSocketManager, Serializable {
@@ -47,6 +53,8 @@ public class DefaultWebSocketManager implements WebSocketManager, Serializable {
 	
 	private static final int KEEP_ALIVE_INTERVAL = 30;
 	
+	private static final long NOTIFICATION_COALESCE_WINDOW = 100;
+	
 	private final Application application;
 	
 	private final TransactionManager transactionManager;
@@ -55,16 +63,44 @@ public class DefaultWebSocketManager implements WebSocketManager, Serializable {
 	
 	private final ClusterManager clusterManager;
 	
-	private final Map<String, Map<IKey, Collection<String>>> registeredObservables = new ConcurrentHashMap<>();
+	private final ObservableIndex observableIndex = new ObservableIndex(new ObservableIndex.Listener() {
+
+		@Override
+		public void observableAdded(String observable) {
+			var subscriptions = DefaultWebSocketManager.this.subscriptions;
+			if (subscriptions != null)
+				subscriptions.put(getSubscriptionKey(clusterManager.getLocalServerAddress(), observable), true);
+		}
+
+		@Override
+		public void observableRemoved(String observable) {
+			var subscriptions = DefaultWebSocketManager.this.subscriptions;
+			if (subscriptions != null)
+				subscriptions.remove(getSubscriptionKey(clusterManager.getLocalServerAddress(), observable));
+		}
+		
+	});
+	
+	private final Map<PageKey, Set<String>> pendingNotifications = new ConcurrentHashMap<>();
+	
+	private final Map<String, List<ObservablesChange>> pendingRemoteNotifications = new ConcurrentHashMap<>();
 	
 	private final IWebSocketConnectionRegistry connectionRegistry = new SimpleWebSocketConnectionRegistry();
 	
-	private final Map<String, Pair<PageKey, Date>> notifiedObservables = new ConcurrentHashMap<>();
+	private final Map<String, NotifiedObservable> notifiedObservables = new ConcurrentHashMap<>();
+	
+	/*
+	 * Cluster wide registry of observables observed by pages on each server, keyed by 
+	 * server address and observable. Each server only modifies entries of its own  
+	 */
+	private volatile ReplicatedMap<String, Boolean> subscriptions;
 	
 	private String keepAliveTaskId;
 
 	private String notifiedObservableCleanupTaskId;
 	
+	private volatile Thread notificationThread;
+	
 	@Inject
 	public DefaultWebSocketManager(Application application, TransactionManager transactionManager, 
 			TaskScheduler taskScheduler, ClusterManager clusterManager) {
@@ -82,14 +118,9 @@ public class DefaultWebSocketManager implements WebSocketManager, Serializable {
 	public void observe(BasePage page) {
 		String sessionId = page.getSession().getId();
 		if (sessionId != null) {
-			Map<IKey, Collection<String>> observablesOfSession = registeredObservables.get(sessionId);
-			if (observablesOfSession == null) {
-				observablesOfSession = new ConcurrentHashMap<>();
-				registeredObservables.put(sessionId, observablesOfSession);
-			}
 			IKey pageKey = new PageIdKey(page.getPageId());
 			Collection<String> observables = page.findChangeObservables();
-			Collection<String> prevObservables = observablesOfSession.put(pageKey, observables);
+			Collection<String> prevObservables = observableIndex.register(new PageKey(sessionId, pageKey), observables);
 			if (prevObservables != null && !observables.stream().allMatch(it -> prevObservables.stream().anyMatch(it2 -> containsObservable(it2, it)))) {
 				IWebSocketConnection connection = connectionRegistry.getConnection(application, sessionId, pageKey);
 				if (connection != null)
@@ -100,21 +131,15 @@ public class DefaultWebSocketManager implements WebSocketManager, Serializable {
 	
 	@Override
 	public void onDestroySession(String sessionId) {
-		registeredObservables.remove(sessionId);
+		observableIndex.unregisterSession(sessionId);
 	}
 	
 	@Nullable
 	private Collection<String> getRegisteredObservables(IWebSocketConnection connection) {
-		if (connection.isOpen()) {
-			PageKey pageKey = ((WebSocketConnection) connection).getPageKey();
-			Map<IKey, Collection<String>> observablesOfSession = registeredObservables.get(pageKey.getSessionId());
-			if (observablesOfSession != null) 
-				return observablesOfSession.get(pageKey.getPageId());
-			else
-				return null;
-		} else {
+		if (connection.isOpen()) 
+			return observableIndex.getObservables(((WebSocketConnection) connection).getPageKey());
+		else 
 			return null;
-		}
 	}
 	
 	private void notifyObservables(IWebSocketConnection connection, Collection<String> observables) {
@@ -140,30 +165,223 @@ public class DefaultWebSocketManager implements WebSocketManager, Serializable {
 
 			@Override
 			public void run() {
-				clusterManager.submitToAllServers(() -> {
-					for (var observable: observables)
-						notifiedObservables.put(observable, new Pair<>(sourcePageKey, new Date()));
-					for (IWebSocketConnection connection: connectionRegistry.getConnections(application)) {
-						PageKey pageKey = ((WebSocketConnection) connection).getPageKey();
-						if (sourcePageKey == null || !sourcePageKey.equals(pageKey)) {
-							Collection<String> registeredObservables = getRegisteredObservables(connection);
-							if (registeredObservables != null) {
-								var registeredChangedObservables = 
-										filterObservables(registeredObservables, observables);
-								if (!registeredChangedObservables.isEmpty())
-									notifyObservables(connection, registeredChangedObservables);
-							}
+				var date = new Date();
+				for (var observable: observables)
+					notifiedObservables.put(observable, new NotifiedObservable(sourcePageKey, date, true));
+				dispatch(new ObservablesChange(observables, sourcePageKey));
+				for (var entry: getSubscribedServers(observables).entrySet()) 
+					queueRemoteNotification(entry.getKey(), new ObservablesChange(entry.getValue(), sourcePageKey));
+			}
+			
+		});
+	}
+	
+	private static String getSubscriptionKey(String server, String observable) {
+		return server + "\n" + observable;
+	}
+	
+	/**
+	 * @return map of remote server to changed observables observed by some pages on that 
+	 * server
+	 */
+	private Map<String, Collection<String>> getSubscribedServers(Collection<String> changedObservables) {
+		Map<String, Collection<String>> subscribedServers = new HashMap<>();
+		var subscriptions = this.subscriptions;
+		if (subscriptions != null) {
+			var localServer = clusterManager.getLocalServerAddress();
+			for (var server: clusterManager.getOnlineServers()) {
+				if (server.equals(localServer))
+					continue;
+				for (var changedObservable: changedObservables) {
+					for (int i=0; i<=changedObservable.length(); i++) {
+						if ((i == changedObservable.length() || changedObservable.charAt(i) == ':') 
+								&& subscriptions.containsKey(getSubscriptionKey(server, changedObservable.substring(0, i)))) {
+							subscribedServers.computeIfAbsent(server, k -> new HashSet<>()).add(changedObservable);
+							break;
 						}
 					}
-					return null;
-				});
+				}
+			}
+		}
+		return subscribedServers;
+	}
+	
+	private void dispatch(ObservablesChange change) {
+		for (var entry: observableIndex.match(change.observables, change.sourcePageKey).entrySet()) 
+			queueNotification(entry.getKey(), entry.getValue());
+	}
+	
+	/**
+	 * Queue observables change to be sent to specified remote server. Changes queued within 
+	 * coalesce window are sent to the server in a single call
+	 */
+	private void queueRemoteNotification(String server, ObservablesChange change) {
+		Thread notificationThread = this.notificationThread;
+		if (notificationThread != null) {
+			var queued = new boolean[] {false};
+			pendingRemoteNotifications.compute(server, (k, v) -> {
+				if (v == null) {
+					v = new ArrayList<>();
+					queued[0] = true;
+				}
+				v.add(change);
+				return v;
+			});
+			if (queued[0])
+				LockSupport.unpark(notificationThread);
+		} else {
+			sendRemoteNotifications(server, Lists.newArrayList(change));
+		}
+	}
+	
+	private void sendRemoteNotifications(String server, List<ObservablesChange> changes) {
+		clusterManager.submitToServer(server, () -> {
+			var date = new Date();
+			for (var change: changes) {
+				for (var observable: change.observables)
+					notifiedObservables.put(observable, new NotifiedObservable(change.sourcePageKey, date, false));
+				dispatch(change);
+			}
+			return null;
+		});
+	}
+	
+	/**
+	 * Queue changed observables of specified page. Changes of the same page within 
+	 * coalesce window are sent to the page as a single message
+	 */
+	private void queueNotification(PageKey pageKey, Collection<String> observables) {
+		Thread notificationThread = this.notificationThread;
+		if (notificationThread != null) {
+			var queued = new boolean[] {false};
+			pendingNotifications.compute(pageKey, (k, v) -> {
+				if (v == null) {
+					v = new LinkedHashSet<>();
+					queued[0] = true;
+				}
+				v.addAll(observables);
+				return v;
+			});
+			if (queued[0])
+				LockSupport.unpark(notificationThread);
+		} else {
+			sendNotification(pageKey, observables);
+		}
+	}
+	
+	private void sendNotification(PageKey pageKey, Collection<String> observables) {
+		IWebSocketConnection connection = connectionRegistry.getConnection(
+				application, pageKey.getSessionId(), pageKey.getPageId());
+		if (connection != null && connection.isOpen())
+			notifyObservables(connection, observables);
+	}
+	
+	private void sendPendingNotifications() {
+		for (var server: pendingRemoteNotifications.keySet()) {
+			var changes = pendingRemoteNotifications.remove(server);
+			if (changes != null) {
+				try {
+					sendRemoteNotifications(server, changes);
+				} catch (Exception e) {
+					logger.error("Error sending websocket notifications to server '" + server + "'", e);
+				}
+			}
+		}
+		for (var pageKey: pendingNotifications.keySet()) {
+			var observables = pendingNotifications.remove(pageKey);
+			if (observables != null)
+				sendNotification(pageKey, observables);
+		}
+	}
+	
+	@Listen
+	public void on(SystemStarting event) {
+		var localServer = clusterManager.getLocalServerAddress();
+		var subscriptions = clusterManager.getHazelcastInstance().<String, Boolean>getReplicatedMap("webSocketSubscriptions");
+		removeSubscriptions(subscriptions, localServer);
+		subscriptions.addEntryListener(new EntryAdapter<>() {
+
+			@Override
+			public void entryAdded(EntryEvent<String, Boolean> event) {
+				var server = StringUtils.substringBefore(event.getKey(), "\n");
+				if (!server.equals(localServer)) 
+					replayNotifiedObservables(server, StringUtils.substringAfter(event.getKey(), "\n"));
 			}
 			
 		});
+		this.subscriptions = subscriptions;
+		publishSubscriptions();
+	}
+	
+	private void removeSubscriptions(ReplicatedMap<String, Boolean> subscriptions, String server) {
+		var prefix = getSubscriptionKey(server, "");
+		for (var key: new ArrayList<>(subscriptions.keySet())) {
+			if (key.startsWith(prefix))
+				subscriptions.remove(key);
+		}
+	}
+	
+	private void publishSubscriptions() {
+		var subscriptions = this.subscriptions;
+		if (subscriptions != null) {
+			var localServer = clusterManager.getLocalServerAddress();
+			Map<String, Boolean> localSubscriptions = new HashMap<>();
+			for (var observable: observableIndex.getObservedObservables())
+				localSubscriptions.put(getSubscriptionKey(localServer, observable), true);
+			subscriptions.putAll(localSubscriptions);
+		}
+	}
+	
+	/**
+	 * Observables changed on this server might be sent before subscription of a remote 
+	 * server is replicated here. Replay them to the remote server to avoid losing them 
+	 */
+	private void replayNotifiedObservables(String server, String subscribedObservable) {
+		Map<PageKey, Collection<String>> observables = new HashMap<>();
+		for (var entry: notifiedObservables.entrySet()) {
+			if (entry.getValue().local && containsObservable(subscribedObservable, entry.getKey())) {
+				observables.computeIfAbsent(entry.getValue().sourcePageKey, k -> new HashSet<>())
+						.add(entry.getKey());
+			}
+		}
+		for (var entry: observables.entrySet()) 
+			queueRemoteNotification(server, new ObservablesChange(entry.getValue(), entry.getKey()));
+	}
+	
+	@Listen
+	public void on(ConnectionLost event) {
+		var subscriptions = this.subscriptions;
+		if (subscriptions != null && clusterManager.isLeaderServer())
+			removeSubscriptions(subscriptions, event.getServer());
+	}
+	
+	@Listen
+	public void on(ConnectionRestored event) {
+		publishSubscriptions();
 	}
 	
 	@Listen
 	public void on(SystemStarted event) {
+		notificationThread = new Thread(() -> {
+			while (Thread.currentThread() == notificationThread) {
+				if (pendingNotifications.isEmpty() && pendingRemoteNotifications.isEmpty()) {
+					LockSupport.park(this);
+				} else {
+					try {
+						// Sleep instead of park so that notifications queued meanwhile do 
+						// not cut the window short
+						Thread.sleep(NOTIFICATION_COALESCE_WINDOW);
+						sendPendingNotifications();
+					} catch (InterruptedException ignored) {
+					} catch (Exception e) {
+						logger.error("Error sending websocket notifications", e);
+					}
+				}
+			}
+		}, "Websocket Notifier");
+		notificationThread.setDaemon(true);
+		notificationThread.start();
+		
 		keepAliveTaskId = taskScheduler.schedule(new SchedulableTask() {
 			
 			@Override
@@ -199,7 +417,7 @@ public class DefaultWebSocketManager implements WebSocketManager, Serializable {
 			public void execute() {
 				Date threshold = new DateTime().minusSeconds(TOLERATE_SECONDS).toDate();
 				for (var it = notifiedObservables.entrySet().iterator(); it.hasNext();) {
-					if (it.next().getValue().getRight().before(threshold))
+					if (it.next().getValue().date.before(threshold))
 						it.remove();
 				}
 			}
@@ -209,6 +427,11 @@ public class DefaultWebSocketManager implements WebSocketManager, Serializable {
 
 	@Listen
 	public void on(SystemStopping event) {
+		Thread notificationThread = this.notificationThread;
+		if (notificationThread != null) {
+			this.notificationThread = null;
+			LockSupport.unpark(notificationThread);
+		}
 		if (keepAliveTaskId != null)
 			taskScheduler.unschedule(keepAliveTaskId);
 		if (notifiedObservableCleanupTaskId != null)
@@ -234,7 +457,7 @@ public class DefaultWebSocketManager implements WebSocketManager, Serializable {
 			Set<String> observables = new HashSet<>();
 			for (var entry: notifiedObservables.entrySet()) {
 				var observable = entry.getKey();
-				var sourcePageKey = entry.getValue().getLeft();
+				var sourcePageKey = entry.getValue().sourcePageKey;
 				if ((sourcePageKey == null || !sourcePageKey.equals(pageKey)) 
 						&& registeredObservables.stream().anyMatch(it-> containsObservable(it, observable))) {
 					observables.add(observable);
@@ -245,4 +468,38 @@ public class DefaultWebSocketManager implements WebSocketManager, Serializable {
 		}
 	}
 
+	private static class ObservablesChange implements Serializable {
+		
+		private static final long serialVersionUID = 1L;
+
+		final Collection<String> observables;
+		
+		final PageKey sourcePageKey;
+		
+		ObservablesChange(Collection<String> observables, @Nullable PageKey sourcePageKey) {
+			this.observables = observables;
+			this.sourcePageKey = sourcePageKey;
+		}
+		
+	}
+	
+	private static class NotifiedObservable {
+		
+		final PageKey sourcePageKey;
+		
+		final Date date;
+		
+		/*
+		 * Whether or not the change is originated from this server
+		 */
+		final boolean local;
+		
+		NotifiedObservable(@Nullable PageKey sourcePageKey, Date date, boolean local) {
+			this.sourcePageKey = sourcePageKey;
+			this.date = date;
+			this.local = local;
+		}
+		
+	}
+	
 }
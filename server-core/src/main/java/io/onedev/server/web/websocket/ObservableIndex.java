@@ -0,0 +1,163 @@
+package io.onedev.server.web.websocket;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.Nullable;
+
+import org.apache.wicket.protocol.ws.api.registry.IKey;
+
+import io.onedev.server.web.behavior.ChangeObserver;
+
+/**
+ * Index of observables registered by pages, so that pages interested in changed observables
+ * can be found without checking observables of every page. A page observing an observable
+ * is also interested in changes of its sub observables, for instance page observing
+ * <tt>build:1</tt> should be notified of changes of <tt>build:1:status</tt>, see
+ * {@link ChangeObserver#containsObservable(String, String)}.
+ * <p>
+ * Registrations are serialized, while lookups are lock free.
+ */
+class ObservableIndex {
+
+	private final Map<String, Map<IKey, Collection<String>>> registeredObservables = new ConcurrentHashMap<>();
+
+	private final Map<String, Set<PageKey>> observingPages = new ConcurrentHashMap<>();
+
+	private final Listener listener;
+
+	ObservableIndex(Listener listener) {
+		this.listener = listener;
+	}
+
+	ObservableIndex() {
+		this(new Listener() {
+
+			@Override
+			public void observableAdded(String observable) {
+			}
+
+			@Override
+			public void observableRemoved(String observable) {
+			}
+
+		});
+	}
+
+	/**
+	 * @return previously registered observables of the page, or <tt>null</tt> if not registered
+	 */
+	@Nullable
+	public synchronized Collection<String> register(PageKey pageKey, Collection<String> observables) {
+		Map<IKey, Collection<String>> observablesOfSession =
+				registeredObservables.computeIfAbsent(pageKey.getSessionId(), k -> new ConcurrentHashMap<>());
+		Collection<String> prevObservables = observablesOfSession.put(pageKey.getPageId(), observables);
+
+		// Add new observables before removing stale ones so that observables registered
+		// both times are always findable
+		for (String observable: observables)
+			addObservingPage(observable, pageKey);
+		if (prevObservables != null) {
+			Set<String> currentObservables = new HashSet<>(observables);
+			for (String observable: prevObservables) {
+				if (!currentObservables.contains(observable))
+					removeObservingPage(observable, pageKey);
+			}
+		}
+		return prevObservables;
+	}
+
+	public synchronized void unregisterSession(String sessionId) {
+		Map<IKey, Collection<String>> observablesOfSession = registeredObservables.remove(sessionId);
+		if (observablesOfSession != null) {
+			for (Map.Entry<IKey, Collection<String>> entry: observablesOfSession.entrySet()) {
+				PageKey pageKey = new PageKey(sessionId, entry.getKey());
+				for (String observable: entry.getValue())
+					removeObservingPage(observable, pageKey);
+			}
+		}
+	}
+
+	private void addObservingPage(String observable, PageKey pageKey) {
+		Set<PageKey> pageKeys = observingPages.get(observable);
+		if (pageKeys == null) {
+			pageKeys = ConcurrentHashMap.newKeySet();
+			pageKeys.add(pageKey);
+			observingPages.put(observable, pageKeys);
+			listener.observableAdded(observable);
+		} else {
+			pageKeys.add(pageKey);
+		}
+	}
+
+	private void removeObservingPage(String observable, PageKey pageKey) {
+		Set<PageKey> pageKeys = observingPages.get(observable);
+		if (pageKeys != null && pageKeys.remove(pageKey) && pageKeys.isEmpty()) {
+			observingPages.remove(observable);
+			listener.observableRemoved(observable);
+		}
+	}
+
+	/**
+	 * @return observables currently observed by some pages
+	 */
+	public Collection<String> getObservedObservables() {
+		return new HashSet<>(observingPages.keySet());
+	}
+
+	@Nullable
+	public Collection<String> getObservables(PageKey pageKey) {
+		Map<IKey, Collection<String>> observablesOfSession = registeredObservables.get(pageKey.getSessionId());
+		if (observablesOfSession != null)
+			return observablesOfSession.get(pageKey.getPageId());
+		else
+			return null;
+	}
+
+	/**
+	 * Find pages interested in specified changed observables
+	 *
+	 * @param excludePageKey
+	 * 			page to exclude from result, normally the page causing the change
+	 * @return map of interested page to changed observables it is interested in
+	 */
+	public Map<PageKey, Set<String>> match(Collection<String> changedObservables, @Nullable PageKey excludePageKey) {
+		Map<PageKey, Set<String>> matches = new HashMap<>();
+		for (String changedObservable: changedObservables) {
+			for (int i=0; i<=changedObservable.length(); i++) {
+				if (i == changedObservable.length() || changedObservable.charAt(i) == ':') {
+					Set<PageKey> pageKeys = observingPages.get(changedObservable.substring(0, i));
+					if (pageKeys != null) {
+						for (PageKey pageKey: pageKeys) {
+							if (!pageKey.equals(excludePageKey))
+								matches.computeIfAbsent(pageKey, k -> new LinkedHashSet<>()).add(changedObservable);
+						}
+					}
+				}
+			}
+		}
+		return matches;
+	}
+
+	interface Listener {
+
+		/**
+		 * Called when an observable gets observed by first page. Registration is locked 
+		 * while calling this method
+		 */
+		void observableAdded(String observable);
+
+		/**
+		 * Called when an observable is no longer observed by any page. Registration is 
+		 * locked while calling this method
+		 */
+		void observableRemoved(String observable);
+
+	}
+
+}
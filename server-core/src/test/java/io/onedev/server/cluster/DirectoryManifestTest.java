@@ -0,0 +1,141 @@
+package io.onedev.server.cluster;
+
+import static io.onedev.server.model.Project.SHARE_TEST_DIR;
+import static io.onedev.server.util.DirectoryVersionUtils.FILE_VERSION;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+import io.onedev.commons.utils.FileUtils;
+
+public class DirectoryManifestTest {
+
+	private File tempDir;
+
+	@Before
+	public void before() {
+		tempDir = FileUtils.createTempDir();
+	}
+
+	@After
+	public void after() {
+		FileUtils.deleteDir(tempDir);
+	}
+
+	private void write(File directory, String path, String content) throws IOException {
+		var file = new File(directory, path);
+		FileUtils.createDir(file.getParentFile());
+		FileUtils.writeStringToFile(file, content, UTF_8);
+	}
+
+	@Test
+	public void shouldExcludeVersionAndShareTestFiles() throws IOException {
+		var directory = new File(tempDir, "source");
+		write(directory, "index.html", "index");
+		write(directory, "css/site.css", "css");
+		write(directory, FILE_VERSION, "1");
+		write(directory, SHARE_TEST_DIR + "/test", "test");
+
+		var manifest = DirectoryManifest.of(directory);
+		assertEquals(Sets.newHashSet("index.html", "css/site.css"), manifest.getEntries().keySet());
+		assertEquals(3, manifest.getEntries().get("css/site.css").getLength());
+		assertEquals(0, DirectoryManifest.of(new File(tempDir, "missing")).getEntries().size());
+	}
+
+	@Test
+	public void shouldDetectRacyEntries() throws IOException {
+		var directory = new File(tempDir, "source");
+		write(directory, "old.txt", "old");
+		write(directory, "new.txt", "new");
+		new File(directory, "old.txt").setLastModified(System.currentTimeMillis() - 60000);
+
+		var manifest = DirectoryManifest.of(directory);
+		assertFalse(manifest.isRacy(manifest.getEntries().get("old.txt")));
+		assertTrue(manifest.isRacy(manifest.getEntries().get("new.txt")));
+	}
+
+	@Test
+	public void shouldTransferSpecifiedFiles() throws IOException {
+		var source = new File(tempDir, "source");
+		var target = new File(tempDir, "target");
+		write(source, "index.html", "new index");
+		write(source, "css/site.css", "css");
+		write(source, "unchanged.txt", "unchanged");
+		new File(source, "css/site.css").setLastModified(1600000000000L);
+		write(target, "index.html", "old index");
+
+		var bos = new ByteArrayOutputStream();
+		DirectoryManifest.tar(source, Lists.newArrayList("index.html", "css/site.css", "deleted.txt"), bos);
+		var stats = DirectoryManifest.untar(new ByteArrayInputStream(bos.toByteArray()), target);
+
+		assertEquals(Sets.newHashSet("index.html", "css/site.css"), stats.getPaths());
+		assertEquals(12, stats.getBytes());
+		assertEquals("new index", FileUtils.readFileToString(new File(target, "index.html"), UTF_8));
+		assertEquals(1600000000000L, new File(target, "css/site.css").lastModified());
+		assertFalse(new File(target, "unchanged.txt").exists());
+	}
+
+	@Test
+	public void shouldHashContent() throws IOException {
+		var directory = new File(tempDir, "source");
+		write(directory, "a", "same");
+		write(directory, "b", "same");
+		write(directory, "c", "diff");
+
+		var hashes = DirectoryManifest.hash(directory, Lists.newArrayList("a", "b", "c", "missing"));
+		assertEquals(3, hashes.size());
+		assertEquals(hashes.get("a"), hashes.get("b"));
+		assertNotEquals(hashes.get("a"), hashes.get("c"));
+	}
+
+	@Test
+	public void shouldFollowSymbolicLinkOfDirectory() throws IOException {
+		var directory = new File(tempDir, "source");
+		write(directory, "css/site.css", "css");
+		var link = new File(tempDir, "link");
+		Files.createSymbolicLink(link.toPath(), directory.toPath());
+
+		assertEquals(Sets.newHashSet("css/site.css"), DirectoryManifest.of(link).getEntries().keySet());
+	}
+
+	@Test
+	public void shouldCheckPathInsideDirectory() throws IOException {
+		var directory = new File(tempDir, "source");
+		write(directory, "css/site.css", "css");
+		write(tempDir, "secret", "secret");
+
+		assertTrue(DirectoryManifest.isInside(directory, "css/site.css"));
+		assertFalse(DirectoryManifest.isInside(directory, "../secret"));
+		assertFalse(DirectoryManifest.isInside(directory, "css/../../secret"));
+		assertFalse(DirectoryManifest.hash(directory, Lists.newArrayList("../secret")).containsKey("../secret"));
+	}
+
+	@Test
+	public void shouldDetectHardLinkedFiles() throws IOException {
+		var directory = new File(tempDir, "source");
+		write(directory, "a", "content");
+		var file = new File(directory, "a");
+		assertFalse(DirectoryManifest.isHardLinked(file));
+		if (Files.getFileStore(file.toPath()).supportsFileAttributeView("unix")) {
+			Files.createLink(new File(directory, "b").toPath(), file.toPath());
+			assertTrue(DirectoryManifest.isHardLinked(file));
+		}
+		assertFalse(DirectoryManifest.isHardLinked(new File(directory, "missing")));
+	}
+
+}
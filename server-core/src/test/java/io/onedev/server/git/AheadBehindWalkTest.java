@@ -0,0 +1,83 @@
+package io.onedev.server.git;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.junit.Test;
+
+import io.onedev.server.git.command.WriteCommitGraphCommand;
+import io.onedev.server.git.service.AheadBehind;
+
+public class AheadBehindWalkTest extends AbstractGitTest {
+
+	@Test
+	public void shouldMatchRevWalkCounts() throws GitAPIException {
+		List<ObjectId> commitIds = new ArrayList<>();
+		commitIds.add(ObjectId.fromString(addFileAndCommit("a", "a", "c1")));
+		commitIds.add(ObjectId.fromString(addFileAndCommit("b", "b", "c2")));
+
+		git.checkout().setCreateBranch(true).setName("feature").setStartPoint(commitIds.get(0).name()).call();
+		commitIds.add(ObjectId.fromString(addFileAndCommit("c", "c", "f1")));
+		commitIds.add(ObjectId.fromString(addFileAndCommit("d", "d", "f2")));
+
+		git.checkout().setName("main").call();
+		commitIds.add(ObjectId.fromString(addFileAndCommit("e", "e", "c3")));
+		commitIds.add(git.merge().include(commitIds.get(3)).setMessage("merge feature").call().getNewHead());
+
+		new WriteCommitGraphCommand(gitDir).run();
+
+		// Commits below are not contained in commit graph
+		git.checkout().setName("feature").call();
+		commitIds.add(ObjectId.fromString(addFileAndCommit("f", "f", "f3")));
+		git.checkout().setName("main").call();
+		commitIds.add(ObjectId.fromString(addFileAndCommit("g", "g", "c4")));
+
+		CommitGraph graph = CommitGraph.read(new File(gitDir, ".git"));
+		assertNotNull(graph);
+		assertEquals(6, graph.getCommitCount());
+
+		for (ObjectId baseId: commitIds) {
+			AheadBehindWalk walk = new AheadBehindWalk(git.getRepository(), graph);
+			Map<ObjectId, AheadBehind> aheadBehinds = walk.calculate(baseId, commitIds);
+			assertTrue(walk.getOutOfGraphCount() <= 2);
+			for (ObjectId compareId: commitIds) {
+				AheadBehind aheadBehind = aheadBehinds.get(compareId);
+				assertEquals(count(baseId, compareId), aheadBehind.getAhead());
+				assertEquals(count(compareId, baseId), aheadBehind.getBehind());
+			}
+		}
+	}
+
+	private int count(ObjectId excludeId, ObjectId includeId) {
+		// Compare full reachable sets as RevWalk may over scan with identical commit times
+		Set<ObjectId> commitIds = getReachableCommitIds(includeId);
+		commitIds.removeAll(getReachableCommitIds(excludeId));
+		return commitIds.size();
+	}
+
+	private Set<ObjectId> getReachableCommitIds(ObjectId commitId) {
+		Set<ObjectId> commitIds = new HashSet<>();
+		try (RevWalk revWalk = new RevWalk(git.getRepository())) {
+			revWalk.markStart(revWalk.parseCommit(commitId));
+			for (RevCommit commit: revWalk)
+				commitIds.add(commit.copy());
+			return commitIds;
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+}
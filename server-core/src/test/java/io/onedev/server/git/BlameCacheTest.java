@@ -0,0 +1,57 @@
+package io.onedev.server.git;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.junit.Test;
+
+import io.onedev.commons.utils.FileUtils;
+import io.onedev.commons.utils.LinearRange;
+import io.onedev.server.git.command.BlameCommand;
+
+public class BlameCacheTest extends AbstractGitTest {
+
+	@Test
+	public void shouldDeriveBlameFromParent() throws Exception {
+		File cacheDir = FileUtils.createTempDir();
+		try {
+			addFileAndCommit("file", "1st line\n2nd line\n3rd line\n4th line\n5th line\n", "initial commit");
+			ObjectId initialCommitId = git.getRepository().resolve("main");
+
+			BlameCache cache = new BlameCache(cacheDir, git.getRepository().getDirectory(), git.getRepository());
+			assertEquals(getLineCommits(new BlameCommand(git.getRepository().getDirectory(), initialCommitId, "file").run()),
+					getLineCommits(cache.blame(initialCommitId, "file", null)));
+
+			addFileAndCommit("file", "1st line\n2nd line\nthird line\n4th line\n5th line\n6th line\n", "second commit");
+			addFileAndCommit("file", "2nd line\nthird line\n4th line\n5th line\n6th line\n", "third commit");
+			addFileAndCommit("another", "another", "fourth commit");
+			ObjectId commitId = git.getRepository().resolve("main");
+
+			Collection<BlameBlock> expected = new BlameCommand(git.getRepository().getDirectory(), commitId, "file").run();
+			assertEquals(getLineCommits(expected), getLineCommits(cache.blame(commitId, "file", null)));
+
+			expected = new BlameCommand(git.getRepository().getDirectory(), commitId, "file")
+					.range(new LinearRange(1, 3)).run();
+			assertEquals(getLineCommits(expected), getLineCommits(cache.blame(commitId, "file", new LinearRange(1, 3))));
+		} finally {
+			FileUtils.deleteDir(cacheDir);
+		}
+	}
+
+	private Map<Integer, String> getLineCommits(Collection<BlameBlock> blame) {
+		Map<Integer, String> lineCommits = new TreeMap<>();
+		for (BlameBlock block: blame) {
+			for (LinearRange range: block.getRanges()) {
+				for (int line = range.getFrom(); line <= range.getTo(); line++)
+					lineCommits.put(line, block.getCommit().getHash());
+			}
+		}
+		return lineCommits;
+	}
+
+}
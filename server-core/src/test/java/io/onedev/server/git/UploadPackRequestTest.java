@@ -0,0 +1,61 @@
+package io.onedev.server.git;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+public class UploadPackRequestTest {
+
+	private static final String WANT = "0032want 0123456789012345678901234567890123456789\n";
+	
+	@Test
+	public void shouldReadStatelessRequest() throws Exception {
+		String content = WANT + "0000" + "0009done\n";
+		UploadPackRequest request = UploadPackRequest.readStateless(toStream(content), 1024);
+		assertTrue(request.isComplete());
+		assertTrue(request.isDone());
+		assertEquals(content, new String(request.getContent(), StandardCharsets.UTF_8));
+		
+		content = WANT + "0000";
+		request = UploadPackRequest.readStateless(toStream(content), 1024);
+		assertTrue(request.isComplete());
+		assertFalse(request.isDone());
+		
+		content = WANT + WANT + "0000" + "0009done\n";
+		request = UploadPackRequest.readStateless(toStream(content), 10);
+		assertFalse(request.isComplete());
+		assertArrayEquals(content.getBytes(StandardCharsets.UTF_8), IOUtils.toByteArray(request.getInputStream()));
+	}
+	
+	@Test
+	public void shouldReadCommandRequests() throws Exception {
+		String fetch = "0011command=fetch" + "0001" + WANT + "0009done\n" + "0000";
+		String lsRefs = "0014command=ls-refs\n" + "0000";
+		InputStream is = toStream(lsRefs + fetch + "0000");
+		
+		UploadPackRequest request = UploadPackRequest.readCommand(is);
+		assertEquals(lsRefs, new String(request.getContent(), StandardCharsets.UTF_8));
+		assertFalse(request.isDone());
+		
+		request = UploadPackRequest.readCommand(is);
+		assertEquals(fetch, new String(request.getContent(), StandardCharsets.UTF_8));
+		assertTrue(request.isDone());
+		
+		assertNull(UploadPackRequest.readCommand(is));
+		assertNull(UploadPackRequest.readCommand(toStream("")));
+	}
+	
+	private InputStream toStream(String content) {
+		return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+	}
+	
+}
@@ -42,6 +42,7 @@ import io.onedev.server.git.exception.ObsoleteCommitException;
 import io.onedev.server.model.Project;
 import io.onedev.server.model.support.administration.GpgSetting;
 import io.onedev.server.persistence.SessionManager;
+import io.onedev.server.util.concurrent.WorkExecutor;
 
 public class DefaultGitServiceCommitTest extends AbstractGitTest {
 
@@ -69,9 +70,10 @@ public class DefaultGitServiceCommitTest extends AbstractGitTest {
 		var sessionManager = mock(SessionManager.class);
 		var clusterManager = mock(ClusterManager.class);
 		var listenerRegistry = mock(ListenerRegistry.class);
+		var workExecutor = mock(WorkExecutor.class);
 		
 		gitService = new DefaultGitService(projectManager, settingManager, sessionManager, 
-				clusterManager, listenerRegistry);
+				clusterManager, listenerRegistry, workExecutor);
 	}
 	
 	@Test
@@ -0,0 +1,43 @@
+package io.onedev.server.infomanager;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class CompactStringListTest {
+
+	@Test
+	public void shouldPreserveStrings() {
+		List<String> strings = new ArrayList<>();
+		strings.add("");
+		for (int i=0; i<100; i++)
+			strings.add("server-core/src/main/java/io/onedev/" + i + "/\u6587\u4ef6.java");
+		strings.add("z");
+
+		CompactStringList list = CompactStringList.of(strings);
+		assertEquals(strings, list);
+		for (int i=strings.size()-1; i>=0; i--)
+			assertEquals(strings.get(i), list.get(i));
+		assertEquals(strings, CompactStringList.fromBytes(list.getBytes()));
+		int rawLength = 0;
+		for (String string: strings)
+			rawLength += string.getBytes(StandardCharsets.UTF_8).length;
+		assertTrue(list.getBytes().length < rawLength / 2);
+
+		assertEquals(0, CompactStringList.of(new ArrayList<>()).size());
+	}
+
+	@Test
+	public void shouldEncodeInts() {
+		int[] values = new int[] {5, -3, 1000000, 0, Integer.MAX_VALUE, Integer.MIN_VALUE};
+		int[] decoded = CompactCodec.decodeInts(CompactCodec.encodeInts(values));
+		assertArrayEquals(new int[] {Integer.MIN_VALUE, -3, 0, 5, 1000000, Integer.MAX_VALUE}, decoded);
+	}
+
+}
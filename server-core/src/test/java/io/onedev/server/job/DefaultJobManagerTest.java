@@ -0,0 +1,226 @@
+package io.onedev.server.job;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.validation.Validator;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import com.google.common.collect.Lists;
+
+import io.onedev.commons.loader.AppLoader;
+import io.onedev.commons.loader.AppLoaderMocker;
+import io.onedev.server.cluster.ClusterManager;
+import io.onedev.server.cluster.ClusterTask;
+import io.onedev.server.event.ListenerRegistry;
+import io.onedev.server.event.project.build.BuildFinished;
+import io.onedev.server.event.project.build.BuildPending;
+import io.onedev.server.event.project.build.BuildSubmitted;
+import io.onedev.server.git.service.GitService;
+import io.onedev.server.job.log.LogManager;
+import io.onedev.server.manager.BuildManager;
+import io.onedev.server.manager.BuildParamManager;
+import io.onedev.server.manager.IssueManager;
+import io.onedev.server.manager.ProjectManager;
+import io.onedev.server.manager.PullRequestManager;
+import io.onedev.server.manager.SettingManager;
+import io.onedev.server.manager.UserManager;
+import io.onedev.server.model.Build;
+import io.onedev.server.model.Build.Status;
+import io.onedev.server.model.BuildDependence;
+import io.onedev.server.model.Project;
+import io.onedev.server.persistence.SessionManager;
+import io.onedev.server.persistence.TransactionManager;
+import io.onedev.server.persistence.dao.Dao;
+import io.onedev.server.search.code.CodeIndexManager;
+import io.onedev.server.util.schedule.TaskScheduler;
+import nl.altindag.ssl.SSLFactory;
+
+public class DefaultJobManagerTest extends AppLoaderMocker {
+
+	private static final Long PROJECT_ID = 1L;
+
+	private static final String SERVER1 = "server1";
+
+	private static final String SERVER2 = "server2";
+
+	private final Map<Long, Build> builds = new HashMap<>();
+
+	private final Map<Long, Long> unfinishedBuilds = new HashMap<>();
+
+	private final List<String> submittedServers = new ArrayList<>();
+
+	private final Set<String> leftServers = new HashSet<>();
+
+	private final AtomicReference<String> leaderServer = new AtomicReference<>(SERVER1);
+
+	private BuildManager buildManager;
+
+	private ListenerRegistry listenerRegistry;
+
+	private DefaultJobManager jobManager;
+
+	@SuppressWarnings("unchecked")
+	@Override
+	protected void setup() {
+		buildManager = mock(BuildManager.class);
+		when(buildManager.get(anyLong())).thenAnswer(invocation -> builds.get(invocation.<Long>getArgument(0)));
+		when(buildManager.load(anyLong())).thenAnswer(invocation -> builds.get(invocation.<Long>getArgument(0)));
+		when(buildManager.queryUnfinished()).thenAnswer(invocation -> new HashMap<>(unfinishedBuilds));
+		Mockito.when(AppLoader.getInstance(BuildManager.class)).thenReturn(buildManager);
+
+		var projectManager = mock(ProjectManager.class);
+		when(projectManager.getActiveServer(anyLong(), anyBoolean())).thenReturn(SERVER1);
+		Mockito.when(AppLoader.getInstance(ProjectManager.class)).thenReturn(projectManager);
+
+		// Tasks are run in place to simulate running on specified server
+		var clusterManager = mock(ClusterManager.class);
+		when(clusterManager.getOnlineServers()).thenReturn(Lists.newArrayList(SERVER1, SERVER2));
+		when(clusterManager.getLeaderServerAddress()).thenAnswer(invocation -> leaderServer.get());
+		when(clusterManager.submitToServer(anyString(), any(ClusterTask.class))).thenAnswer(invocation -> {
+			String server = invocation.getArgument(0);
+			submittedServers.add(server);
+			if (leftServers.contains(server))
+				throw new RuntimeException("Server left cluster: " + server);
+			return CompletableFuture.completedFuture(invocation.getArgument(1, ClusterTask.class).call());
+		});
+
+		var transactionManager = mock(TransactionManager.class);
+		when(transactionManager.call(any())).thenAnswer(invocation -> invocation.getArgument(0, Callable.class).call());
+		doAnswer(invocation -> {
+			invocation.getArgument(0, Runnable.class).run();
+			return null;
+		}).when(transactionManager).runAfterCommit(any());
+
+		listenerRegistry = mock(ListenerRegistry.class);
+
+		jobManager = new DefaultJobManager(buildManager, mock(UserManager.class), listenerRegistry,
+				mock(SettingManager.class), transactionManager, mock(LogManager.class), mock(ExecutorService.class),
+				mock(SessionManager.class), mock(BuildParamManager.class), projectManager, mock(Validator.class),
+				mock(TaskScheduler.class), clusterManager, mock(CodeIndexManager.class), mock(PullRequestManager.class),
+				mock(IssueManager.class), mock(GitService.class), mock(SSLFactory.class), mock(Dao.class));
+	}
+
+	@Override
+	protected void teardown() {
+	}
+
+	private Build newBuild(Long buildId, Status status, Build... dependencies) {
+		var project = new Project();
+		project.setId(PROJECT_ID);
+		var build = new Build();
+		build.setId(buildId);
+		build.setProject(project);
+		build.setCommitHash(ObjectId.zeroId().name());
+		build.setStatus(status);
+		for (var dependency: dependencies) {
+			var dependence = new BuildDependence();
+			dependence.setDependent(build);
+			dependence.setDependency(dependency);
+			build.getDependencies().add(dependence);
+		}
+		builds.put(buildId, build);
+		if (!build.isFinished())
+			unfinishedBuilds.put(buildId, PROJECT_ID);
+		return build;
+	}
+
+	private void finish(Build build) {
+		build.setStatus(Status.SUCCESSFUL);
+		unfinishedBuilds.remove(build.getId());
+	}
+
+	@Test
+	public void shouldDispatchDependentWhenDependencyFinishes() {
+		var dependency = newBuild(1L, Status.RUNNING);
+		var dependent = newBuild(2L, Status.WAITING, dependency);
+
+		jobManager.dispatch(true);
+		assertEquals(Status.WAITING, dependent.getStatus());
+
+		// Waiting builds should not be checked again until their dependencies finish
+		jobManager.dispatch(false);
+		verify(buildManager, times(1)).get(dependent.getId());
+
+		finish(dependency);
+		jobManager.on(new BuildFinished(dependency));
+		jobManager.dispatch(false);
+
+		assertEquals(Status.PENDING, dependent.getStatus());
+		verify(listenerRegistry).post(any(BuildPending.class));
+	}
+
+	@Test
+	public void shouldRecoverLostEventsByReconciliation() {
+		var dependency = newBuild(1L, Status.RUNNING);
+		var dependent = newBuild(2L, Status.WAITING, dependency);
+
+		jobManager.dispatch(true);
+
+		// Finish event of dependency is lost
+		finish(dependency);
+		jobManager.dispatch(false);
+		assertEquals(Status.WAITING, dependent.getStatus());
+
+		jobManager.dispatch(true);
+		assertEquals(Status.PENDING, dependent.getStatus());
+	}
+
+	@Test
+	public void shouldSubmitDispatchRequestsToCurrentLeader() {
+		var dependency = newBuild(1L, Status.SUCCESSFUL);
+		var dependent = newBuild(2L, Status.WAITING, dependency);
+
+		leaderServer.set(SERVER2);
+		jobManager.on(new BuildSubmitted(dependent));
+		assertEquals(Lists.newArrayList(SERVER2), submittedServers);
+
+		jobManager.dispatch(false);
+		assertEquals(Status.PENDING, dependent.getStatus());
+	}
+
+	@Test
+	public void shouldPickUpBuildsMissedDuringLeaderHandover() {
+		var dependency = newBuild(1L, Status.SUCCESSFUL);
+		var dependent = newBuild(2L, Status.WAITING, dependency);
+
+		// Leader leaves before the request arrives
+		leaderServer.set(SERVER2);
+		leftServers.add(SERVER2);
+		jobManager.on(new BuildSubmitted(dependent));
+		assertEquals(Lists.newArrayList(SERVER2), submittedServers);
+
+		leaderServer.set(SERVER1);
+		jobManager.dispatch(false);
+		assertEquals(Status.WAITING, dependent.getStatus());
+		verify(listenerRegistry, never()).post(any(BuildPending.class));
+
+		// New leader reconciles when it takes over
+		jobManager.dispatch(true);
+		assertEquals(Status.PENDING, dependent.getStatus());
+	}
+
+}
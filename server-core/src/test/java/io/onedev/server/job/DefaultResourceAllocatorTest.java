@@ -0,0 +1,319 @@
+package io.onedev.server.job;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.AdditionalAnswers.delegatesTo;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.annotation.Nullable;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.hazelcast.core.EntryListener;
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.replicatedmap.ReplicatedMap;
+
+import io.onedev.server.cluster.ClusterManager;
+import io.onedev.server.cluster.ClusterRunnable;
+import io.onedev.server.cluster.ClusterTask;
+import io.onedev.server.event.system.SystemStarting;
+import io.onedev.server.manager.AgentManager;
+import io.onedev.server.manager.ProjectManager;
+import io.onedev.server.model.Build;
+import io.onedev.server.model.Project;
+import io.onedev.server.persistence.TransactionManager;
+import io.onedev.server.util.schedule.TaskScheduler;
+import io.onedev.server.web.websocket.WebSocketManager;
+
+public class DefaultResourceAllocatorTest {
+
+	private static final String SERVER1 = "server1";
+
+	private static final String SERVER2 = "server2";
+
+	private static final String RESOURCE_TYPE = "cpu";
+
+	private static final long TIMEOUT = 10000;
+
+	// Well below recheck interval of the allocator, so that only signalled requests can make it
+	private static final long PROMPT_TIMEOUT = 2000;
+
+	private final List<String> servers = new CopyOnWriteArrayList<>();
+
+	private final List<EntryListener<String, Integer>> nodeCpusListeners = new CopyOnWriteArrayList<>();
+
+	private final List<Thread> threads = new ArrayList<>();
+
+	private final List<CountDownLatch> latches = new ArrayList<>();
+
+	private final List<String> jobServers = new CopyOnWriteArrayList<>();
+
+	private final AtomicBoolean failToRunJob = new AtomicBoolean();
+
+	private ReplicatedMap<String, Integer> nodeCpus;
+
+	private DefaultResourceAllocator allocator;
+
+	@SuppressWarnings("unchecked")
+	private static <K, V> ReplicatedMap<K, V> newReplicatedMap(List<EntryListener<K, V>> listeners) {
+		ReplicatedMap<K, V> map = mock(ReplicatedMap.class, delegatesTo(new ConcurrentHashMap<K, V>()));
+		doAnswer(invocation -> {
+			listeners.add(invocation.getArgument(0));
+			return UUID.randomUUID();
+		}).when(map).addEntryListener(any(EntryListener.class));
+		return map;
+	}
+
+	@Before
+	public void before() {
+		servers.add(SERVER1);
+
+		nodeCpus = newReplicatedMap(nodeCpusListeners);
+		var hazelcastInstance = mock(HazelcastInstance.class);
+		doReturn(nodeCpus).when(hazelcastInstance).getReplicatedMap("nodeCpus");
+		doReturn(newReplicatedMap(new ArrayList<>())).when(hazelcastInstance).getReplicatedMap("resourceUsagesCache");
+		doReturn(newReplicatedMap(new ArrayList<>())).when(hazelcastInstance).getReplicatedMap("disconnectingAgents");
+
+		var clusterManager = mock(ClusterManager.class);
+		when(clusterManager.getHazelcastInstance()).thenReturn(hazelcastInstance);
+		when(clusterManager.getLocalServerAddress()).thenReturn(SERVER1);
+		when(clusterManager.getServerAddresses()).thenAnswer(invocation -> new ArrayList<>(servers));
+		when(clusterManager.getOnlineServers()).thenAnswer(invocation -> new ArrayList<>(servers));
+		when(clusterManager.runOnServer(anyString(), any())).thenAnswer(
+				invocation -> invocation.getArgument(1, ClusterTask.class).call());
+
+		var projectManager = mock(ProjectManager.class);
+		when(projectManager.getActiveServer(anyLong(), anyBoolean())).thenReturn(SERVER1);
+
+		var jobManager = mock(JobManager.class);
+		doAnswer(invocation -> {
+			if (failToRunJob.getAndSet(false))
+				throw new RuntimeException("Job cancelled");
+			jobServers.add(invocation.getArgument(0));
+			invocation.getArgument(1, ClusterRunnable.class).run();
+			return null;
+		}).when(jobManager).runJob(anyString(), any(ClusterRunnable.class));
+
+		allocator = new DefaultResourceAllocator(mock(AgentManager.class), projectManager,
+				mock(TransactionManager.class), clusterManager, jobManager, mock(TaskScheduler.class), 
+				mock(WebSocketManager.class));
+		allocator.on(new SystemStarting());
+		nodeCpus.put(SERVER1, 1);
+	}
+
+	@After
+	public void after() throws InterruptedException {
+		for (var latch: latches)
+			latch.countDown();
+		for (var thread: threads)
+			thread.join(TIMEOUT);
+	}
+
+	private JobContext newJobContext(Long buildId, Long projectId, Long submitterId) {
+		var jobContext = mock(JobContext.class);
+		when(jobContext.getBuildId()).thenReturn(buildId);
+		when(jobContext.getProjectId()).thenReturn(projectId);
+		when(jobContext.getSubmitterId()).thenReturn(submitterId);
+		return jobContext;
+	}
+
+	private Build newBuild(Long buildId) {
+		var project = new Project();
+		project.setId(1L);
+		var build = new Build();
+		build.setId(buildId);
+		build.setProject(project);
+		return build;
+	}
+
+	private CountDownLatch newLatch() {
+		var latch = new CountDownLatch(1);
+		latches.add(latch);
+		return latch;
+	}
+
+	private static void await(CountDownLatch latch) {
+		try {
+			assertTrue(latch.await(TIMEOUT, TimeUnit.MILLISECONDS));
+		} catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Run a server job in a separate thread
+	 *
+	 * @return reference to error thrown by the job
+	 */
+	private AtomicReference<Throwable> runServerJob(@Nullable JobContext jobContext, int totalResources,
+													int requiredResources, ClusterRunnable runnable) {
+		var error = new AtomicReference<Throwable>();
+		var thread = new Thread(() -> {
+			try {
+				allocator.runServerJob(jobContext, RESOURCE_TYPE, totalResources, requiredResources, runnable);
+			} catch (Throwable e) {
+				error.set(e);
+			}
+		});
+		threads.add(thread);
+		thread.start();
+		return error;
+	}
+
+	/**
+	 * Run a server job holding resources until returned latch is counted down
+	 */
+	private CountDownLatch holdResources(@Nullable JobContext jobContext, int totalResources, int requiredResources) {
+		var started = new CountDownLatch(1);
+		var release = newLatch();
+		runServerJob(jobContext, totalResources, requiredResources, () -> {
+			started.countDown();
+			await(release);
+		});
+		await(started);
+		return release;
+	}
+
+	private void waitForQueued(int numOfQueuedRequests) throws InterruptedException {
+		long time = System.currentTimeMillis();
+		while (getNumOfQueuedRequests() != numOfQueuedRequests) {
+			assertTrue(System.currentTimeMillis() - time < TIMEOUT);
+			Thread.sleep(10);
+		}
+	}
+
+	private int getNumOfQueuedRequests() {
+		int count = 0;
+		for (var stats: allocator.getQueueStats())
+			count += stats.getNumOfQueuedRequests();
+		return count;
+	}
+
+	@Test
+	public void shouldServeProjectsAndUsersInFairShareOrder() throws InterruptedException {
+		// Project 1 and user 1 hold one allocation during the test
+		holdResources(newJobContext(1L, 1L, 1L), 2, 1);
+		// Not counted in fair share as it is not requested by a build
+		var blocker = holdResources(null, 2, 1);
+
+		var started = new CopyOnWriteArrayList<Long>();
+		long[][] requests = {{2, 1, 1}, {3, 1, 2}, {4, 2, 1}, {5, 2, 2}};
+		for (int i = 0; i < requests.length; i++) {
+			var buildId = requests[i][0];
+			runServerJob(newJobContext(buildId, requests[i][1], requests[i][2]), 2, 1, () -> started.add(buildId));
+			waitForQueued(i + 1);
+		}
+
+		// Projects holding less allocations come first, then users holding less allocations
+		assertEquals(1, allocator.getQueuePosition(newBuild(5L)).getPosition());
+		assertEquals(2, allocator.getQueuePosition(newBuild(4L)).getPosition());
+		assertEquals(3, allocator.getQueuePosition(newBuild(3L)).getPosition());
+		assertEquals(4, allocator.getQueuePosition(newBuild(2L)).getPosition());
+		assertEquals(4, allocator.getQueuePosition(newBuild(2L)).getSize());
+		assertNull(allocator.getQueuePosition(newBuild(1L)));
+
+		blocker.countDown();
+		waitForQueued(0);
+		assertEquals(5L, started.get(0).longValue());
+	}
+
+	@Test
+	public void shouldWakeAllocatableRequestsWithoutStarvingLargeOnes() throws InterruptedException {
+		var blocker = holdResources(null, 2, 2);
+
+		var largeStarted = new CountDownLatch(1);
+		var largeRelease = newLatch();
+		runServerJob(null, 2, 2, () -> {
+			largeStarted.countDown();
+			await(largeRelease);
+		});
+		waitForQueued(1);
+		var smallStarted = new CountDownLatch(1);
+		runServerJob(null, 2, 1, smallStarted::countDown);
+		waitForQueued(2);
+
+		blocker.countDown();
+		assertTrue(largeStarted.await(PROMPT_TIMEOUT, TimeUnit.MILLISECONDS));
+
+		// Small request should not take resources large request ahead of it is waiting for
+		assertFalse(smallStarted.await(500, TimeUnit.MILLISECONDS));
+		largeRelease.countDown();
+		assertTrue(smallStarted.await(PROMPT_TIMEOUT, TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	public void shouldReleaseReservationIfJobIsCancelled() throws InterruptedException {
+		var blocker = holdResources(null, 1, 1);
+
+		// Cancelled after resources are reserved but before they are acquired
+		failToRunJob.set(true);
+		var error = runServerJob(newJobContext(1L, 1L, 1L), 1, 1, () -> {});
+		var thread = threads.get(threads.size() - 1);
+		waitForQueued(1);
+		blocker.countDown();
+		thread.join(TIMEOUT);
+		assertEquals("Job cancelled", error.get().getMessage());
+
+		// Resources would be considered still reserved if reservation is leaked
+		var started = new CountDownLatch(1);
+		runServerJob(newJobContext(2L, 1L, 1L), 1, 1, started::countDown);
+		assertTrue(started.await(PROMPT_TIMEOUT, TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	public void shouldRemoveRequestIfCancelledWhileQueued() throws InterruptedException {
+		var blocker = holdResources(null, 1, 1);
+
+		var started = new CountDownLatch(1);
+		var error = runServerJob(newJobContext(1L, 1L, 1L), 1, 1, started::countDown);
+		waitForQueued(1);
+		var thread = threads.get(threads.size() - 1);
+		thread.interrupt();
+		thread.join(TIMEOUT);
+		assertTrue(error.get().getCause() instanceof InterruptedException);
+		assertEquals(0, getNumOfQueuedRequests());
+		assertNull(allocator.getQueuePosition(newBuild(1L)));
+
+		blocker.countDown();
+		assertFalse(started.await(500, TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	public void shouldRefreshCachedResourceNodesWhenNodeJoins() throws InterruptedException {
+		holdResources(null, 1, 1);
+
+		var started = new CountDownLatch(1);
+		runServerJob(null, 1, 1, started::countDown);
+		waitForQueued(1);
+
+		// Resource nodes of queued request are cached, and should be refreshed once notified
+		servers.add(SERVER2);
+		nodeCpus.put(SERVER2, 1);
+		for (var listener: nodeCpusListeners)
+			listener.entryAdded(null);
+		assertTrue(started.await(PROMPT_TIMEOUT, TimeUnit.MILLISECONDS));
+		assertEquals(SERVER2, jobServers.get(jobServers.size() - 1));
+	}
+
+}
@@ -0,0 +1,170 @@
+package io.onedev.server.job.log;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+import io.onedev.commons.utils.FileUtils;
+import io.onedev.server.buildspec.job.log.JobLogEntry;
+import io.onedev.server.buildspec.job.log.JobLogEntryEx;
+import io.onedev.server.buildspec.job.log.Message;
+import io.onedev.server.buildspec.job.log.Style;
+
+public class LogFileTest {
+
+	private File tempDir;
+
+	@Before
+	public void before() {
+		tempDir = FileUtils.createTempDir();
+	}
+
+	@After
+	public void after() {
+		FileUtils.deleteDir(tempDir);
+	}
+
+	private List<JobLogEntryEx> newEntries(int from, int count) {
+		List<JobLogEntryEx> entries = new ArrayList<>();
+		for (int i=from; i<from+count; i++) {
+			if (i % 3 == 0) {
+				entries.add(new JobLogEntryEx(new Date(i), Lists.newArrayList(
+						new Message(new Style("31", Style.BACKGROUND_COLOR_DEFAULT, true), "styled"),
+						new Message(new Style(Style.FOREGROUND_COLOR_DEFAULT, Style.BACKGROUND_COLOR_DEFAULT, false), String.valueOf(i)))));
+			} else {
+				entries.add(new JobLogEntryEx(new JobLogEntry(new Date(i), String.valueOf(i))));
+			}
+		}
+		return entries;
+	}
+
+	private void assertEntries(List<JobLogEntryEx> entries, int from, int count) {
+		assertEquals(count, entries.size());
+		for (int i=0; i<count; i++) {
+			assertEquals(from + i, entries.get(i).getDate().getTime());
+			assertTrue(entries.get(i).getMessageText().endsWith(String.valueOf(from + i)));
+		}
+	}
+
+	@Test
+	public void shouldReadAppendedEntries() {
+		LogFile logFile = new LogFile(new File(tempDir, "build.log"));
+		logFile.append(newEntries(0, 1000));
+		logFile.append(newEntries(1000, 300));
+
+		assertFalse(logFile.needsMaintenance());
+		assertEquals(1300, logFile.size());
+		assertEntries(logFile.read(0, 10), 0, 10);
+		assertEntries(logFile.read(255, 2), 255, 2);
+		assertEntries(logFile.read(1020, 0), 1020, 280);
+		assertEntries(logFile.read(1299, 10), 1299, 1);
+		assertEquals(0, logFile.read(1300, 10).size());
+
+		LogSnippet snippet = logFile.readReversely(100);
+		assertEquals(1200, snippet.offset);
+		assertEntries(snippet.entries, 1200, 100);
+
+		assertEquals(newEntries(3, 1).get(0).getMessages(), logFile.read(3, 1).get(0).getMessages());
+	}
+
+	@Test
+	public void shouldRebuildStaleIndex() {
+		LogFile logFile = new LogFile(new File(tempDir, "build.log"));
+		logFile.append(newEntries(0, 600));
+		FileUtils.deleteFile(new File(tempDir, "build.log" + LogFile.INDEX_FILE_SUFFIX));
+
+		assertTrue(logFile.needsMaintenance());
+		logFile.maintain();
+		assertFalse(logFile.needsMaintenance());
+		assertEquals(600, logFile.size());
+		assertEntries(logFile.read(511, 5), 511, 5);
+	}
+
+	@Test
+	public void shouldMigrateLegacyFormat() throws IOException {
+		File file = new File(tempDir, "build.log");
+		List<JobLogEntryEx> entries = newEntries(0, 500);
+		try (ObjectOutputStream oos = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+			for (JobLogEntryEx entry: entries) {
+				JobLogEntry spaceEfficientVersion = entry.getSpaceEfficientVersion();
+				if (spaceEfficientVersion != null)
+					oos.writeObject(spaceEfficientVersion);
+				else
+					oos.writeObject(entry);
+			}
+		}
+
+		LogFile logFile = new LogFile(file);
+		assertTrue(logFile.isLegacy());
+		assertTrue(logFile.needsMaintenance());
+		logFile.maintain();
+		assertFalse(logFile.isLegacy());
+		assertEquals(500, logFile.size());
+		assertEntries(logFile.read(0, 0), 0, 500);
+
+		logFile.append(newEntries(500, 10));
+		assertEntries(logFile.readReversely(20).entries, 490, 20);
+	}
+
+	@Test
+	public void shouldDecodeTextWithoutEntries() {
+		LogFile logFile = new LogFile(new File(tempDir, "build.log"));
+		logFile.append(newEntries(0, 300));
+
+		LogFile.TextDecoder decoder = new LogFile.TextDecoder();
+		try (LogFile.Reader reader = logFile.openReader(297)) {
+			assertEquals(297, reader.getIndex());
+			ByteBuffer payload = reader.nextPayload();
+			assertEquals(297, decoder.getDate(payload));
+			assertEquals("styled297", decoder.getMessageText(payload).toString());
+			payload = reader.nextPayload();
+			assertEquals(298, decoder.getDate(payload));
+			assertEquals("298", decoder.getMessageText(payload).toString());
+			reader.nextPayload();
+			assertNull(reader.nextPayload());
+		}
+	}
+
+	@Test
+	public void shouldReadArchivedEntries() {
+		LogFile logFile = new LogFile(new File(tempDir, "build.log"));
+		for (int i=0; i<20; i++)
+			logFile.append(newEntries(i*1000, 1000));
+		long originalSize = logFile.getFile().length();
+
+		assertEquals(originalSize, logFile.archive());
+		assertTrue(logFile.isArchived());
+		assertFalse(logFile.needsMaintenance());
+		assertTrue(logFile.getFile().length() < originalSize);
+		assertEquals(originalSize, logFile.getOriginalSize());
+		assertEquals(20000, logFile.size());
+		assertEntries(logFile.read(0, 10), 0, 10);
+		assertEntries(logFile.read(12345, 3000), 12345, 3000);
+		assertEntries(logFile.readReversely(5).entries, 19995, 5);
+		assertEquals(0, logFile.read(20000, 1).size());
+
+		logFile.unarchive();
+		assertFalse(logFile.isArchived());
+		logFile.append(newEntries(20000, 10));
+		assertEquals(20010, logFile.size());
+		assertEntries(logFile.read(19990, 0), 19990, 20);
+	}
+
+}
@@ -0,0 +1,235 @@
+package io.onedev.server.manager.impl;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import org.junit.Assume;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import io.onedev.commons.loader.AppLoader;
+import io.onedev.commons.loader.AppLoaderMocker;
+import io.onedev.commons.utils.FileUtils;
+import io.onedev.server.cluster.ClusterManager;
+import io.onedev.server.manager.BuildManager;
+import io.onedev.server.manager.ProjectManager;
+import io.onedev.server.manager.SettingManager;
+import io.onedev.server.model.Build;
+import io.onedev.server.model.support.administration.PerformanceSetting;
+import io.onedev.server.util.ContentRangeUtils;
+import io.onedev.server.util.schedule.TaskScheduler;
+
+public class DefaultArtifactStoreManagerTest extends AppLoaderMocker {
+
+	private static final Long PROJECT_ID = 1L;
+
+	private File projectDir;
+
+	private ProjectManager projectManager;
+
+	private SettingManager settingManager;
+
+	@Override
+	protected void setup() {
+		projectDir = FileUtils.createTempDir();
+		Assume.assumeTrue(isLinkCountSupported(projectDir));
+
+		projectManager = mock(ProjectManager.class);
+		when(projectManager.getStorageDir(PROJECT_ID)).thenReturn(projectDir);
+
+		var buildManager = mock(BuildManager.class);
+		when(buildManager.getStorageDir(Mockito.eq(PROJECT_ID), anyLong())).thenAnswer(
+				invocation -> new File(projectDir, "builds/" + invocation.getArgument(1)));
+		Mockito.when(AppLoader.getInstance(BuildManager.class)).thenReturn(buildManager);
+
+		var performanceSetting = new PerformanceSetting();
+		performanceSetting.setDeduplicateArtifacts(true);
+		settingManager = mock(SettingManager.class);
+		when(settingManager.getPerformanceSetting()).thenReturn(performanceSetting);
+	}
+
+	@Override
+	protected void teardown() {
+		FileUtils.deleteDir(projectDir);
+	}
+
+	private boolean isLinkCountSupported(File dir) {
+		try {
+			return Files.getFileStore(dir.toPath()).supportsFileAttributeView("unix");
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private DefaultArtifactStoreManager newStoreManager() {
+		return new DefaultArtifactStoreManager(projectManager, mock(ClusterManager.class),
+				settingManager, mock(TaskScheduler.class));
+	}
+
+	private File writeArtifact(Long buildNumber, String path, String content) throws IOException {
+		var file = new File(Build.getArtifactsDir(PROJECT_ID, buildNumber), path);
+		FileUtils.createDir(file.getParentFile());
+		Files.write(file.toPath(), content.getBytes(UTF_8));
+		return file;
+	}
+
+	private String readArtifact(Long buildNumber, String path) throws IOException {
+		return new String(Files.readAllBytes(new File(Build.getArtifactsDir(PROJECT_ID, buildNumber), path).toPath()), UTF_8);
+	}
+
+	private int getLinkCount(File file) throws IOException {
+		return (Integer) Files.getAttribute(file.toPath(), "unix:nlink");
+	}
+
+	private long countBlobs() throws IOException {
+		var storeDir = new File(projectDir, "artifact-store");
+		if (!storeDir.exists())
+			return 0;
+		try (Stream<Path> stream = Files.walk(storeDir.toPath())) {
+			return stream.filter(Files::isRegularFile).count();
+		}
+	}
+
+	@Test
+	public void shouldLinkIdenticalFilesAcrossBuilds() throws IOException {
+		var storeManager = newStoreManager();
+		var file1 = writeArtifact(1L, "dist/app.jar", "same content");
+		var file2 = writeArtifact(2L, "app.jar", "same content");
+		writeArtifact(2L, "other.txt", "other content");
+
+		storeManager.deduplicate(PROJECT_ID, 1L);
+		storeManager.deduplicate(PROJECT_ID, 2L);
+
+		assertTrue(Files.isSameFile(file1.toPath(), file2.toPath()));
+		// Two builds plus the store itself
+		assertEquals(3, getLinkCount(file1));
+		assertEquals(2, countBlobs());
+		assertEquals("same content", readArtifact(2L, "app.jar"));
+		assertEquals(storeManager.getETag(PROJECT_ID, 1L, "dist/app.jar", file1.length(), file1.lastModified()),
+				storeManager.getETag(PROJECT_ID, 2L, "app.jar", file2.length(), file2.lastModified()));
+
+		// Deduplicating again should not change anything
+		storeManager.deduplicate(PROJECT_ID, 2L);
+		assertEquals(3, getLinkCount(file1));
+		assertEquals(2, countBlobs());
+	}
+
+	@Test
+	public void shouldNotAffectOtherBuildsWhenWritingDetachedFile() throws IOException {
+		var storeManager = newStoreManager();
+		var file1 = writeArtifact(1L, "app.jar", "same content");
+		var file2 = writeArtifact(2L, "app.jar", "same content");
+		storeManager.deduplicate(PROJECT_ID, 1L);
+		storeManager.deduplicate(PROJECT_ID, 2L);
+
+		storeManager.detach(file2);
+		assertFalse(file2.exists());
+		writeArtifact(2L, "app.jar", "new content");
+		storeManager.deduplicate(PROJECT_ID, 2L);
+
+		assertEquals("same content", readArtifact(1L, "app.jar"));
+		assertEquals("new content", readArtifact(2L, "app.jar"));
+		assertFalse(Files.isSameFile(file1.toPath(), file2.toPath()));
+		assertEquals(2, getLinkCount(file1));
+		assertEquals(2, getLinkCount(file2));
+
+		// Detaching a file not linked with the store should leave it alone
+		var file3 = writeArtifact(3L, "app.jar", "not deduplicated");
+		storeManager.detach(file3);
+		assertTrue(file3.exists());
+	}
+
+	@Test
+	public void shouldCollectGarbageAfterBuildDeletion() throws IOException {
+		var storeManager = newStoreManager();
+		var file1 = writeArtifact(1L, "app.jar", "same content");
+		writeArtifact(2L, "app.jar", "same content");
+		writeArtifact(2L, "other.txt", "other content");
+		storeManager.deduplicate(PROJECT_ID, 1L);
+		storeManager.deduplicate(PROJECT_ID, 2L);
+		assertEquals(2, countBlobs());
+
+		FileUtils.deleteDir(Build.getStorageDir(PROJECT_ID, 2L));
+		storeManager.requestToCollectGarbage(PROJECT_ID);
+		storeManager.execute();
+
+		// Blob still referenced by build #1 is kept
+		assertEquals(1, countBlobs());
+		assertEquals(2, getLinkCount(file1));
+		assertEquals("same content", readArtifact(1L, "app.jar"));
+
+		FileUtils.deleteDir(Build.getStorageDir(PROJECT_ID, 1L));
+		storeManager.requestToCollectGarbage(PROJECT_ID);
+		storeManager.execute();
+		assertEquals(0, countBlobs());
+	}
+
+	@Test
+	public void shouldCollectGarbageAfterArtifactsDirectoryDeletion() throws IOException {
+		var storeManager = newStoreManager();
+		writeArtifact(1L, "dir/app.jar", "content");
+		storeManager.deduplicate(PROJECT_ID, 1L);
+		var hashesFile = new File(Build.getStorageDir(PROJECT_ID, 1L), "artifact-hashes");
+		assertTrue(hashesFile.exists());
+		assertEquals(1, countBlobs());
+
+		FileUtils.deleteDir(Build.getArtifactsDir(PROJECT_ID, 1L));
+		storeManager.deduplicate(PROJECT_ID, 1L);
+		assertFalse(hashesFile.exists());
+
+		// Garbage collection should be requested by deduplicate itself
+		storeManager.execute();
+		assertEquals(0, countBlobs());
+	}
+
+	@Test
+	public void shouldLeaveFilesAloneIfLinkingFails() throws IOException {
+		var hashedFiles = new AtomicInteger();
+		var storeManager = new DefaultArtifactStoreManager(projectManager, mock(ClusterManager.class),
+				settingManager, mock(TaskScheduler.class)) {
+
+			@Override
+			String hash(File file) {
+				hashedFiles.incrementAndGet();
+				return super.hash(file);
+			}
+
+			@Override
+			void createLink(Path link, Path existing) throws IOException {
+				throw new FileSystemException(link.toString(), existing.toString(), "Invalid cross-device link");
+			}
+
+		};
+		var file1 = writeArtifact(1L, "a.txt", "content a");
+		writeArtifact(1L, "b.txt", "content b");
+		writeArtifact(1L, "c.txt", "content c");
+		long lastModified = file1.lastModified();
+
+		storeManager.deduplicate(PROJECT_ID, 1L);
+
+		// Remaining files should not be hashed once linking fails
+		assertEquals(1, hashedFiles.get());
+		assertEquals(0, countBlobs());
+		assertEquals(1, getLinkCount(file1));
+		assertEquals(lastModified, file1.lastModified());
+		assertEquals("content a", readArtifact(1L, "a.txt"));
+		assertEquals("content b", readArtifact(1L, "b.txt"));
+		assertEquals("content c", readArtifact(1L, "c.txt"));
+		assertEquals(ContentRangeUtils.getETag(file1.length(), lastModified),
+				storeManager.getETag(PROJECT_ID, 1L, "a.txt", file1.length(), lastModified));
+	}
+
+}
@@ -0,0 +1,85 @@
+package io.onedev.server.manager.impl;
+
+import static io.onedev.server.model.Project.ATTACHMENT_DIR;
+import static io.onedev.server.model.Project.BUILDS_DIR;
+import static io.onedev.server.model.Project.SITE_DIR;
+import static io.onedev.server.util.DirectoryVersionUtils.increaseVersion;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.EnumSet;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import io.onedev.commons.utils.FileUtils;
+import io.onedev.server.manager.impl.DefaultProjectManager.StoragePart;
+import io.onedev.server.manager.impl.DefaultProjectManager.StorageVersions;
+
+public class DefaultProjectManagerTest {
+
+	private File projectDir;
+
+	private File gitDir;
+
+	@Before
+	public void before() {
+		projectDir = FileUtils.createTempDir();
+		gitDir = new File(projectDir, "git");
+		FileUtils.createDir(gitDir);
+	}
+
+	@After
+	public void after() {
+		FileUtils.deleteDir(projectDir);
+	}
+
+	// Mimic DefaultProjectManager.directoryModified, which bumps versions up to project directory
+	private void modify(File directory) {
+		FileUtils.createDir(directory);
+		increaseVersion(directory);
+		increaseVersion(projectDir);
+	}
+
+	@Test
+	public void shouldReadVersionsOfEachStoragePart() {
+		var versions = StorageVersions.read(projectDir, gitDir);
+		assertEquals(0, versions.project);
+		assertEquals(0, versions.git);
+
+		modify(gitDir);
+		modify(gitDir);
+		modify(new File(projectDir, BUILDS_DIR));
+
+		versions = StorageVersions.read(projectDir, gitDir);
+		assertEquals(3, versions.project);
+		assertEquals(2, versions.git);
+		assertEquals(0, versions.attachments);
+		assertEquals(1, versions.builds);
+		assertEquals(0, versions.site);
+	}
+
+	@Test
+	public void shouldOnlySyncOutdatedStorageParts() {
+		var replicaVersions = StorageVersions.read(projectDir, gitDir);
+		assertTrue(replicaVersions.getOutdatedParts(replicaVersions).isEmpty());
+
+		modify(new File(projectDir, ATTACHMENT_DIR));
+		modify(new File(projectDir, SITE_DIR));
+		var activeVersions = StorageVersions.read(projectDir, gitDir);
+
+		assertEquals(EnumSet.of(StoragePart.ATTACHMENTS, StoragePart.SITE),
+				replicaVersions.getOutdatedParts(activeVersions));
+		// Newer parts of a replica are never synced back
+		assertTrue(activeVersions.getOutdatedParts(replicaVersions).isEmpty());
+
+		// Project version may advance without any part being outdated, for instance when
+		// other directories under project storage are modified
+		var partlySyncedVersions = new StorageVersions(activeVersions.project - 1, activeVersions.git,
+				activeVersions.attachments, activeVersions.builds, activeVersions.site);
+		assertTrue(partlySyncedVersions.getOutdatedParts(activeVersions).isEmpty());
+	}
+
+}
@@ -0,0 +1,259 @@
+package io.onedev.server.manager.impl;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.annotation.Nullable;
+
+import org.eclipse.jgit.lib.RefDatabase;
+import org.eclipse.jgit.lib.Repository;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import io.onedev.commons.utils.FileUtils;
+import io.onedev.server.manager.ProjectManager;
+import io.onedev.server.util.concurrent.WorkExecutor;
+import io.onedev.server.util.schedule.TaskScheduler;
+
+public class DefaultUploadPackCacheManagerTest {
+
+	private static final Long PROJECT_ID = 1L;
+
+	private static final long TIMEOUT = 10000;
+
+	private File tempDir;
+
+	private TestCacheManager cacheManager;
+
+	@Before
+	public void before() throws IOException {
+		tempDir = FileUtils.createTempDir();
+
+		var refDatabase = mock(RefDatabase.class);
+		when(refDatabase.getRefs()).thenReturn(new ArrayList<>());
+		var repository = mock(Repository.class);
+		when(repository.getRefDatabase()).thenReturn(refDatabase);
+		var projectManager = mock(ProjectManager.class);
+		when(projectManager.getRepository(anyLong())).thenReturn(repository);
+		when(projectManager.getGitDir(anyLong())).thenReturn(new File(tempDir, "git"));
+
+		cacheManager = new TestCacheManager(projectManager);
+		cacheManager.start(new File(tempDir, "cache"));
+	}
+
+	@After
+	public void after() {
+		FileUtils.deleteDir(tempDir);
+	}
+
+	private static String packet(String payload) {
+		return String.format("%04x", payload.length() + 4) + payload;
+	}
+
+	private static byte[] newRequest(String want, boolean done) {
+		String request = packet("want " + want + "\n") + "0000";
+		if (done)
+			request += packet("done\n");
+		return request.getBytes(UTF_8);
+	}
+
+	private static String newResponse(String content) {
+		return packet(content + "\n") + "0000";
+	}
+
+	private String uploadPack(byte[] request) {
+		var stdout = new ByteArrayOutputStream();
+		cacheManager.uploadPack(PROJECT_ID, new HashMap<>(), null, new ByteArrayInputStream(request), stdout, true);
+		return new String(stdout.toByteArray(), UTF_8);
+	}
+
+	private Thread uploadPackAsync(byte[] request, AtomicReference<String> response) {
+		var thread = new Thread(() -> response.set(uploadPack(request)));
+		thread.start();
+		return thread;
+	}
+
+	private void waitForFills(int numOfFills) throws InterruptedException {
+		long time = System.currentTimeMillis();
+		while (cacheManager.numOfRuns.get() != numOfFills) {
+			assertTrue(System.currentTimeMillis() - time < TIMEOUT);
+			Thread.sleep(10);
+		}
+	}
+
+	@Test
+	public void shouldServeRepeatedRequestsFromCache() {
+		var request = newRequest("a", true);
+		assertEquals(newResponse("pack-a"), uploadPack(request));
+		assertEquals(newResponse("pack-a"), uploadPack(request));
+		assertEquals(1, cacheManager.numOfRuns.get());
+
+		var stats = cacheManager.getStats();
+		assertEquals(1, stats.getNumOfHits());
+		assertEquals(1, stats.getNumOfMisses());
+
+		// Requests not concluding negotiation do not contain the pack and are never cached
+		var negotiation = newRequest("b", false);
+		uploadPack(negotiation);
+		uploadPack(negotiation);
+		assertEquals(3, cacheManager.numOfRuns.get());
+		assertEquals(2, cacheManager.getStats().getNumOfBypasses());
+	}
+
+	@Test
+	public void shouldExpireEntriesAfterTtl() {
+		var request = newRequest("a", true);
+		uploadPack(request);
+		assertEquals(1, cacheManager.getStats().getNumOfEntries());
+
+		cacheManager.ttl = -1;
+		assertEquals(newResponse("pack-a"), uploadPack(request));
+		assertEquals(2, cacheManager.numOfRuns.get());
+
+		cacheManager.execute();
+		assertEquals(0, cacheManager.getStats().getNumOfEntries());
+		assertEquals(0, cacheManager.getStats().getCacheSize());
+		assertEquals(0, new File(tempDir, "cache").list().length);
+	}
+
+	@Test
+	public void shouldEvictLeastRecentlyAccessedEntries() throws InterruptedException {
+		var requestA = newRequest("a", true);
+		var requestB = newRequest("b", true);
+		var requestC = newRequest("c", true);
+		long entrySize = newResponse("pack-a").length();
+		cacheManager.maxCacheSize = entrySize * 2;
+
+		uploadPack(requestA);
+		Thread.sleep(10);
+		uploadPack(requestB);
+		Thread.sleep(10);
+		uploadPack(requestA);
+		Thread.sleep(10);
+		uploadPack(requestC);
+		assertEquals(3, cacheManager.numOfRuns.get());
+		assertEquals(2, cacheManager.getStats().getNumOfEntries());
+		assertEquals(entrySize * 2, cacheManager.getStats().getCacheSize());
+
+		// B is evicted as it is accessed least recently
+		uploadPack(requestA);
+		uploadPack(requestC);
+		assertEquals(3, cacheManager.numOfRuns.get());
+		uploadPack(requestB);
+		assertEquals(4, cacheManager.numOfRuns.get());
+	}
+
+	@Test
+	public void shouldCoalesceConcurrentFills() throws InterruptedException {
+		var request = newRequest("a", true);
+		cacheManager.release = new CountDownLatch(1);
+
+		var response1 = new AtomicReference<String>();
+		var response2 = new AtomicReference<String>();
+		var thread1 = uploadPackAsync(request, response1);
+		waitForFills(1);
+		var thread2 = uploadPackAsync(request, response2);
+		// Give second request a chance to run upload pack by itself if it is not coalesced
+		Thread.sleep(100);
+		cacheManager.release.countDown();
+		thread1.join(TIMEOUT);
+		thread2.join(TIMEOUT);
+
+		assertEquals(1, cacheManager.numOfRuns.get());
+		assertEquals(newResponse("pack-a"), response1.get());
+		assertEquals(newResponse("pack-a"), response2.get());
+		assertEquals(1, cacheManager.getStats().getNumOfHits());
+	}
+
+	@Test
+	public void shouldFallBackIfFilledResponseIsNotCacheable() throws InterruptedException {
+		var request = newRequest("a", true);
+		// Response truncated without flush packet, for instance when upload-pack tolerates
+		// client hanging up
+		cacheManager.truncated = true;
+		cacheManager.release = new CountDownLatch(1);
+
+		var response1 = new AtomicReference<String>();
+		var response2 = new AtomicReference<String>();
+		var thread1 = uploadPackAsync(request, response1);
+		waitForFills(1);
+		var thread2 = uploadPackAsync(request, response2);
+		Thread.sleep(100);
+		cacheManager.release.countDown();
+		thread1.join(TIMEOUT);
+		thread2.join(TIMEOUT);
+
+		assertEquals(2, cacheManager.numOfRuns.get());
+		assertEquals(response1.get(), response2.get());
+		assertEquals(0, cacheManager.getStats().getNumOfEntries());
+		assertEquals(0, cacheManager.getStats().getNumOfHits());
+	}
+
+	private static class TestCacheManager extends DefaultUploadPackCacheManager {
+
+		private static final long serialVersionUID = 1L;
+
+		final AtomicInteger numOfRuns = new AtomicInteger();
+
+		volatile long ttl = 60000;
+
+		volatile long maxCacheSize = Long.MAX_VALUE;
+
+		volatile boolean truncated;
+
+		volatile CountDownLatch release;
+
+		TestCacheManager(ProjectManager projectManager) {
+			super(projectManager, mock(WorkExecutor.class), mock(TaskScheduler.class));
+		}
+
+		@Override
+		void uploadPack(File gitDir, Map<String, String> envs, @Nullable String protocol,
+						InputStream stdin, OutputStream stdout) {
+			numOfRuns.incrementAndGet();
+			try {
+				if (release != null)
+					assertTrue(release.await(TIMEOUT, TimeUnit.MILLISECONDS));
+				var request = new String(stdin.readAllBytes(), UTF_8);
+				var want = request.substring(request.indexOf("want ") + 5, request.indexOf('\n'));
+				var response = newResponse("pack-" + want);
+				if (truncated)
+					response = response.substring(0, response.length() - 4);
+				stdout.write(response.getBytes(UTF_8));
+			} catch (IOException | InterruptedException e) {
+				throw new RuntimeException(e);
+			}
+		}
+
+		@Override
+		long getEntryTtl() {
+			return ttl;
+		}
+
+		@Override
+		long getMaxCacheSize() {
+			return maxCacheSize;
+		}
+
+	}
+
+}
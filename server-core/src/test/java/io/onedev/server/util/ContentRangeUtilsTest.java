@@ -0,0 +1,90 @@
+package io.onedev.server.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+public class ContentRangeUtilsTest {
+
+	@Test
+	public void shouldParseRange() {
+		String etag = ContentRangeUtils.getETag(100, 1000);
+
+		LongRange range = ContentRangeUtils.parseRange("bytes=10-19", null, etag, 100);
+		assertEquals(10, range.getStart());
+		assertEquals(19, range.getEnd());
+
+		range = ContentRangeUtils.parseRange("bytes=90-", null, etag, 100);
+		assertEquals(90, range.getStart());
+		assertEquals(99, range.getEnd());
+
+		range = ContentRangeUtils.parseRange("bytes=-30", null, etag, 100);
+		assertEquals(70, range.getStart());
+		assertEquals(99, range.getEnd());
+
+		range = ContentRangeUtils.parseRange("bytes=50-500", etag, etag, 100);
+		assertEquals(50, range.getStart());
+		assertEquals(99, range.getEnd());
+
+		range = ContentRangeUtils.parseRange("bytes=100-", null, etag, 100);
+		assertTrue(range.getStart() > range.getEnd());
+
+		assertNull(ContentRangeUtils.parseRange(null, null, etag, 100));
+		assertNull(ContentRangeUtils.parseRange("bytes=0-1,5-6", null, etag, 100));
+		assertNull(ContentRangeUtils.parseRange("bytes=a-b", null, etag, 100));
+		assertNull(ContentRangeUtils.parseRange("bytes=10-19", ContentRangeUtils.getETag(100, 2000), etag, 100));
+	}
+
+	@Test
+	public void shouldRejectUnsatisfiableRange() {
+		String etag = ContentRangeUtils.getETag(100, 1000);
+
+		LongRange range = ContentRangeUtils.parseRange("bytes=-0", null, etag, 100);
+		assertTrue(range.getStart() > range.getEnd());
+
+		range = ContentRangeUtils.parseRange("bytes=200-300", null, etag, 100);
+		assertTrue(range.getStart() > range.getEnd());
+
+		range = ContentRangeUtils.parseRange("bytes=-10", null, etag, 0);
+		assertTrue(range.getStart() > range.getEnd());
+	}
+
+	@Test
+	public void shouldIgnoreMalformedRange() {
+		String etag = ContentRangeUtils.getETag(100, 1000);
+
+		assertNull(ContentRangeUtils.parseRange("bytes=-", null, etag, 100));
+		assertNull(ContentRangeUtils.parseRange("bytes=", null, etag, 100));
+		assertNull(ContentRangeUtils.parseRange("bytes=--5", null, etag, 100));
+		assertNull(ContentRangeUtils.parseRange("bytes=-+5", null, etag, 100));
+		assertNull(ContentRangeUtils.parseRange("bytes=+5-", null, etag, 100));
+		assertNull(ContentRangeUtils.parseRange("bytes=-5-", null, etag, 100));
+		assertNull(ContentRangeUtils.parseRange("bytes=5", null, etag, 100));
+		assertNull(ContentRangeUtils.parseRange("bytes=20-10", null, etag, 100));
+		assertNull(ContentRangeUtils.parseRange("bytes=99999999999999999999-", null, etag, 100));
+		assertNull(ContentRangeUtils.parseRange("items=0-10", null, etag, 100));
+	}
+
+	@Test
+	public void shouldParseContentRange() {
+		Pair<LongRange, Long> rangeAndTotal = ContentRangeUtils.parseContentRange("bytes 0-1048575/5000000");
+		assertEquals(0, rangeAndTotal.getLeft().getStart());
+		assertEquals(1048575, rangeAndTotal.getLeft().getEnd());
+		assertEquals(5000000L, rangeAndTotal.getRight().longValue());
+
+		try {
+			ContentRangeUtils.parseContentRange("bytes 0-100/100");
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+		try {
+			ContentRangeUtils.parseContentRange("bytes */100");
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+	}
+
+}
@@ -0,0 +1,93 @@
+package io.onedev.server.util;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+public class IOUtilsTest {
+
+	private static final long OFFSET = (1L << 31) + 10;
+
+	private static final byte[] CONTENT = "hello".getBytes(StandardCharsets.UTF_8);
+
+	@Test
+	public void shouldCopyFileRangeAboveTwoGiB() throws IOException {
+		File file = File.createTempFile("range", ".bin");
+		try {
+			try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+				// sparse file, does not actually occupy disk space
+				raf.setLength(OFFSET + CONTENT.length + 100);
+				raf.seek(OFFSET);
+				raf.write(CONTENT);
+			}
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			try (InputStream is = new FileInputStream(file)) {
+				IOUtils.copyRange(is, out, new LongRange(OFFSET, OFFSET + CONTENT.length - 1));
+			}
+			assertArrayEquals(CONTENT, out.toByteArray());
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void shouldCopyStreamRangeAboveTwoGiB() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (InputStream is = new VirtualInputStream(OFFSET + CONTENT.length + 100)) {
+			IOUtils.copyRange(is, out, new LongRange(OFFSET, OFFSET + CONTENT.length - 1));
+		}
+		assertArrayEquals(CONTENT, out.toByteArray());
+	}
+
+	@Test(expected=IOException.class)
+	public void shouldFailIfStreamEndsBeforeRangeStart() throws IOException {
+		try (InputStream is = new VirtualInputStream(OFFSET - 1)) {
+			IOUtils.copyRange(is, new ByteArrayOutputStream(), new LongRange(OFFSET, OFFSET + 1));
+		}
+	}
+
+	/**
+	 * Stream of given length containing zeros except {@link #CONTENT} at {@link #OFFSET},
+	 * without allocating the whole content
+	 */
+	private static class VirtualInputStream extends InputStream {
+
+		private final long length;
+
+		private long position;
+
+		VirtualInputStream(long length) {
+			this.length = length;
+		}
+
+		@Override
+		public int read() {
+			if (position >= length)
+				return -1;
+			int value;
+			if (position >= OFFSET && position < OFFSET + CONTENT.length)
+				value = CONTENT[(int) (position - OFFSET)];
+			else
+				value = 0;
+			position++;
+			return value;
+		}
+
+		@Override
+		public long skip(long n) {
+			long skipped = Math.max(0, Math.min(n, length - position));
+			position += skipped;
+			return skipped;
+		}
+
+	}
+
+}
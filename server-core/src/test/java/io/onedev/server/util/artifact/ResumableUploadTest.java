@@ -0,0 +1,81 @@
+package io.onedev.server.util.artifact;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import io.onedev.commons.utils.FileUtils;
+import io.onedev.server.util.LongRange;
+
+public class ResumableUploadTest {
+
+	private File tempDir;
+
+	@Before
+	public void before() {
+		tempDir = FileUtils.createTempDir();
+	}
+
+	@After
+	public void after() {
+		FileUtils.deleteDir(tempDir);
+	}
+
+	@Test
+	public void shouldAssembleChunksInAnyOrder() throws IOException {
+		String content = "0123456789abcdefghij";
+		ResumableUpload upload = new ResumableUpload(new File(tempDir, "upload"));
+		assertEquals(-1, upload.getStatus().getTotal());
+
+		UploadStatus status = upload.receive(new LongRange(10, 19), 20,
+				new ByteArrayInputStream(content.substring(10).getBytes(UTF_8)));
+		assertFalse(status.isCompleted());
+		assertEquals(1, status.getReceivedRanges().size());
+
+		// Interrupted chunk should still be recorded
+		status = upload.receive(new LongRange(0, 9), 20,
+				new ByteArrayInputStream(content.substring(0, 4).getBytes(UTF_8)));
+		assertFalse(status.isCompleted());
+		assertEquals(2, status.getReceivedRanges().size());
+		assertEquals(3, status.getReceivedRanges().get(0).getEnd());
+
+		status = upload.receive(new LongRange(4, 9), 20,
+				new ByteArrayInputStream(content.substring(4, 10).getBytes(UTF_8)));
+		assertTrue(status.isCompleted());
+		assertEquals(content, FileUtils.readFileToString(upload.getDataFile(), UTF_8));
+
+		upload.delete();
+		assertEquals(-1, upload.getStatus().getTotal());
+	}
+
+	@Test
+	public void shouldPurgeExpiredUploads() throws IOException {
+		File uploadsDir = new File(tempDir, "uploads");
+		ResumableUpload expired = new ResumableUpload(new File(uploadsDir, "expired"));
+		expired.receive(new LongRange(0, 9), 20, new ByteArrayInputStream("0123456789".getBytes(UTF_8)));
+		ResumableUpload active = new ResumableUpload(new File(uploadsDir, "active"));
+		active.receive(new LongRange(0, 9), 20, new ByteArrayInputStream("0123456789".getBytes(UTF_8)));
+
+		long oldTime = System.currentTimeMillis() - 2 * 3600 * 1000L;
+		for (File file: new File(uploadsDir, "expired").listFiles())
+			assertTrue(file.setLastModified(oldTime));
+		assertTrue(new File(uploadsDir, "expired").setLastModified(oldTime));
+
+		assertEquals(1, ResumableUpload.purgeExpired(uploadsDir, 3600 * 1000L));
+		assertEquals(-1, expired.getStatus().getTotal());
+		assertEquals(20, active.getStatus().getTotal());
+
+		assertEquals(0, ResumableUpload.purgeExpired(uploadsDir, 3600 * 1000L));
+		assertEquals(1, uploadsDir.listFiles().length);
+	}
+
+}
@@ -0,0 +1,90 @@
+package io.onedev.server.util.concurrent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BoundedExecutionTest {
+
+	private ExecutorService executorService;
+
+	@Before
+	public void before() {
+		executorService = Executors.newCachedThreadPool();
+	}
+
+	@After
+	public void after() {
+		executorService.shutdownNow();
+	}
+
+	@Test
+	public void shouldLimitParallelism() throws Exception {
+		AtomicInteger running = new AtomicInteger(0);
+		AtomicInteger maxRunning = new AtomicInteger(0);
+		AtomicInteger completed = new AtomicInteger(0);
+		try (BoundedExecution execution = new BoundedExecution(executorService, 3, 100)) {
+			for (int i=0; i<50; i++) {
+				execution.submit(() -> {
+					maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+					Thread.sleep(2);
+					running.decrementAndGet();
+					completed.incrementAndGet();
+				}, 1);
+			}
+			execution.await();
+		}
+		assertEquals(50, completed.get());
+		assertTrue(maxRunning.get() <= 3);
+	}
+
+	@Test
+	public void shouldLimitMemory() throws Exception {
+		AtomicInteger running = new AtomicInteger(0);
+		AtomicInteger maxRunning = new AtomicInteger(0);
+		try (BoundedExecution execution = new BoundedExecution(executorService, 10, 100)) {
+			for (int i=0; i<20; i++) {
+				// Weight larger than budget should be capped instead of blocking forever
+				execution.submit(() -> {
+					maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+					Thread.sleep(2);
+					running.decrementAndGet();
+				}, i % 2 == 0? 60: 1000);
+			}
+			execution.await();
+		}
+		assertEquals(1, maxRunning.get());
+	}
+
+	@Test
+	public void shouldPropagateFailure() throws Exception {
+		AtomicInteger completed = new AtomicInteger(0);
+		try (BoundedExecution execution = new BoundedExecution(executorService, 2, 100)) {
+			execution.submit(() -> {
+				throw new IllegalStateException("failed");
+			}, 1);
+			try {
+				for (int i=0; i<100; i++) {
+					execution.submit(() -> {
+						Thread.sleep(1);
+						completed.incrementAndGet();
+					}, 1);
+				}
+				execution.await();
+				fail();
+			} catch (IllegalStateException e) {
+				assertEquals("failed", e.getMessage());
+			}
+		}
+		assertTrue(completed.get() < 100);
+	}
+
+}
@@ -0,0 +1,152 @@
+package io.onedev.server.util.concurrent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.shiro.mgt.DefaultSecurityManager;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+public class DefaultWorkExecutorTest {
+
+	private ExecutorService executorService;
+
+	@Before
+	public void before() {
+		org.apache.shiro.SecurityUtils.setSecurityManager(new DefaultSecurityManager());
+		executorService = Executors.newCachedThreadPool();
+	}
+
+	@After
+	public void after() {
+		executorService.shutdownNow();
+	}
+
+	@Test
+	public void shouldRunGroupsInOrderOfPriority() throws Exception {
+		DefaultWorkExecutor workExecutor = new DefaultWorkExecutor(executorService, () -> 1);
+		CountDownLatch blocker = new CountDownLatch(1);
+		Future<?> blocking = workExecutor.submit("blocking", new PrioritizedRunnable(0) {
+
+			@Override
+			public void run() {
+				try {
+					blocker.await();
+				} catch (InterruptedException e) {
+					throw new RuntimeException(e);
+				}
+			}
+
+		});
+
+		List<String> executed = Collections.synchronizedList(new ArrayList<>());
+		List<Future<?>> futures = new ArrayList<>();
+		futures.add(submit(workExecutor, "low", 10, executed));
+		futures.add(submit(workExecutor, "high", 1, executed));
+		futures.add(submit(workExecutor, "medium", 5, executed));
+		Future<?> cancelled = submit(workExecutor, "cancelled", 0, executed);
+		cancelled.cancel(false);
+
+		blocker.countDown();
+		blocking.get(10, TimeUnit.SECONDS);
+		for (Future<?> future: futures)
+			future.get(10, TimeUnit.SECONDS);
+		assertEquals(Lists.newArrayList("high", "medium", "low"), executed);
+	}
+
+	@Test
+	public void shouldRunWorksOfRunningGroupImmediately() throws Exception {
+		DefaultWorkExecutor workExecutor = new DefaultWorkExecutor(executorService, () -> 1);
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch blocker = new CountDownLatch(1);
+		Future<?> blocking = workExecutor.submit("group", new PrioritizedRunnable(0) {
+
+			@Override
+			public void run() {
+				started.countDown();
+				try {
+					blocker.await();
+				} catch (InterruptedException e) {
+					throw new RuntimeException(e);
+				}
+			}
+
+		});
+		assertTrue(started.await(10, TimeUnit.SECONDS));
+
+		List<String> executed = Collections.synchronizedList(new ArrayList<>());
+		submit(workExecutor, "group", 10, executed).get(10, TimeUnit.SECONDS);
+		assertEquals(Lists.newArrayList("group"), executed);
+
+		blocker.countDown();
+		blocking.get(10, TimeUnit.SECONDS);
+	}
+
+	@Test
+	public void shouldAdmitGroupConsumingLessFirst() throws Exception {
+		DefaultWorkExecutor workExecutor = new DefaultWorkExecutor(executorService, () -> 1);
+		CountDownLatch heavyBlocker = new CountDownLatch(1);
+		Future<?> heavy = submit(workExecutor, "heavy", new CountDownLatch(1), heavyBlocker);
+		CountDownLatch otherStarted = new CountDownLatch(1);
+		CountDownLatch otherBlocker = new CountDownLatch(1);
+		Future<?> other = submit(workExecutor, "other", otherStarted, otherBlocker);
+
+		// Heavy group consumes more than its share while other group is waiting
+		Thread.sleep(100);
+		heavyBlocker.countDown();
+		heavy.get(10, TimeUnit.SECONDS);
+		assertTrue(otherStarted.await(10, TimeUnit.SECONDS));
+
+		List<String> executed = Collections.synchronizedList(new ArrayList<>());
+		List<Future<?>> futures = new ArrayList<>();
+		futures.add(submit(workExecutor, "heavy", 0, executed));
+		futures.add(submit(workExecutor, "light", 0, executed));
+
+		otherBlocker.countDown();
+		other.get(10, TimeUnit.SECONDS);
+		for (Future<?> future: futures)
+			future.get(10, TimeUnit.SECONDS);
+		assertEquals(Lists.newArrayList("light", "heavy"), executed);
+	}
+
+	private Future<?> submit(WorkExecutor workExecutor, String groupId, CountDownLatch started, 
+							 CountDownLatch blocker) {
+		return workExecutor.submit(groupId, new PrioritizedRunnable(0) {
+
+			@Override
+			public void run() {
+				started.countDown();
+				try {
+					blocker.await();
+				} catch (InterruptedException e) {
+					throw new RuntimeException(e);
+				}
+			}
+
+		});
+	}
+
+	private Future<?> submit(WorkExecutor workExecutor, String groupId, int priority, List<String> executed) {
+		return workExecutor.submit(groupId, new PrioritizedRunnable(priority) {
+
+			@Override
+			public void run() {
+				executed.add(groupId);
+			}
+
+		});
+	}
+
+}
@@ -0,0 +1,35 @@
+package io.onedev.server.util.concurrent;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class HistogramTest {
+
+	@Test
+	public void shouldRecordIntoBuckets() {
+		Histogram histogram = new Histogram(new long[] {1, 10, 100});
+		assertEquals(-1, histogram.getSnapshot().getPercentile(0.5));
+
+		histogram.record(0);
+		histogram.record(1);
+		histogram.record(5);
+		histogram.record(10);
+		histogram.record(50);
+		histogram.record(1000);
+
+		Histogram.Snapshot snapshot = histogram.getSnapshot();
+		assertArrayEquals(new long[] {2, 2, 1, 1}, snapshot.getCounts());
+		assertEquals(6, snapshot.getCount());
+		assertEquals(1066, snapshot.getSum());
+		assertEquals(10, snapshot.getPercentile(0.5));
+		assertEquals(100, snapshot.getPercentile(0.8));
+		assertEquals(Long.MAX_VALUE, snapshot.getPercentile(1));
+
+		Histogram.Snapshot merged = snapshot.merge(snapshot);
+		assertArrayEquals(new long[] {4, 4, 2, 2}, merged.getCounts());
+		assertEquals(2132, merged.getSum());
+	}
+
+}
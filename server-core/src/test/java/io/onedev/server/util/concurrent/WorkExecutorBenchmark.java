@@ -0,0 +1,108 @@
+package io.onedev.server.util.concurrent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.shiro.mgt.DefaultSecurityManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares submission throughput and latency of {@link DefaultWorkExecutor} against
+ * {@link SynchronizedWorkExecutor} with many concurrently submitting threads spreading
+ * works over large number of groups. Run with:
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=io.onedev.server.util.concurrent.WorkExecutorBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+@Threads(8)
+public class WorkExecutorBenchmark {
+
+	private static final int BATCH_SIZE = 100;
+
+	@Param({"synchronized", "concurrent"})
+	public String implementation;
+
+	@Param({"10000"})
+	public int numOfGroups;
+
+	@Param({"8"})
+	public int concurrency;
+
+	private ExecutorService executorService;
+
+	private WorkExecutor workExecutor;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		// Works inherit subject of the submitting thread
+		org.apache.shiro.SecurityUtils.setSecurityManager(new DefaultSecurityManager());
+		executorService = Executors.newCachedThreadPool();
+		if (implementation.equals("synchronized"))
+			workExecutor = new SynchronizedWorkExecutor(executorService, () -> concurrency);
+		else
+			workExecutor = new DefaultWorkExecutor(executorService, () -> concurrency);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		executorService.shutdownNow();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH_SIZE)
+	public void submit(Blackhole blackhole) throws InterruptedException, ExecutionException {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		List<Future<Long>> futures = new ArrayList<>(BATCH_SIZE);
+		for (int i=0; i<BATCH_SIZE; i++) {
+			String groupId = String.valueOf(random.nextInt(numOfGroups));
+			futures.add(workExecutor.submit(groupId, new PrioritizedCallable<Long>(random.nextInt(10)) {
+
+				@Override
+				public Long call() {
+					Blackhole.consumeCPU(1000);
+					return System.nanoTime();
+				}
+
+			}));
+		}
+		for (Future<Long> future: futures)
+			blackhole.consume(future.get());
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder()
+				.include(WorkExecutorBenchmark.class.getSimpleName())
+				.build()).run();
+	}
+
+}
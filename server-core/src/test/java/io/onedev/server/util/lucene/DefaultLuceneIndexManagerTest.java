@@ -0,0 +1,87 @@
+package io.onedev.server.util.lucene;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import io.onedev.commons.utils.FileUtils;
+import io.onedev.server.util.schedule.TaskScheduler;
+
+public class DefaultLuceneIndexManagerTest {
+
+	private File indexDir;
+
+	private DefaultLuceneIndexManager indexManager;
+
+	@Before
+	public void before() {
+		indexDir = FileUtils.createTempDir();
+		indexManager = new DefaultLuceneIndexManager(mock(TaskScheduler.class));
+	}
+
+	@After
+	public void after() {
+		indexManager.close(indexDir);
+		FileUtils.deleteDir(indexDir);
+	}
+
+	private void addDocument(String id) {
+		indexManager.callWithWriter(indexDir, StandardAnalyzer::new, writer -> {
+			try {
+				writer.addDocument(newDocument(id));
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+			return null;
+		});
+	}
+
+	private Document newDocument(String id) {
+		var document = new Document();
+		document.add(new StringField("id", id, Field.Store.YES));
+		return document;
+	}
+
+	private int countDocuments() {
+		return indexManager.callWithSearcher(indexDir, searcher -> searcher.getIndexReader().numDocs());
+	}
+
+	@Test
+	public void shouldRollbackChangesIfWriterCallFails() {
+		addDocument("committed");
+		indexManager.commit(indexDir);
+		addDocument("uncommitted");
+		assertEquals(2, countDocuments());
+
+		try {
+			indexManager.callWithWriter(indexDir, StandardAnalyzer::new, writer -> {
+				try {
+					writer.addDocument(newDocument("partial"));
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				}
+				throw new IllegalStateException("failed");
+			});
+			fail();
+		} catch (IllegalStateException e) {
+		}
+
+		assertEquals(1, countDocuments());
+
+		// Writer should be reopened from last commit
+		addDocument("new");
+		assertEquals(2, countDocuments());
+	}
+
+}
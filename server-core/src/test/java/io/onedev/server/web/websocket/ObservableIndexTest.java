@@ -0,0 +1,43 @@
+package io.onedev.server.web.websocket;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.google.common.collect.Sets;
+
+public class ObservableIndexTest {
+
+	@Test
+	public void shouldMatchObservablesAndTheirPrefixes() {
+		ObservableIndex index = new ObservableIndex();
+		PageKey page1 = new PageKey("session1", 1);
+		PageKey page2 = new PageKey("session1", 2);
+		PageKey page3 = new PageKey("session2", 1);
+		index.register(page1, Sets.newHashSet("build:1"));
+		index.register(page2, Sets.newHashSet("build:1:status", "issue:list:1"));
+		index.register(page3, Sets.newHashSet("build:10"));
+
+		Map<PageKey, Set<String>> matches = index.match(Sets.newHashSet("build:1:status", "issue:list:1:5", "issue:list:12"), null);
+		assertEquals(2, matches.size());
+		assertEquals(Sets.newHashSet("build:1:status"), matches.get(page1));
+		assertEquals(Sets.newHashSet("build:1:status", "issue:list:1:5"), matches.get(page2));
+
+		matches = index.match(Sets.newHashSet("build:1"), page1);
+		assertTrue(matches.isEmpty());
+
+		index.register(page1, Sets.newHashSet("build:10"));
+		assertEquals(Sets.newHashSet(page1, page3), index.match(Sets.newHashSet("build:10"), null).keySet());
+		assertTrue(index.match(Sets.newHashSet("build:1"), null).isEmpty());
+
+		index.unregisterSession("session1");
+		assertNull(index.getObservables(page1));
+		assertEquals(Sets.newHashSet(page3), index.match(Sets.newHashSet("build:10", "build:1:status"), null).keySet());
+	}
+
+}
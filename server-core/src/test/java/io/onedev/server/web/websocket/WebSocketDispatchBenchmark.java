@@ -0,0 +1,111 @@
+package io.onedev.server.web.websocket;
+
+import static io.onedev.server.web.behavior.ChangeObserver.filterObservables;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Compares cost of finding pages interested in changed observables by scanning observables 
+ * of all connected pages, as was done previously, against looking up {@link ObservableIndex}. 
+ * Run with:
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=io.onedev.server.web.websocket.WebSocketDispatchBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class WebSocketDispatchBenchmark {
+
+	private static final int NUM_OF_PROJECTS = 500;
+	
+	private static final int NUM_OF_BUILDS = 50000;
+	
+	@Param({"20000"})
+	public int numOfConnections;
+	
+	private final Map<PageKey, Collection<String>> registrations = new HashMap<>();
+	
+	private final ObservableIndex index = new ObservableIndex();
+	
+	private final List<Collection<String>> changes = new ArrayList<>();
+	
+	private int changeIndex;
+	
+	@Setup
+	public void setup() {
+		Random random = new Random(0);
+		for (int i=0; i<numOfConnections; i++) {
+			PageKey pageKey = new PageKey("session" + i / 5, i % 5);
+			Long projectId = (long) random.nextInt(NUM_OF_PROJECTS);
+			List<String> observables = Lists.newArrayList(
+					"alert", 
+					"project:" + projectId + ":builds", 
+					"io.onedev.server.model.Issue:list:" + projectId);
+			for (int j=0; j<10; j++) 
+				observables.add("build:" + random.nextInt(NUM_OF_BUILDS));
+			registrations.put(pageKey, observables);
+			index.register(pageKey, observables);
+		}
+		for (int i=0; i<1000; i++) {
+			Long projectId = (long) random.nextInt(NUM_OF_PROJECTS);
+			changes.add(Lists.newArrayList(
+					"build:" + random.nextInt(NUM_OF_BUILDS), 
+					"job-status:" + projectId + ":" + random.nextInt(), 
+					"io.onedev.server.model.Issue:list:" + projectId + ":" + random.nextInt(1000)));
+		}
+	}
+	
+	private Collection<String> nextChange() {
+		return changes.get(changeIndex++ % changes.size());
+	}
+	
+	@Benchmark
+	public int scan() {
+		Collection<String> changedObservables = nextChange();
+		int numOfNotifications = 0;
+		for (Collection<String> registeredObservables: registrations.values()) {
+			if (!filterObservables(registeredObservables, changedObservables).isEmpty())
+				numOfNotifications++;
+		}
+		return numOfNotifications;
+	}
+	
+	@Benchmark
+	public int index() {
+		return index.match(nextChange(), null).size();
+	}
+	
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder()
+				.include(WebSocketDispatchBenchmark.class.getSimpleName())
+				.build()).run();
+	}
+	
+}
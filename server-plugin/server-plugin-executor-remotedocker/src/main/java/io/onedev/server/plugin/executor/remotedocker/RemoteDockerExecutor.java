@@ -146,7 +146,7 @@ public class RemoteDockerExecutor extends ServerDockerExecutor {
 		};
 
 		jobLogger.log("Pending resource allocation...");
-		getResourceAllocator().runAgentJob(
+		getResourceAllocator().runAgentJob(jobContext,
 				AgentQuery.parse(agentQuery, true), getName(), getConcurrencyNumber(),
 				jobContext.getServices().size()+1, runnable);
 	}
@@ -205,7 +205,7 @@ public class RemoteDockerExecutor extends ServerDockerExecutor {
 				}
 			};
 			
-			getResourceAllocator().runAgentJob(
+			getResourceAllocator().runAgentJob(null,
 					AgentQuery.parse(agentQuery, true), getName(), 
 					getConcurrencyNumber(), 1, runnable);
 		} finally {
@@ -137,7 +137,7 @@ public class RemoteShellExecutor extends ServerShellExecutor {
 		};
 
 		jobLogger.log("Pending resource allocation...");
-		getResourceAllocator().runAgentJob(AgentQuery.parse(agentQuery, true), getName(), 
+		getResourceAllocator().runAgentJob(jobContext, AgentQuery.parse(agentQuery, true), getName(), 
 				getConcurrencyNumber(), 1, runnable);
 	}
 	
@@ -204,7 +204,7 @@ public class RemoteShellExecutor extends ServerShellExecutor {
 				}
 			};
 
-			getResourceAllocator().runAgentJob(AgentQuery.parse(agentQuery, true), getName(),
+			getResourceAllocator().runAgentJob(null, AgentQuery.parse(agentQuery, true), getName(),
 					getConcurrencyNumber(), 1, runnable);
 		} finally {
 			getLogManager().removeJobLogger(jobToken);
@@ -605,7 +605,7 @@ public class ServerDockerExecutor extends JobExecutor implements DockerAware, Te
 			});
 		};
 		jobLogger.log("Pending resource allocation...");
-		getResourceAllocator().runServerJob(getName(), getConcurrencyNumber(),
+		getResourceAllocator().runServerJob(jobContext, getName(), getConcurrencyNumber(),
 				jobContext.getServices().size() + 1, runnable);
 	}
 
@@ -325,7 +325,7 @@ public class ServerShellExecutor extends JobExecutor implements Testable<TestDat
 			});			
 		};
 		jobLogger.log("Pending resource allocation...");
-		getResourceAllocator().runServerJob(getName(), getConcurrencyNumber(), 1, runnable);
+		getResourceAllocator().runServerJob(jobContext, getName(), getConcurrencyNumber(), 1, runnable);
 	}
 
 	@Override